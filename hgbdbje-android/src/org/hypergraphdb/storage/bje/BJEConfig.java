@@ -11,6 +11,8 @@ public class BJEConfig
 
 	private EnvironmentConfig envConfig;
 	private DatabaseConfig dbConfig;
+	private boolean groupCommit = true;
+	private boolean syncCommits = false;
 
 	private void resetDefaults(boolean readOnly)
 	{
@@ -49,6 +51,48 @@ public class BJEConfig
 		return dbConfig;
 	}
 
+	/**
+	 * Return <code>true</code> (the default) if concurrent commits share log writes,
+	 * see {@link GroupCommitTransactionBJEImpl}.
+	 */
+	public boolean isGroupCommit()
+	{
+		return groupCommit;
+	}
+
+	public void setGroupCommit(boolean groupCommit)
+	{
+		this.groupCommit = groupCommit;
+	}
+
+	/**
+	 * Return <code>true</code> if commits are synced to disk and <code>false</code> (the
+	 * default) if they are only written to the file system.
+	 */
+	public boolean isSyncCommits()
+	{
+		return syncCommits;
+	}
+
+	/**
+	 * Specify whether commits are synced to disk, which makes them survive an
+	 * operating system crash. This is expensive and group commits are the way to
+	 * share its cost among concurrent transactions. Must be set before the
+	 * database is opened.
+	 */
+	public void setSyncCommits(boolean syncCommits)
+	{
+		this.syncCommits = syncCommits;
+	}
+
+	Durability getCommitDurability()
+	{
+		return new Durability(
+				syncCommits ? Durability.SyncPolicy.SYNC : Durability.SyncPolicy.WRITE_NO_SYNC,
+				Durability.SyncPolicy.NO_SYNC, // unused by non-HA applications.
+				Durability.ReplicaAckPolicy.NONE); // unused by non-HA applications.
+	}
+
 	public void configureTransactional()
 	{
 		envConfig.setTransactional(true);
@@ -56,11 +100,6 @@ public class BJEConfig
 
 		// envConfig.setLockDetectMode(LockDetectMode.RANDOM);
 
-		Durability defaultDurability = new Durability(
-				Durability.SyncPolicy.WRITE_NO_SYNC,
-				Durability.SyncPolicy.NO_SYNC, // unused by non-HA applications.
-				Durability.ReplicaAckPolicy.NONE); // unused by non-HA
-													// applications.
-		envConfig.setDurability(defaultDurability);
+		envConfig.setDurability(getCommitDurability());
 	}
 }
\ No newline at end of file
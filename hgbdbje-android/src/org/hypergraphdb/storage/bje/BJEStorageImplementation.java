@@ -2,9 +2,11 @@ package org.hypergraphdb.storage.bje;
 
 import java.io.File;
 
+import java.util.Arrays;
 import java.util.Comparator;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.Map;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 import org.hypergraphdb.HGConfiguration;
@@ -18,6 +20,10 @@ import org.hypergraphdb.HGStore;
 import org.hypergraphdb.storage.BAtoHandle;
 import org.hypergraphdb.storage.ByteArrayConverter;
 import org.hypergraphdb.storage.HGStoreImplementation;
+import org.hypergraphdb.storage.HGWriteBatch;
+import org.hypergraphdb.storage.IncidenceBuffer;
+import org.hypergraphdb.storage.LinkVisitor;
+import org.hypergraphdb.storage.PackedHandleArray;
 import org.hypergraphdb.transaction.HGStorageTransaction;
 import org.hypergraphdb.transaction.HGTransaction;
 import org.hypergraphdb.transaction.HGTransactionConfig;
@@ -33,7 +39,8 @@ import com.sleepycat.je.Database;
 import com.sleepycat.je.DatabaseConfig;
 import com.sleepycat.je.DatabaseEntry;
 import com.sleepycat.je.DatabaseException;
-import com.sleepycat.je.Durability;
+import com.sleepycat.je.DiskOrderedCursor;
+import com.sleepycat.je.DiskOrderedCursorConfig;
 import com.sleepycat.je.Environment;
 import com.sleepycat.je.EnvironmentConfig;
 import com.sleepycat.je.LockConflictException;
@@ -43,9 +50,9 @@ import com.sleepycat.je.Transaction;
 import com.sleepycat.je.TransactionConfig;
 
 public class BJEStorageImplementation implements HGStoreImplementation {
-	private static final String DATA_DB_NAME = "datadb";
-	private static final String PRIMITIVE_DB_NAME = "primitivedb";
-	private static final String INCIDENCE_DB_NAME = "incidencedb";
+	public static final String DATA_DB_NAME = "datadb";
+	public static final String PRIMITIVE_DB_NAME = "primitivedb";
+	public static final String INCIDENCE_DB_NAME = "incidencedb";
 
 	private BJEConfig configuration;
 	private HGStore store;
@@ -231,7 +238,7 @@ public class BJEStorageImplementation implements HGStoreImplementation {
 	public HGPersistentHandle store(HGPersistentHandle handle, HGPersistentHandle[] link) {
 		DatabaseEntry key = new DatabaseEntry(handle.toByteArray());
 		DatabaseEntry value = new DatabaseEntry();
-		linkBinding.objectToEntry(link, value);
+		linkBinding.toEntry(link, value);
 		
 		try {
 			OperationStatus result = data_db.put(txn().getBJETransaction(), key, value);
@@ -356,6 +363,67 @@ public class BJEStorageImplementation implements HGStoreImplementation {
 		}
 	}
 
+	public void getIncidenceSet(HGPersistentHandle handle, PackedHandleArray result) {
+		if (handle == null)
+			throw new NullPointerException("HGStore.getIncidenceSet called with a null handle.");
+
+		result.clear();
+		Cursor cursor = null;
+		try {
+			DatabaseEntry key = new DatabaseEntry(handle.toByteArray());
+			DatabaseEntry value = new DatabaseEntry();
+			cursor = incidence_db.openCursor(txn().getBJETransaction(), cursorConfig);
+			OperationStatus status = cursor.getSearchKey(key, value, LockMode.DEFAULT);
+			while (status == OperationStatus.SUCCESS) {
+				result.append(value.getData(), value.getOffset());
+				status = cursor.getNextDup(key, value, LockMode.DEFAULT);
+			}
+		}
+		catch (Exception ex) {
+			throw new HGException("Failed to retrieve incidence set for handle " + handle + ": " + ex.toString(),
+					ex);
+		}
+		finally {
+			if (cursor != null)
+				try {
+					cursor.close();
+				}
+				catch (Throwable t) {
+				}
+		}
+	}
+
+	public void getIncidenceSets(HGPersistentHandle[] handles, PackedHandleArray[] result) {
+		Cursor cursor = null;
+		int i = 0;
+		try {
+			DatabaseEntry key = new DatabaseEntry();
+			DatabaseEntry value = new DatabaseEntry();
+			cursor = incidence_db.openCursor(txn().getBJETransaction(), cursorConfig);
+			for (; i < handles.length; i++) {
+				result[i].clear();
+				key.setData(handles[i].toByteArray());
+				OperationStatus status = cursor.getSearchKey(key, value, LockMode.DEFAULT);
+				while (status == OperationStatus.SUCCESS) {
+					result[i].append(value.getData(), value.getOffset());
+					status = cursor.getNextDup(key, value, LockMode.DEFAULT);
+				}
+			}
+		}
+		catch (Exception ex) {
+			throw new HGException("Failed to retrieve incidence set for handle " + handles[i] + ": " + ex.toString(),
+					ex);
+		}
+		finally {
+			if (cursor != null)
+				try {
+					cursor.close();
+				}
+				catch (Throwable t) {
+				}
+		}
+	}
+
 	public long getIncidenceSetCardinality(HGPersistentHandle handle) {
 		if (handle == null)
 			throw new NullPointerException("HGStore.getIncidenceSetCardinality called with a null handle.");
@@ -384,6 +452,90 @@ public class BJEStorageImplementation implements HGStoreImplementation {
 		}
 	}
 
+	public boolean getLink(HGPersistentHandle handle, PackedHandleArray result) {
+		try {
+			DatabaseEntry key = new DatabaseEntry(handle.toByteArray());
+			DatabaseEntry value = new DatabaseEntry();
+			if (data_db.get(txn().getBJETransaction(), key, value, LockMode.DEFAULT) == OperationStatus.SUCCESS) {
+				linkBinding.readPacked(value, result);
+				return true;
+			}
+			else {
+				result.clear();
+				return false;
+			}
+		}
+		catch (HGException ex) {
+			throw ex;
+		}
+		catch (Exception ex) {
+			throw new HGException("Failed to retrieve link with handle " + handle, ex);
+		}
+	}
+
+	public void getLinks(HGPersistentHandle[] handles, PackedHandleArray[] result) {
+		Cursor cursor = null;
+		int i = 0;
+		try {
+			DatabaseEntry key = new DatabaseEntry();
+			cursor = data_db.openCursor(txn().getBJETransaction(), cursorConfig);
+			for (; i < handles.length; i++) {
+				// a new entry each time since the result wraps the data it reads
+				DatabaseEntry value = new DatabaseEntry();
+				key.setData(handles[i].toByteArray());
+				if (cursor.getSearchKey(key, value, LockMode.DEFAULT) == OperationStatus.SUCCESS)
+					linkBinding.readPacked(value, result[i]);
+				else
+					result[i].clear();
+			}
+		}
+		catch (HGException ex) {
+			throw ex;
+		}
+		catch (Exception ex) {
+			throw new HGException("Failed to retrieve link with handle " + handles[i], ex);
+		}
+		finally {
+			if (cursor != null)
+				try {
+					cursor.close();
+				}
+				catch (Throwable t) {
+				}
+		}
+	}
+
+	public void scanLinks(LinkVisitor visitor) {
+		DiskOrderedCursor cursor = null;
+		try {
+			DatabaseEntry key = new DatabaseEntry();
+			DatabaseEntry value = new DatabaseEntry();
+			PackedHandleArray handle = new PackedHandleArray(handleFactory);
+			PackedHandleArray link = new PackedHandleArray(handleFactory);
+			// records come in log order, which spares a random read of each one
+			cursor = data_db.openCursor(new DiskOrderedCursorConfig());
+			while (cursor.getNext(key, value, null) == OperationStatus.SUCCESS) {
+				handle.wrap(key.getData(), key.getOffset(), key.getSize());
+				linkBinding.readPacked(value, link);
+				visitor.visit(handle, link);
+			}
+		}
+		catch (HGException ex) {
+			throw ex;
+		}
+		catch (Exception ex) {
+			throw new HGException("Failed to scan links.", ex);
+		}
+		finally {
+			if (cursor != null)
+				try {
+					cursor.close();
+				}
+				catch (Throwable t) {
+				}
+		}
+	}
+
 	public HGPersistentHandle[] getLink(HGPersistentHandle handle) {
 		try {
 			DatabaseEntry key = new DatabaseEntry(handle.toByteArray());
@@ -405,11 +557,7 @@ public class BJEStorageImplementation implements HGStoreImplementation {
 				try {
 					TransactionConfig tconfig = new TransactionConfig();
 
-					Durability tDurability =
-							new Durability(Durability.SyncPolicy.WRITE_NO_SYNC, 
-									Durability.SyncPolicy.NO_SYNC, // unused by non-HA applications. 
-									Durability.ReplicaAckPolicy.NONE); // unused by non-HA applications.  
-					tconfig.setDurability(tDurability);
+					tconfig.setDurability(configuration.getCommitDurability());
 					
 					Transaction tx = null;
 					
@@ -422,6 +570,8 @@ public class BJEStorageImplementation implements HGStoreImplementation {
 					else {
 						tx = env.beginTransaction(null, tconfig);
 					}
+					if (configuration.isGroupCommit())
+						return new GroupCommitTransactionBJEImpl(tx, env, configuration.isSyncCommits());
 					return new TransactionBJEImpl(tx, env);
 				}
 				catch (DatabaseException ex) {
@@ -477,6 +627,118 @@ public class BJEStorageImplementation implements HGStoreImplementation {
 		}
 	}
 
+	/**
+	 * Unsigned lexicographic order of <code>byte[]</code> keys, the default BTree ordering in JE. Records 
+	 * sorted this way are inserted left to right in the BTree so consecutive puts hit the same bottom 
+	 * internal nodes.
+	 */
+	static final Comparator<byte[][]> KEY_ORDER = new Comparator<byte[][]>() {
+		public int compare(byte[][] left, byte[][] right) {
+			int c = compareUnsigned(left[0], right[0]);
+			return c != 0 ? c : compareUnsigned(left[1], right[1]);
+		}
+	};
+
+	static int compareUnsigned(byte[] left, byte[] right) {
+		int n = Math.min(left.length, right.length);
+		for (int i = 0; i < n; i++) {
+			int c = (left[i] & 0xFF) - (right[i] & 0xFF);
+			if (c != 0)
+				return c;
+		}
+		return left.length - right.length;
+	}
+
+	private void putSorted(Cursor cursor, byte[][][] records) throws Exception {
+		Arrays.sort(records, KEY_ORDER);
+		DatabaseEntry key = new DatabaseEntry();
+		DatabaseEntry value = new DatabaseEntry();
+		for (byte[][] record : records) {
+			key.setData(record[0]);
+			value.setData(record[1]);
+			OperationStatus result = cursor.put(key, value);
+			if (result != OperationStatus.SUCCESS)
+				throw new Exception("OperationStatus: " + result);
+		}
+	}
+
+	/**
+	 * Write incidence entries in (target, link) order straight out of the packed buffer, so that the 
+	 * duplicate sets of consecutive targets are filled sequentially.
+	 */
+	private void putSorted(Cursor cursor, IncidenceBuffer incidence) throws Exception {
+		incidence.sort();
+		byte[] buffer = incidence.getBuffer();
+		int handleSize = incidence.getHandleSize();
+		DatabaseEntry key = new DatabaseEntry();
+		DatabaseEntry value = new DatabaseEntry();
+		for (int i = 0; i < incidence.size(); i++) {
+			int offset = i * incidence.getRecordSize();
+			key.setData(buffer, offset, handleSize);
+			value.setData(buffer, offset + handleSize, handleSize);
+			OperationStatus result = cursor.putNoDupData(key, value);
+			if (result != OperationStatus.SUCCESS && result != OperationStatus.KEYEXIST)
+				throw new Exception("OperationStatus: " + result);
+		}
+	}
+
+	public void storeBatch(HGWriteBatch batch) {
+		byte[][][] links = new byte[batch.getLinks().size()][][];
+		int i = 0;
+		for (Map.Entry<HGPersistentHandle, HGPersistentHandle[]> e : batch.getLinks().entrySet()) {
+			links[i++] = new byte[][] { e.getKey().toByteArray(), linkBinding.toBytes(e.getValue()) };
+		}
+		byte[][][] data = new byte[batch.getData().size()][][];
+		i = 0;
+		for (Map.Entry<HGPersistentHandle, byte[]> e : batch.getData().entrySet())
+			data[i++] = new byte[][] { e.getKey().toByteArray(), e.getValue() };
+		IncidenceBuffer incidence = batch.getIncidenceLinks();
+
+		// Without an enclosing HyperGraph transaction, the whole batch goes into a single JE transaction.
+		Transaction tx = txn().getBJETransaction();
+		boolean ownTransaction = tx == null && env.getConfig().getTransactional();
+		Cursor cursor = null;
+		try {
+			if (ownTransaction)
+				tx = env.beginTransaction(null, null);
+			if (links.length > 0) {
+				cursor = data_db.openCursor(tx, cursorConfig);
+				putSorted(cursor, links);
+				cursor.close();
+				cursor = null;
+			}
+			if (data.length > 0) {
+				cursor = primitive_db.openCursor(tx, cursorConfig);
+				putSorted(cursor, data);
+				cursor.close();
+				cursor = null;
+			}
+			if (incidence != null && !incidence.isEmpty()) {
+				cursor = incidence_db.openCursor(tx, cursorConfig);
+				putSorted(cursor, incidence);
+				cursor.close();
+				cursor = null;
+			}
+			if (ownTransaction)
+				tx.commit();
+		}
+		catch (Exception ex) {
+			if (cursor != null)
+				try {
+					cursor.close();
+				}
+				catch (Throwable t) {
+				}
+			if (ownTransaction && tx != null)
+				try {
+					tx.abort();
+				}
+				catch (Throwable t) {
+				}
+			throw new HGException("Failed to store write batch: " + ex.toString(), ex);
+		}
+	}
+
 	public void removeIncidenceSet(HGPersistentHandle handle) {
 		try {
 			DatabaseEntry key = new DatabaseEntry(handle.toByteArray());
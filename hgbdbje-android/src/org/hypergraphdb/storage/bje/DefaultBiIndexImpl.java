@@ -96,6 +96,7 @@ public class DefaultBiIndexImpl<KeyType, ValueType> extends DefaultIndexImpl<Key
 
 	public void addEntry(KeyType key, ValueType value) {
 		checkOpen();
+		checkWritable();
 		DatabaseEntry dbkey = new DatabaseEntry(keyConverter.toByteArray(key));
 		DatabaseEntry dbvalue = new DatabaseEntry(valueConverter.toByteArray(value));
 		
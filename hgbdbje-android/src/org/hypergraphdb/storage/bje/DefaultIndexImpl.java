@@ -17,9 +17,9 @@ import org.hypergraphdb.storage.ByteArrayConverter;
 import org.hypergraphdb.storage.SearchResultWrapper;
 import org.hypergraphdb.transaction.HGTransaction;
 import org.hypergraphdb.transaction.HGTransactionManager;
+import org.hypergraphdb.transaction.TransactionIsReadonlyException;
 import org.hypergraphdb.transaction.VanillaTransaction;
 
-import com.sleepycat.je.BtreeStats;
 import com.sleepycat.je.Cursor;
 import com.sleepycat.je.CursorConfig;
 import com.sleepycat.je.Database;
@@ -70,6 +70,13 @@ public class DefaultIndexImpl<KeyType, ValueType> implements HGSortIndex<KeyType
 			return (TransactionBJEImpl)tx.getStorageTransaction();
 	}
 
+	// Writes in a snapshot transaction would be committed right away, outside of it.
+	protected void checkWritable() {
+		HGTransaction tx = transactionManager.getContext().getCurrent();
+		if (tx != null && tx.isSnapshot())
+			throw new TransactionIsReadonlyException();
+	}
+
 	//    public DefaultIndexImpl(Environment env,
 	//    						Database db,
 	//							HGTransactionManager transactionManager,
@@ -109,6 +116,10 @@ public class DefaultIndexImpl<KeyType, ValueType> implements HGSortIndex<KeyType
 		return DB_NAME_PREFIX + name;
 	}
 
+	public String toString() {
+		return getClass().getSimpleName() + "[" + name + "]";
+	}
+
 	public Comparator<byte[]> getComparator() {
 		try {
 			if (comparator != null) {
@@ -231,6 +242,7 @@ public class DefaultIndexImpl<KeyType, ValueType> implements HGSortIndex<KeyType
 
 	public void addEntry(KeyType key, ValueType value) {
 		checkOpen();
+		checkWritable();
 		DatabaseEntry dbkey = new DatabaseEntry(keyConverter.toByteArray(key));
 		DatabaseEntry dbvalue = new DatabaseEntry(valueConverter.toByteArray(value));
 		
@@ -246,6 +258,7 @@ public class DefaultIndexImpl<KeyType, ValueType> implements HGSortIndex<KeyType
 
 	public void removeEntry(KeyType key, ValueType value) {
 		checkOpen();
+		checkWritable();
 		DatabaseEntry keyEntry = new DatabaseEntry(keyConverter.toByteArray(key));
 		DatabaseEntry valueEntry = new DatabaseEntry(valueConverter.toByteArray(value));
 		Cursor cursor = null;
@@ -271,6 +284,7 @@ public class DefaultIndexImpl<KeyType, ValueType> implements HGSortIndex<KeyType
 
 	public void removeAllEntries(KeyType key) {
 		checkOpen();
+		checkWritable();
 		DatabaseEntry dbkey = new DatabaseEntry(keyConverter.toByteArray(key));
 		
 		try {
@@ -509,7 +523,9 @@ public class DefaultIndexImpl<KeyType, ValueType> implements HGSortIndex<KeyType
 
 	public long count() {
 		try {
-			return ((BtreeStats)db.getStats(null)).getLeafNodeCount();
+			// the number of records, the leaf node count of the btree statistics
+			// does not include duplicates
+			return db.count();
 		}
 		catch (DatabaseException ex) {
 			throw new HGException(ex);
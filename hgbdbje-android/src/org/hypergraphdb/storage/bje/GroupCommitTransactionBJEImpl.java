@@ -0,0 +1,57 @@
+/*
+ * This file is part of the HyperGraphDB source distribution. This is copyrighted software. For permitted
+ * uses, licensing options and redistribution, please see the LicensingInformation file at the root level of
+ * the distribution.
+ * 
+ * Copyright (c) 2005-2010 Kobrix Software, Inc. All rights reserved.
+ */
+package org.hypergraphdb.storage.bje;
+
+import org.hypergraphdb.transaction.HGGroupCommitTransaction;
+import org.hypergraphdb.transaction.HGTransactionException;
+
+import com.sleepycat.je.DatabaseException;
+import com.sleepycat.je.Durability;
+import com.sleepycat.je.Environment;
+import com.sleepycat.je.Transaction;
+
+/**
+ * <p>
+ * A JE transaction taking part in group commits: <code>commitNoSync</code> only puts the
+ * commit record in the JE log buffer and <code>flushLog</code> writes the log buffer out,
+ * and syncs it to disk if <code>BJEConfig.isSyncCommits</code>, once for all transactions
+ * committed since the previous flush.
+ * </p>
+ */
+public class GroupCommitTransactionBJEImpl extends TransactionBJEImpl implements HGGroupCommitTransaction {
+	private static final Durability NO_SYNC = new Durability(Durability.SyncPolicy.NO_SYNC,
+			Durability.SyncPolicy.NO_SYNC, // unused by non-HA applications.
+			Durability.ReplicaAckPolicy.NONE); // unused by non-HA applications.
+
+	private boolean sync;
+
+	public GroupCommitTransactionBJEImpl(Transaction t, Environment env, boolean sync) {
+		super(t, env);
+		this.sync = sync;
+	}
+
+	public void commitNoSync() throws HGTransactionException {
+		try {
+			closeCursors();
+			if (getBJETransaction() != null)
+				getBJETransaction().commit(NO_SYNC);
+		}
+		catch (DatabaseException ex) {
+			throw new HGTransactionException("Failed to commit transaction", ex);
+		}
+	}
+
+	public void flushLog() throws HGTransactionException {
+		try {
+			getBJEEnvironment().flushLog(sync);
+		}
+		catch (DatabaseException ex) {
+			throw new HGTransactionException("Failed to flush the transaction log", ex);
+		}
+	}
+}
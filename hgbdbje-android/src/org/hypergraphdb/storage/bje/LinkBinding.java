@@ -12,10 +12,12 @@ import org.hypergraphdb.HGException;
 import org.hypergraphdb.HGHandleFactory;
 import org.hypergraphdb.HGPersistentHandle;
 import org.hypergraphdb.HyperGraph;
+import org.hypergraphdb.storage.PackedHandleArray;
 
 import com.sleepycat.bind.tuple.TupleBinding;
 import com.sleepycat.bind.tuple.TupleInput;
 import com.sleepycat.bind.tuple.TupleOutput;
+import com.sleepycat.je.DatabaseEntry;
 
 /**
  * <p>
@@ -49,6 +51,30 @@ public class LinkBinding extends TupleBinding<HGPersistentHandle[]> {
 		return handles;
 	}
 
+	/**
+	 * Point <code>result</code> to the handles stored in <code>entry</code>, without copying or decoding them.
+	 */
+	public void readPacked(DatabaseEntry entry, PackedHandleArray result) {
+		if (entry.getSize() % handleSize != 0)
+			throw new HGException(
+					"While reading link tuple: the value buffer size is not a multiple of the handle size.");
+		result.wrap(entry.getData(), entry.getOffset(), entry.getSize());
+	}
+
+	/**
+	 * Return the storage form of a link: its handles packed in a <code>byte[]</code> of exactly the right size.
+	 */
+	public byte[] toBytes(HGPersistentHandle[] link) {
+		return PackedHandleArray.pack(link, handleSize);
+	}
+
+	/**
+	 * Same as <code>objectToEntry(link, entry)</code>, but without the intermediate tuple buffer.
+	 */
+	public void toEntry(HGPersistentHandle[] link, DatabaseEntry entry) {
+		entry.setData(toBytes(link));
+	}
+
 	public HGPersistentHandle[] entryToObject(TupleInput input) {
 		int size = input.getBufferLength() - input.getBufferOffset();
 		if (size % handleSize != 0) {
@@ -56,17 +82,17 @@ public class LinkBinding extends TupleBinding<HGPersistentHandle[]> {
 					"While reading link tuple: the value buffer size is not a multiple of the handle size.");
 		}
 		else {
-			return readHandles(input.getBufferBytes(), 0, size);
+			return readHandles(input.getBufferBytes(), input.getBufferOffset(), size);
 		}
 	}
 
 	public void objectToEntry(HGPersistentHandle[] link, TupleOutput output) {
-		//HGPersistentHandle[] link = (HGPersistentHandle[])x;
-		byte[] buffer = new byte[link.length * handleSize];
-		for (int i = 0; i < link.length; i++) {
-			HGPersistentHandle handle = (HGPersistentHandle)link[i];
-			System.arraycopy(handle.toByteArray(), 0, buffer, i * handleSize, handleSize);
-		}
-		output.writeFast(buffer);
+		int size = link.length * handleSize;
+		output.makeSpace(size);
+		byte[] buffer = output.getBufferBytes();
+		int offset = output.getBufferLength();
+		for (int i = 0; i < link.length; i++)
+			PackedHandleArray.writeHandle(link[i], buffer, offset + i * handleSize, handleSize);
+		output.addSize(size);
 	}
 }
\ No newline at end of file
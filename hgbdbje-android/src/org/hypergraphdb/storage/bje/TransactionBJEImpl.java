@@ -41,11 +41,15 @@ public class TransactionBJEImpl implements HGStorageTransaction {
 		return t;
 	}
 
+	protected void closeCursors() {
+		Set<BJETxCursor> S = new HashSet<BJETxCursor>(bdbCursors);
+		for (BJETxCursor c : S)
+			c.close();
+	}
+
 	public void commit() throws HGTransactionException {
 		try {
-			Set<BJETxCursor> S = new HashSet<BJETxCursor>(bdbCursors);
-			for (BJETxCursor c : S)
-				c.close();
+			closeCursors();
 			if (t != null)
 				t.commit();
 		}
@@ -0,0 +1,107 @@
+/*
+ * This file is part of the HyperGraphDB source distribution. This is copyrighted software. For permitted
+ * uses, licensing options and redistribution, please see the LicensingInformation file at the root level of
+ * the distribution.
+ *
+ * Copyright (c) 2005-2010 Kobrix Software, Inc. All rights reserved.
+ */
+package org.hypergraphdb.storage.bje.bulk;
+
+import org.hypergraphdb.HGPersistentHandle;
+import org.hypergraphdb.HGSystemFlags;
+import org.hypergraphdb.HyperGraph;
+
+/**
+ * <p>
+ * A single atom as fed to the {@link BulkLoader}, described at the storage layout level: the handle of its
+ * type, its value and, for links, its target handles.
+ * </p>
+ * 
+ * <p>
+ * The value is either a handle to a value that already exists in storage (shared values, or <code>null</code>
+ * values represented by the null handle) or a raw <code>byte[]</code> that the loader stores in the
+ * primitive database under a freshly made handle. In the latter case the bytes must be exactly what the
+ * atom's type expects to find when it calls <code>HGStore.getData</code> on the value handle - the loader
+ * does not interpret them.
+ * </p>
+ */
+public class BulkAtom {
+	private HGPersistentHandle handle;
+	private HGPersistentHandle type;
+	private HGPersistentHandle valueHandle;
+	private byte[] value;
+	private HGPersistentHandle[] targets = HyperGraph.EMPTY_PERSISTENT_HANDLE_SET;
+	private byte flags = HGSystemFlags.DEFAULT;
+
+	public BulkAtom() {
+	}
+
+	/**
+	 * @param type The handle of the atom type.
+	 * @param value The raw value data.
+	 * @param targets The target set, empty for a node.
+	 */
+	public BulkAtom(HGPersistentHandle type, byte[] value, HGPersistentHandle... targets) {
+		this.type = type;
+		this.value = value;
+		this.targets = targets;
+	}
+
+	/**
+	 * The atom handle or <code>null</code> if the loader should make one. Sources that need to refer to an
+	 * atom from later links should create the handle themselves with {@link BulkLoader#getHandleFactory()}.
+	 */
+	public HGPersistentHandle getHandle() {
+		return handle;
+	}
+
+	public void setHandle(HGPersistentHandle handle) {
+		this.handle = handle;
+	}
+
+	public HGPersistentHandle getType() {
+		return type;
+	}
+
+	public void setType(HGPersistentHandle type) {
+		this.type = type;
+	}
+
+	/**
+	 * The handle of an existing value or <code>null</code> if the value is given as raw data.
+	 */
+	public HGPersistentHandle getValueHandle() {
+		return valueHandle;
+	}
+
+	public void setValueHandle(HGPersistentHandle valueHandle) {
+		this.valueHandle = valueHandle;
+	}
+
+	public byte[] getValue() {
+		return value;
+	}
+
+	public void setValue(byte[] value) {
+		this.value = value;
+	}
+
+	public HGPersistentHandle[] getTargets() {
+		return targets;
+	}
+
+	public void setTargets(HGPersistentHandle[] targets) {
+		this.targets = targets == null ? HyperGraph.EMPTY_PERSISTENT_HANDLE_SET : targets;
+	}
+
+	/**
+	 * The system flags of the atom, as defined in {@link HGSystemFlags}, recorded in its system attributes.
+	 */
+	public byte getFlags() {
+		return flags;
+	}
+
+	public void setFlags(byte flags) {
+		this.flags = flags;
+	}
+}
@@ -0,0 +1,27 @@
+/*
+ * This file is part of the HyperGraphDB source distribution. This is copyrighted software. For permitted
+ * uses, licensing options and redistribution, please see the LicensingInformation file at the root level of
+ * the distribution.
+ *
+ * Copyright (c) 2005-2010 Kobrix Software, Inc. All rights reserved.
+ */
+package org.hypergraphdb.storage.bje.bulk;
+
+/**
+ * <p>
+ * A stream of {@link BulkAtom}s to be loaded by a {@link BulkLoader}. Atoms are pulled one at a time so
+ * that sources can read from arbitrarily large files.
+ * </p>
+ */
+public interface BulkAtomSource {
+	/**
+	 * Return the next atom or <code>null</code> when the source is exhausted. The loader does not keep a
+	 * reference to the returned object so a source may reuse the same instance.
+	 */
+	BulkAtom next() throws Exception;
+
+	/**
+	 * Release any resources held by the source. Called by the loader once it is done reading.
+	 */
+	void close();
+}
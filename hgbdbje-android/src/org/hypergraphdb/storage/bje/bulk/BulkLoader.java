@@ -0,0 +1,285 @@
+/*
+ * This file is part of the HyperGraphDB source distribution. This is copyrighted software. For permitted
+ * uses, licensing options and redistribution, please see the LicensingInformation file at the root level of
+ * the distribution.
+ *
+ * Copyright (c) 2005-2010 Kobrix Software, Inc. All rights reserved.
+ */
+package org.hypergraphdb.storage.bje.bulk;
+
+import java.io.File;
+
+import org.hypergraphdb.HGConfiguration;
+import org.hypergraphdb.HGEnvironment;
+import org.hypergraphdb.HGException;
+import org.hypergraphdb.HGHandleFactory;
+import org.hypergraphdb.HGPersistentHandle;
+import org.hypergraphdb.HyperGraph;
+import org.hypergraphdb.storage.bje.BJEConfig;
+import org.hypergraphdb.storage.bje.BJEStorageImplementation;
+import org.hypergraphdb.storage.bje.DefaultIndexImpl;
+
+import com.sleepycat.je.Cursor;
+import com.sleepycat.je.Database;
+import com.sleepycat.je.DatabaseConfig;
+import com.sleepycat.je.DatabaseEntry;
+import com.sleepycat.je.Environment;
+import com.sleepycat.je.EnvironmentConfig;
+import com.sleepycat.je.OperationStatus;
+
+/**
+ * <p>
+ * An offline loader that builds the BerkeleyDB JE databases of a HyperGraph instance directly from a
+ * stream of {@link BulkAtom}s, bypassing the transactional <code>HyperGraph.add</code> path. Every record
+ * that the regular path would write - the atom layout in the data database, raw values in the primitive
+ * database, incidence set entries, the type and value indices and the system attributes - is first
+ * collected in an external sorter per database. Once the source is exhausted the sorted runs are merged and
+ * appended in key order to the databases, opened non-transactionally in deferred-write mode with the
+ * checkpointer and the cleaner turned off. Key ordered appends keep the B-tree nodes dense and avoid the
+ * random I/O and locking that dominate when millions of atoms go through transactions.
+ * </p>
+ * 
+ * <p>
+ * The loader must have exclusive access to the database location: the database must not be open in this
+ * or any other process while loading. If there is no database at the location yet, one is created and the
+ * type system bootstrapped by opening and closing a <code>HyperGraph</code> with the given configuration,
+ * so that the type handles of predefined types are valid in the loaded atoms. After loading, the
+ * database is opened as usual with <code>HGEnvironment.get</code> and the {@link BJEStorageImplementation}.
+ * </p>
+ * 
+ * <p>
+ * Atom values are not interpreted by the loader: a {@link BulkAtom} carries either a handle to an existing
+ * value or the raw bytes its type would have stored, and custom indices registered with the
+ * <code>HGIndexManager</code> are not populated. Atoms loaded this way should therefore be of types with a
+ * simple storage layout (e.g. primitive types storing their bytes under the value handle) or the value
+ * records should be produced with the type's own serialization ahead of time.
+ * </p>
+ */
+public class BulkLoader {
+	/**
+	 * The default number of bytes all external sorters together hold in memory before spilling to disk.
+	 */
+	public static final int DEFAULT_MEMORY_BUDGET = 64 * 1024 * 1024;
+
+	private static final int SORTER_COUNT = 6;
+
+	private String location;
+	private HGConfiguration config;
+	private HGHandleFactory handleFactory;
+	private File tmpDir;
+	private int memoryBudget = DEFAULT_MEMORY_BUDGET;
+	private EnvironmentConfig envConfig;
+
+	/**
+	 * @param location The filesystem location of the database to load into.
+	 * @param config The configuration with which the database is (or will be) opened. Its handle factory is
+	 *            used to make new handles and to determine the handle size.
+	 */
+	public BulkLoader(String location, HGConfiguration config) {
+		this.location = location;
+		this.config = config;
+		this.handleFactory = config.getHandleFactory();
+		this.tmpDir = new File(System.getProperty("java.io.tmpdir"));
+		this.envConfig = new BJEConfig().getEnvironmentConfig();
+	}
+
+	/**
+	 * The handle factory to use when creating handles of atoms that must be referred to by other atoms in
+	 * the same load.
+	 */
+	public HGHandleFactory getHandleFactory() {
+		return handleFactory;
+	}
+
+	public File getTmpDir() {
+		return tmpDir;
+	}
+
+	/**
+	 * Set the directory where the sorted runs are spilled. It should have enough free space to hold roughly
+	 * the size of the loaded data.
+	 */
+	public void setTmpDir(File tmpDir) {
+		this.tmpDir = tmpDir;
+	}
+
+	public int getMemoryBudget() {
+		return memoryBudget;
+	}
+
+	/**
+	 * Set the total number of bytes used for in-memory sorting, shared among all databases.
+	 */
+	public void setMemoryBudget(int memoryBudget) {
+		if (memoryBudget < SORTER_COUNT * 1024)
+			throw new IllegalArgumentException("Bulk loader memory budget is too small: " + memoryBudget);
+		this.memoryBudget = memoryBudget;
+	}
+
+	/**
+	 * The JE environment configuration used while writing, for example to adjust the cache size. The
+	 * loader overrides its transactional, locking, checkpointer and cleaner settings.
+	 */
+	public EnvironmentConfig getEnvironmentConfig() {
+		return envConfig;
+	}
+
+	/**
+	 * Load all atoms from <code>source</code> and close it. Return the number of atoms loaded.
+	 */
+	public long load(BulkAtomSource source) {
+		if (HGEnvironment.isOpen(location))
+			throw new HGException("Can't bulk load into " + location + " while the database is open.");
+		if (!HGEnvironment.exists(location))
+			bootstrap();
+
+		int share = memoryBudget / SORTER_COUNT;
+		ExternalSorter data = new ExternalSorter(BJEStorageImplementation.DATA_DB_NAME, tmpDir, share);
+		ExternalSorter primitive = new ExternalSorter(BJEStorageImplementation.PRIMITIVE_DB_NAME, tmpDir, share);
+		ExternalSorter incidence = new ExternalSorter(BJEStorageImplementation.INCIDENCE_DB_NAME, tmpDir, share);
+		ExternalSorter types = new ExternalSorter(HyperGraph.TYPES_INDEX_NAME, tmpDir, share);
+		ExternalSorter values = new ExternalSorter(HyperGraph.VALUES_INDEX_NAME, tmpDir, share);
+		ExternalSorter attribs = config.isUseSystemAtomAttributes() ? new ExternalSorter(HyperGraph.SA_DB_NAME,
+				tmpDir, share) : null;
+		long atomCount = 0;
+		try {
+			long now = System.currentTimeMillis();
+			try {
+				for (BulkAtom atom = source.next(); atom != null; atom = source.next()) {
+					byte[] handle = (atom.getHandle() == null ? handleFactory.makeHandle() : atom.getHandle())
+							.toByteArray();
+					if (atom.getType() == null)
+						throw new HGException("Bulk loaded atom without a type: " + atom.getHandle());
+					byte[] type = atom.getType().toByteArray();
+					HGPersistentHandle valueHandle = atom.getValueHandle();
+					if (valueHandle == null) {
+						if (atom.getValue() == null)
+							valueHandle = handleFactory.nullHandle();
+						else {
+							valueHandle = handleFactory.makeHandle();
+							primitive.add(valueHandle.toByteArray(), atom.getValue());
+						}
+					}
+					byte[] value = valueHandle.toByteArray();
+					HGPersistentHandle[] targets = atom.getTargets();
+					data.add(handle, layout(type, value, targets));
+					types.add(type, handle);
+					values.add(value, handle);
+					for (HGPersistentHandle target : targets)
+						incidence.add(target.toByteArray(), handle);
+					if (attribs != null)
+						attribs.add(handle, attributes(atom.getFlags(), now));
+					atomCount++;
+				}
+			}
+			finally {
+				source.close();
+			}
+			write(data, primitive, incidence, types, values, attribs);
+		}
+		catch (HGException ex) {
+			throw ex;
+		}
+		catch (Exception ex) {
+			throw new HGException("Failed to bulk load into " + location + ": " + ex.toString(), ex);
+		}
+		finally {
+			data.close();
+			primitive.close();
+			incidence.close();
+			types.close();
+			values.close();
+			if (attribs != null)
+				attribs.close();
+		}
+		return atomCount;
+	}
+
+	private void bootstrap() {
+		HyperGraph graph = new HyperGraph();
+		graph.setConfig(config);
+		graph.open(location);
+		graph.close();
+	}
+
+	private void write(ExternalSorter data, ExternalSorter primitive, ExternalSorter incidence,
+			ExternalSorter types, ExternalSorter values, ExternalSorter attribs) throws Exception {
+		EnvironmentConfig cfg = envConfig.clone();
+		cfg.setAllowCreate(true);
+		cfg.setReadOnly(false);
+		cfg.setTransactional(false);
+		cfg.setLocking(false);
+		cfg.setConfigParam(EnvironmentConfig.ENV_RUN_CHECKPOINTER, "false");
+		cfg.setConfigParam(EnvironmentConfig.ENV_RUN_CLEANER, "false");
+		Environment env = new Environment(new File(location), cfg);
+		try {
+			merge(env, BJEStorageImplementation.DATA_DB_NAME, false, data);
+			merge(env, BJEStorageImplementation.PRIMITIVE_DB_NAME, false, primitive);
+			merge(env, BJEStorageImplementation.INCIDENCE_DB_NAME, true, incidence);
+			merge(env, DefaultIndexImpl.DB_NAME_PREFIX + HyperGraph.TYPES_INDEX_NAME, true, types);
+			merge(env, DefaultIndexImpl.DB_NAME_PREFIX + HyperGraph.VALUES_INDEX_NAME, true, values);
+			if (attribs != null)
+				merge(env, DefaultIndexImpl.DB_NAME_PREFIX + HyperGraph.SA_DB_NAME, true, attribs);
+		}
+		finally {
+			env.close();
+		}
+	}
+
+	private void merge(Environment env, final String dbName, final boolean duplicates, ExternalSorter sorter)
+			throws Exception {
+		if (sorter.size() == 0)
+			return;
+		DatabaseConfig dbConfig = new DatabaseConfig();
+		dbConfig.setAllowCreate(true);
+		dbConfig.setTransactional(false);
+		dbConfig.setDeferredWrite(true);
+		dbConfig.setSortedDuplicates(duplicates);
+		Database db = env.openDatabase(null, dbName, dbConfig);
+		try {
+			final Cursor cursor = db.openCursor(null, null);
+			try {
+				final DatabaseEntry key = new DatabaseEntry();
+				final DatabaseEntry value = new DatabaseEntry();
+				sorter.merge(new ExternalSorter.RecordSink() {
+					public void put(byte[] k, byte[] v) throws Exception {
+						key.setData(k);
+						value.setData(v);
+						// KEYEXIST just means the entry is already in the database
+						OperationStatus result = duplicates ? cursor.putNoDupData(key, value) : cursor.put(key, value);
+						if (result != OperationStatus.SUCCESS && result != OperationStatus.KEYEXIST)
+							throw new HGException("OperationStatus: " + result + " while loading " + dbName);
+					}
+				});
+			}
+			finally {
+				cursor.close();
+			}
+			db.sync();
+		}
+		finally {
+			db.close();
+		}
+	}
+
+	private static byte[] layout(byte[] type, byte[] value, HGPersistentHandle[] targets) {
+		int handleSize = type.length;
+		byte[] result = new byte[(2 + targets.length) * handleSize];
+		System.arraycopy(type, 0, result, 0, handleSize);
+		System.arraycopy(value, 0, result, handleSize, handleSize);
+		for (int i = 0; i < targets.length; i++)
+			System.arraycopy(targets[i].toByteArray(), 0, result, (2 + i) * handleSize, handleSize);
+		return result;
+	}
+
+	/**
+	 * Same layout as <code>HGAtomAttrib</code>'s converter: flags, retrieval count and last access time.
+	 */
+	private static byte[] attributes(byte flags, long lastAccessTime) {
+		byte[] result = new byte[17];
+		result[0] = flags;
+		for (int i = 0; i < 8; i++)
+			result[9 + i] = (byte)(lastAccessTime >>> (56 - 8 * i));
+		return result;
+	}
+}
@@ -0,0 +1,295 @@
+/*
+ * This file is part of the HyperGraphDB source distribution. This is copyrighted software. For permitted
+ * uses, licensing options and redistribution, please see the LicensingInformation file at the root level of
+ * the distribution.
+ *
+ * Copyright (c) 2005-2010 Kobrix Software, Inc. All rights reserved.
+ */
+package org.hypergraphdb.storage.bje.bulk;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * <p>
+ * Sorts an arbitrary number of (key, value) <code>byte[]</code> records by key and then value, in unsigned
+ * lexicographic order, using a bounded amount of memory. Records are packed in an in-memory arena; when the
+ * arena is full it is sorted and spilled to a run file in the temporary directory. The final pass merges all
+ * runs and hands the records, in order and without exact duplicates, to a {@link RecordSink}.
+ * </p>
+ */
+class ExternalSorter {
+	/**
+	 * Receives the sorted records of an <code>ExternalSorter</code>.
+	 */
+	interface RecordSink {
+		void put(byte[] key, byte[] value) throws Exception;
+	}
+
+	private static final int HEADER_SIZE = 8;
+	private static final int BUFFER_SIZE = 64 * 1024;
+
+	private final String name;
+	private final File tmpDir;
+	private byte[] arena;
+	private int used = 0;
+	private int[] offsets = new int[1024];
+	private int count = 0;
+	private long total = 0;
+	private List<File> runs = new ArrayList<File>();
+
+	/**
+	 * @param name A name for the sorted data, used as the prefix of the run files.
+	 * @param tmpDir The directory where run files are created.
+	 * @param memoryBudget The maximum number of bytes held in memory before spilling a run.
+	 */
+	ExternalSorter(String name, File tmpDir, int memoryBudget) {
+		this.name = name;
+		this.tmpDir = tmpDir;
+		this.arena = new byte[memoryBudget];
+	}
+
+	long size() {
+		return total;
+	}
+
+	void add(byte[] key, byte[] value) throws IOException {
+		int recordSize = HEADER_SIZE + key.length + value.length;
+		if (used + recordSize > arena.length && count > 0)
+			spill();
+		if (recordSize > arena.length)
+			arena = new byte[recordSize];
+		if (count == offsets.length) {
+			int[] newOffsets = new int[2 * count];
+			System.arraycopy(offsets, 0, newOffsets, 0, count);
+			offsets = newOffsets;
+		}
+		offsets[count++] = used;
+		writeInt(key.length, arena, used);
+		writeInt(value.length, arena, used + 4);
+		System.arraycopy(key, 0, arena, used + HEADER_SIZE, key.length);
+		System.arraycopy(value, 0, arena, used + HEADER_SIZE + key.length, value.length);
+		used += recordSize;
+		total++;
+	}
+
+	/**
+	 * Emit all records in order to <code>sink</code>. The sorter is empty afterwards and its run files are
+	 * deleted.
+	 */
+	void merge(RecordSink sink) throws Exception {
+		try {
+			if (runs.isEmpty()) {
+				sortArena();
+				byte[] lastKey = null, lastValue = null;
+				for (int i = 0; i < count; i++) {
+					int o = offsets[i];
+					int klen = readInt(arena, o), vlen = readInt(arena, o + 4);
+					byte[] key = new byte[klen], value = new byte[vlen];
+					System.arraycopy(arena, o + HEADER_SIZE, key, 0, klen);
+					System.arraycopy(arena, o + HEADER_SIZE + klen, value, 0, vlen);
+					if (lastKey == null || compare(key, lastKey) != 0 || compare(value, lastValue) != 0)
+						sink.put(key, value);
+					lastKey = key;
+					lastValue = value;
+				}
+			}
+			else {
+				if (count > 0)
+					spill();
+				mergeRuns(sink);
+			}
+		}
+		finally {
+			close();
+		}
+	}
+
+	/**
+	 * Discard all records and delete the run files.
+	 */
+	void close() {
+		for (File f : runs)
+			f.delete();
+		runs.clear();
+		count = 0;
+		used = 0;
+		total = 0;
+	}
+
+	private void spill() throws IOException {
+		sortArena();
+		File run = File.createTempFile(name + "-run", ".bin", tmpDir);
+		runs.add(run);
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(run), BUFFER_SIZE));
+		try {
+			for (int i = 0; i < count; i++) {
+				int o = offsets[i];
+				int klen = readInt(arena, o), vlen = readInt(arena, o + 4);
+				out.write(arena, o, HEADER_SIZE + klen + vlen);
+			}
+		}
+		finally {
+			out.close();
+		}
+		count = 0;
+		used = 0;
+	}
+
+	private void mergeRuns(RecordSink sink) throws Exception {
+		PriorityQueue<RunReader> queue = new PriorityQueue<RunReader>();
+		try {
+			for (File f : runs) {
+				RunReader r = new RunReader(f);
+				if (r.advance())
+					queue.add(r);
+				else
+					r.close();
+			}
+			byte[] lastKey = null, lastValue = null;
+			while (!queue.isEmpty()) {
+				RunReader r = queue.poll();
+				if (lastKey == null || compare(r.key, lastKey) != 0 || compare(r.value, lastValue) != 0)
+					sink.put(r.key, r.value);
+				lastKey = r.key;
+				lastValue = r.value;
+				if (r.advance())
+					queue.add(r);
+				else
+					r.close();
+			}
+		}
+		finally {
+			for (RunReader r : queue)
+				r.close();
+		}
+	}
+
+	private static final class RunReader implements Comparable<RunReader> {
+		DataInputStream in;
+		byte[] key, value;
+
+		RunReader(File f) throws IOException {
+			in = new DataInputStream(new BufferedInputStream(new FileInputStream(f), BUFFER_SIZE));
+		}
+
+		boolean advance() throws IOException {
+			int klen;
+			try {
+				klen = in.readInt();
+			}
+			catch (EOFException ex) {
+				return false;
+			}
+			int vlen = in.readInt();
+			key = new byte[klen];
+			value = new byte[vlen];
+			in.readFully(key);
+			in.readFully(value);
+			return true;
+		}
+
+		void close() {
+			try {
+				in.close();
+			}
+			catch (IOException ex) {
+			}
+		}
+
+		public int compareTo(RunReader other) {
+			int c = compare(key, other.key);
+			return c != 0 ? c : compare(value, other.value);
+		}
+	}
+
+	// ------------------------------------------------------------------------
+	// In-memory sort of the record offsets
+	// ------------------------------------------------------------------------
+
+	private int compareRecords(int a, int b) {
+		int ka = readInt(arena, a), kb = readInt(arena, b);
+		int c = compare(arena, a + HEADER_SIZE, ka, arena, b + HEADER_SIZE, kb);
+		if (c != 0)
+			return c;
+		return compare(arena, a + HEADER_SIZE + ka, readInt(arena, a + 4),
+				arena, b + HEADER_SIZE + kb, readInt(arena, b + 4));
+	}
+
+	private void sortArena() {
+		sort(0, count - 1);
+	}
+
+	private void sort(int lo, int hi) {
+		while (hi - lo > 8) {
+			int mid = (lo + hi) >>> 1;
+			if (compareRecords(offsets[mid], offsets[lo]) < 0) swap(mid, lo);
+			if (compareRecords(offsets[hi], offsets[lo]) < 0) swap(hi, lo);
+			if (compareRecords(offsets[hi], offsets[mid]) < 0) swap(hi, mid);
+			swap(lo, mid);
+			int pivot = offsets[lo];
+			int i = lo, j = hi + 1;
+			while (true) {
+				while (compareRecords(offsets[++i], pivot) < 0 && i < hi);
+				while (compareRecords(offsets[--j], pivot) > 0);
+				if (i >= j)
+					break;
+				swap(i, j);
+			}
+			swap(lo, j);
+			if (j - lo < hi - j) {
+				sort(lo, j - 1);
+				lo = j + 1;
+			}
+			else {
+				sort(j + 1, hi);
+				hi = j - 1;
+			}
+		}
+		for (int i = lo + 1; i <= hi; i++)
+			for (int j = i; j > lo && compareRecords(offsets[j], offsets[j - 1]) < 0; j--)
+				swap(j, j - 1);
+	}
+
+	private void swap(int i, int j) {
+		int t = offsets[i];
+		offsets[i] = offsets[j];
+		offsets[j] = t;
+	}
+
+	static int compare(byte[] left, byte[] right) {
+		return compare(left, 0, left.length, right, 0, right.length);
+	}
+
+	static int compare(byte[] A, int aoff, int alen, byte[] B, int boff, int blen) {
+		int n = Math.min(alen, blen);
+		for (int i = 0; i < n; i++) {
+			int c = (A[aoff + i] & 0xFF) - (B[boff + i] & 0xFF);
+			if (c != 0)
+				return c;
+		}
+		return alen - blen;
+	}
+
+	private static void writeInt(int v, byte[] data, int offset) {
+		data[offset] = (byte)(v >>> 24);
+		data[offset + 1] = (byte)(v >>> 16);
+		data[offset + 2] = (byte)(v >>> 8);
+		data[offset + 3] = (byte)v;
+	}
+
+	private static int readInt(byte[] data, int offset) {
+		return ((data[offset] & 0xFF) << 24) | ((data[offset + 1] & 0xFF) << 16) | ((data[offset + 2] & 0xFF) << 8)
+				| (data[offset + 3] & 0xFF);
+	}
+}
@@ -8,11 +8,14 @@
 package org.hypergraphdb;
 
 import org.hypergraphdb.atom.HGAtomRef;
+import org.hypergraphdb.cache.WeakRefAtomCache;
 import org.hypergraphdb.event.HGDefaultEventManager;
 import org.hypergraphdb.event.HGEventManager;
 import org.hypergraphdb.storage.HGStoreImplementation;
+import org.hypergraphdb.query.cond2qry.QueryPlanCache;
 import org.hypergraphdb.type.HGTypeConfiguration;
 import org.hypergraphdb.util.HGUtils;
+import org.hypergraphdb.util.Mapping;
 
 /**
  * 
@@ -37,6 +40,15 @@ public final class HGConfiguration
 	private int maxCachedIncidenceSetSize; 
 	private boolean useSystemAtomAttributes;
 	private boolean keepIncidentLinksOnRemoval = false;
+	private boolean deferIncidenceWrites = false;
+	private int incidenceWriteBufferSize = 10000;
+	private Class<? extends HGAtomCache> atomCacheImplementation = WeakRefAtomCache.class;
+	private long atomCacheCapacity = 0;
+	private Mapping<Object, Integer> atomCacheWeigher = null;
+	private long incidenceCacheCapacity = 0;
+	private long incidenceCacheMaxBytes = 0;
+	private boolean packIncidenceSets = true;
+	private int queryPlanCacheSize = QueryPlanCache.DEFAULT_CAPACITY;
 	private HGTypeConfiguration typeConfiguration = new HGTypeConfiguration();
 	private HGEventManager eventManager = new HGDefaultEventManager();
 	private ClassLoader classLoader;
@@ -354,6 +366,210 @@ public final class HGConfiguration
 		this.keepIncidentLinksOnRemoval = keepIncidentLinksOnRemoval;
 	}	
 
+	/**
+	 * <p>
+	 * Return <code>true</code> if new incidence set entries are buffered in memory for 
+	 * the duration of a transaction and <code>false</code> (the default) if they are written
+	 * to storage immediately.
+	 * </p>
+	 */
+	public boolean isDeferIncidenceWrites()
+	{
+		return deferIncidenceWrites;
+	}
+
+	/**
+	 * <p>
+	 * Enable or disable bulk-load mode for incidence sets. When enabled, the incidence 
+	 * entries created by adding links are accumulated in a compact buffer attached to the 
+	 * current transaction, sorted by (target, link) and written to storage sequentially 
+	 * just before the transaction commits, or whenever the buffer reaches 
+	 * <code>incidenceWriteBufferSize</code> entries. This is much faster when importing
+	 * link-heavy graphs in large transactions. Reading an incidence set from storage
+	 * flushes the buffer first so the mode is transparent to queries.
+	 * </p>
+	 */
+	public void setDeferIncidenceWrites(boolean deferIncidenceWrites)
+	{
+		this.deferIncidenceWrites = deferIncidenceWrites;
+	}
+
+	/**
+	 * <p>Return the number of deferred incidence entries after which they are 
+	 * flushed to storage even though the transaction is still running. The 
+	 * default is 10000.</p>
+	 */
+	public int getIncidenceWriteBufferSize()
+	{
+		return incidenceWriteBufferSize;
+	}
+
+	/**
+	 * <p>Set the number of deferred incidence entries after which they are 
+	 * flushed to storage even though the transaction is still running. Only
+	 * relevant when <code>deferIncidenceWrites</code> is enabled.</p>
+	 */
+	public void setIncidenceWriteBufferSize(int incidenceWriteBufferSize)
+	{
+		this.incidenceWriteBufferSize = incidenceWriteBufferSize;
+	}
+
+	/**
+	 * <p>Return the {@link HGAtomCache} implementation class that the database will
+	 * instantiate when it is opened. The default is {@link WeakRefAtomCache}.</p>
+	 */
+	public Class<? extends HGAtomCache> getAtomCacheImplementation()
+	{
+		return atomCacheImplementation;
+	}
+
+	/**
+	 * <p>
+	 * Specify the {@link HGAtomCache} implementation to be used by the database. The class
+	 * must have a public constructor taking the {@link HyperGraph} instance as its sole 
+	 * argument, or a public default constructor. The default is {@link WeakRefAtomCache}. 
+	 * {@link org.hypergraphdb.cache.ShardedAtomCache} is a drop-in replacement that scales 
+	 * better when many threads access atoms concurrently and 
+	 * {@link org.hypergraphdb.cache.TinyLFUAtomCache} one with a hard memory budget.
+	 * </p>
+	 */
+	public void setAtomCacheImplementation(Class<? extends HGAtomCache> atomCacheImplementation)
+	{
+		this.atomCacheImplementation = atomCacheImplementation;
+	}
+
+	/**
+	 * <p>Return the budget of a size-bounded atom cache, or 0 (the default) to let the
+	 * implementation pick one. Caches whose eviction is driven by the garbage collector
+	 * ignore this setting.</p>
+	 */
+	public long getAtomCacheCapacity()
+	{
+		return atomCacheCapacity;
+	}
+
+	/**
+	 * <p>
+	 * Set the budget of a size-bounded atom cache such as 
+	 * {@link org.hypergraphdb.cache.TinyLFUAtomCache}. It is a number of atoms, unless
+	 * an <code>atomCacheWeigher</code> is configured in which case it is the maximum
+	 * total weight of the cached atoms.
+	 * </p>
+	 */
+	public void setAtomCacheCapacity(long atomCacheCapacity)
+	{
+		this.atomCacheCapacity = atomCacheCapacity;
+	}
+
+	/**
+	 * <p>Return the function giving the weight of an atom towards the atom cache
+	 * capacity or <code>null</code> (the default) if every atom counts as 1.</p>
+	 */
+	public Mapping<Object, Integer> getAtomCacheWeigher()
+	{
+		return atomCacheWeigher;
+	}
+
+	/**
+	 * <p>
+	 * Specify the function giving the weight of an atom towards the atom cache capacity,
+	 * for example {@link org.hypergraphdb.cache.TinyLFUAtomCache#ESTIMATED_BYTES} to express
+	 * the capacity in bytes. 
+	 * </p>
+	 */
+	public void setAtomCacheWeigher(Mapping<Object, Integer> atomCacheWeigher)
+	{
+		this.atomCacheWeigher = atomCacheWeigher;
+	}
+
+	/**
+	 * <p>Return the total number of incidence set elements a size-bounded incidence set 
+	 * cache may hold, or 0 (the default) to let the atom cache implementation pick it.</p>
+	 */
+	public long getIncidenceCacheCapacity()
+	{
+		return incidenceCacheCapacity;
+	}
+
+	/**
+	 * <p>Set the total number of incidence set elements a size-bounded incidence set 
+	 * cache may hold. Each cached set counts as its size plus one.</p>
+	 */
+	public void setIncidenceCacheCapacity(long incidenceCacheCapacity)
+	{
+		this.incidenceCacheCapacity = incidenceCacheCapacity;
+	}
+
+	/**
+	 * <p>Return the memory budget of the incidence set cache in bytes, or 0 (the default)
+	 * if it is not budgeted by memory.</p>
+	 */
+	public long getIncidenceCacheMaxBytes()
+	{
+		return incidenceCacheMaxBytes;
+	}
+
+	/**
+	 * <p>
+	 * Budget the incidence set cache by the estimated memory footprint of the cached sets
+	 * instead of by their number of elements (see {@link org.hypergraphdb.IncidenceSet#ESTIMATED_BYTES}).
+	 * When set, and unless the atom cache provides an incidence set cache of its own, the 
+	 * incidence sets are kept in a size-bounded {@link org.hypergraphdb.cache.TinyLFUCache}
+	 * rather than in the default cache driven by the memory warnings. Combined with packed 
+	 * incidence sets, this makes it safe to raise <code>maxCachedIncidenceSetSize</code> so
+	 * that the incidence sets of hub atoms are cached too.
+	 * </p>
+	 */
+	public void setIncidenceCacheMaxBytes(long incidenceCacheMaxBytes)
+	{
+		this.incidenceCacheMaxBytes = incidenceCacheMaxBytes;
+	}
+
+	/**
+	 * <p>Return <code>true</code> (the default) if cached incidence sets are stored as
+	 * packed primitive arrays and <code>false</code> if they are stored as arrays of 
+	 * handle objects.</p>
+	 */
+	public boolean isPackIncidenceSets()
+	{
+		return packIncidenceSets;
+	}
+
+	/**
+	 * <p>
+	 * Specify whether cached incidence sets are stored as sorted arrays of packed 
+	 * <code>long</code>s, delta compressed when large (see 
+	 * {@link org.hypergraphdb.storage.PackedHandleSet}), instead of arrays of handle objects.
+	 * A packed set takes 8 or 16 bytes per element instead of about 80 but creates a
+	 * handle object for every element it returns.
+	 * </p>
+	 */
+	public void setPackIncidenceSets(boolean packIncidenceSets)
+	{
+		this.packIncidenceSets = packIncidenceSets;
+	}
+
+	/**
+	 * <p>Return the maximum number of compiled query plans kept for reuse, 0 if
+	 * plans are not cached.</p>
+	 */
+	public int getQueryPlanCacheSize()
+	{
+		return queryPlanCacheSize;
+	}
+
+	/**
+	 * <p>
+	 * Set the maximum number of compiled query plans kept for reuse by queries with 
+	 * conditions of the same shape (see {@link QueryPlanCache}). Set to 0 to compile
+	 * every query.
+	 * </p>
+	 */
+	public void setQueryPlanCacheSize(int queryPlanCacheSize)
+	{
+		this.queryPlanCacheSize = queryPlanCacheSize;
+	}
+
 	/**
 	 * <p>Return the configured Java class loader for use by this HyperGraphDB instance or
 	 * <code>null</code> if no loader was configured.</p> 
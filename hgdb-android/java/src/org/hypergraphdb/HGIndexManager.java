@@ -13,6 +13,7 @@ import java.util.List;
 
 import org.hypergraphdb.HGQuery.hg;
 import org.hypergraphdb.indexing.HGIndexer;
+import org.hypergraphdb.indexing.HGKeyIndexer;
 import org.hypergraphdb.indexing.HGValueIndexer;
 import org.hypergraphdb.maintenance.ApplyNewIndexer;
 import org.hypergraphdb.storage.BAtoHandle;
@@ -119,14 +120,27 @@ public class HGIndexManager
         }
 	}
 	
+	private Object getKey(HGIndexer<?, ?> indexer, Object atom)
+	{
+		if (indexer instanceof HGKeyIndexer)
+			return ((HGKeyIndexer<?>)indexer).getKey(graph, atom);
+		else if (indexer instanceof HGValueIndexer)
+			return ((HGValueIndexer<?, ?>)indexer).getKey(graph, atom);
+		else
+			return null;
+	}
+	
 	private void deleteIndex(HGIndexer indexer)
 	{
 		indexer = toAtomIndexer(indexer);
 		if (indexer == null)
 			return;
-		indices.remove(indexer);
+		HGIndex<?, ?> idx = indices.remove(indexer);
+		if (idx != null)
+			graph.getStatistics().forget(idx);
 		String name = getIndexName(indexer);
 		graph.getStore().removeIndex(name);
+		graph.getQueryPlanCache().invalidate();
 	}
 	
 	public HGIndexManager(HyperGraph graph)
@@ -163,6 +177,7 @@ public class HGIndexManager
 			    }
 			}
 		}
+		graph.getQueryPlanCache().invalidate();
 	}
 	
 	/**
@@ -293,6 +308,7 @@ public class HGIndexManager
 			HGIndex<KeyType, ValueType> idx = getOrCreateIndex(indexer);
 			if (!activate)
 				graph.add(new ApplyNewIndexer(hIndexer));
+			graph.getQueryPlanCache().invalidate();
 			return idx;
 		}
 		else
@@ -414,6 +430,8 @@ public class HGIndexManager
 		{
 			HGIndex<Object, Object> idx = getOrCreateIndex(indexer);
 			indexer.index(graph, atomHandle, atom, idx);
+			if (graph.getStatistics().isTracked(idx))
+				graph.getStatistics().entryAdded(idx, getKey(indexer, atom));
 //			Object key = indexer.getKey(graph, atom);			
 //			Object value = (indexer instanceof HGValueIndexer) ? 
 //			               ((HGValueIndexer)indexer).getValue(graph, atom) 
@@ -445,6 +463,8 @@ public class HGIndexManager
 		{		    
 			HGIndex<Object, Object> idx = getOrCreateIndex(indexer);
 			indexer.unindex(graph, atomHandle, atom, idx);
+			if (graph.getStatistics().isTracked(idx))
+				graph.getStatistics().entryRemoved(idx, getKey(indexer, atom));
 //			Object key = indexer.getKey(graph, atom);			
 //			Object value = (indexer instanceof HGValueIndexer) ? ((HGValueIndexer)indexer).getValue(graph, atom) 
 //						   : atomHandle;
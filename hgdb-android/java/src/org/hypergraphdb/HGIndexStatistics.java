@@ -0,0 +1,284 @@
+/*
+ * This file is part of the HyperGraphDB source distribution. This is copyrighted
+ * software. For permitted uses, licensing options and redistribution, please see
+ * the LicensingInformation file at the root level of the distribution.
+ *
+ * Copyright (c) 2005-2010 Kobrix Software, Inc.  All rights reserved.
+ */
+package org.hypergraphdb;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import org.hypergraphdb.query.ComparisonOperator;
+
+/**
+ * <p>
+ * Cardinality estimates for the entries of an {@link HGIndex}, used by the query planner
+ * to order the conditions of a conjunction. Obtain them with
+ * {@link HGStatistics#getIndexStatistics(HGIndex)}.
+ * </p>
+ *
+ * <p>
+ * Nothing is read from the index until it is needed: the total number of entries is
+ * counted the first time it is asked for, and the first time the entries of a key or a
+ * range are estimated, the keys of the index are read once to count the entries of each
+ * and build a histogram. The counts of up to {@link #MAX_CACHED_KEYS} keys are remembered,
+ * the entries of other keys are estimated as the average number of entries per key. All
+ * of those are then kept up to date as atoms are added and removed, so that estimating
+ * doesn't read the index again, and the numbers are estimates: entries added concurrently
+ * with the initial counting may be missed.
+ * </p>
+ *
+ * <p>
+ * The histogram is equi-depth with up to {@link #BUCKETS} buckets and is built from the
+ * first {@link #HISTOGRAM_SCAN_LIMIT} keys of the index, the entries under all remaining
+ * keys falling in the last bucket. It is only available when keys are
+ * <code>Comparable</code> and ordered by the index the same way as by
+ * <code>compareTo</code>.
+ * </p>
+ *
+ * @param <KeyType> The type of the index keys.
+ */
+@SuppressWarnings({"unchecked", "rawtypes"})
+public class HGIndexStatistics<KeyType>
+{
+    public static final int MAX_CACHED_KEYS = 4096;
+    public static final int BUCKETS = 64;
+    public static final int HISTOGRAM_SCAN_LIMIT = 100000;
+
+    private static final class Histogram
+    {
+        // bounds[i] is the largest key in bucket i, the last bucket has no bound
+        final Comparable [] bounds;
+        final AtomicLongArray counts;
+
+        Histogram(Comparable [] bounds, long [] counts)
+        {
+            this.bounds = bounds;
+            this.counts = new AtomicLongArray(counts);
+        }
+
+        int bucketOf(Object key)
+        {
+            int lo = 0, hi = bounds.length;
+            while (lo < hi)
+            {
+                int mid = (lo + hi) >>> 1;
+                if (bounds[mid].compareTo(key) < 0)
+                    lo = mid + 1;
+                else
+                    hi = mid;
+            }
+            return lo;
+        }
+
+        long estimate(ComparisonOperator op, Object key)
+        {
+            int b = bucketOf(key);
+            long before = 0, after = 0;
+            for (int i = 0; i < b; i++)
+                before += counts.get(i);
+            for (int i = b + 1; i < counts.length(); i++)
+                after += counts.get(i);
+            // assume the key is in the middle of its bucket
+            long half = counts.get(b) / 2;
+            switch (op)
+            {
+                case LT:
+                case LTE: return before + half;
+                case GT:
+                case GTE: return after + half;
+                default: return -1;
+            }
+        }
+    }
+
+    private final HGIndex<KeyType, ?> index;
+    private final AtomicLong entries = new AtomicLong(-1);
+    private final ConcurrentHashMap<Object, AtomicLong> keyCounts = new ConcurrentHashMap<Object, AtomicLong>();
+    private volatile boolean allKeys = false; // whether keyCounts has every key of the index
+    private volatile long averageKeyCount = 0;
+    private volatile Histogram histogram = null;
+    private volatile boolean loaded = false;
+
+    HGIndexStatistics(HGIndex<KeyType, ?> index)
+    {
+        this.index = index;
+    }
+
+    private static void add(AtomicLong counter, long delta)
+    {
+        for (long x = counter.get(); x >= 0; x = counter.get())
+            if (counter.compareAndSet(x, Math.max(0, x + delta)))
+                break;
+    }
+
+    void changed(Object key, long delta)
+    {
+        add(entries, delta);
+        AtomicLong count = keyCounts.get(key);
+        if (count != null)
+            add(count, delta);
+        else if (allKeys && delta > 0)
+        {
+            if (keyCounts.size() < MAX_CACHED_KEYS)
+            {
+                count = keyCounts.putIfAbsent(key, new AtomicLong(delta));
+                if (count != null)
+                    add(count, delta);
+            }
+            else
+                allKeys = false;
+        }
+        Histogram h = histogram;
+        if (h != null && key instanceof Comparable)
+        {
+            try
+            {
+                int b = h.bucketOf(key);
+                if (h.counts.addAndGet(b, delta) < 0)
+                    h.counts.set(b, 0);
+            }
+            catch (ClassCastException ex)
+            {
+                // keys of mixed types, not worth a histogram
+                histogram = null;
+            }
+        }
+    }
+
+    /**
+     * <p>Return the index these statistics are about.</p>
+     */
+    public HGIndex<KeyType, ?> getIndex()
+    {
+        return index;
+    }
+
+    /**
+     * <p>Return the number of entries in the index.</p>
+     */
+    public long getEntryCount()
+    {
+        long n = entries.get();
+        if (n < 0)
+        {
+            entries.compareAndSet(-1, index.count());
+            n = entries.get();
+        }
+        return n;
+    }
+
+    /**
+     * <p>Return the number of entries with the given key.</p>
+     */
+    public long getKeyCount(KeyType key)
+    {
+        load();
+        AtomicLong count = keyCounts.get(key);
+        if (count != null)
+            return count.get();
+        return allKeys ? 0 : averageKeyCount;
+    }
+
+    /**
+     * <p>
+     * Estimate the number of entries whose key compares to <code>key</code> as specified
+     * by <code>op</code>. Return <code>-1</code> if no estimate is available.
+     * </p>
+     */
+    public long estimate(ComparisonOperator op, KeyType key)
+    {
+        if (op == ComparisonOperator.EQ)
+            return getKeyCount(key);
+        if (!(key instanceof Comparable))
+            return -1;
+        load();
+        Histogram h = histogram;
+        try
+        {
+            return h == null ? -1 : h.estimate(op, key);
+        }
+        catch (ClassCastException ex)
+        {
+            return -1;
+        }
+    }
+
+    private void load()
+    {
+        if (!loaded)
+            synchronized (this)
+            {
+                if (!loaded)
+                {
+                    scanKeys();
+                    loaded = true;
+                }
+            }
+    }
+
+    // Count the entries of the first HISTOGRAM_SCAN_LIMIT keys, remembering the counts of
+    // the first MAX_CACHED_KEYS of them, and build the histogram if keys are comparable.
+    private void scanKeys()
+    {
+        long total = getEntryCount();
+        long depth = Math.max(1, total / BUCKETS);
+        List<Comparable> bounds = new ArrayList<Comparable>();
+        List<Long> counts = new ArrayList<Long>();
+        boolean comparable = true, complete = true;
+        long scanned = 0, current = 0;
+        int keys = 0;
+        HGRandomAccessResult<KeyType> rs = index.scanKeys();
+        try
+        {
+            for (; rs.hasNext(); keys++)
+            {
+                if (keys == HISTOGRAM_SCAN_LIMIT)
+                {
+                    complete = false;
+                    break;
+                }
+                KeyType key = rs.next();
+                long c = index.count(key);
+                if (keys < MAX_CACHED_KEYS)
+                    keyCounts.putIfAbsent(key, new AtomicLong(c));
+                scanned += c;
+                comparable = comparable && key instanceof Comparable;
+                if (!comparable)
+                    continue;
+                current += c;
+                if (current >= depth && bounds.size() < BUCKETS - 1)
+                {
+                    bounds.add((Comparable)key);
+                    counts.add(current);
+                    current = 0;
+                }
+            }
+        }
+        finally
+        {
+            rs.close();
+        }
+        allKeys = complete && keys <= MAX_CACHED_KEYS;
+        averageKeyCount = keys == 0 ? 0 : Math.max(1, scanned / keys);
+        if (!comparable || bounds.isEmpty())
+            return;
+        // the last bucket holds the rest, including keys past the scan limit
+        counts.add(current + Math.max(0, total - scanned));
+        long [] A = new long[counts.size()];
+        for (int i = 0; i < A.length; i++)
+            A[i] = counts.get(i);
+        histogram = new Histogram(bounds.toArray(new Comparable[bounds.size()]), A);
+    }
+
+    public String toString()
+    {
+        return "HGIndexStatistics[" + index + ", entries=" + entries.get() +
+               ", cachedKeys=" + keyCounts.size() + "]";
+    }
+}
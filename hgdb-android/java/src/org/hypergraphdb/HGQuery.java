@@ -50,6 +50,7 @@ import org.hypergraphdb.query.SubsumesCondition;
 import org.hypergraphdb.query.TargetCondition;
 import org.hypergraphdb.query.TypePlusCondition;
 import org.hypergraphdb.query.cond2qry.ExpressionBasedQuery;
+import org.hypergraphdb.query.cond2qry.QueryPlan;
 import org.hypergraphdb.query.impl.DerefMapping;
 import org.hypergraphdb.query.impl.LinkProjectionMapping;
 import org.hypergraphdb.transaction.HGTransactionConfig;
@@ -1614,6 +1615,47 @@ public abstract class HGQuery<SearchResult> implements HGGraphHolder
             	}, HGTransactionConfig.READONLY);        	
         }
         
+        private static Mapping<HGQueryCondition, Long> sizeEstimator(final HyperGraph graph)
+        {
+        	return new Mapping<HGQueryCondition, Long>() {
+        		public Long eval(HGQueryCondition cond)
+        		{
+        			return ResultSizeEstimation.estimate(graph, cond);
+        		}
+        	};
+        }
+        
+        /**
+         * <p>
+         * Return the plan the query condition is compiled into: the tree of index lookups,
+         * intersections, filters etc. that would produce its result set, with estimated
+         * sizes of the intermediate results. The query is not executed.
+         * </p>
+         * 
+         * @param graph The HyperGraph against which the query would be performed.
+         * @param cond The query condition.
+         */
+        public static QueryPlan explain(final HyperGraph graph, final HGQueryCondition cond)
+        {
+        	return QueryPlan.explain(graph, cond, sizeEstimator(graph), false);
+        }
+        
+        /**
+         * <p>
+         * Like {@link #explain(HyperGraph, HGQueryCondition)}, but also execute the query 
+         * and scan its result set, recording for each step of the plan the number of rows
+         * read, of <code>goTo</code> calls made and the time spent (see 
+         * {@link QueryPlan#getProfile()}).
+         * </p>
+         * 
+         * @param graph The HyperGraph against which the query is performed.
+         * @param cond The query condition.
+         */
+        public static QueryPlan explainAnalyze(final HyperGraph graph, final HGQueryCondition cond)
+        {
+        	return QueryPlan.explain(graph, cond, sizeEstimator(graph), true);
+        }
+        
         //
         // Querying section.
         //
@@ -1723,7 +1765,7 @@ public abstract class HGQuery<SearchResult> implements HGGraphHolder
             			if (rs != null) rs.close();
             		}	
             	}
-            	}, HGTransactionConfig.READONLY);    		      		
+            	}, HGTransactionConfig.SNAPSHOT);    		      		
     	}
 
     	/**
@@ -1767,7 +1809,7 @@ public abstract class HGQuery<SearchResult> implements HGGraphHolder
             			if (rs != null) rs.close();
             		}	
             	}
-            	}, HGTransactionConfig.READONLY);    		     		
+            	}, HGTransactionConfig.SNAPSHOT);    		     		
     	}
     	
     	/**
@@ -1806,7 +1848,7 @@ public abstract class HGQuery<SearchResult> implements HGGraphHolder
             			if (rs != null) rs.close();
             		}      	
             	}
-            	}, HGTransactionConfig.READONLY);		
+            	}, HGTransactionConfig.SNAPSHOT);		
     	}
     	
     	/**
@@ -1834,7 +1876,7 @@ public abstract class HGQuery<SearchResult> implements HGGraphHolder
             			if (rs != null) rs.close();
             		}	
             	}
-            	}, HGTransactionConfig.READONLY);    		     		
+            	}, HGTransactionConfig.SNAPSHOT);    		     		
     	}
    }
 }
@@ -0,0 +1,199 @@
+/*
+ * This file is part of the HyperGraphDB source distribution. This is copyrighted
+ * software. For permitted uses, licensing options and redistribution, please see
+ * the LicensingInformation file at the root level of the distribution.
+ *
+ * Copyright (c) 2005-2010 Kobrix Software, Inc.  All rights reserved.
+ */
+package org.hypergraphdb;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.hypergraphdb.transaction.HGTransaction;
+
+/**
+ * <p>
+ * Cardinality statistics about the content of a {@link HyperGraph}: the number of atoms
+ * of each type and, for every index, the number of entries per key and a histogram of the
+ * keys (see {@link HGIndexStatistics}). The query planner uses them to decide in which
+ * order to evaluate the conditions of a conjunction and how to combine them. Obtain the
+ * instance of a graph with {@link HyperGraph#getStatistics()}.
+ * </p>
+ *
+ * <p>
+ * Statistics are kept in memory only. An index is tracked from the moment its statistics
+ * are first asked for: its counts are then read once from the index and updated as atoms
+ * are added, removed or replaced. The changes made by a transaction are collected and
+ * applied when it commits, so those of transactions that abort are never seen.
+ * </p>
+ */
+@SuppressWarnings({"unchecked", "rawtypes"})
+public class HGStatistics
+{
+    private final HyperGraph graph;
+    private final ConcurrentHashMap<HGIndex<?, ?>, HGIndexStatistics<?>> indices =
+        new ConcurrentHashMap<HGIndex<?, ?>, HGIndexStatistics<?>>();
+
+    private final Object deltasKey = new Object();
+
+    // The count changes of a transaction, handed over to its parent or applied right
+    // before it commits, and reverted if the commit fails after all.
+    private final class Deltas implements Runnable
+    {
+        final HGTransaction tx;
+        final Map<HGIndexStatistics<?>, Map<Object, long[]>> changes =
+            new HashMap<HGIndexStatistics<?>, Map<Object, long[]>>();
+
+        Deltas(HGTransaction tx)
+        {
+            this.tx = tx;
+        }
+
+        void add(HGIndexStatistics<?> stats, Object key, long delta)
+        {
+            Map<Object, long[]> keys = changes.get(stats);
+            if (keys == null)
+            {
+                keys = new HashMap<Object, long[]>();
+                changes.put(stats, keys);
+            }
+            long [] d = keys.get(key);
+            if (d == null)
+                keys.put(key, new long[] { delta });
+            else
+                d[0] += delta;
+        }
+
+        void apply(long sign)
+        {
+            for (Map.Entry<HGIndexStatistics<?>, Map<Object, long[]>> e : changes.entrySet())
+                for (Map.Entry<Object, long[]> k : e.getValue().entrySet())
+                    if (k.getValue()[0] != 0)
+                        e.getKey().changed(k.getKey(), sign*k.getValue()[0]);
+        }
+
+        public void run()
+        {
+            tx.removeAttribute(deltasKey);
+            if (tx.getParent() != null)
+            {
+                Deltas parent = deltasOf(tx.getParent());
+                for (Map.Entry<HGIndexStatistics<?>, Map<Object, long[]>> e : changes.entrySet())
+                    for (Map.Entry<Object, long[]> k : e.getValue().entrySet())
+                        parent.add(e.getKey(), k.getKey(), k.getValue()[0]);
+            }
+            else
+            {
+                apply(1);
+                tx.addAbortAction(new Runnable() {
+                    public void run() { apply(-1); }
+                });
+            }
+        }
+    }
+
+    private Deltas deltasOf(HGTransaction tx)
+    {
+        Deltas deltas = tx.getAttribute(deltasKey);
+        if (deltas == null)
+        {
+            deltas = new Deltas(tx);
+            tx.setAttribute(deltasKey, deltas);
+            tx.addBeforeCommitAction(deltas);
+        }
+        return deltas;
+    }
+
+    HGStatistics(HyperGraph graph)
+    {
+        this.graph = graph;
+    }
+
+    /**
+     * <p>Return the statistics of the given index, starting to track it if needed.</p>
+     */
+    public <KeyType> HGIndexStatistics<KeyType> getIndexStatistics(HGIndex<KeyType, ?> index)
+    {
+        HGIndexStatistics<KeyType> stats = (HGIndexStatistics<KeyType>)indices.get(index);
+        if (stats == null)
+        {
+            stats = new HGIndexStatistics<KeyType>(index);
+            HGIndexStatistics<KeyType> existing =
+                (HGIndexStatistics<KeyType>)indices.putIfAbsent(index, stats);
+            if (existing != null)
+                stats = existing;
+        }
+        return stats;
+    }
+
+    /**
+     * <p>Return the number of atoms of the given type, not including atoms of its
+     * sub-types.</p>
+     */
+    public long getAtomCount(HGHandle type)
+    {
+        return getIndexStatistics(graph.indexByType).getKeyCount(graph.getPersistentHandle(type));
+    }
+
+    /**
+     * <p>Return the total number of atoms.</p>
+     */
+    public long getAtomCount()
+    {
+        return getIndexStatistics(graph.indexByType).getEntryCount();
+    }
+
+    /**
+     * <p>Return <code>true</code> if statistics of the given index are being kept.</p>
+     */
+    public boolean isTracked(HGIndex<?, ?> index)
+    {
+        return indices.containsKey(index);
+    }
+
+    /**
+     * <p>Stop tracking the given index, for example because it was removed.</p>
+     */
+    public void forget(HGIndex<?, ?> index)
+    {
+        indices.remove(index);
+    }
+
+    /**
+     * <p>Forget all statistics, they will be read again from the indices when needed.</p>
+     */
+    public void reset()
+    {
+        indices.clear();
+    }
+
+    private void changed(HGIndex<?, ?> index, Object key, long delta)
+    {
+        HGIndexStatistics<?> stats = indices.get(index);
+        if (stats == null || key == null)
+            return;
+        HGTransaction tx = graph.getTransactionManager().getContext().getCurrent();
+        if (tx == null)
+            stats.changed(key, delta);
+        else
+            deltasOf(tx).add(stats, key, delta);
+    }
+
+    /**
+     * <p>Record that an entry with the given key was added to an index.</p>
+     */
+    void entryAdded(HGIndex<?, ?> index, Object key)
+    {
+        changed(index, key, 1);
+    }
+
+    /**
+     * <p>Record that an entry with the given key was removed from an index.</p>
+     */
+    void entryRemoved(HGIndex<?, ?> index, Object key)
+    {
+        changed(index, key, -1);
+    }
+}
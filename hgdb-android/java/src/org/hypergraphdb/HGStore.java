@@ -7,13 +7,21 @@
  */
 package org.hypergraphdb;
 
+import java.util.Arrays;
 import java.util.Comparator;
+import java.util.Map;
 
 import org.hypergraphdb.storage.ByteArrayConverter;
 import org.hypergraphdb.storage.HGStoreImplementation;
+import org.hypergraphdb.storage.IncidenceBuffer;
+import org.hypergraphdb.storage.HGWriteBatch;
+import org.hypergraphdb.storage.LinkVisitor;
+import org.hypergraphdb.storage.PackedHandleArray;
 import org.hypergraphdb.storage.StorageGraph;
+import org.hypergraphdb.transaction.HGTransaction;
 import org.hypergraphdb.transaction.HGTransactionFactory;
 import org.hypergraphdb.transaction.HGTransactionManager;
+import org.hypergraphdb.transaction.TransactionIsReadonlyException;
 
 /**
  * <p>
@@ -47,6 +55,13 @@ public class HGStore
     private HGStoreImplementation impl = null;    
     
     private ThreadLocal<StorageGraph> overlayGraph = new ThreadLocal<StorageGraph>();
+    private ThreadLocal<HGWriteBatch> writeBatch = new ThreadLocal<HGWriteBatch>();
+    
+    /**
+     * Transaction attribute key of the incidence entries deferred until commit when
+     * the configuration asks for it. 
+     */
+    private final Object deferredIncidenceKey = new Object();
       
     /**
      * <p>Construct a <code>HGStore</code> bound to a specific database 
@@ -89,6 +104,19 @@ public class HGStore
     	return this.databaseLocation;
     }
         
+    /**
+     * <p>Throw a {@link TransactionIsReadonlyException} if the current transaction is a
+     * snapshot read transaction. Snapshot read transactions have no storage transaction,
+     * so writes would escape transactional control. Operations making several writes
+     * call this before the first one, so that they are rejected before anything is written.</p>
+     */
+    public void checkWritable()
+    {
+        HGTransaction tx = transactionManager.getContext().getCurrent();
+        if (tx != null && tx.isSnapshot())
+            throw new TransactionIsReadonlyException();
+    }
+    
     /**
      * <p>Create a new link in the HyperGraphDB store. A new <code>HGPersistentHandle</code>
      * is created to refer to the link.</p>
@@ -116,6 +144,14 @@ public class HGStore
     {
         if (overlayGraph.get() != null)
             return overlayGraph.get().store(handle, link);
+        checkWritable();
+        HGWriteBatch batch = writeBatch.get();
+        if (batch != null)
+        {
+            batch.store(handle, link);
+            flushIfFull(batch);
+            return handle;
+        }
         else
             return impl.store(handle, link);      
     }
@@ -144,8 +180,16 @@ public class HGStore
      */    
     public HGPersistentHandle store(HGPersistentHandle handle, byte [] data)
     {
-        if (overlayGraph.get() != null)
-            return overlayGraph.get().store(handle, data);
+        if (overlayGraph.get() != null)
+            return overlayGraph.get().store(handle, data);
+        checkWritable();
+        HGWriteBatch batch = writeBatch.get();
+        if (batch != null)
+        {
+            batch.store(handle, data);
+            flushIfFull(batch);
+            return handle;
+        }
         else       
             return impl.store(handle, data);
     }
@@ -155,6 +199,10 @@ public class HGStore
      */    
     public void removeLink(HGPersistentHandle handle)
     {
+        checkWritable();
+        HGWriteBatch batch = writeBatch.get();
+        if (batch != null)
+            batch.removeLink(handle);
         impl.removeLink(handle);
     }
 
@@ -163,6 +211,10 @@ public class HGStore
      */
     public void removeData(HGPersistentHandle handle)
     {
+        checkWritable();
+        HGWriteBatch batch = writeBatch.get();
+        if (batch != null)
+            batch.removeData(handle);
         impl.removeData(handle);
     }
     
@@ -183,11 +235,85 @@ public class HGStore
         if (overlayGraph.get() != null)
         {
             HGPersistentHandle [] result = null;                
-            if ( (result = overlayGraph.get().getLink(handle)) != null)
-                return result;
+            if ( (result = overlayGraph.get().getLink(handle)) != null)
+                return result;
         }         
+        HGWriteBatch batch = writeBatch.get();
+        if (batch != null)
+        {
+            HGPersistentHandle [] result = batch.getLink(handle);
+            if (result != null)
+                return result;
+        }
         return impl.getLink(handle);
     }
+    
+    /**
+     * <p>Retrieve an existing link by its handle into a reusable {@link PackedHandleArray}.
+     * This avoids creating a handle object per target when the caller only needs to
+     * examine, compare or copy the targets.</p>
+     * 
+     * @param handle The persistent handle of the link.
+     * @param result The array to fill with the link's handles.
+     * @return <code>true</code> if the link was found and <code>false</code> otherwise,
+     * in which case <code>result</code> is left empty.
+     */
+    public boolean getLink(HGPersistentHandle handle, PackedHandleArray result)
+    {
+        if (handle == null)
+            throw new NullPointerException("HGStore.getLink called with a null handle.");
+        HGPersistentHandle [] link = null;
+        if (overlayGraph.get() != null)
+            link = overlayGraph.get().getLink(handle);
+        if (link == null && writeBatch.get() != null)
+            link = writeBatch.get().getLink(handle);
+        if (link != null)
+        {
+            result.wrap(link);
+            return true;
+        }
+        return impl.getLink(handle, result);
+    }
+    
+    /**
+     * <p>Retrieve several links at once. The links are read in storage order through a single
+     * cursor, so that reading many links costs mostly sequential rather than random I/O.</p>
+     * 
+     * @param handles The persistent handles of the links, in any order.
+     * @param result The arrays to fill: <code>result[i]</code> is filled with the handles of
+     * the link at <code>handles[i]</code>, or left empty if there is no such link.
+     */
+    public void getLinks(HGPersistentHandle [] handles, PackedHandleArray [] result)
+    {
+        if (overlayGraph.get() != null || writeBatch.get() != null)
+        {
+            for (int i = 0; i < handles.length; i++)
+                getLink(handles[i], result[i]);
+            return;
+        }
+        Integer [] order = storageOrder(handles);
+        HGPersistentHandle [] sortedHandles = new HGPersistentHandle[handles.length];
+        PackedHandleArray [] sortedResult = new PackedHandleArray[handles.length];
+        for (int i = 0; i < order.length; i++)
+        {
+            sortedHandles[i] = handles[order[i]];
+            sortedResult[i] = result[order[i]];
+        }
+        impl.getLinks(sortedHandles, sortedResult);
+    }
+
+    /**
+     * <p>Read all links in storage, passing each to <code>visitor</code>. The links are read
+     * in the order that is fastest for the storage implementation, without locking, which is
+     * much cheaper than looking them up one by one when most of them are needed. Links
+     * written while the scan is running may or may not be seen, and links held in an
+     * overlay graph are not included.</p>
+     */
+    public void scanLinks(LinkVisitor visitor)
+    {
+        flushWriteBatch();
+        impl.scanLinks(visitor);
+    }
   
     /**
      * <p>
@@ -201,6 +327,8 @@ public class HGStore
             throw new NullPointerException("HGStore.getLink called with a null handle.");
         if (overlayGraph.get() != null && overlayGraph.get().getLink(handle) != null)
                 return true;
+        if (writeBatch.get() != null && writeBatch.get().getLink(handle) != null)
+            return true;
         return impl.containsLink(handle);
     }
 
@@ -218,6 +346,8 @@ public class HGStore
             throw new NullPointerException("HGStore.getLink called with a null handle.");
         if (overlayGraph.get() != null && overlayGraph.get().getLink(handle) != null)
                 return true;
+        if (writeBatch.get() != null && writeBatch.get().getData(handle) != null)
+            return true;
         return impl.containsData(handle);
     }
     
@@ -238,7 +368,14 @@ public class HGStore
             byte [] result = null;                
             if ( (result = overlayGraph.get().getData(handle)) != null)
                 return result;
-        }
+        }
+        HGWriteBatch batch = writeBatch.get();
+        if (batch != null)
+        {
+            byte [] result = batch.getData(handle);
+            if (result != null)
+                return result;
+        }
         return impl.getData(handle);
     }
     
@@ -252,15 +389,87 @@ public class HGStore
      */    
     public HGRandomAccessResult<HGPersistentHandle> getIncidenceResultSet(HGPersistentHandle handle)
     {
+        flushWriteBatch();
         return impl.getIncidenceResultSet(handle);
     }
     
+    /**
+     * <p>Read the incidence set of an atom, sorted in storage order, into a reusable 
+     * {@link PackedHandleArray}.</p>
+     * 
+     * @param handle The <code>HGPersistentHandle</code> of the atom whose incidence set
+     * is desired.
+     * @param result The array to fill. It is cleared first.
+     */
+    public void getIncidenceSet(HGPersistentHandle handle, PackedHandleArray result)
+    {
+        if (handle == null)
+            throw new NullPointerException("HGStore.getIncidenceSet called with a null handle.");
+        flushWriteBatch();
+        impl.getIncidenceSet(handle, result);
+    }
+    
+    /**
+     * <p>Read the incidence sets of several atoms at once. The sets are read in storage order
+     * through a single cursor, so that reading many of them costs mostly sequential rather
+     * than random I/O.</p>
+     * 
+     * @param handles The persistent handles of the atoms, in any order.
+     * @param result The arrays to fill: <code>result[i]</code> is filled with the incidence
+     * set of <code>handles[i]</code>, sorted in storage order.
+     */
+    public void getIncidenceSets(HGPersistentHandle [] handles, PackedHandleArray [] result)
+    {
+        flushWriteBatch();
+        Integer [] order = storageOrder(handles);
+        HGPersistentHandle [] sortedHandles = new HGPersistentHandle[handles.length];
+        PackedHandleArray [] sortedResult = new PackedHandleArray[handles.length];
+        for (int i = 0; i < order.length; i++)
+        {
+            sortedHandles[i] = handles[order[i]];
+            sortedResult[i] = result[order[i]];
+        }
+        impl.getIncidenceSets(sortedHandles, sortedResult);
+    }
+    
+    /**
+     * Return the positions in <code>handles</code> sorted by the unsigned bytes of the
+     * handles, which is the order of keys in storage.
+     */
+    private static Integer [] storageOrder(HGPersistentHandle [] handles)
+    {
+        final byte [][] keys = new byte[handles.length][];
+        Integer [] order = new Integer[handles.length];
+        for (int i = 0; i < handles.length; i++)
+        {
+            if (handles[i] == null)
+                throw new NullPointerException("HGStore: null handle in a batch read.");
+            keys[i] = handles[i].toByteArray();
+            order[i] = i;
+        }
+        Arrays.sort(order, new Comparator<Integer>() {
+            public int compare(Integer left, Integer right)
+            {
+                byte [] x = keys[left], y = keys[right];
+                for (int i = 0; i < x.length; i++)
+                {
+                    int c = (x[i] & 0xFF) - (y[i] & 0xFF);
+                    if (c != 0)
+                        return c;
+                }
+                return 0;
+            }
+        });
+        return order;
+    }
+    
     /**
      * <p>Return the number of atoms in the incidence set of a given atom. That is,
      * return the number of links pointing to the atom.</p>
      */
     public long getIncidenceSetCardinality(HGPersistentHandle handle)
     {
+        flushWriteBatch();
         return impl.getIncidenceSetCardinality(handle);
     }
     
@@ -281,7 +490,17 @@ public class HGStore
      */
     public void addIncidenceLink(HGPersistentHandle targetHandle, HGPersistentHandle linkHandle)
     {
-        impl.addIncidenceLink(targetHandle, linkHandle);
+        checkWritable();
+        HGWriteBatch batch = writeBatch.get();
+        if (batch == null && config.isDeferIncidenceWrites())
+            batch = getDeferredIncidence(true);
+        if (batch != null)
+        {
+            batch.addIncidenceLink(targetHandle, linkHandle);
+            flushIfFull(batch);
+        }
+        else
+            impl.addIncidenceLink(targetHandle, linkHandle);
     }
 
     /**
@@ -300,6 +519,13 @@ public class HGStore
      */
     public void removeIncidenceLink(HGPersistentHandle handle, HGPersistentHandle oldLink)
     {
+        checkWritable();
+        HGWriteBatch batch = writeBatch.get();
+        if (batch != null)
+            batch.removeIncidenceLink(handle, oldLink);
+        batch = getDeferredIncidence(false);
+        if (batch != null)
+            batch.removeIncidenceLink(handle, oldLink);
         impl.removeIncidenceLink(handle, oldLink);
     }
     
@@ -313,9 +539,163 @@ public class HGStore
     {
         if (handle == null)
             throw new NullPointerException("HGStore.removeIncidenceSet called with a null handle.");
+        checkWritable();
+        flushWriteBatch();
         impl.removeIncidenceSet(handle);
     }
               
+    /**
+     * <p>
+     * Write all records accumulated in a {@link HGWriteBatch} to storage in a single
+     * pass. This is considerably faster than storing the records one by one when there
+     * are many of them since the storage implementation can sort them by key. The 
+     * writes are part of the current transaction, if any. If an overlay graph is attached
+     * to the current thread, links and data are stored in it instead.
+     * </p>
+     * 
+     * @param batch The batch of records to write. It is not cleared by this method.
+     */
+    public void storeBatch(HGWriteBatch batch)
+    {
+        if (overlayGraph.get() != null)
+        {
+            StorageGraph sgraph = overlayGraph.get();
+            for (Map.Entry<HGPersistentHandle, HGPersistentHandle[]> e : batch.getLinks().entrySet())
+                sgraph.store(e.getKey(), e.getValue());
+            for (Map.Entry<HGPersistentHandle, byte[]> e : batch.getData().entrySet())
+                sgraph.store(e.getKey(), e.getValue());
+            IncidenceBuffer incidence = batch.getIncidenceLinks();
+            if (incidence != null)
+            {
+                HGHandleFactory handleFactory = config.getHandleFactory();
+                byte [] buffer = incidence.getBuffer();
+                for (int i = 0; i < incidence.size(); i++)
+                {
+                    int offset = i*incidence.getRecordSize();
+                    impl.addIncidenceLink(handleFactory.makeHandle(buffer, offset), 
+                                          handleFactory.makeHandle(buffer, offset + incidence.getHandleSize()));
+                }
+            }
+        }
+        else if (!batch.isEmpty())
+        {
+            checkWritable();
+            impl.storeBatch(batch);
+        }
+    }
+    
+    /**
+     * <p>
+     * Attach a {@link HGWriteBatch} to the current thread. Until it is detached, all
+     * link, data and incidence writes made through this <code>HGStore</code> by the 
+     * current thread are accumulated in the batch and flushed to storage whenever it
+     * becomes full. Reads of links and data consult the batch first while reads of
+     * incidence sets flush it. The batch should be attached and detached within the 
+     * same transaction.
+     * </p>
+     */
+    public void attachWriteBatch(HGWriteBatch batch)
+    {
+        if (writeBatch.get() != null)
+            throw new HGException("A write batch is already attached to the current thread.");
+        writeBatch.set(batch);
+    }
+    
+    /**
+     * <p>
+     * Detach the {@link HGWriteBatch} bound to the current thread, if any.
+     * The batch is detached even if flushing it fails.
+     * </p>
+     * 
+     * @param flush Whether to write pending records to storage first. Pass <code>false</code>
+     * when the enclosing transaction is being aborted anyway.
+     * @return The detached batch or <code>null</code> if there wasn't one.
+     */
+    public HGWriteBatch detachWriteBatch(boolean flush)
+    {
+        HGWriteBatch batch = writeBatch.get();
+        if (batch != null)
+        {
+            writeBatch.set(null);
+            if (flush)
+                storeBatch(batch);
+            batch.clear();
+        }
+        return batch;
+    }
+    
+    /**
+     * <p>
+     * Return the {@link HGWriteBatch} bound to the current thread or <code>null</code>
+     * if there isn't one.
+     * </p>
+     */
+    public HGWriteBatch getWriteBatch()
+    {
+        return writeBatch.get();
+    }
+    
+    /**
+     * <p>
+     * Write any pending records in the {@link HGWriteBatch} bound to the current thread
+     * as well as any incidence entries deferred by the current transaction.  
+     * </p>
+     */
+    public void flushWriteBatch()
+    {
+        HGWriteBatch batch = writeBatch.get();
+        if (batch != null && !batch.isEmpty())
+        {
+            storeBatch(batch);
+            batch.clear();
+        }
+        batch = getDeferredIncidence(false);
+        if (batch != null && !batch.isEmpty())
+        {
+            storeBatch(batch);
+            batch.clear();
+        }
+    }
+    
+    /**
+     * Return the incidence entries deferred by the current transaction, optionally creating
+     * the buffer and scheduling its flush at commit time. Outside of a transaction, there
+     * is nothing to defer to and <code>null</code> is returned.
+     */
+    private HGWriteBatch getDeferredIncidence(boolean create)
+    {
+        if (!config.isDeferIncidenceWrites())
+            return null;
+        final HGTransaction tx = transactionManager.getContext().getCurrent();
+        if (tx == null)
+            return null;
+        HGWriteBatch batch = tx.getAttribute(deferredIncidenceKey);
+        if (batch == null && create)
+        {
+            final HGWriteBatch deferred = new HGWriteBatch(config.getIncidenceWriteBufferSize());
+            tx.setAttribute(deferredIncidenceKey, deferred);
+            tx.addBeforeCommitAction(new Runnable() {
+                public void run()
+                {
+                    if (!deferred.isEmpty())
+                        impl.storeBatch(deferred);
+                    tx.removeAttribute(deferredIncidenceKey);
+                }
+            });
+            batch = deferred;
+        }
+        return batch;
+    }
+    
+    private void flushIfFull(HGWriteBatch batch)
+    {
+        if (batch.isFull())
+        {
+            storeBatch(batch);
+            batch.clear();
+        }
+    }
+    
     /**
      * <p>
      * Retrieve an <code>HGIndex</code> by its name. An index will not 
@@ -360,6 +740,7 @@ public class HGStore
      */
     public void removeIndex(String name)
     {
+        checkWritable();
         impl.removeIndex(name);
     }
         
@@ -24,6 +24,7 @@ import org.hypergraphdb.atom.HGSubsumes;
 import org.hypergraphdb.atom.HGTypeStructuralInfo;
 import org.hypergraphdb.event.HGLoadPredefinedTypeEvent;
 import org.hypergraphdb.handle.HGLiveHandle;
+import org.hypergraphdb.query.cond2qry.QueryPlanCache;
 import org.hypergraphdb.storage.BAtoHandle;
 import org.hypergraphdb.storage.BAtoString;
 import org.hypergraphdb.transaction.HGTransactionConfig;
@@ -388,8 +389,17 @@ public class HGTypeSystem
 	    return config.getDefaultSchema();
 	}
 	
+	// Query plans depend on the types defined and their sub-typing relationships.
+	private void typesChanged()
+	{
+		QueryPlanCache cache = graph.getQueryPlanCache();
+		if (cache != null)
+			cache.invalidate();
+	}
+	
 	public void defineTypeAtom(final HGHandle typeHandle, final URI typeUri)
 	{
+		typesChanged();
 	    final HGTypeSchema<?> schema = config.getSchema(typeUri.getScheme());	    
         if (graph.getTransactionManager().getContext().getCurrent() != null)
         {
@@ -455,6 +465,7 @@ public class HGTypeSystem
 	{
         graph.add(new HGSubsumes(superType, subType));
         graph.getIndexManager().registerSubtype(superType, subType);                	    
+        typesChanged();
 	}
 	
 	/**
@@ -673,6 +684,7 @@ public class HGTypeSystem
 	
 	private HGHandle addPredefinedTypeTransaction(HGPersistentHandle handle, HGAtomType type, final URI typeId)
 	{	    
+		typesChanged();
 	    type.setHyperGraph(graph);
 	    
 		//
@@ -773,6 +785,7 @@ public class HGTypeSystem
                 javaSchema.removeType(uri);
                 getUriDB().removeAllEntries(uri.toString());
                 getUriDB().addEntry(uri.toString(), typeHandle.getPersistent());
+                typesChanged();
 				return null;
             }
         });		
@@ -1132,6 +1145,7 @@ public class HGTypeSystem
 	 */
 	void remove(final HGPersistentHandle typeHandle, final HGAtomType type)
 	{
+		typesChanged();
 		//
 		// Remove subsumes relationships.
 		//
@@ -8,6 +8,7 @@
 package org.hypergraphdb;
 
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
@@ -19,6 +20,8 @@ import org.hypergraphdb.atom.HGAtomRef;
 import org.hypergraphdb.atom.HGStats;
 import org.hypergraphdb.cache.HGCache;
 import org.hypergraphdb.cache.MRUCache;
+import org.hypergraphdb.cache.ShardedAtomCache;
+import org.hypergraphdb.cache.TinyLFUCache;
 import org.hypergraphdb.cache.WeakRefAtomCache;
 import org.hypergraphdb.event.HGAtomAccessedEvent;
 import org.hypergraphdb.event.HGAtomAddedEvent;
@@ -40,7 +43,9 @@ import org.hypergraphdb.maintenance.MaintenanceException;
 import org.hypergraphdb.maintenance.MaintenanceOperation;
 import org.hypergraphdb.query.AtomTypeCondition;
 import org.hypergraphdb.query.HGQueryCondition;
+import org.hypergraphdb.query.cond2qry.QueryPlanCache;
 import org.hypergraphdb.storage.BAtoHandle;
+import org.hypergraphdb.storage.HGWriteBatch;
 import org.hypergraphdb.transaction.HGTransactionConfig;
 import org.hypergraphdb.transaction.HGTransactionManager;
 import org.hypergraphdb.type.AtomRefType;
@@ -153,6 +158,16 @@ public /*final*/ class HyperGraph implements HyperNode
      */
     private HGIndexManager idx_manager = null;
     
+    /**
+     * Cardinality statistics used by the query planner.
+     */
+    private HGStatistics statistics = null;
+    
+    /**
+     * Compiled query plans reused by queries of the same shape.
+     */
+    private QueryPlanCache queryPlanCache = null;
+    
     /**
      * The hypergraph typing manager. Integrates tightly with a HyperGraph
      * instance.
@@ -312,6 +327,24 @@ public /*final*/ class HyperGraph implements HyperNode
 			}
 	}
 	
+	/**
+	 * <p>Instantiate the atom cache class specified in the configuration.</p>
+	 */
+	private HGAtomCache makeAtomCache() throws Exception
+	{
+	    Class<? extends HGAtomCache> cacheClass = config.getAtomCacheImplementation();
+	    if (cacheClass == null || cacheClass == WeakRefAtomCache.class)
+	        return new WeakRefAtomCache(this);
+	    try
+	    {
+	        return cacheClass.getConstructor(HyperGraph.class).newInstance(this);
+	    }
+	    catch (NoSuchMethodException ex)
+	    {
+	        return cacheClass.newInstance();
+	    }
+	}
+	
 	/**
      * <p>Open the database if it's not already open.</p>
      */
@@ -326,14 +359,23 @@ public /*final*/ class HyperGraph implements HyperNode
 	        store.getTransactionManager().setHyperGraph(this);
 	        eventManager = config.getEventManager();	 
 	        eventManager.setHyperGraph(this);
-	        cache = new WeakRefAtomCache(this);
+	        cache = makeAtomCache();
 	        cache.setHyperGraph(this);
-	        HGCache<HGPersistentHandle, IncidenceSet> incidenceCache = 
-	        	new MRUCache<HGPersistentHandle, IncidenceSet>(0.9f, 0.3f);
-	        ((MRUCache<HGPersistentHandle, IncidenceSet>)incidenceCache).setLockImplementation(
-                    new ReentrantReadWriteLock()	                                                                                           
-	        		/* new HGLock(this, INCIDENCE_CACHE_ID) */);
-	        	// new SimpleCache<HGPersistentHandle, IncidenceSet>();
+	        // The atom cache may come with its own incidence set cache
+	        HGCache<HGPersistentHandle, IncidenceSet> incidenceCache = cache.getIncidenceCache();
+	        if (incidenceCache == null && config.getIncidenceCacheMaxBytes() > 0)
+	        	incidenceCache = new TinyLFUCache<HGPersistentHandle, IncidenceSet>(
+	        			config.getIncidenceCacheMaxBytes(), 
+	        			IncidenceSet.ESTIMATED_BYTES, 
+	        			ShardedAtomCache.defaultShardCount());
+	        else if (incidenceCache == null)
+	        {
+    	        incidenceCache = new MRUCache<HGPersistentHandle, IncidenceSet>(0.9f, 0.3f);
+    	        ((MRUCache<HGPersistentHandle, IncidenceSet>)incidenceCache).setLockImplementation(
+                        new ReentrantReadWriteLock()	                                                                                           
+    	        		/* new HGLock(this, INCIDENCE_CACHE_ID) */);
+    	        	// new SimpleCache<HGPersistentHandle, IncidenceSet>();
+	        }
 	        incidenceCache.setResolver(new ISRefResolver(this));
 	        cache.setIncidenceCache(incidenceCache);
 	        
@@ -359,6 +401,8 @@ public /*final*/ class HyperGraph implements HyperNode
     	                                            null,
     	                                            true);
 	        
+	        statistics = new HGStatistics(this);
+	        queryPlanCache = new QueryPlanCache(getTransactionManager(), config.getQueryPlanCacheSize());
 	        idx_manager = new HGIndexManager(this);
 	        
 	        //
@@ -648,6 +692,7 @@ public /*final*/ class HyperGraph implements HyperNode
      */
     public HGHandle add(Object atom, int flags)
     {
+    	store.checkWritable();
     	HGHandle result;
     	
         if (atom instanceof HGLink)
@@ -672,6 +717,47 @@ public /*final*/ class HyperGraph implements HyperNode
         return result;
     }
     
+    /**
+     * <p>Add a collection of new atoms to the database in a single transaction using the 
+     * default typing mechanism and default system flags. This is equivalent to calling
+     * <code>add</code> for each element of the collection, but considerably faster for
+     * large collections since the low-level storage records are accumulated in a 
+     * {@link HGWriteBatch} and written out in key order rather than one at a time.
+     * </p>
+     * 
+     * @param atoms The atoms to add. Elements that are {@link HGLink}s may refer to 
+     * atoms added earlier in the same collection.
+     * @return The handles of the newly created atoms, in the iteration order of 
+     * <code>atoms</code>.
+     */
+    public List<HGHandle> addAll(final Collection<?> atoms)
+    {
+    	store.checkWritable();
+    	return getTransactionManager().ensureTransaction(new Callable<List<HGHandle>>() 
+    	{ public List<HGHandle> call() {
+    		List<HGHandle> result = new ArrayList<HGHandle>(atoms.size());
+    		if (store.getWriteBatch() != null)
+    		{
+    			for (Object atom : atoms)
+    				result.add(add(atom));
+    			return result;
+    		}
+    		store.attachWriteBatch(new HGWriteBatch());
+    		boolean done = false;
+    		try
+    		{
+    			for (Object atom : atoms)
+    				result.add(add(atom));
+    			done = true;
+    		}
+    		finally
+    		{
+    			store.detachWriteBatch(done);
+    		}
+    		return result;
+    	}});
+    }
+    
     /**
      * <p>Add a new atom with a specified type and default system flags to the database.</p>
      * 
@@ -696,6 +782,7 @@ public /*final*/ class HyperGraph implements HyperNode
      */
     public HGHandle add(Object atom, HGHandle type, int flags)
     {
+        store.checkWritable();
         if (eventManager.dispatch(this, 
                new HGAtomProposeEvent(atom, type, flags)) == HGListener.Result.cancel)
             return null;
@@ -1004,6 +1091,7 @@ public /*final*/ class HyperGraph implements HyperNode
      */
     public boolean remove(final HGHandle handle, final boolean keepIncidentLinks)
     {
+    	store.checkWritable();
     	if (eventManager.dispatch(this, new HGAtomRemoveRequestEvent(handle)) == HGListener.Result.cancel)
     		throw new HGRemoveRefusedException(handle, "Removal cancelled by atom listener");
     	
@@ -1073,6 +1161,7 @@ public /*final*/ class HyperGraph implements HyperNode
 	        //
 	        idx_manager.maybeUnindex(typeHandle, type, pHandle, atom);        
 	        indexByType.removeEntry(typeHandle, pHandle);
+	        statistics.entryRemoved(indexByType, typeHandle);
 	        indexByValue.removeEntry(valueHandle, pHandle);
 	
 	        //
@@ -1249,6 +1338,7 @@ public /*final*/ class HyperGraph implements HyperNode
      */
     public boolean replace(HGHandle handle, Object atom, HGHandle type)
     {
+        store.checkWritable();
         if (eventManager.dispatch(this, 
                    new HGAtomReplaceRequestEvent(handle, type, atom)) == HGListener.Result.cancel)
             return false;
@@ -1302,6 +1392,7 @@ public /*final*/ class HyperGraph implements HyperNode
     				   final HGLink   outgoingSet,
     				   final Object instance)
     {
+    	store.checkWritable();
     	getTransactionManager().ensureTransaction(new Callable<Object>() 
     	{ public Object call() {
     	    if (get(atomHandle) != null)
@@ -1314,6 +1405,7 @@ public /*final*/ class HyperGraph implements HyperNode
 	    			layout[i + 2] = getPersistentHandle(outgoingSet.getTargetAt(i));
 	    	store.store(atomHandle.getPersistent(), layout);
 	    	indexByType.addEntry(layout[0], atomHandle.getPersistent());
+	    	statistics.entryAdded(indexByType, layout[0]);
 	    	indexByValue.addEntry(layout[1], atomHandle.getPersistent());
 	    	
 	    	// Need to construct the value and add it to atom indices.	    	
@@ -1379,6 +1471,7 @@ public /*final*/ class HyperGraph implements HyperNode
                        final Object instance, 
                        final int flags)
     {
+        store.checkWritable();
         getTransactionManager().ensureTransaction(new Callable<Object>() 
           { public Object call() {        
               HGAtomType type = typeSystem.getType(typeHandle);
@@ -1424,6 +1517,35 @@ public /*final*/ class HyperGraph implements HyperNode
     	return cache.getIncidenceCache().get(getPersistentHandle(handle));
     }
     
+    /**
+     * <p>Load the incidence sets of several atoms in the incidence set cache at once. The
+     * sets not already in the cache are read in storage order in a single batch, rather than
+     * with one random lookup per atom as <code>getIncidenceSet</code> does. This is meant for
+     * graph traversals and other algorithms about to examine the incidence sets of many 
+     * atoms.</p>
+     * 
+     * @param atoms The handles of the atoms whose incidence sets will be needed.
+     */
+    public void prefetchIncidenceSets(HGHandle [] atoms)
+    {
+    	HGCache<HGPersistentHandle, IncidenceSet> incidenceCache = cache.getIncidenceCache();
+    	Set<HGPersistentHandle> keys = new HashSet<HGPersistentHandle>();
+    	for (HGHandle atom : atoms)
+    	{
+    		HGPersistentHandle key = getPersistentHandle(atom);
+    		if (incidenceCache.getIfLoaded(key) == null)
+    			keys.add(key);
+    	}
+    	if (keys.isEmpty())
+    		return;
+    	HGPersistentHandle [] A = keys.toArray(new HGPersistentHandle[keys.size()]);
+    	if (incidenceCache.getResolver() instanceof ISRefResolver)
+    		((ISRefResolver)incidenceCache.getResolver()).prefetch(incidenceCache, A);
+    	else
+    		for (HGPersistentHandle key : A)
+    			incidenceCache.get(key);
+    }
+    
     public int getSystemFlags(HGHandle handle)
     {
         if (!config.isUseSystemAtomAttributes())
@@ -1447,6 +1569,7 @@ public /*final*/ class HyperGraph implements HyperNode
     {
         if (!config.isUseSystemAtomAttributes())
             return;
+        store.checkWritable();
     	getTransactionManager().ensureTransaction(new Callable<Object>() 
     	{ public Object call() {
 	    	//
@@ -1563,6 +1686,28 @@ public /*final*/ class HyperGraph implements HyperNode
     	return idx_manager;
     }
     
+    /**
+     * <p>
+     * Return the cardinality statistics of this HyperGraph instance: atom counts per
+     * type and index key counts and histograms, used by the query planner.
+     * </p>
+     */
+    public HGStatistics getStatistics()
+    {
+    	return statistics;
+    }
+    
+    /**
+     * <p>
+     * Return the cache of compiled query plans of this HyperGraph instance, or <code>null</code>
+     * if the graph is not open.
+     * </p>
+     */
+    public QueryPlanCache getQueryPlanCache()
+    {
+    	return queryPlanCache;
+    }
+    
     // ------------------------------------------------------------------------
     // PRIVATE METHOD SECTION
     // ------------------------------------------------------------------------
@@ -1582,6 +1727,7 @@ public /*final*/ class HyperGraph implements HyperNode
 	        if (payload instanceof HGTypeHolder)
 	        	((HGTypeHolder<HGAtomType>)payload).setAtomType(type);    	        	        	        
 	        indexByType.addEntry(pTypeHandle, lHandle.getPersistent());
+	        statistics.entryAdded(indexByType, pTypeHandle);
 	        indexByValue.addEntry(valueHandle, lHandle.getPersistent());
 	        idx_manager.maybeIndex(pTypeHandle, type, lHandle.getPersistent(), payload);	        
 	        return lHandle;    
@@ -1621,6 +1767,7 @@ public /*final*/ class HyperGraph implements HyperNode
 	        if (payload instanceof HGTypeHolder)
 	        	((HGTypeHolder<HGAtomType>)payload).setAtomType(type);    	        	        	        
 	        indexByType.addEntry(pTypeHandle, pHandle);
+	        statistics.entryAdded(indexByType, pTypeHandle);
 	        indexByValue.addEntry(valueHandle, pHandle);
 	        idx_manager.maybeIndex(pTypeHandle, type, pHandle, payload);	
 	        //
@@ -2106,6 +2253,8 @@ public /*final*/ class HyperGraph implements HyperNode
 	    	{        	
 	    		indexByType.removeEntry(getPersistentHandle(oldTypeHandle), pHandle);
 	    		indexByType.addEntry(getPersistentHandle(typeHandle), pHandle);
+	    		statistics.entryRemoved(indexByType, getPersistentHandle(oldTypeHandle));
+	    		statistics.entryAdded(indexByType, getPersistentHandle(typeHandle));
 	    	}
 
 	    	TypeUtils.releaseValue(HyperGraph.this, oldType, layout[1]);
@@ -7,17 +7,19 @@
  */
 package org.hypergraphdb;
 
-import java.util.ArrayList;
-
+import java.util.HashMap;
+import java.util.Map;
+
+import org.hypergraphdb.cache.HGCache;
 import org.hypergraphdb.handle.HGLiveHandle;
+import org.hypergraphdb.storage.PackedHandleArray;
+import org.hypergraphdb.storage.PackedHandleSet;
 import org.hypergraphdb.storage.StorageBasedIncidenceSet;
 import org.hypergraphdb.transaction.TxCacheSet;
 import org.hypergraphdb.transaction.TxSet.SetTxBox;
 import org.hypergraphdb.util.ArrayBasedSet;
-import org.hypergraphdb.util.CountMe;
 import org.hypergraphdb.util.DummyReadWriteLock;
 import org.hypergraphdb.util.HGSortedSet;
-import org.hypergraphdb.util.HGUtils;
 import org.hypergraphdb.util.RefCountedMap;
 import org.hypergraphdb.util.RefResolver;
 
@@ -35,29 +37,19 @@ import org.hypergraphdb.util.RefResolver;
 class ISRefResolver implements RefResolver<HGPersistentHandle, IncidenceSet>
 {
 	HyperGraph graph;
-	int keepInMemoryThreshold;
+	int keepInMemoryThreshold;
+	boolean pack;
 	RefCountedMap<HGPersistentHandle, SetTxBox<HGHandle>> writeMap;
+	// incidence sets read in bulk by 'prefetch', for 'resolve' calls of the same thread
+	ThreadLocal<Map<HGPersistentHandle, PackedHandleArray>> prefetched = 
+		new ThreadLocal<Map<HGPersistentHandle, PackedHandleArray>>();
 
 	RefResolver<HGPersistentHandle, HGSortedSet<HGHandle>> loader =
 		new RefResolver<HGPersistentHandle, HGSortedSet<HGHandle>>()
 		{
 			public HGSortedSet<HGHandle> resolve(HGPersistentHandle key)
 			{
-				HGSearchResult<HGPersistentHandle> rs = graph.getStore().getIncidenceResultSet(key);
-				try
-				{
-					int size = rs == HGSearchResult.EMPTY ? 0 : ((CountMe)rs).count();
-					HGPersistentHandle [] A = new HGPersistentHandle[size];
-					for (int i = 0; i < A.length; i++)
-						A[i] = rs.next();
-					ArrayBasedSet<HGHandle> impl = new ArrayBasedSet<HGHandle>(A);
-					impl.setLock(new DummyReadWriteLock());
-					return impl;
-				}
-				finally
-				{
-					rs.close();
-				}
+				return load(key);
 			}
 	};
 
@@ -65,41 +57,108 @@ class ISRefResolver implements RefResolver<HGPersistentHandle, IncidenceSet>
 	{
 		this.graph = graph;
 		this.keepInMemoryThreshold = graph.getConfig().getMaxCachedIncidenceSetSize();
+		this.pack = graph.getConfig().isPackIncidenceSets() && 
+			PackedHandleSet.supports(graph.getHandleFactory().nullHandle().toByteArray().length);
 		this.writeMap = new RefCountedMap<HGPersistentHandle, SetTxBox<HGHandle>>(null);
 	}
 
-	public IncidenceSet resolve(HGPersistentHandle key)
+	/**
+	 * Read the whole incidence set in one cursor pass into a packed buffer and decode
+	 * it once, instead of going through a result set element by element.
+	 */
+	HGHandle [] readIncidenceSet(HGPersistentHandle key)
+	{
+		PackedHandleArray packed = readPacked(key);
+		HGHandle [] A = new HGHandle[packed.size()];
+		for (int i = 0; i < A.length; i++)
+			A[i] = packed.get(i);
+		return A;
+	}
+	
+	/**
+	 * Read an incidence set packed as in storage, unless it was just prefetched.
+	 */
+	PackedHandleArray readPacked(HGPersistentHandle key)
+	{
+		Map<HGPersistentHandle, PackedHandleArray> m = prefetched.get();
+		PackedHandleArray packed = m == null ? null : m.remove(key);
+		if (packed == null)
+		{
+			packed = new PackedHandleArray(graph.getHandleFactory());
+			graph.getStore().getIncidenceSet(key, packed);
+		}
+		return packed;
+	}
+	
+	/**
+	 * Read the incidence sets of several atoms in one batch and load them in the cache,
+	 * the way single sets are loaded when they are first looked up.
+	 */
+	void prefetch(HGCache<HGPersistentHandle, IncidenceSet> cache, HGPersistentHandle [] keys)
 	{
-		HGSearchResult<HGPersistentHandle> rs = graph.getStore().getIncidenceResultSet(key);
+		PackedHandleArray [] sets = new PackedHandleArray[keys.length];
+		Map<HGPersistentHandle, PackedHandleArray> m = new HashMap<HGPersistentHandle, PackedHandleArray>();
+		for (int i = 0; i < keys.length; i++)
+			sets[i] = new PackedHandleArray(graph.getHandleFactory());
+		graph.getStore().getIncidenceSets(keys, sets);
+		for (int i = 0; i < keys.length; i++)
+			m.put(keys[i], sets[i]);
+		prefetched.set(m);
 		try
 		{
-			int size = keepInMemoryThreshold;
-			if (keepInMemoryThreshold < Integer.MAX_VALUE)
-				size = rs == HGSearchResult.EMPTY ? 0 : ((CountMe)rs).count();
-			if (size <= keepInMemoryThreshold)
-			{
-				ArrayList<HGPersistentHandle> A = new ArrayList<HGPersistentHandle>();
-				while (rs.hasNext())
-					A.add(rs.next());
-				ArrayBasedSet<HGHandle> impl = new ArrayBasedSet<HGHandle>(A.toArray(HGUtils.EMPTY_HANDLE_ARRAY));
-				impl.setLock(new DummyReadWriteLock());
-				IncidenceSet result = new IncidenceSet(key,
-														new TxCacheSet(graph.getTransactionManager(),
-																					 impl,
-																					 key,
-																					 loader,
-																					 writeMap));
-				HGLiveHandle lHandle = graph.cache.get(key);
-				if (lHandle != null)
-					graph.updateLinksInIncidenceSet(result, lHandle);
-				return result;
-			}
-			else
-				return new IncidenceSet(key, new StorageBasedIncidenceSet(key, graph));
+			for (HGPersistentHandle key : keys)
+				cache.get(key);
 		}
 		finally
 		{
-			rs.close();
+			prefetched.remove();
+		}
+	}
+	
+	/**
+	 * Load an incidence set in its in-memory form: packed and, when large enough, delta
+	 * compressed if so configured, or else an array of handle objects.
+	 */
+	HGSortedSet<HGHandle> load(HGPersistentHandle key)
+	{
+		if (pack)
+		{
+			PackedHandleArray packed = readPacked(key);
+			PackedHandleSet impl = PackedHandleSet.fromPacked(packed, graph.getHandleFactory());
+			impl.compact();
+			return impl;
+		}
+		ArrayBasedSet<HGHandle> impl = new ArrayBasedSet<HGHandle>(readIncidenceSet(key));
+		impl.setLock(new DummyReadWriteLock());
+		return impl;
+	}
+	
+	public IncidenceSet resolve(HGPersistentHandle key)
+	{
+		long size = keepInMemoryThreshold;
+		if (keepInMemoryThreshold < Integer.MAX_VALUE)
+		{
+			Map<HGPersistentHandle, PackedHandleArray> m = prefetched.get();
+			PackedHandleArray packed = m == null ? null : m.get(key);
+			size = packed != null ? packed.size() : graph.getStore().getIncidenceSetCardinality(key);
+		}
+		if (size <= keepInMemoryThreshold)
+		{
+			HGSortedSet<HGHandle> impl = load(key);
+			long bytes = impl instanceof PackedHandleSet ? ((PackedHandleSet)impl).getEstimatedBytes() : -1;
+			IncidenceSet result = new IncidenceSet(key,
+													new TxCacheSet(graph.getTransactionManager(),
+																				 impl,
+																				 key,
+																				 loader,
+																				 writeMap),
+													bytes);
+			HGLiveHandle lHandle = graph.cache.get(key);
+			if (lHandle != null)
+				graph.updateLinksInIncidenceSet(result, lHandle);
+			return result;
 		}
+		else
+			return new IncidenceSet(key, new StorageBasedIncidenceSet(key, graph), 64);
 	}
 }
\ No newline at end of file
@@ -9,6 +9,7 @@ package org.hypergraphdb;
 
 import org.hypergraphdb.atom.HGAtomSet;
 import org.hypergraphdb.util.HGSortedSet;
+import org.hypergraphdb.util.Mapping;
 
 /**
  * 
@@ -22,13 +23,50 @@ import org.hypergraphdb.util.HGSortedSet;
  */
 public final class IncidenceSet extends HGAtomSet
 {
+	/**
+	 * <p>
+	 * Weighs incidence sets by their estimated memory footprint in bytes, for caches
+	 * budgeted in bytes (see <code>HGConfiguration.setIncidenceCacheMaxBytes</code>).
+	 * </p>
+	 */
+	public static final Mapping<IncidenceSet, Integer> ESTIMATED_BYTES = new Mapping<IncidenceSet, Integer>()
+	{
+		public Integer eval(IncidenceSet set)
+		{
+			long bytes = set.getEstimatedBytes();
+			if (bytes < 0) // a set of handle objects, about 80 bytes each with a UUID handle 
+				bytes = 64 + 80L*set.size();
+			return (int)Math.min(bytes, Integer.MAX_VALUE);
+		}
+	};
+	
 	private HGHandle atom;
+	private long estimatedBytes = -1;
 	
 	public IncidenceSet(HGHandle atom, HGSortedSet<HGHandle> impl)
 	{
 		super(impl);
 		this.atom = atom;
 	}
+	
+	/**
+	 * @param estimatedBytes The memory footprint of <code>impl</code> in bytes, as 
+	 * estimated when the set is loaded.
+	 */
+	public IncidenceSet(HGHandle atom, HGSortedSet<HGHandle> impl, long estimatedBytes)
+	{
+		this(atom, impl);
+		this.estimatedBytes = estimatedBytes;
+	}
+	
+	/**
+	 * <p>Return the memory footprint of the set in bytes as estimated when it was loaded, or
+	 * -1 if unknown.</p>
+	 */
+	public long getEstimatedBytes()
+	{
+		return estimatedBytes;
+	}
 	
 	/**
 	 * <p>Return the atom whose incidence set this instance represents.
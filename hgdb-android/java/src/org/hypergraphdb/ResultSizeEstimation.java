@@ -74,6 +74,24 @@ class ResultSizeEstimation
     	}		
 	}	
 	
+	// The size of the result set if it can be counted without running the query, -1 otherwise.
+	static long estimate(HyperGraph graph, HGQueryCondition cond)
+	{
+		Counter counter = countersMap.get(cond.getClass());
+		try
+		{
+			if (counter == null || counter.cost(graph, cond) >= Integer.MAX_VALUE)
+				return -1;
+			else
+				return counter.count(graph, cond);
+		}
+		catch (RuntimeException ex)
+		{
+			// conditions that can't be counted on their own, unbound variables etc.
+			return -1;
+		}
+	}
+	
 	// The default version when no counts can be obtained by simple means
 	static class FullScanCounter implements Counter
 	{
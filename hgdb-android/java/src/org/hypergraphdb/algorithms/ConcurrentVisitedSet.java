@@ -0,0 +1,105 @@
+/*
+ * This file is part of the HyperGraphDB source distribution. This is copyrighted
+ * software. For permitted uses, licensing options and redistribution, please see
+ * the LicensingInformation file at the root level of the distribution.
+ *
+ * Copyright (c) 2005-2010 Kobrix Software, Inc.  All rights reserved.
+ */
+package org.hypergraphdb.algorithms;
+
+import org.hypergraphdb.HGHandle;
+import org.hypergraphdb.HGPersistentHandle;
+import org.hypergraphdb.handle.HGLiveHandle;
+
+/**
+ * <p>
+ * The thread-safe counterpart of {@link VisitedSet}, for single atoms only. The hash
+ * table is split in segments with a lock each, so that threads marking different atoms
+ * rarely wait for each other.
+ * </p>
+ */
+public class ConcurrentVisitedSet
+{
+	private static final int SEGMENTS = 64;
+
+	// A segment has a buffer for the keys looked up under its lock.
+	private static final class Segment extends HandleTable
+	{
+		final long [] key = new long[2];
+	}
+
+	private final Segment [] segments = new Segment[SEGMENTS];
+
+	private byte mark(HGHandle h, byte state)
+	{
+		HGPersistentHandle p = h instanceof HGLiveHandle ? ((HGLiveHandle)h).getPersistent() : (HGPersistentHandle)h;
+		Segment s = segments[(p.hashCode()*0x9E3779B9) >>> 26];
+		synchronized (s)
+		{
+			int width = HandleTable.toKey(p, s.key, 0);
+			return s.mark(s.key, width, HandleTable.hash(s.key, width), state);
+		}
+	}
+
+	public ConcurrentVisitedSet()
+	{
+		for (int i = 0; i < SEGMENTS; i++)
+			segments[i] = new Segment();
+	}
+
+	/**
+	 * <p>Mark an atom as reached and return <code>true</code> if it wasn't reached or
+	 * visited before. When several threads reach the same atom, only one of them
+	 * gets <code>true</code>.</p>
+	 */
+	public boolean reach(HGHandle h)
+	{
+		return mark(h, HandleTable.REACHED) == HandleTable.ABSENT;
+	}
+
+	/**
+	 * <p>Mark an atom as visited, and reached if it wasn't.</p>
+	 */
+	public void visit(HGHandle h)
+	{
+		mark(h, HandleTable.VISITED);
+	}
+
+	public boolean isReached(HGHandle h)
+	{
+		return mark(h, HandleTable.ABSENT) != HandleTable.ABSENT;
+	}
+
+	public boolean isVisited(HGHandle h)
+	{
+		return mark(h, HandleTable.ABSENT) == HandleTable.VISITED;
+	}
+
+	/**
+	 * <p>Return the number of atoms reached so far.</p>
+	 */
+	public int size()
+	{
+		int size = 0;
+		for (HandleTable s : segments)
+			synchronized (s) { size += s.size(); }
+		return size;
+	}
+
+	public void clear()
+	{
+		for (HandleTable s : segments)
+			synchronized (s) { s.clear(); }
+	}
+
+	/**
+	 * <p>Return the memory taken by the hash tables, in bytes.</p>
+	 */
+	public long getEstimatedBytes()
+	{
+		long bytes = 0;
+		for (HandleTable s : segments)
+			synchronized (s) { bytes += s.getEstimatedBytes(); }
+		return bytes;
+	}
+}
@@ -7,11 +7,6 @@
  */
 package org.hypergraphdb.algorithms;
 
-import java.util.HashMap;
-import java.util.LinkedList;
-import java.util.Map;
-import java.util.Queue;
-
 import org.hypergraphdb.HGHandle;
 import org.hypergraphdb.HGSearchResult;
 import org.hypergraphdb.util.Pair;
@@ -28,20 +23,18 @@ public class CopyGraphTraversal implements HGTraversal
 {
     private HGHandle startAtom;
     private int maxDistance; // the maximum reachable distance from the starting node
-    // The following maps contains all atoms that have been reached: if they have
-    // been actually visited (i.e. returned by the 'next' method), they map to 
-    // Boolean.TRUE, otherwise they map to Boolean.FALSE.
-    private Map<Pair<HGHandle, HGHandle>, Boolean> examined = 
-        new HashMap<Pair<HGHandle, HGHandle>, Boolean>();
-    private Queue<Pair<Pair<HGHandle, HGHandle>, Integer>> to_explore = 
-        new LinkedList<Pair<Pair<HGHandle, HGHandle>, Integer>>();
+    // All [link, atom] pairs that have been reached, those actually returned by the 
+    // 'next' method are also marked as visited, as are their atoms in 'visited'.
+    private VisitedSet examined = new VisitedSet();
+    private VisitedSet visited = new VisitedSet();
+    private TraversalFrontier to_explore = new TraversalFrontier();
     private HGALGenerator adjListGenerator;
     private boolean initialized = false;
     
     private void init()
     {
         this.maxDistance = Integer.MAX_VALUE;       
-        examined.put(new Pair<HGHandle, HGHandle>(null, startAtom), Boolean.TRUE);
+        visited.visit(startAtom);
         advance(startAtom, 0);          
         initialized = true;        
     }
@@ -54,15 +47,12 @@ public class CopyGraphTraversal implements HGTraversal
         HGSearchResult<Pair<HGHandle, HGHandle>> i = adjListGenerator.generate(from);
         try
         {
-	        Integer dd = distance + 1;
+	        int dd = distance + 1;
 	        while (i.hasNext())
-	        {
+	        {
 	            Pair<HGHandle, HGHandle> curr = i.next();
-	            if (!examined.containsKey(curr))
-	            {                
-	                to_explore.add(new Pair<Pair<HGHandle, HGHandle>, Integer>(curr, dd));
-	                examined.put(curr, Boolean.FALSE);
-	            }
+	            if (examined.reach(curr.getFirst(), curr.getSecond()))
+	                to_explore.add(curr.getFirst(), curr.getSecond(), dd);
 	        }
         }
         finally
@@ -121,8 +111,7 @@ public class CopyGraphTraversal implements HGTraversal
 
     public boolean isVisited(HGHandle handle) 
     {
-        Boolean b = examined.get(handle);
-        return b != null && b;
+        return visited.isVisited(handle);
     }
 
     public Pair<HGHandle, HGHandle> next() 
@@ -132,10 +121,11 @@ public class CopyGraphTraversal implements HGTraversal
         Pair<HGHandle, HGHandle> rvalue = null;     
         if (!to_explore.isEmpty())
         {
-            Pair<Pair<HGHandle, HGHandle>, Integer> x = to_explore.remove();
-            rvalue = x.getFirst();
-            examined.put(rvalue, Boolean.TRUE);
-            advance(rvalue.getSecond(), x.getSecond());
+            to_explore.removeFirst();
+            rvalue = new Pair<HGHandle, HGHandle>(to_explore.getLink(), to_explore.getAtom());
+            examined.visit(rvalue.getFirst(), rvalue.getSecond());
+            visited.visit(rvalue.getSecond());
+            advance(rvalue.getSecond(), to_explore.getDistance());
         }
         return rvalue;
     }
@@ -143,6 +133,7 @@ public class CopyGraphTraversal implements HGTraversal
     public void reset()
     {
         examined.clear();
+        visited.clear();
         to_explore.clear();
         init();
     }}
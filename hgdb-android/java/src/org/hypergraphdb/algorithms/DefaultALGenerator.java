@@ -68,9 +68,15 @@ import org.hypergraphdb.util.TempLink;
  * instead which will be somewhat faster.
  * </p>
  * 
+ * <p>
+ * The adjacency lists of many atoms can be read at once with <code>prefetch</code>, see
+ * {@link HGBatchALGenerator}. Only the incidence sets and link target sets are prefetched,
+ * the link and sibling predicates are still evaluated by <code>generate</code>.
+ * </p>
+ * 
  * @author Borislav Iordanov
  */
-public class DefaultALGenerator implements HGALGenerator, CloseMe
+public class DefaultALGenerator implements HGBatchALGenerator, CloseMe
 {
 	protected HyperGraph hg;
 	private TempLink tempLink = new TempLink(HyperGraph.EMPTY_HANDLE_SET);
@@ -81,6 +87,7 @@ public class DefaultALGenerator implements HGALGenerator, CloseMe
 				    reverseOrder = false,
 				    returnSource = false;
 	private AdjIterator currIterator = null;
+	private PrefetchedAdjacency prefetched = new PrefetchedAdjacency();
 	
 	protected class AdjIterator implements HGSearchResult<Pair<HGHandle, HGHandle>>
 	{
@@ -299,13 +306,7 @@ public class DefaultALGenerator implements HGALGenerator, CloseMe
 				hCurrLink = linksIterator.next();
 				if (linkPredicate != null && !linkPredicate.satisfies(hg, hCurrLink))
 					continue;
-				if (hg.isLoaded(hCurrLink))
-					currLink = (HGLink)hg.get(hCurrLink);
-				else
-				{
-					tempLink.setHandleArray(hg.getStore().getLink(hg.getPersistentHandle(hCurrLink)), 2);
-					currLink = tempLink;
-				}
+				currLink = prefetched.getLink(hg, hCurrLink, tempLink);
 				if (currLink.getArity() < minArity)
 					continue;
 				tsIter.reset();
@@ -508,10 +509,16 @@ public class DefaultALGenerator implements HGALGenerator, CloseMe
 							   true);
 	}
 	
+	public void prefetch(HGHandle [] atoms)
+	{
+		prefetched.load(hg, atoms);
+	}
+	
 	public void close()
 	{
 		if (currIterator != null && currIterator.closeResultSet)
 			((HGSearchResult<HGHandle>)currIterator.linksIterator).close();
+		prefetched.clear();
 	}
 
 	public HyperGraph getGraph()
@@ -0,0 +1,132 @@
+/*
+ * This file is part of the HyperGraphDB source distribution. This is copyrighted
+ * software. For permitted uses, licensing options and redistribution, please see
+ * the LicensingInformation file at the root level of the distribution.
+ *
+ * Copyright (c) 2005-2010 Kobrix Software, Inc.  All rights reserved.
+ */
+package org.hypergraphdb.algorithms;
+
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+
+/**
+ * <p>
+ * A binary min-heap of atom numbers, as given by a {@link HandleIndex}, keyed by a
+ * <code>double</code> distance. The heap is kept in parallel arrays of numbers and keys,
+ * with the position of each number in a third array, so that the key of a number in the
+ * heap can be lowered or raised in place without any objects per entry. Not thread-safe.
+ * </p>
+ */
+class DistanceHeap
+{
+	private int [] ids = new int[16];
+	private double [] keys = new double[16];
+	private int [] positions = new int[16]; // by number, position + 1 in the heap or 0
+	private int size = 0;
+
+	private void moveUp(int i, int id, double key)
+	{
+		while (i > 0)
+		{
+			int parent = (i - 1) >>> 1;
+			if (keys[parent] <= key)
+				break;
+			ids[i] = ids[parent];
+			keys[i] = keys[parent];
+			positions[ids[i]] = i + 1;
+			i = parent;
+		}
+		ids[i] = id;
+		keys[i] = key;
+		positions[id] = i + 1;
+	}
+
+	private void moveDown(int i, int id, double key)
+	{
+		int half = size >>> 1;
+		while (i < half)
+		{
+			int child = 2*i + 1;
+			if (child + 1 < size && keys[child + 1] < keys[child])
+				child++;
+			if (key <= keys[child])
+				break;
+			ids[i] = ids[child];
+			keys[i] = keys[child];
+			positions[ids[i]] = i + 1;
+			i = child;
+		}
+		ids[i] = id;
+		keys[i] = key;
+		positions[id] = i + 1;
+	}
+
+	public boolean isEmpty()
+	{
+		return size == 0;
+	}
+
+	public int size()
+	{
+		return size;
+	}
+
+	public boolean contains(int id)
+	{
+		return id < positions.length && positions[id] != 0;
+	}
+
+	/**
+	 * <p>Add a number with a key, or change its key if it's already in the heap.</p>
+	 */
+	public void put(int id, double key)
+	{
+		if (id >= positions.length)
+			positions = Arrays.copyOf(positions, Math.max(2*positions.length, id + 1));
+		int p = positions[id] - 1;
+		if (p >= 0)
+		{
+			if (key < keys[p])
+				moveUp(p, id, key);
+			else
+				moveDown(p, id, key);
+			return;
+		}
+		if (size == ids.length)
+		{
+			ids = Arrays.copyOf(ids, 2*size);
+			keys = Arrays.copyOf(keys, 2*size);
+		}
+		moveUp(size++, id, key);
+	}
+
+	/**
+	 * <p>Return the smallest key, or positive infinity when the heap is empty.</p>
+	 */
+	public double minKey()
+	{
+		return size == 0 ? Double.POSITIVE_INFINITY : keys[0];
+	}
+
+	/**
+	 * <p>Remove the number with the smallest key and return it.</p>
+	 */
+	public int poll()
+	{
+		if (size == 0)
+			throw new NoSuchElementException();
+		int result = ids[0];
+		positions[result] = 0;
+		if (--size > 0)
+			moveDown(0, ids[size], keys[size]);
+		return result;
+	}
+
+	public void clear()
+	{
+		for (int i = 0; i < size; i++)
+			positions[ids[i]] = 0;
+		size = 0;
+	}
+}
@@ -11,7 +11,6 @@ import java.util.*;
 
 import org.hypergraphdb.*;
 import org.hypergraphdb.atom.HGAtomSet;
-import org.hypergraphdb.handle.HGLiveHandle;
 import org.hypergraphdb.util.Mapping;
 import org.hypergraphdb.util.Pair;
 
@@ -95,15 +94,19 @@ public class GraphClassics
 	 * value of a data structure, the method will create and use its own. Thus,
 	 * if you care about the actual paths computed and/or all distances between
 	 * nodes on those paths, you should provide your own <code>distanceMatrix</code>
-	 * and <code>predecessorMatrix</code>.     
+	 * and <code>predecessorMatrix</code>. They are filled once the search is over, the
+	 * search itself keeps atoms numbered in primitive arrays with an indexed binary
+	 * heap of the atoms yet to be explored. The search stops as soon as the shortest
+	 * path to <code>goal</code> is known, or explores all atoms reachable from
+	 * <code>start</code> if <code>goal</code> is <code>null</code>.
 	 * </p>
 	 * 
 	 * <p>
 	 * The <code>weight</code> mapping argument represents a function that computes
 	 * the weight of a given link. If you pass <code>null</code>, a weight of 1
 	 * will be used for all links. Note that this mapping cannot return negative 
-	 * values. Dijkstra's algorithms assumes non-negative weights. If the weights
-	 * of your graph can be negative, use the <code>bellman_ford</code> instead.
+	 * values. Dijkstra's algorithms assumes non-negative weights and an
+	 * <code>IllegalArgumentException</code> is thrown when a negative weight is met.
 	 * </p>
 	 * 
 	 * @param start
@@ -115,8 +118,8 @@ public class GraphClassics
 	 * @param distanceMatrix The data structure holding the computed distances between
 	 * the <code>start</code> atom and all other atoms encountered during the search. Only
 	 * <code>put</code> and <code>get</code> are used so you can provide an implementation
-	 * that only implements those two methods. If <code>null</code> is passed, a new
-	 * temporary <code>HashMap</code> will be instantiated and used throughout the search.
+	 * that only implements those two methods. If <code>null</code>, the distances will
+	 * not be stored anywhere.
 	 * @param predecessorMatrix A map storing the predecessor atoms computed during
 	 * the search. Again, only <code>put</code> and <code>get</code> are used here. If
 	 * <code>null</code>, the predecessor will not be stored anywhere. 
@@ -130,82 +133,162 @@ public class GraphClassics
 				 			       Map<HGHandle, Double> distanceMatrix,
 				 			       Map<HGHandle, HGHandle> predecessorMatrix)
 	{
-		final Map<HGHandle, Double> dm = 
-			distanceMatrix == null ? new HashMap<HGHandle, Double>() : distanceMatrix;
-		dm.put(start, 0.0);
-		Comparator<HGHandle> comp = new Comparator<HGHandle>()
+		return search(start, goal, new ShortestPathSearch(adjacencyGenerator, weight, null), 
+					  distanceMatrix, predecessorMatrix);
+	}
+
+	/**
+	 * <p>
+	 * Implements the A* algorithm for finding the shortest path between two atoms. This is
+	 * Dijkstra's algorithm where the atoms are explored in the order of their distance from
+	 * <code>start</code> plus an estimate of their distance to <code>goal</code>, given
+	 * by a <code>heuristic</code> function, so that atoms leading away from the goal are
+	 * explored late or not at all. The result is exact as long as the heuristic never 
+	 * overestimates the distance to the goal. If it's also consistent, i.e. the estimate
+	 * for an atom is never more than the weight of a link to an adjacent atom plus the
+	 * estimate for that atom, each atom is explored at most once, otherwise atoms may be
+	 * explored again when shorter paths to them are found.
+	 * </p>
+	 * 
+	 * <p>
+	 * The other arguments are as for {@link #dijkstra(HGHandle, HGHandle, HGALGenerator, Mapping, Map, Map)}.
+	 * </p>
+	 * 
+	 * @param heuristic An estimate of the distance from an atom to <code>goal</code>. It
+	 * should be 0 for <code>goal</code>.
+	 * @return The distance between <code>start</code> and <code>goal</code> or
+	 * <code>null</code> if <code>goal</code> is unreachable from <code>start</code>.
+	 */
+	public static Double a_star(final HGHandle start, 
+							    final HGHandle goal, 
+							    final HGALGenerator adjacencyGenerator,
+							    Mapping<HGHandle, Double> weight,
+							    Mapping<HGHandle, Double> heuristic,
+							    Map<HGHandle, Double> distanceMatrix,
+							    Map<HGHandle, HGHandle> predecessorMatrix)
+	{
+		return search(start, goal, new ShortestPathSearch(adjacencyGenerator, weight, heuristic), 
+					  distanceMatrix, predecessorMatrix);
+	}
+	
+	private static Double search(HGHandle start, 
+								 HGHandle goal, 
+								 ShortestPathSearch search,
+								 Map<HGHandle, Double> distanceMatrix,
+								 Map<HGHandle, HGHandle> predecessorMatrix)
+	{
+		Double result = null;
+		search.start(start);
+		while (!search.isDone())
 		{
-			private int compareHandles(HGHandle left, HGHandle right)
-			{				
-				HGPersistentHandle x = left instanceof HGPersistentHandle ?
-						(HGPersistentHandle)left : ((HGLiveHandle)left).getPersistent();
-				HGPersistentHandle y = right instanceof HGPersistentHandle ?
-						(HGPersistentHandle)right : ((HGLiveHandle)right).getPersistent();
-				return x.compareTo(y);				
-			}
-			
-			public int compare(HGHandle left, HGHandle right)
+			int n = search.next();
+			if (search.getAtom(n).equals(goal))
 			{
-				Double l = dm.get(left);
-				Double r = dm.get(right);
-				if (l == null)
-					if (r == null)
-						return compareHandles(left, right);
-					else
-						return 1;
-				else if (r == null)
-					return -1;
-				else
-				{
-					int c = l.compareTo(r);
-					if (c == 0)
-						c = compareHandles(left, right);
-					return c;
-				}
+				result = search.getDistance(n);
+				break;
 			}
-		};
-		if (weight == null)
-			weight = new Mapping<HGHandle, Double>() { public Double eval(HGHandle link) { return 1.0; } };
-			
-		HGAtomSet settled = new HGAtomSet(); 
-		TreeSet<HGHandle> unsettled = new TreeSet<HGHandle>(comp);
-		unsettled.add(start);
-		while (!unsettled.isEmpty())		
+			search.expand(n);
+		}
+		search.copyTo(distanceMatrix, predecessorMatrix);
+		return result;
+	}
+
+	/**
+	 * <p>
+	 * Implements the bidirectional version of Dijkstra's algorithm: a search forward from 
+	 * <code>start</code> and one backward from <code>goal</code> take turns, the one with
+	 * the fewest atoms pending going next, until no path through the atoms still pending 
+	 * can be shorter than the shortest path found where they meet. On large graphs, this 
+	 * explores far fewer atoms than a search from <code>start</code> alone.
+	 * </p>
+	 * 
+	 * <p>
+	 * The backward search needs the atoms an atom can be reached from, rather than the ones
+	 * it leads to. If links can be followed both ways, as with a {@link DefaultALGenerator}
+	 * returning both preceding and succeeding targets, the same generator can be used for both
+	 * searches. Otherwise, pass a <code>backwardGenerator</code> that reverses the direction
+	 * of <code>adjacencyGenerator</code>, e.g. returning preceding targets where it returns
+	 * succeeding ones. Weights are as with {@link #dijkstra(HGHandle, HGHandle, HGALGenerator, Mapping, Map, Map)}.
+	 * </p>
+	 * 
+	 * <p>
+	 * Unlike the other shortest path methods, only the atoms on the shortest path are put in
+	 * <code>distanceMatrix</code> and <code>predecessorMatrix</code>, so that the path can be
+	 * followed back from <code>goal</code> to <code>start</code>.
+	 * </p>
+	 * 
+	 * @param start
+	 * @param goal
+	 * @param adjacencyGenerator Generator for the atoms an atom leads to.
+	 * @param backwardGenerator Generator for the atoms leading to an atom, 
+	 * <code>adjacencyGenerator</code> if <code>null</code>. It may be the same instance.
+	 * @param weight The weight of a link, 1 if <code>null</code>.
+	 * @param distanceMatrix Where the distances of the atoms on the shortest path from
+	 * <code>start</code> are put, or <code>null</code>.
+	 * @param predecessorMatrix Where the predecessors of the atoms on the shortest path are
+	 * put, or <code>null</code>.
+	 * @return The distance between <code>start</code> and <code>goal</code> or
+	 * <code>null</code> if <code>goal</code> is unreachable from <code>start</code>.
+	 */
+	public static Double bidirectionalDijkstra(final HGHandle start, 
+											   final HGHandle goal, 
+											   final HGALGenerator adjacencyGenerator,
+											   HGALGenerator backwardGenerator,
+											   Mapping<HGHandle, Double> weight,
+											   Map<HGHandle, Double> distanceMatrix,
+											   Map<HGHandle, HGHandle> predecessorMatrix)
+	{
+		if (backwardGenerator == null)
+			backwardGenerator = adjacencyGenerator;
+		ShortestPathSearch forward = new ShortestPathSearch(adjacencyGenerator, weight, null);
+		ShortestPathSearch backward = new ShortestPathSearch(backwardGenerator, weight, null);
+		forward.start(start);
+		backward.start(goal);
+		double best = Double.POSITIVE_INFINITY;
+		HGHandle meeting = null;
+		if (forward.find(goal) >= 0)
+		{
+			best = 0.0;
+			meeting = start;
+		}
+		while (!forward.isDone() && !backward.isDone() && 
+			   forward.minKey() + backward.minKey() < best)
 		{
-			HGHandle a = unsettled.first();
-			unsettled.remove(a);
-			if (a.equals(goal))
-				return dm.get(goal);
-			settled.add(a);
-			HGSearchResult<Pair<HGHandle, HGHandle>> neighbors = adjacencyGenerator.generate(a);
-			double weightCurrent = dm.get(a).doubleValue();
-			while (neighbors.hasNext())
+			ShortestPathSearch search = forward, other = backward;
+			if (backward.openCount() < forward.openCount())
 			{
-				Pair<HGHandle, HGHandle> n = neighbors.next();
-				if (settled.contains(n.getSecond()))
-					continue;
-				Double weightN = dm.get(n.getSecond());
-				Double weightAN = weight.eval(n.getFirst());
-				if (weightN == null)
-				{
-					dm.put(n.getSecond(), weightCurrent + weightAN);
-					unsettled.add(n.getSecond());
-					if (predecessorMatrix != null)
-						predecessorMatrix.put(n.getSecond(), a);					
-				}
-				else if (weightN > weightCurrent + weightAN)
+				search = backward;
+				other = forward;
+			}
+			search.expand(search.next());
+			for (int i = 0; i < search.getRelaxedCount(); i++)
+			{
+				int n = search.getRelaxed(i);
+				int m = other.find(search.getAtom(n));
+				if (m >= 0 && search.getDistance(n) + other.getDistance(m) < best)
 				{
-					// new distance found for n, re-insert at appropriate position
-					unsettled.remove(n.getSecond());
-					dm.put(n.getSecond(), weightCurrent + weightAN);
-					unsettled.add(n.getSecond());
-					if (predecessorMatrix != null)
-						predecessorMatrix.put(n.getSecond(), a);
+					best = search.getDistance(n) + other.getDistance(m);
+					meeting = search.getAtom(n);
 				}
 			}
-			neighbors.close();
 		}
-		return null;
+		if (meeting == null)
+			return null;
+		for (int n = forward.find(meeting); n >= 0; n = forward.getPredecessor(n))
+		{
+			if (distanceMatrix != null)
+				distanceMatrix.put(forward.getAtom(n), forward.getDistance(n));
+			if (predecessorMatrix != null && forward.getPredecessor(n) >= 0)
+				predecessorMatrix.put(forward.getAtom(n), forward.getAtom(forward.getPredecessor(n)));
+		}
+		for (int n = backward.find(meeting), p; n >= 0 && (p = backward.getPredecessor(n)) >= 0; n = p)
+		{
+			if (distanceMatrix != null)
+				distanceMatrix.put(backward.getAtom(p), best - backward.getDistance(p));
+			if (predecessorMatrix != null)
+				predecessorMatrix.put(backward.getAtom(p), backward.getAtom(n));
+		}
+		return best;
 	}
 
 	public void bellman_ford()
@@ -213,10 +296,6 @@ public class GraphClassics
 		
 	}
 	
-	public void a_star()
-	{
-	}
-	
 	public void johnson()
 	{
 		
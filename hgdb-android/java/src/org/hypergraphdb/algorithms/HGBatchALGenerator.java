@@ -0,0 +1,43 @@
+/*
+ * This file is part of the HyperGraphDB source distribution. This is copyrighted
+ * software. For permitted uses, licensing options and redistribution, please see
+ * the LicensingInformation file at the root level of the distribution.
+ *
+ * Copyright (c) 2005-2010 Kobrix Software, Inc.  All rights reserved.
+ */
+package org.hypergraphdb.algorithms;
+
+import org.hypergraphdb.HGHandle;
+
+/**
+ * <p>
+ * An {@link HGALGenerator} that can read the adjacency lists of many atoms at once. A
+ * traversal about to explore a batch of atoms, such as the next atoms of its frontier,
+ * passes them to <code>prefetch</code>, which reads their incidence sets and the target sets
+ * of the links in those incidence sets in bulk, in storage order. The following calls to
+ * <code>generate</code> for those atoms then don't go to storage. Reading sorted batches
+ * turns the random lookups of one atom at a time into mostly sequential I/O.
+ * </p>
+ *
+ * <p>
+ * Prefetched data reflects the graph at the time of the <code>prefetch</code> call and is
+ * kept until the next call, so atoms should be explored soon after being prefetched, and
+ * batches should be of a bounded size such as {@link #PREFETCH_BATCH}.
+ * </p>
+ */
+public interface HGBatchALGenerator extends HGALGenerator
+{
+	/**
+	 * The number of atoms traversals prefetch at a time.
+	 */
+	static final int PREFETCH_BATCH = 512;
+
+	/**
+	 * <p>
+	 * Read ahead the adjacency lists of the given atoms, replacing those read by a previous call.
+	 * </p>
+	 *
+	 * @param atoms The atoms whose adjacency lists will be generated next.
+	 */
+	void prefetch(HGHandle [] atoms);
+}
@@ -7,11 +7,6 @@
  */
 package org.hypergraphdb.algorithms;
 
-import java.util.HashMap;
-import java.util.LinkedList;
-import java.util.Map;
-import java.util.Queue;
-
 import org.hypergraphdb.HGHandle;
 import org.hypergraphdb.HGSearchResult;
 import org.hypergraphdb.HGQuery.hg;
@@ -23,6 +18,11 @@ import org.hypergraphdb.util.Ref;
  * Implements a depth-first search of a graph. As a reminder, breadth-first will visit all atoms 
  * in an adjacency list before exploring their adjacent atoms in turn.
  * </p>
+ * 
+ * <p>
+ * When the adjacency list generator is a {@link HGBatchALGenerator}, the adjacency lists
+ * of the next atoms to explore are prefetched {@link HGBatchALGenerator#PREFETCH_BATCH} at a time.
+ * </p>
  *  
  * @author Borislav Iordanov
  */
@@ -30,18 +30,17 @@ public class HGBreadthFirstTraversal implements HGTraversal
 {
 	private Ref<HGHandle> startAtom;
 	private int maxDistance = Integer.MAX_VALUE; // the maximum reachable distance from the starting node
-	// The following maps contains all atoms that have been reached: if they have
-	// been actually visited (i.e. returned by the 'next' method), they map to 
-	// Boolean.TRUE, otherwise they map to Boolean.FALSE.
-	private Map<HGHandle, Boolean> examined = new HashMap<HGHandle, Boolean>();
-	private Queue<Pair<Pair<HGHandle, HGHandle>, Integer>> to_explore = 
-	    new LinkedList<Pair<Pair<HGHandle, HGHandle>, Integer>>();
+	// All atoms that have been reached, those actually returned by the 'next' 
+	// method are also marked as visited.
+	private VisitedSet examined = new VisitedSet();
+	private TraversalFrontier to_explore = new TraversalFrontier();
 	private HGALGenerator adjListGenerator;
 	private boolean initialized = false;
+	private int prefetched = 0; // entries at the front of 'to_explore' whose adjacency lists were prefetched
 	
 	private void init()
 	{
-        examined.put(startAtom.get(), Boolean.TRUE);
+        examined.visit(startAtom.get());
         advance(startAtom.get(), 0);     	    
         initialized = true;        
 	}
@@ -52,18 +51,33 @@ public class HGBreadthFirstTraversal implements HGTraversal
 	        return;
 	    
 		HGSearchResult<Pair<HGHandle, HGHandle>> i = adjListGenerator.generate(from);
-		Integer dd = distance + 1;
+		int dd = distance + 1;
 		while (i.hasNext())
-		{
+		{
 		    Pair<HGHandle, HGHandle> p = i.next();
-			if (!examined.containsKey(p.getSecond()))
-			{
-				to_explore.add(new Pair<Pair<HGHandle, HGHandle>, Integer>(p, dd));
-				examined.put(p.getSecond(), Boolean.FALSE);
-			}
+			if (examined.reach(p.getSecond()))
+				to_explore.add(p.getFirst(), p.getSecond(), dd);
 		}
 		i.close();
 	}
+	
+	// Prefetch the adjacency lists of 'from' and of the next atoms to explore, up to those
+	// at the maximum distance that won't be explored.
+	private void prefetch(HGHandle from, int distance)
+	{
+		if (distance >= maxDistance)
+			return;
+		int n = 0;
+		while (n < to_explore.size() && n < HGBatchALGenerator.PREFETCH_BATCH - 1 &&
+			   to_explore.getDistanceAt(n) < maxDistance)
+			n++;
+		HGHandle [] atoms = new HGHandle[n + 1];
+		atoms[0] = from;
+		for (int i = 0; i < n; i++)
+			atoms[i + 1] = to_explore.getAtomAt(i);
+		((HGBatchALGenerator)adjListGenerator).prefetch(atoms);
+		prefetched = n;
+	}
 	
 	public Ref<HGHandle> getStartAtomReference()
 	{
@@ -136,8 +150,7 @@ public class HGBreadthFirstTraversal implements HGTraversal
 
 	public boolean isVisited(HGHandle handle) 
 	{
-	    Boolean b = examined.get(handle);
-		return b != null && b;
+		return examined.isVisited(handle);
 	}
 
 	public Pair<HGHandle, HGHandle> next() 
@@ -147,10 +160,14 @@ public class HGBreadthFirstTraversal implements HGTraversal
 	    Pair<HGHandle, HGHandle> rvalue = null;		
 		if (!to_explore.isEmpty())
 		{
-		    Pair<Pair<HGHandle, HGHandle>, Integer> x = to_explore.remove();
-			rvalue = x.getFirst();
-			examined.put(rvalue.getSecond(), Boolean.TRUE);
-			advance(rvalue.getSecond(), x.getSecond());
+		    to_explore.removeFirst();
+			rvalue = new Pair<HGHandle, HGHandle>(to_explore.getLink(), to_explore.getAtom());
+			examined.visit(rvalue.getSecond());
+			if (prefetched > 0)
+				prefetched--;
+			else if (adjListGenerator instanceof HGBatchALGenerator)
+				prefetch(rvalue.getSecond(), to_explore.getDistance());
+			advance(rvalue.getSecond(), to_explore.getDistance());
 		}
 		return rvalue;
 	}
@@ -159,6 +176,7 @@ public class HGBreadthFirstTraversal implements HGTraversal
 	{
 		examined.clear();
 		to_explore.clear();
+		prefetched = 0;
 		init();
 	}
 }
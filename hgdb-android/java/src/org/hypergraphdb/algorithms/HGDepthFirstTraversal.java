@@ -7,10 +7,6 @@
  */
 package org.hypergraphdb.algorithms;
 
-import java.util.HashMap;
-import java.util.Map;
-import java.util.Stack;
-
 import org.hypergraphdb.HGHandle;
 import org.hypergraphdb.HGSearchResult;
 import org.hypergraphdb.HGQuery.hg;
@@ -28,17 +24,16 @@ import org.hypergraphdb.util.Ref;
 public class HGDepthFirstTraversal implements HGTraversal 
 {
 	private Ref<HGHandle> startAtom;
-    // The following maps contains all atoms that have been reached: if they have
-    // been actually visited (i.e. returned by the 'next' method), they map to 
-    // Boolean.TRUE, otherwise they map to Boolean.FALSE.
-    private Map<HGHandle, Boolean> examined = new HashMap<HGHandle, Boolean>();
-	private Stack<Pair<HGHandle, HGHandle>> to_explore = new Stack<Pair<HGHandle, HGHandle>>();
+    // All atoms that have been reached, those actually returned by the 'next' 
+    // method are also marked as visited.
+    private VisitedSet examined = new VisitedSet();
+	private TraversalFrontier to_explore = new TraversalFrontier();
 	private HGALGenerator adjListGenerator;
 	private boolean initialized = false;
 	
 	private void init()
 	{
-	    examined.put(startAtom.get(), Boolean.TRUE);
+	    examined.visit(startAtom.get());
         advance(startAtom.get());     	    
         initialized = true;
 	}
@@ -49,11 +44,8 @@ public class HGDepthFirstTraversal implements HGTraversal
 		while (i.hasNext())
 		{
 		    Pair<HGHandle, HGHandle> p = i.next();
-			if (!examined.containsKey(p.getSecond()))
-			{
-				to_explore.push(p);
-				examined.put(p.getSecond(), Boolean.FALSE);
-			}
+			if (examined.reach(p.getSecond()))
+				to_explore.add(p.getFirst(), p.getSecond(), 0);
 		}
 		i.close();
 	}
@@ -118,8 +110,9 @@ public class HGDepthFirstTraversal implements HGTraversal
 		Pair<HGHandle, HGHandle> rvalue = null;
 		if (!to_explore.isEmpty())
 		{
-			rvalue = to_explore.pop();
-			examined.put(rvalue.getSecond(), Boolean.TRUE);
+			to_explore.removeLast();
+			rvalue = new Pair<HGHandle, HGHandle>(to_explore.getLink(), to_explore.getAtom());
+			examined.visit(rvalue.getSecond());
 			advance(rvalue.getSecond());
 		}
 		return rvalue;
@@ -127,8 +120,7 @@ public class HGDepthFirstTraversal implements HGTraversal
 
 	public boolean isVisited(HGHandle handle) 
 	{
-        Boolean b = examined.get(handle);
-        return b != null && b;
+        return examined.isVisited(handle);
 	}
 
 	public void remove() 
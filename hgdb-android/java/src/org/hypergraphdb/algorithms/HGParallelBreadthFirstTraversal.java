@@ -0,0 +1,370 @@
+/*
+ * This file is part of the HyperGraphDB source distribution. This is copyrighted
+ * software. For permitted uses, licensing options and redistribution, please see
+ * the LicensingInformation file at the root level of the distribution.
+ *
+ * Copyright (c) 2005-2010 Kobrix Software, Inc.  All rights reserved.
+ */
+package org.hypergraphdb.algorithms;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
+
+import org.hypergraphdb.HGHandle;
+import org.hypergraphdb.HGSearchResult;
+import org.hypergraphdb.HyperGraph;
+import org.hypergraphdb.HGQuery.hg;
+import org.hypergraphdb.transaction.HGTransactionConfig;
+import org.hypergraphdb.util.CloseMe;
+import org.hypergraphdb.util.Pair;
+import org.hypergraphdb.util.Ref;
+
+/**
+ * <p>
+ * A breadth-first traversal that explores the graph one level at a time, generating the
+ * adjacency lists of all atoms of a level concurrently on a <code>ForkJoinPool</code>.
+ * Atoms are returned level by level as with {@link HGBreadthFirstTraversal}: all atoms at
+ * distance 1 from the start atom, then all atoms at distance 2 etc. The next level is
+ * computed in the background while the current one is being iterated, so the traversal
+ * streams its results and never runs more than one level ahead of its consumer.
+ * </p>
+ *
+ * <p>
+ * Adjacency list generators are generally not thread-safe, so the traversal is given
+ * a factory of generators instead of a generator, and makes one per chunk of a level.
+ * The adjacency lists are read in {@link HGTransactionConfig#SNAPSHOT} transactions of the
+ * worker threads, not in the transaction of the thread iterating the traversal: atoms and
+ * links added or removed by that transaction are not seen until it commits, so use a
+ * {@link HGBreadthFirstTraversal} to traverse a graph being modified in the same
+ * transaction. A {@link HGBatchALGenerator} prefetches the adjacency lists of each chunk
+ * {@link HGBatchALGenerator#PREFETCH_BATCH} atoms at a time. Which link leads to an atom
+ * reachable through several atoms of the previous level, and the order of atoms within a
+ * level, vary from one run to the next.
+ * </p>
+ *
+ * <p>
+ * A traversal that's not iterated to its end should be closed to stop the work in progress.
+ * Closing it also brings it back to its initial state, so it starts over if iterated again.
+ * </p>
+ */
+public class HGParallelBreadthFirstTraversal implements HGTraversal, CloseMe
+{
+	// Levels are split in chunks of at least that many atoms.
+	private static final int MIN_CHUNK = 32;
+
+	private static ForkJoinPool defaultPool = null;
+
+	private HyperGraph graph;
+	private Ref<HGHandle> startAtom;
+	private Callable<HGALGenerator> generators;
+	private int maxDistance = Integer.MAX_VALUE;
+	private ForkJoinPool pool;
+	private Run run = null;
+	private List<Pair<HGHandle, HGHandle>> level;
+	private int pos;
+	private int levelDistance; // the distance of the atoms in 'level'
+	private int distance = 0;
+	private ForkJoinTask<List<Pair<HGHandle, HGHandle>>> pending;
+
+	/**
+	 * <p>Return the pool used by traversals not given one, with as many threads as there
+	 * are processors.</p>
+	 */
+	public static synchronized ForkJoinPool getDefaultPool()
+	{
+		if (defaultPool == null)
+			defaultPool = new ForkJoinPool();
+		return defaultPool;
+	}
+
+	/**
+	 * The state of one run of the traversal, shared with the tasks of that run.
+	 */
+	private final class Run
+	{
+		final ConcurrentVisitedSet visited = new ConcurrentVisitedSet();
+		volatile boolean cancelled = false;
+
+		// Compute the next level from the atoms of 'frontier'.
+		final class Expand extends RecursiveTask<List<Pair<HGHandle, HGHandle>>>
+		{
+			private static final long serialVersionUID = 1L;
+			final List<Pair<HGHandle, HGHandle>> frontier;
+
+			Expand(List<Pair<HGHandle, HGHandle>> frontier)
+			{
+				this.frontier = frontier;
+			}
+
+			protected List<Pair<HGHandle, HGHandle>> compute()
+			{
+				int chunkSize = Math.max(MIN_CHUNK, frontier.size() / (4*getPool().getParallelism()) + 1);
+				List<Chunk> chunks = new ArrayList<Chunk>();
+				for (int from = 0; from < frontier.size(); from += chunkSize)
+					chunks.add(new Chunk(frontier, from, Math.min(from + chunkSize, frontier.size())));
+				if (chunks.size() == 1)
+					chunks.get(0).compute();
+				else
+					invokeAll(chunks);
+				int size = 0;
+				for (Chunk c : chunks)
+					size += c.found.size();
+				List<Pair<HGHandle, HGHandle>> result = new ArrayList<Pair<HGHandle, HGHandle>>(size);
+				for (Chunk c : chunks)
+					result.addAll(c.found);
+				return result;
+			}
+		}
+
+		// Generate the adjacency lists of frontier[from..to) and keep the atoms not seen before.
+		final class Chunk extends RecursiveAction
+		{
+			private static final long serialVersionUID = 1L;
+			final List<Pair<HGHandle, HGHandle>> frontier;
+			final int from, to;
+			List<Pair<HGHandle, HGHandle>> found;
+
+			Chunk(List<Pair<HGHandle, HGHandle>> frontier, int from, int to)
+			{
+				this.frontier = frontier;
+				this.from = from;
+				this.to = to;
+			}
+
+			protected void compute()
+			{
+				// atoms are marked as reached only once the transaction is over, so
+				// that a retried transaction sees them all again
+				List<Pair<HGHandle, HGHandle>> adjacent = graph.getTransactionManager().ensureTransaction(
+					new Callable<List<Pair<HGHandle, HGHandle>>>() {
+					public List<Pair<HGHandle, HGHandle>> call() throws Exception
+					{
+						List<Pair<HGHandle, HGHandle>> result = new ArrayList<Pair<HGHandle, HGHandle>>();
+						HGALGenerator generator = generators.call();
+						try
+						{
+							for (int i = from; i < to && !cancelled; i++)
+							{
+								if ((i - from) % HGBatchALGenerator.PREFETCH_BATCH == 0)
+									prefetch(generator, i);
+								HGSearchResult<Pair<HGHandle, HGHandle>> rs = generator.generate(frontier.get(i).getSecond());
+								try
+								{
+									while (rs.hasNext())
+										result.add(rs.next());
+								}
+								finally
+								{
+									rs.close();
+								}
+							}
+						}
+						finally
+						{
+							if (generator instanceof CloseMe)
+								((CloseMe)generator).close();
+						}
+						return result;
+					}
+				}, HGTransactionConfig.SNAPSHOT);
+				found = new ArrayList<Pair<HGHandle, HGHandle>>();
+				for (Pair<HGHandle, HGHandle> p : adjacent)
+					if (visited.reach(p.getSecond()))
+						found.add(p);
+			}
+
+			// Prefetch the adjacency lists of the next batch of atoms from 'start', if the generator can.
+			void prefetch(HGALGenerator generator, int start)
+			{
+				if (!(generator instanceof HGBatchALGenerator))
+					return;
+				HGHandle [] atoms = new HGHandle[Math.min(HGBatchALGenerator.PREFETCH_BATCH, to - start)];
+				for (int i = 0; i < atoms.length; i++)
+					atoms[i] = frontier.get(start + i).getSecond();
+				((HGBatchALGenerator)generator).prefetch(atoms);
+			}
+		}
+	}
+
+	private void init()
+	{
+		run = new Run();
+		HGHandle start = startAtom.get();
+		run.visited.visit(start);
+		level = Collections.emptyList();
+		pos = 0;
+		levelDistance = distance = 0;
+		if (maxDistance > 0)
+			pending = getPool().submit(run.new Expand(Collections.singletonList(new Pair<HGHandle, HGHandle>(null, start))));
+	}
+
+	public HGParallelBreadthFirstTraversal()
+	{
+	}
+
+	public HGParallelBreadthFirstTraversal(HyperGraph graph,
+										   HGHandle startAtom,
+										   Callable<HGALGenerator> generators)
+	{
+		this(graph, hg.constant(startAtom), generators, Integer.MAX_VALUE);
+	}
+
+	public HGParallelBreadthFirstTraversal(HyperGraph graph,
+										   Ref<HGHandle> startAtom,
+										   Callable<HGALGenerator> generators)
+	{
+		this(graph, startAtom, generators, Integer.MAX_VALUE);
+	}
+
+	/**
+	 * @param graph The graph to traverse.
+	 * @param startAtom The atom to start from.
+	 * @param generators Makes the adjacency list generators, it is called from the
+	 * worker threads.
+	 * @param maxDistance The maximum distance from the start atom of the atoms returned.
+	 */
+	public HGParallelBreadthFirstTraversal(HyperGraph graph,
+										   Ref<HGHandle> startAtom,
+										   Callable<HGALGenerator> generators,
+										   int maxDistance)
+	{
+		this.graph = graph;
+		this.startAtom = startAtom;
+		this.generators = generators;
+		this.maxDistance = maxDistance;
+	}
+
+	public boolean hasNext()
+	{
+		if (run == null)
+			init();
+		while (pos == level.size())
+		{
+			if (pending == null)
+				return false;
+			level = pending.join();
+			pos = 0;
+			levelDistance++;
+			pending = level.size() > 0 && levelDistance < maxDistance ? getPool().submit(run.new Expand(level)) : null;
+		}
+		return true;
+	}
+
+	public Pair<HGHandle, HGHandle> next()
+	{
+		if (!hasNext())
+			return null;
+		Pair<HGHandle, HGHandle> rvalue = level.get(pos++);
+		distance = levelDistance;
+		run.visited.visit(rvalue.getSecond());
+		return rvalue;
+	}
+
+	public boolean isVisited(HGHandle handle)
+	{
+		if (run == null)
+			init();
+		return run.visited.isVisited(handle);
+	}
+
+	public void remove()
+	{
+		throw new UnsupportedOperationException();
+	}
+
+	/**
+	 * <p>Stop the work in progress and bring the traversal back to its initial state.</p>
+	 */
+	public void close()
+	{
+		if (run != null)
+			run.cancelled = true;
+		run = null;
+		level = null;
+		pending = null;
+	}
+
+	public void reset()
+	{
+		close();
+	}
+
+	/**
+	 * <p>Return the distance from the start atom of the last atom returned by
+	 * <code>next</code>.</p>
+	 */
+	public int getDistance()
+	{
+		return distance;
+	}
+
+	public HyperGraph getGraph()
+	{
+		return graph;
+	}
+
+	public void setGraph(HyperGraph graph)
+	{
+		this.graph = graph;
+	}
+
+	public Ref<HGHandle> getStartAtomReference()
+	{
+		return startAtom;
+	}
+
+	public void setStartAtomReference(Ref<HGHandle> startAtom)
+	{
+		this.startAtom = startAtom;
+	}
+
+	public void setStartAtom(HGHandle startAtom)
+	{
+		this.startAtom = hg.constant(startAtom);
+	}
+
+	public HGHandle getStartAtom()
+	{
+		return startAtom == null ? null : startAtom.get();
+	}
+
+	public Callable<HGALGenerator> getGenerators()
+	{
+		return generators;
+	}
+
+	public void setGenerators(Callable<HGALGenerator> generators)
+	{
+		this.generators = generators;
+	}
+
+	public int getMaxDistance()
+	{
+		return maxDistance;
+	}
+
+	public void setMaxDistance(int maxDistance)
+	{
+		this.maxDistance = maxDistance;
+	}
+
+	/**
+	 * <p>Return the pool running the traversal, the default pool unless another one
+	 * was set.</p>
+	 */
+	public ForkJoinPool getPool()
+	{
+		return pool == null ? getDefaultPool() : pool;
+	}
+
+	public void setPool(ForkJoinPool pool)
+	{
+		this.pool = pool;
+	}
+}
@@ -0,0 +1,117 @@
+/*
+ * This file is part of the HyperGraphDB source distribution. This is copyrighted
+ * software. For permitted uses, licensing options and redistribution, please see
+ * the LicensingInformation file at the root level of the distribution.
+ *
+ * Copyright (c) 2005-2010 Kobrix Software, Inc.  All rights reserved.
+ */
+package org.hypergraphdb.algorithms;
+
+import java.util.Arrays;
+
+import org.hypergraphdb.HGHandle;
+
+/**
+ * <p>
+ * Numbers atoms 0, 1, 2... in the order they are added, so that algorithms can keep
+ * their state per atom in primitive arrays indexed by those numbers. Atoms are looked
+ * up by the bits of their persistent handles, as in {@link HandleTable}, in an open
+ * addressing hash table of <code>int</code>s, and the handle first added for each atom
+ * is kept. Handles can be at most 16 bytes long. Not thread-safe.
+ * </p>
+ */
+class HandleIndex
+{
+	private static final int INITIAL_CAPACITY = 16;
+
+	private int width = 0; // longs per key, fixed by the first handle added
+	private long [] keys; // by number
+	private int [] slots; // number + 1 of the atom in each slot, 0 when empty
+	private HGHandle [] handles = new HGHandle[INITIAL_CAPACITY];
+	private int count = 0;
+	private final long [] key = new long[2];
+
+	private boolean matches(int slot)
+	{
+		for (int i = 0, j = (slots[slot] - 1)*width; i < width; i++, j++)
+			if (keys[j] != key[i])
+				return false;
+		return true;
+	}
+
+	private int find(int hash)
+	{
+		int mask = slots.length - 1;
+		int i = hash & mask;
+		while (slots[i] != 0 && !matches(i))
+			i = (i + 1) & mask;
+		return i;
+	}
+
+	private void grow()
+	{
+		handles = Arrays.copyOf(handles, 2*handles.length);
+		keys = Arrays.copyOf(keys, handles.length*width);
+		slots = new int[2*handles.length];
+		int mask = slots.length - 1;
+		long [] k = new long[width];
+		for (int n = 0; n < count; n++)
+		{
+			System.arraycopy(keys, n*width, k, 0, width);
+			int i = HandleTable.hash(k, width) & mask;
+			while (slots[i] != 0)
+				i = (i + 1) & mask;
+			slots[i] = n + 1;
+		}
+	}
+
+	/**
+	 * <p>Return the number of an atom, adding it if it's not there yet. It's new if
+	 * the number returned is the previous <code>size()</code>.</p>
+	 */
+	int add(HGHandle h)
+	{
+		int w = HandleTable.toKey(h, key, 0);
+		if (width != w)
+		{
+			if (width != 0)
+				throw new IllegalArgumentException("Handles of different sizes in the same search.");
+			width = w;
+			keys = new long[handles.length*width];
+			slots = new int[2*handles.length];
+		}
+		int hash = HandleTable.hash(key, width);
+		int i = find(hash);
+		if (slots[i] != 0)
+			return slots[i] - 1;
+		if (count == handles.length)
+		{
+			grow();
+			i = find(hash);
+		}
+		System.arraycopy(key, 0, keys, count*width, width);
+		handles[count] = h;
+		slots[i] = ++count;
+		return count - 1;
+	}
+
+	/**
+	 * <p>Return the number of an atom, or -1 if it wasn't added.</p>
+	 */
+	int get(HGHandle h)
+	{
+		if (count == 0 || HandleTable.toKey(h, key, 0) != width)
+			return -1;
+		return slots[find(HandleTable.hash(key, width))] - 1;
+	}
+
+	HGHandle getHandle(int n)
+	{
+		return handles[n];
+	}
+
+	int size()
+	{
+		return count;
+	}
+}
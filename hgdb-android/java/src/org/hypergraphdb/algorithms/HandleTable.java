@@ -0,0 +1,187 @@
+/*
+ * This file is part of the HyperGraphDB source distribution. This is copyrighted
+ * software. For permitted uses, licensing options and redistribution, please see
+ * the LicensingInformation file at the root level of the distribution.
+ *
+ * Copyright (c) 2005-2010 Kobrix Software, Inc.  All rights reserved.
+ */
+package org.hypergraphdb.algorithms;
+
+import org.hypergraphdb.HGHandle;
+import org.hypergraphdb.HGPersistentHandle;
+import org.hypergraphdb.handle.HGLiveHandle;
+import org.hypergraphdb.handle.LongPairPersistentHandle;
+
+/**
+ * <p>
+ * An open addressing hash table of keys made of the bits of one or more persistent handles,
+ * each key being reached or also visited. Keys are stored as <code>long</code>s, one per
+ * handle of at most 8 bytes and two per handle of up to 16 bytes, and the two states as bit
+ * sets, so that an entry takes 16 bytes and 2 bits per slot for UUID handles. Handles
+ * longer than 16 bytes are not supported. Not thread-safe.
+ * </p>
+ */
+class HandleTable
+{
+	static final byte ABSENT = 0, REACHED = 1, VISITED = 2;
+
+	private static final int INITIAL_CAPACITY = 16;
+
+	private int width = 0; // longs per key, fixed by the first key added
+	private long [] keys;
+	private long [] used; // the REACHED or VISITED slots
+	private long [] visited;
+	private int count = 0;
+
+	private static long bits(byte [] bytes, int from, int to)
+	{
+		long x = 0;
+		for (int i = from; i < to; i++)
+			x = (x << 8) | (bytes[i] & 0xFF);
+		return x;
+	}
+
+	/**
+	 * <p>Write the bits of a handle in <code>key</code> from <code>offset</code> and return
+	 * the number of <code>long</code>s written.</p>
+	 */
+	static int toKey(HGHandle h, long [] key, int offset)
+	{
+		HGPersistentHandle p = h instanceof HGLiveHandle ? ((HGLiveHandle)h).getPersistent() : (HGPersistentHandle)h;
+		if (p instanceof LongPairPersistentHandle)
+		{
+			key[offset] = ((LongPairPersistentHandle)p).getMostSignificantBits();
+			key[offset + 1] = ((LongPairPersistentHandle)p).getLeastSignificantBits();
+			return 2;
+		}
+		byte [] bytes = p.toByteArray();
+		if (bytes.length <= 8)
+		{
+			key[offset] = bits(bytes, 0, bytes.length);
+			return 1;
+		}
+		else if (bytes.length <= 16)
+		{
+			key[offset] = bits(bytes, 0, 8);
+			key[offset + 1] = bits(bytes, 8, bytes.length);
+			return 2;
+		}
+		else
+			throw new IllegalArgumentException("Handles of " + bytes.length + " bytes are not supported.");
+	}
+
+	static int hash(long [] key, int width)
+	{
+		long h = 0;
+		for (int i = 0; i < width; i++)
+			h = (h ^ key[i]) * 0x9E3779B97F4A7C15L;
+		h ^= h >>> 29;
+		h *= 0xBF58476D1CE4E5B9L;
+		return (int)(h ^ (h >>> 32));
+	}
+
+	private static boolean test(long [] bits, int i)
+	{
+		return (bits[i >>> 6] & (1L << i)) != 0;
+	}
+
+	private static void set(long [] bits, int i)
+	{
+		bits[i >>> 6] |= 1L << i;
+	}
+
+	private boolean matches(int slot, long [] key)
+	{
+		for (int i = 0, j = slot*width; i < width; i++, j++)
+			if (keys[j] != key[i])
+				return false;
+		return true;
+	}
+
+	private int find(long [] key, int hash)
+	{
+		int mask = keys.length/width - 1;
+		int i = hash & mask;
+		while (test(used, i) && !matches(i, key))
+			i = (i + 1) & mask;
+		return i;
+	}
+
+	private void allocate(int capacity)
+	{
+		keys = new long[capacity*width];
+		used = new long[(capacity + 63) >>> 6];
+		visited = new long[used.length];
+	}
+
+	private void grow()
+	{
+		long [] oldKeys = keys, oldUsed = used, oldVisited = visited;
+		int oldCapacity = keys.length/width;
+		allocate(oldCapacity*2);
+		long [] key = new long[width];
+		for (int i = 0; i < oldCapacity; i++)
+			if (test(oldUsed, i))
+			{
+				System.arraycopy(oldKeys, i*width, key, 0, width);
+				int j = find(key, hash(key, width));
+				System.arraycopy(key, 0, keys, j*width, width);
+				set(used, j);
+				if (test(oldVisited, i))
+					set(visited, j);
+			}
+	}
+
+	/**
+	 * <p>Raise the state of a key made of <code>width</code> longs to <code>state</code>,
+	 * unless it's already there or further, and return its previous state. With an
+	 * <code>ABSENT</code> state, this is a lookup.</p>
+	 */
+	byte mark(long [] key, int width, int hash, byte state)
+	{
+		if (this.width != width)
+		{
+			if (this.width != 0)
+				throw new IllegalArgumentException("Handles of different sizes in the same traversal.");
+			else if (state == ABSENT)
+				return ABSENT;
+			this.width = width;
+			allocate(INITIAL_CAPACITY);
+		}
+		int i = find(key, hash);
+		byte previous = !test(used, i) ? ABSENT : test(visited, i) ? VISITED : REACHED;
+		if (previous >= state)
+			return previous;
+		if (previous == ABSENT)
+		{
+			if (4*(count + 1) > 3*(keys.length/width))
+			{
+				grow();
+				i = find(key, hash);
+			}
+			System.arraycopy(key, 0, keys, i*width, width);
+			set(used, i);
+			count++;
+		}
+		if (state == VISITED)
+			set(visited, i);
+		return previous;
+	}
+
+	int size()
+	{
+		return count;
+	}
+
+	void clear()
+	{
+		width = 0;
+		keys = used = visited = null;
+		count = 0;
+	}
+
+	long getEstimatedBytes()
+	{
+		return keys == null ? 0 : 8L*(keys.length + used.length + visited.length);
+	}
+}
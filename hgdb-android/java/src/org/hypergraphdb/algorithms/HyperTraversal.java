@@ -7,9 +7,6 @@
  */
 package org.hypergraphdb.algorithms;
 
-import java.util.HashSet;
-import java.util.Set;
-
 import org.hypergraphdb.HGGraphHolder;
 import org.hypergraphdb.HGHandle;
 import org.hypergraphdb.HGLink;
@@ -35,7 +32,7 @@ public class HyperTraversal implements HGTraversal, HGGraphHolder
     private transient HyperGraph graph;
     private HGTraversal flatTraversal;
     private HGAtomPredicate linkPredicate;
-    private Set<HGHandle> visited = new HashSet<HGHandle>();
+    private VisitedSet visited = new VisitedSet();
     private TargetSetIterator titer = null;
     private HGHandle currentLink = null;
     
@@ -67,13 +64,17 @@ public class HyperTraversal implements HGTraversal, HGGraphHolder
 
     public boolean isVisited(HGHandle handle)
     {
-        return visited.contains(handle) || flatTraversal.isVisited(handle);
+        return visited.isVisited(handle) || flatTraversal.isVisited(handle);
     }
 
     public Pair<HGHandle, HGHandle> next()
     {
         if (currentLink != null && titer.hasNext())
-            return new Pair<HGHandle, HGHandle>(currentLink, titer.next());
+        {
+            HGHandle target = titer.next();
+            visited.visit(target);
+            return new Pair<HGHandle, HGHandle>(currentLink, target);
+        }
         Pair<HGHandle, HGHandle> p = flatTraversal.next();
         Object atom = graph.get(p.getSecond());
         if (atom instanceof HGLink && 
@@ -0,0 +1,121 @@
+/*
+ * This file is part of the HyperGraphDB source distribution. This is copyrighted
+ * software. For permitted uses, licensing options and redistribution, please see
+ * the LicensingInformation file at the root level of the distribution.
+ *
+ * Copyright (c) 2005-2010 Kobrix Software, Inc.  All rights reserved.
+ */
+package org.hypergraphdb.algorithms;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.hypergraphdb.HGHandle;
+import org.hypergraphdb.HGLink;
+import org.hypergraphdb.HGPersistentHandle;
+import org.hypergraphdb.HGSearchResult;
+import org.hypergraphdb.HyperGraph;
+import org.hypergraphdb.IncidenceSet;
+import org.hypergraphdb.cache.HGCache;
+import org.hypergraphdb.storage.PackedHandleArray;
+import org.hypergraphdb.util.TempLink;
+
+/**
+ * <p>
+ * The target sets of the links incident to a batch of atoms, read in bulk for the adjacency
+ * list generators implementing {@link HGBatchALGenerator}. The incidence sets of the atoms
+ * are loaded in the incidence set cache with {@link HyperGraph#prefetchIncidenceSets(HGHandle[])},
+ * and links already loaded are left to the atom cache, so only what would otherwise be read
+ * from storage one link at a time is kept here. When most links met are loaded, as with a
+ * graph that fits in the cache, looking links up ahead of time costs more than it saves, so
+ * links are then left out of prefetching and only checked again every few batches.
+ * </p>
+ */
+class PrefetchedAdjacency
+{
+	// marks links found loaded when prefetching
+	private static final HGPersistentHandle [] LOADED = new HGPersistentHandle[0];
+
+	// how often links are looked at again when they are not prefetched
+	private static final int PROBE_INTERVAL = 16;
+
+	private final Map<HGPersistentHandle, HGPersistentHandle []> links = new HashMap<HGPersistentHandle, HGPersistentHandle []>();
+	private boolean prefetchLinks = true;
+	private int skipped = 0;
+
+	void load(HyperGraph graph, HGHandle [] atoms)
+	{
+		clear();
+		graph.prefetchIncidenceSets(atoms);
+		if (!prefetchLinks && ++skipped % PROBE_INTERVAL != 0)
+			return;
+		HGCache<HGPersistentHandle, IncidenceSet> cache = graph.getCache().getIncidenceCache();
+		List<HGPersistentHandle> toRead = new ArrayList<HGPersistentHandle>();
+		int loaded = 0;
+		for (HGHandle atom : atoms)
+		{
+			IncidenceSet set = cache.getIfLoaded(graph.getPersistentHandle(atom));
+			if (set == null)
+				continue;
+			HGSearchResult<HGHandle> rs = set.getSearchResult();
+			try
+			{
+				while (rs.hasNext())
+				{
+					HGPersistentHandle link = graph.getPersistentHandle(rs.next());
+					if (links.containsKey(link))
+						continue;
+					else if (graph.isLoaded(link))
+					{
+						links.put(link, LOADED);
+						loaded++;
+					}
+					else
+					{
+						links.put(link, null);
+						toRead.add(link);
+					}
+				}
+			}
+			finally
+			{
+				rs.close();
+			}
+		}
+		prefetchLinks = 2*loaded < links.size();
+		if (toRead.isEmpty())
+			return;
+		HGPersistentHandle [] handles = toRead.toArray(new HGPersistentHandle[toRead.size()]);
+		PackedHandleArray [] targets = new PackedHandleArray[handles.length];
+		for (int i = 0; i < handles.length; i++)
+			targets[i] = new PackedHandleArray(graph.getHandleFactory());
+		graph.getStore().getLinks(handles, targets);
+		for (int i = 0; i < handles.length; i++)
+			if (targets[i].isEmpty())
+				links.remove(handles[i]);
+			else
+				links.put(handles[i], targets[i].toArray());
+	}
+
+	/**
+	 * <p>Return a link being examined by a generator: the link atom if it's loaded, or else
+	 * <code>tempLink</code> set to its prefetched or stored target set.</p>
+	 */
+	HGLink getLink(HyperGraph graph, HGHandle link, TempLink tempLink)
+	{
+		HGHandle [] stored = links.isEmpty() ? null : links.get(graph.getPersistentHandle(link));
+		if (stored == LOADED || stored == null && graph.isLoaded(link))
+			return (HGLink)graph.get(link);
+		if (stored == null)
+			stored = graph.getStore().getLink(graph.getPersistentHandle(link));
+		tempLink.setHandleArray(stored, 2);
+		return tempLink;
+	}
+
+	void clear()
+	{
+		links.clear();
+	}
+}
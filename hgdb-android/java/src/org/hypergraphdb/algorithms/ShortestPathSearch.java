@@ -0,0 +1,215 @@
+/*
+ * This file is part of the HyperGraphDB source distribution. This is copyrighted
+ * software. For permitted uses, licensing options and redistribution, please see
+ * the LicensingInformation file at the root level of the distribution.
+ *
+ * Copyright (c) 2005-2010 Kobrix Software, Inc.  All rights reserved.
+ */
+package org.hypergraphdb.algorithms;
+
+import java.util.Arrays;
+import java.util.Map;
+
+import org.hypergraphdb.HGHandle;
+import org.hypergraphdb.HGSearchResult;
+import org.hypergraphdb.util.Mapping;
+import org.hypergraphdb.util.Pair;
+
+/**
+ * <p>
+ * The state of a Dijkstra or A* search from one atom, used by the shortest path
+ * algorithms of {@link GraphClassics}. Atoms are numbered by a {@link HandleIndex} and
+ * their distances, estimates and predecessors kept in arrays indexed by those numbers,
+ * with the atoms still open in a {@link DistanceHeap}.
+ * </p>
+ *
+ * <p>
+ * Without a heuristic, an atom is closed once it's taken out of the heap and its adjacent
+ * atoms are not looked at again. With a heuristic, a closed atom reached by a shorter path
+ * is opened again, so that the search stays exact with a heuristic that never overestimates
+ * but isn't consistent.
+ * </p>
+ */
+final class ShortestPathSearch
+{
+	private final HGALGenerator generator;
+	private final Mapping<HGHandle, Double> weight;
+	private final Mapping<HGHandle, Double> heuristic;
+	private final HandleIndex atoms = new HandleIndex();
+	private final DistanceHeap open = new DistanceHeap();
+	private double [] distances = new double[16];
+	private double [] estimates; // of the remaining distance, with a heuristic
+	private int [] predecessors = new int[16];
+	private long [] closed = new long[1];
+	private int [] relaxed = new int[16]; // atoms whose distance the last expand lowered
+	private int relaxedCount = 0;
+
+	private boolean isClosed(int n)
+	{
+		return (closed[n >>> 6] & (1L << n)) != 0;
+	}
+
+	private double weigh(HGHandle link)
+	{
+		double w = weight == null ? 1.0 : weight.eval(link).doubleValue();
+		if (!(w >= 0))
+			throw new IllegalArgumentException("The weight of link " + link + " is " + w +
+											   ", weights must not be negative.");
+		return w;
+	}
+
+	// Give a distance and a predecessor to atom n, new if 'isNew', and put it in the heap.
+	private void label(int n, boolean isNew, double distance, int predecessor)
+	{
+		if (isNew && n == distances.length)
+		{
+			distances = Arrays.copyOf(distances, 2*n);
+			predecessors = Arrays.copyOf(predecessors, 2*n);
+			closed = Arrays.copyOf(closed, (2*n + 63) >>> 6);
+			if (estimates != null)
+				estimates = Arrays.copyOf(estimates, 2*n);
+		}
+		if (heuristic != null && isNew)
+			estimates[n] = heuristic.eval(atoms.getHandle(n)).doubleValue();
+		distances[n] = distance;
+		predecessors[n] = predecessor;
+		closed[n >>> 6] &= ~(1L << n);
+		open.put(n, heuristic == null ? distance : distance + estimates[n]);
+	}
+
+	/**
+	 * @param generator Generates the atoms adjacent to an atom.
+	 * @param weight The weight of a link, 1 if <code>null</code>.
+	 * @param heuristic An estimate of the distance from an atom to the goal, none if
+	 * <code>null</code>.
+	 */
+	ShortestPathSearch(HGALGenerator generator,
+					   Mapping<HGHandle, Double> weight,
+					   Mapping<HGHandle, Double> heuristic)
+	{
+		this.generator = generator;
+		this.weight = weight;
+		this.heuristic = heuristic;
+		if (heuristic != null)
+			estimates = new double[16];
+	}
+
+	void start(HGHandle atom)
+	{
+		label(atoms.add(atom), true, 0.0, -1);
+	}
+
+	boolean isDone()
+	{
+		return open.isEmpty();
+	}
+
+	/**
+	 * <p>Return the smallest key of the open atoms, positive infinity if there are none.</p>
+	 */
+	double minKey()
+	{
+		return open.minKey();
+	}
+
+	int openCount()
+	{
+		return open.size();
+	}
+
+	/**
+	 * <p>Close the open atom with the smallest key and return its number.</p>
+	 */
+	int next()
+	{
+		int n = open.poll();
+		closed[n >>> 6] |= 1L << n;
+		return n;
+	}
+
+	/**
+	 * <p>Lower the distances of the atoms adjacent to atom <code>n</code> that are
+	 * shorter through it. Those atoms are then given by <code>getRelaxed</code>.</p>
+	 */
+	void expand(int n)
+	{
+		relaxedCount = 0;
+		double distance = distances[n];
+		HGSearchResult<Pair<HGHandle, HGHandle>> rs = generator.generate(atoms.getHandle(n));
+		try
+		{
+			while (rs.hasNext())
+			{
+				Pair<HGHandle, HGHandle> x = rs.next();
+				int size = atoms.size();
+				int m = atoms.add(x.getSecond());
+				boolean isNew = m == size;
+				if (!isNew && heuristic == null && isClosed(m))
+					continue;
+				double d = distance + weigh(x.getFirst());
+				if (!isNew && d >= distances[m])
+					continue;
+				label(m, isNew, d, n);
+				if (relaxedCount == relaxed.length)
+					relaxed = Arrays.copyOf(relaxed, 2*relaxedCount);
+				relaxed[relaxedCount++] = m;
+			}
+		}
+		finally
+		{
+			rs.close();
+		}
+	}
+
+	int getRelaxedCount()
+	{
+		return relaxedCount;
+	}
+
+	int getRelaxed(int i)
+	{
+		return relaxed[i];
+	}
+
+	/**
+	 * <p>Return the number of an atom, or -1 if the search hasn't reached it.</p>
+	 */
+	int find(HGHandle atom)
+	{
+		return atoms.get(atom);
+	}
+
+	HGHandle getAtom(int n)
+	{
+		return atoms.getHandle(n);
+	}
+
+	double getDistance(int n)
+	{
+		return distances[n];
+	}
+
+	/**
+	 * <p>Return the number of the atom before atom <code>n</code> on the shortest path
+	 * found so far, or -1 for the start atom.</p>
+	 */
+	int getPredecessor(int n)
+	{
+		return predecessors[n];
+	}
+
+	/**
+	 * <p>Put the distances and predecessors of all atoms reached in the maps that aren't
+	 * <code>null</code>.</p>
+	 */
+	void copyTo(Map<HGHandle, Double> distanceMatrix, Map<HGHandle, HGHandle> predecessorMatrix)
+	{
+		for (int n = 0; n < atoms.size(); n++)
+		{
+			if (distanceMatrix != null)
+				distanceMatrix.put(atoms.getHandle(n), distances[n]);
+			if (predecessorMatrix != null && predecessors[n] >= 0)
+				predecessorMatrix.put(atoms.getHandle(n), atoms.getHandle(predecessors[n]));
+		}
+	}
+}
@@ -20,15 +20,18 @@ import org.hypergraphdb.util.TempLink;
  * <p>
  * The <code>SimpleALGenerator</code> produces all atoms linked to the given atom,
  * regardless of the link type and regardless of how an outgoing set is ordered.
+ * The adjacency lists of many atoms can be read at once with <code>prefetch</code>,
+ * see {@link HGBatchALGenerator}.
  * </p>
  *  
  * @author Borislav Iordanov
  */
-public class SimpleALGenerator implements HGALGenerator 
+public class SimpleALGenerator implements HGBatchALGenerator 
 {
 	protected HyperGraph graph;
 	private TempLink tempLink = new TempLink(HyperGraph.EMPTY_HANDLE_SET);	
 	private AdjIterator currIterator = null;
+	private PrefetchedAdjacency prefetched = new PrefetchedAdjacency();
 	
 	protected class AdjIterator implements HGSearchResult<Pair<HGHandle,HGHandle>>
 	{
@@ -53,13 +56,7 @@ public class SimpleALGenerator implements HGALGenerator
 					return;
 				}
 				hCurrLink = linksIterator.next(); 
-				if (graph.isLoaded(hCurrLink))
-					currLink = (HGLink)graph.get(hCurrLink);
-				else
-				{
-					tempLink.setHandleArray(graph.getStore().getLink(graph.getPersistentHandle(hCurrLink)), 2);
-					currLink = tempLink;
-				}
+				currLink = prefetched.getLink(graph, hCurrLink, tempLink);
 			}
 			if (currLink.getTargetAt(0).equals(src))
 				currLinkPos = 1;
@@ -142,10 +139,16 @@ public class SimpleALGenerator implements HGALGenerator
 				true);
 	}
 	
+	public void prefetch(HGHandle [] atoms)
+	{
+		prefetched.load(graph, atoms);
+	}
+	
 	public void close()
 	{
 		if (currIterator != null && currIterator.closeResultSet)
 			((HGSearchResult<HGHandle>)currIterator.linksIterator).close();
+		prefetched.clear();
 	}
 	
 	public void setGraph(HyperGraph graph)
@@ -0,0 +1,175 @@
+/*
+ * This file is part of the HyperGraphDB source distribution. This is copyrighted
+ * software. For permitted uses, licensing options and redistribution, please see
+ * the LicensingInformation file at the root level of the distribution.
+ *
+ * Copyright (c) 2005-2010 Kobrix Software, Inc.  All rights reserved.
+ */
+package org.hypergraphdb.algorithms;
+
+import java.util.NoSuchElementException;
+
+import org.hypergraphdb.HGHandle;
+
+/**
+ * <p>
+ * The atoms reached by a traversal and not visited yet, each with the link it was reached
+ * through and its distance from the start atom. Entries are kept in a growable ring buffer
+ * of handles and one of <code>int</code> distances, without any objects per entry, and can
+ * be removed from the front, for breadth-first traversals, or from the back, for depth-first
+ * traversals. The link, atom and distance of the entry last removed are then available
+ * from {@link #getLink()}, {@link #getAtom()} and {@link #getDistance()}.
+ * </p>
+ */
+public class TraversalFrontier
+{
+	private HGHandle [] handles; // link, atom for each entry
+	private int [] distances;
+	private int head = 0, size = 0;
+	private HGHandle link, atom;
+	private int distance;
+
+	private void grow()
+	{
+		int capacity = distances.length;
+		HGHandle [] newHandles = new HGHandle[handles.length*2];
+		int [] newDistances = new int[capacity*2];
+		for (int i = 0; i < size; i++)
+		{
+			int j = (head + i) & (capacity - 1);
+			newHandles[2*i] = handles[2*j];
+			newHandles[2*i + 1] = handles[2*j + 1];
+			newDistances[i] = distances[j];
+		}
+		handles = newHandles;
+		distances = newDistances;
+		head = 0;
+	}
+
+	private void removeAt(int i)
+	{
+		link = handles[2*i];
+		atom = handles[2*i + 1];
+		distance = distances[i];
+		handles[2*i] = handles[2*i + 1] = null;
+	}
+
+	public TraversalFrontier()
+	{
+		this(16);
+	}
+
+	/**
+	 * <p>Construct a frontier with room for at least <code>capacity</code> entries.</p>
+	 */
+	public TraversalFrontier(int capacity)
+	{
+		int c = 1;
+		while (c < capacity)
+			c <<= 1;
+		handles = new HGHandle[2*c];
+		distances = new int[c];
+	}
+
+	/**
+	 * <p>Add an entry at the back.</p>
+	 */
+	public void add(HGHandle link, HGHandle atom, int distance)
+	{
+		if (size == distances.length)
+			grow();
+		int i = (head + size) & (distances.length - 1);
+		handles[2*i] = link;
+		handles[2*i + 1] = atom;
+		distances[i] = distance;
+		size++;
+	}
+
+	/**
+	 * <p>Remove the entry at the front.</p>
+	 */
+	public void removeFirst()
+	{
+		if (size == 0)
+			throw new NoSuchElementException();
+		removeAt(head);
+		head = (head + 1) & (distances.length - 1);
+		size--;
+	}
+
+	/**
+	 * <p>Remove the entry at the back.</p>
+	 */
+	public void removeLast()
+	{
+		if (size == 0)
+			throw new NoSuchElementException();
+		size--;
+		removeAt((head + size) & (distances.length - 1));
+	}
+
+	/**
+	 * <p>Return the atom of the <code>i</code>-th entry from the front, without removing it.</p>
+	 */
+	public HGHandle getAtomAt(int i)
+	{
+		if (i < 0 || i >= size)
+			throw new IndexOutOfBoundsException("Index " + i + " out of bounds " + size);
+		return handles[2*((head + i) & (distances.length - 1)) + 1];
+	}
+
+	/**
+	 * <p>Return the distance of the <code>i</code>-th entry from the front.</p>
+	 */
+	public int getDistanceAt(int i)
+	{
+		if (i < 0 || i >= size)
+			throw new IndexOutOfBoundsException("Index " + i + " out of bounds " + size);
+		return distances[(head + i) & (distances.length - 1)];
+	}
+
+	/**
+	 * <p>Return the link of the entry last removed.</p>
+	 */
+	public HGHandle getLink()
+	{
+		return link;
+	}
+
+	/**
+	 * <p>Return the atom of the entry last removed.</p>
+	 */
+	public HGHandle getAtom()
+	{
+		return atom;
+	}
+
+	/**
+	 * <p>Return the distance of the entry last removed.</p>
+	 */
+	public int getDistance()
+	{
+		return distance;
+	}
+
+	public boolean isEmpty()
+	{
+		return size == 0;
+	}
+
+	public int size()
+	{
+		return size;
+	}
+
+	public void clear()
+	{
+		for (int i = 0; i < size; i++)
+		{
+			int j = (head + i) & (distances.length - 1);
+			handles[2*j] = handles[2*j + 1] = null;
+		}
+		head = size = 0;
+		link = atom = null;
+	}
+}
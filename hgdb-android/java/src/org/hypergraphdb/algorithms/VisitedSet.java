@@ -0,0 +1,114 @@
+/*
+ * This file is part of the HyperGraphDB source distribution. This is copyrighted
+ * software. For permitted uses, licensing options and redistribution, please see
+ * the LicensingInformation file at the root level of the distribution.
+ *
+ * Copyright (c) 2005-2010 Kobrix Software, Inc.  All rights reserved.
+ */
+package org.hypergraphdb.algorithms;
+
+import org.hypergraphdb.HGHandle;
+
+/**
+ * <p>
+ * The atoms reached and visited by a traversal. An atom is reached when it's found in
+ * the adjacency list of a visited atom and visited when the traversal returns it. Atoms
+ * are kept as the bits of their persistent handles in an open addressing hash table of
+ * <code>long</code>s, without any objects per atom: about 20 to 40 bytes per atom with
+ * 16 byte handles, depending on how full the table is. Handles can be at most 16 bytes
+ * long. Not thread-safe, see {@link ConcurrentVisitedSet} for a set shared by threads.
+ * </p>
+ *
+ * <p>
+ * Pairs of handles, such as a link and one of its targets, can be kept as well, but
+ * a set holds either single handles or pairs.
+ * </p>
+ */
+public class VisitedSet
+{
+	private final HandleTable table = new HandleTable();
+	private final long [] key = new long[4];
+
+	private byte mark(HGHandle h, byte state)
+	{
+		int width = HandleTable.toKey(h, key, 0);
+		return table.mark(key, width, HandleTable.hash(key, width), state);
+	}
+
+	private byte mark(HGHandle h1, HGHandle h2, byte state)
+	{
+		int width = HandleTable.toKey(h1, key, 0);
+		width += HandleTable.toKey(h2, key, width);
+		return table.mark(key, width, HandleTable.hash(key, width), state);
+	}
+
+	/**
+	 * <p>Mark an atom as reached and return <code>true</code> if it wasn't reached or
+	 * visited before.</p>
+	 */
+	public boolean reach(HGHandle h)
+	{
+		return mark(h, HandleTable.REACHED) == HandleTable.ABSENT;
+	}
+
+	/**
+	 * <p>Mark a pair of atoms as reached and return <code>true</code> if it wasn't
+	 * reached or visited before.</p>
+	 */
+	public boolean reach(HGHandle h1, HGHandle h2)
+	{
+		return mark(h1, h2, HandleTable.REACHED) == HandleTable.ABSENT;
+	}
+
+	/**
+	 * <p>Mark an atom as visited, and reached if it wasn't.</p>
+	 */
+	public void visit(HGHandle h)
+	{
+		mark(h, HandleTable.VISITED);
+	}
+
+	/**
+	 * <p>Mark a pair of atoms as visited, and reached if it wasn't.</p>
+	 */
+	public void visit(HGHandle h1, HGHandle h2)
+	{
+		mark(h1, h2, HandleTable.VISITED);
+	}
+
+	public boolean isReached(HGHandle h)
+	{
+		return mark(h, HandleTable.ABSENT) != HandleTable.ABSENT;
+	}
+
+	public boolean isVisited(HGHandle h)
+	{
+		return mark(h, HandleTable.ABSENT) == HandleTable.VISITED;
+	}
+
+	public boolean isVisited(HGHandle h1, HGHandle h2)
+	{
+		return mark(h1, h2, HandleTable.ABSENT) == HandleTable.VISITED;
+	}
+
+	/**
+	 * <p>Return the number of atoms, or pairs, reached so far.</p>
+	 */
+	public int size()
+	{
+		return table.size();
+	}
+
+	public void clear()
+	{
+		table.clear();
+	}
+
+	/**
+	 * <p>Return the memory taken by the hash table, in bytes.</p>
+	 */
+	public long getEstimatedBytes()
+	{
+		return table.getEstimatedBytes();
+	}
+}
@@ -0,0 +1,413 @@
+/*
+ * This file is part of the HyperGraphDB source distribution. This is copyrighted
+ * software. For permitted uses, licensing options and redistribution, please see
+ * the LicensingInformation file at the root level of the distribution.
+ *
+ * Copyright (c) 2005-2010 Kobrix Software, Inc.  All rights reserved.
+ */
+package org.hypergraphdb.algorithms.analytics;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+
+import org.hypergraphdb.HGHandle;
+import org.hypergraphdb.HGIndex;
+import org.hypergraphdb.HGPersistentHandle;
+import org.hypergraphdb.HGSearchResult;
+import org.hypergraphdb.HyperGraph;
+import org.hypergraphdb.storage.BAtoHandle;
+import org.hypergraphdb.storage.ByteArrayConverter;
+import org.hypergraphdb.storage.LinkVisitor;
+import org.hypergraphdb.storage.PackedHandleArray;
+import org.hypergraphdb.transaction.HGTransactionConfig;
+
+/**
+ * <p>
+ * A snapshot of the structure of a graph in compressed sparse row form, for whole graph
+ * analytics. Atoms are numbered from 0 in the order of their persistent handles, and each
+ * link with targets <code>t0, t1, ..., tk</code> gives the edges <code>ti -> tj</code> for all
+ * <code>i &lt; j</code>, the atoms a {@link org.hypergraphdb.algorithms.DefaultALGenerator}
+ * returns as succeeding an atom: a binary link is an edge from its first target to its
+ * second. The edges of atom <code>v</code> are <code>targets[offsets[v]]</code> to
+ * <code>targets[offsets[v + 1] - 1]</code>, with the same arrays for incoming edges. 
+ * </p>
+ * 
+ * <p>
+ * The snapshot is read straight from storage, without loading any atom: the atoms are
+ * listed from the index by type, then a snapshot of the whole graph reads all link records
+ * in a single scan of storage (see {@link org.hypergraphdb.HGStore#scanLinks}) while a
+ * snapshot of some types reads the incidence sets of the atoms and then the link records
+ * of their links, in storage order in large batches. The reads are not isolated from other
+ * transactions: changes made while the snapshot is being taken may be partly reflected in
+ * it, so it should be taken while the graph is not being modified. Once taken, the
+ * snapshot doesn't change.
+ * </p>
+ * 
+ * <p>
+ * The results of the algorithms run on a snapshot are arrays indexed by atom number, 
+ * which can be mapped back to atoms with {@link #getAtom(int)} or stored in an index
+ * with {@link #writeIndex(String, double[])}.
+ * </p>
+ */
+public final class CSRGraph
+{
+	// Link records and incidence sets are read this many at a time.
+	private static final int BATCH = 4096;
+
+	private final HyperGraph graph;
+	private final PackedHandleArray atoms; // sorted
+	private final int [] slots; // hash table of atom number + 1, 0 when empty
+	private int [] outOffsets, outTargets;
+	private int [] inOffsets, inSources;
+
+	private CSRGraph(HyperGraph graph, HGPersistentHandle [] sorted)
+	{
+		this.graph = graph;
+		atoms = new PackedHandleArray(graph.getHandleFactory());
+		int size = atoms.getHandleSize();
+		atoms.wrap(PackedHandleArray.pack(sorted, size), 0, sorted.length*size);
+		int capacity = 2;
+		while (capacity < 2*sorted.length)
+			capacity <<= 1;
+		slots = new int[capacity];
+		byte [] buffer = atoms.getBuffer();
+		for (int v = 0; v < sorted.length; v++)
+		{
+			int i = hash(buffer, v*size, size) & (capacity - 1);
+			while (slots[i] != 0)
+				i = (i + 1) & (capacity - 1);
+			slots[i] = v + 1;
+		}
+	}
+
+	private static int hash(byte [] buffer, int offset, int length)
+	{
+		int h = 0;
+		for (int i = offset; i < offset + length; i++)
+			h = 31*h + buffer[i];
+		h ^= h >>> 16;
+		h *= 0x85EBCA6B;
+		return h ^ (h >>> 13);
+	}
+
+	// Return the number of the atom whose handle is at 'offset' in 'buffer', or -1.
+	private int find(byte [] buffer, int offset)
+	{
+		int mask = slots.length - 1;
+		for (int i = hash(buffer, offset, atoms.getHandleSize()) & mask; slots[i] != 0; i = (i + 1) & mask)
+			if (atoms.compareAt(slots[i] - 1, buffer, offset) == 0)
+				return slots[i] - 1;
+		return -1;
+	}
+
+	private static int [] offsets(int n, IntList from)
+	{
+		int [] offsets = new int[n + 1];
+		for (int i = 0; i < from.size(); i++)
+			offsets[from.get(i) + 1]++;
+		for (int v = 0; v < n; v++)
+			offsets[v + 1] += offsets[v];
+		return offsets;
+	}
+
+	private static int [] fill(int [] offsets, IntList from, IntList to)
+	{
+		int [] next = Arrays.copyOf(offsets, offsets.length - 1);
+		int [] result = new int[from.size()];
+		for (int i = 0; i < from.size(); i++)
+			result[next[from.get(i)]++] = to.get(i);
+		return result;
+	}
+
+	// Add the edges of a link between the targets that are atoms of the snapshot.
+	private void addEdges(PackedHandleArray link, int firstTarget, IntList from, IntList to)
+	{
+		byte [] buffer = link.getBuffer();
+		int size = link.getHandleSize();
+		for (int i = firstTarget; i < link.size(); i++)
+		{
+			int source = find(buffer, link.getOffset() + i*size);
+			if (source < 0)
+				continue;
+			for (int j = i + 1; j < link.size(); j++)
+			{
+				int target = find(buffer, link.getOffset() + j*size);
+				if (target >= 0)
+				{
+					from.add(source);
+					to.add(target);
+				}
+			}
+		}
+	}
+
+	private static PackedHandleArray [] newArrays(HyperGraph graph, int n)
+	{
+		PackedHandleArray [] result = new PackedHandleArray[n];
+		for (int i = 0; i < n; i++)
+			result[i] = new PackedHandleArray(graph.getHandleFactory());
+		return result;
+	}
+
+	// Read the edges of all links from the layout records of the atoms: type, value, targets...
+	// All link records are scanned, skipping those of non-atoms.
+	private void readLayouts(final IntList from, final IntList to)
+	{
+		graph.getStore().scanLinks(new LinkVisitor() {
+			public void visit(PackedHandleArray handle, PackedHandleArray link)
+			{
+				if (find(handle.getBuffer(), handle.getOffset()) >= 0)
+					addEdges(link, 2, from, to);
+			}
+		});
+	}
+
+	// Read the edges of the links incident to the atoms, each link once.
+	private void readIncidentLinks(HGPersistentHandle [] sorted, IntList from, IntList to)
+	{
+		PackedHandleArray [] sets = newArrays(graph, Math.min(BATCH, sorted.length));
+		List<HGPersistentHandle> links = new ArrayList<HGPersistentHandle>();
+		for (int start = 0; start < sorted.length; start += BATCH)
+		{
+			int n = Math.min(BATCH, sorted.length - start);
+			HGPersistentHandle [] handles = Arrays.copyOfRange(sorted, start, start + n);
+			PackedHandleArray [] batch = n == sets.length ? sets : Arrays.copyOf(sets, n);
+			for (PackedHandleArray a : batch)
+				a.clear();
+			graph.getStore().getIncidenceSets(handles, batch);
+			for (PackedHandleArray set : batch)
+				for (int i = 0; i < set.size(); i++)
+					links.add(set.get(i));
+		}
+		HGPersistentHandle [] distinct = sortDistinct(links);
+		links = null;
+		PackedHandleArray [] records = newArrays(graph, Math.min(BATCH, distinct.length));
+		for (int start = 0; start < distinct.length; start += BATCH)
+		{
+			int n = Math.min(BATCH, distinct.length - start);
+			HGPersistentHandle [] handles = Arrays.copyOfRange(distinct, start, start + n);
+			PackedHandleArray [] batch = n == records.length ? records : Arrays.copyOf(records, n);
+			for (PackedHandleArray a : batch)
+				a.clear();
+			graph.getStore().getLinks(handles, batch);
+			for (PackedHandleArray layout : batch)
+				addEdges(layout, 2, from, to);
+		}
+	}
+
+	private static CSRGraph build(final HyperGraph graph, final HGHandle [] types)
+	{
+		return graph.getTransactionManager().ensureTransaction(new Callable<CSRGraph>() {
+			public CSRGraph call()
+			{
+				HGIndex<HGPersistentHandle, HGPersistentHandle> byType = graph.getIndexManager().getIndexByType();
+				List<HGPersistentHandle> atoms = new ArrayList<HGPersistentHandle>();
+				if (types == null)
+					readAll(byType.scanValues(), atoms);
+				else
+					for (HGHandle type : types)
+						readAll(byType.find(graph.getPersistentHandle(type)), atoms);
+				HGPersistentHandle [] sorted = sortDistinct(atoms);
+				atoms = null;
+				CSRGraph result = new CSRGraph(graph, sorted);
+				IntList from = new IntList(sorted.length), to = new IntList(sorted.length);
+				if (types == null)
+					result.readLayouts(from, to);
+				else
+					result.readIncidentLinks(sorted, from, to);
+				result.outOffsets = offsets(sorted.length, from);
+				result.outTargets = fill(result.outOffsets, from, to);
+				result.inOffsets = offsets(sorted.length, to);
+				result.inSources = fill(result.inOffsets, to, from);
+				return result;
+			}
+		}, HGTransactionConfig.SNAPSHOT);
+	}
+
+	private static HGPersistentHandle [] sortDistinct(List<HGPersistentHandle> handles)
+	{
+		HGPersistentHandle [] result = handles.toArray(new HGPersistentHandle[handles.size()]);
+		Arrays.sort(result);
+		int count = 0;
+		for (int i = 0; i < result.length; i++)
+			if (count == 0 || !result[i].equals(result[count - 1]))
+				result[count++] = result[i];
+		return count == result.length ? result : Arrays.copyOf(result, count);
+	}
+
+	private static void readAll(HGSearchResult<HGPersistentHandle> rs, List<HGPersistentHandle> result)
+	{
+		try
+		{
+			while (rs.hasNext())
+				result.add(rs.next());
+		}
+		finally
+		{
+			rs.close();
+		}
+	}
+
+	/**
+	 * <p>Take a snapshot of all atoms of a graph and all its links.</p>
+	 */
+	public static CSRGraph snapshot(HyperGraph graph)
+	{
+		return build(graph, null);
+	}
+
+	/**
+	 * <p>Take a snapshot of the atoms of some types only, with the edges of the links
+	 * between them, whatever their type. Links are found through the incidence sets of
+	 * the atoms, so this is cheaper than a snapshot of the whole graph when those atoms
+	 * are a small part of it.</p>
+	 * 
+	 * @param types The handles of the types of the atoms, atoms of sub-types are not
+	 * included.
+	 */
+	public static CSRGraph snapshot(HyperGraph graph, HGHandle... types)
+	{
+		return build(graph, types);
+	}
+
+	public HyperGraph getGraph()
+	{
+		return graph;
+	}
+
+	/**
+	 * <p>Return the number of atoms.</p>
+	 */
+	public int size()
+	{
+		return atoms.size();
+	}
+
+	/**
+	 * <p>Return the number of edges.</p>
+	 */
+	public int getEdgeCount()
+	{
+		return outTargets.length;
+	}
+
+	/**
+	 * <p>Return the handle of atom number <code>v</code>.</p>
+	 */
+	public HGPersistentHandle getAtom(int v)
+	{
+		return atoms.get(v);
+	}
+
+	/**
+	 * <p>Return the number of an atom, or -1 if it's not in the snapshot.</p>
+	 */
+	public int indexOf(HGHandle atom)
+	{
+		byte [] key = new byte[atoms.getHandleSize()];
+		PackedHandleArray.writeHandle(graph.getPersistentHandle(atom), key, 0, key.length);
+		return find(key, 0);
+	}
+
+	public int getOutDegree(int v)
+	{
+		return outOffsets[v + 1] - outOffsets[v];
+	}
+
+	public int getInDegree(int v)
+	{
+		return inOffsets[v + 1] - inOffsets[v];
+	}
+
+	/**
+	 * <p>Return where the outgoing edges of each atom start in {@link #getOutTargets()},
+	 * one more than there are atoms. The array is shared and must not be modified.</p>
+	 */
+	public int [] getOutOffsets()
+	{
+		return outOffsets;
+	}
+
+	/**
+	 * <p>Return the targets of the outgoing edges of all atoms. The array is shared and
+	 * must not be modified.</p>
+	 */
+	public int [] getOutTargets()
+	{
+		return outTargets;
+	}
+
+	/**
+	 * <p>Return where the incoming edges of each atom start in {@link #getInSources()},
+	 * one more than there are atoms. The array is shared and must not be modified.</p>
+	 */
+	public int [] getInOffsets()
+	{
+		return inOffsets;
+	}
+
+	/**
+	 * <p>Return the sources of the incoming edges of all atoms. The array is shared and
+	 * must not be modified.</p>
+	 */
+	public int [] getInSources()
+	{
+		return inSources;
+	}
+
+	// Replace the index 'name' with one from each atom to its value, in transactions of BATCH entries.
+	private <T> void writeValues(String name, final ByteArrayConverter<T> converter, final List<T> values)
+	{
+		ByteArrayConverter<HGPersistentHandle> keyConverter = BAtoHandle.getInstance(graph.getHandleFactory());
+		if (graph.getStore().getIndex(name, keyConverter, converter, null, false) != null)
+			graph.getStore().removeIndex(name);
+		final HGIndex<HGPersistentHandle, T> index = graph.getStore().getIndex(name, keyConverter, converter, null, true);
+		for (int start = 0; start < atoms.size(); start += BATCH)
+		{
+			final int from = start, to = Math.min(start + BATCH, atoms.size());
+			graph.getTransactionManager().ensureTransaction(new Callable<Object>() {
+				public Object call()
+				{
+					for (int v = from; v < to; v++)
+						index.addEntry(atoms.get(v), values.get(v));
+					return null;
+				}
+			});
+		}
+	}
+
+	/**
+	 * <p>Store a value for each atom in the index <code>name</code>, from the atom handle
+	 * to the value, replacing that index if it exists. Values are written with the 
+	 * <code>Double</code> type of the graph, and can be read back with
+	 * <code>graph.getStore().getIndex(name, BAtoHandle.getInstance(graph.getHandleFactory()),
+	 * (ByteArrayConverter&lt;Double&gt;)graph.getTypeSystem().getAtomType(Double.class), null, false)</code>.</p>
+	 */
+	@SuppressWarnings("unchecked")
+	public void writeIndex(String name, final double [] values)
+	{
+		writeValues(name, (ByteArrayConverter<Double>)graph.getTypeSystem().getAtomType(Double.class), 
+			new AbstractList<Double>() {
+				public Double get(int i) { return values[i]; }
+				public int size() { return values.length; }
+			});
+	}
+
+	/**
+	 * <p>Store a value for each atom in the index <code>name</code>, as with 
+	 * {@link #writeIndex(String, double[])}, with the <code>Integer</code> type of the
+	 * graph.</p>
+	 */
+	@SuppressWarnings("unchecked")
+	public void writeIndex(String name, final int [] values)
+	{
+		writeValues(name, (ByteArrayConverter<Integer>)graph.getTypeSystem().getAtomType(Integer.class), 
+			new AbstractList<Integer>() {
+				public Integer get(int i) { return values[i]; }
+				public int size() { return values.length; }
+			});
+	}
+}
@@ -0,0 +1,111 @@
+/*
+ * This file is part of the HyperGraphDB source distribution. This is copyrighted
+ * software. For permitted uses, licensing options and redistribution, please see
+ * the LicensingInformation file at the root level of the distribution.
+ *
+ * Copyright (c) 2005-2010 Kobrix Software, Inc.  All rights reserved.
+ */
+package org.hypergraphdb.algorithms.analytics;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import org.hypergraphdb.algorithms.HGParallelBreadthFirstTraversal;
+
+/**
+ * <p>
+ * The weakly connected components of a {@link CSRGraph}: atoms are in the same component
+ * when there is a path between them, following edges either way. The edges are merged in
+ * parallel into a concurrent union-find forest whose roots only ever link to smaller 
+ * roots, with compare-and-set, so that each component ends up labelled by its smallest
+ * atom number whatever the order in which edges were merged.
+ * </p>
+ */
+public class ConnectedComponents
+{
+	private static int find(AtomicIntegerArray parent, int v)
+	{
+		int p = parent.get(v);
+		while (p != v)
+		{
+			int grandParent = parent.get(p);
+			if (grandParent != p)
+				parent.compareAndSet(v, p, grandParent); // path halving
+			v = p;
+			p = parent.get(v);
+		}
+		return v;
+	}
+
+	private static void union(AtomicIntegerArray parent, int u, int v)
+	{
+		while (true)
+		{
+			u = find(parent, u);
+			v = find(parent, v);
+			if (u == v)
+				return;
+			else if (u < v)
+			{
+				int x = u;
+				u = v;
+				v = x;
+			}
+			// u is the larger root, it gets v as parent unless it was linked meanwhile
+			if (parent.compareAndSet(u, u, v))
+				return;
+		}
+	}
+
+	/**
+	 * <p>Compute the components on the default pool of {@link HGParallelBreadthFirstTraversal}.</p>
+	 */
+	public static int [] compute(CSRGraph graph)
+	{
+		return compute(graph, HGParallelBreadthFirstTraversal.getDefaultPool());
+	}
+
+	/**
+	 * @return The component of each atom, by atom number, as the smallest number of the
+	 * atoms in that component.
+	 */
+	public static int [] compute(CSRGraph graph, ForkJoinPool pool)
+	{
+		final int n = graph.size();
+		final int [] offsets = graph.getOutOffsets(), targets = graph.getOutTargets();
+		final AtomicIntegerArray parent = new AtomicIntegerArray(n);
+		for (int v = 0; v < n; v++)
+			parent.set(v, v);
+		new ParallelLoop() {
+			double run(int from, int to)
+			{
+				for (int v = from; v < to; v++)
+					for (int i = offsets[v]; i < offsets[v + 1]; i++)
+						union(parent, v, targets[i]);
+				return 0;
+			}
+		}.invoke(pool, n);
+		final int [] result = new int[n];
+		new ParallelLoop() {
+			double run(int from, int to)
+			{
+				for (int v = from; v < to; v++)
+					result[v] = find(parent, v);
+				return 0;
+			}
+		}.invoke(pool, n);
+		return result;
+	}
+
+	/**
+	 * <p>Return the number of components given the result of <code>compute</code>.</p>
+	 */
+	public static int count(int [] components)
+	{
+		int count = 0;
+		for (int v = 0; v < components.length; v++)
+			if (components[v] == v)
+				count++;
+		return count;
+	}
+}
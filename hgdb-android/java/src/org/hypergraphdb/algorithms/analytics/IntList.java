@@ -0,0 +1,61 @@
+/*
+ * This file is part of the HyperGraphDB source distribution. This is copyrighted
+ * software. For permitted uses, licensing options and redistribution, please see
+ * the LicensingInformation file at the root level of the distribution.
+ *
+ * Copyright (c) 2005-2010 Kobrix Software, Inc.  All rights reserved.
+ */
+package org.hypergraphdb.algorithms.analytics;
+
+import java.util.Arrays;
+
+/**
+ * <p>
+ * A growable array of <code>int</code>s.
+ * </p>
+ */
+class IntList
+{
+	private int [] values;
+	private int size = 0;
+
+	IntList()
+	{
+		this(16);
+	}
+
+	IntList(int capacity)
+	{
+		values = new int[Math.max(capacity, 1)];
+	}
+
+	void add(int x)
+	{
+		if (size == values.length)
+			values = Arrays.copyOf(values, 2*size);
+		values[size++] = x;
+	}
+
+	void addAll(IntList other)
+	{
+		if (size + other.size > values.length)
+			values = Arrays.copyOf(values, Math.max(2*values.length, size + other.size));
+		System.arraycopy(other.values, 0, values, size, other.size);
+		size += other.size;
+	}
+
+	int get(int i)
+	{
+		return values[i];
+	}
+
+	int size()
+	{
+		return size;
+	}
+
+	void clear()
+	{
+		size = 0;
+	}
+}
@@ -0,0 +1,152 @@
+/*
+ * This file is part of the HyperGraphDB source distribution. This is copyrighted
+ * software. For permitted uses, licensing options and redistribution, please see
+ * the LicensingInformation file at the root level of the distribution.
+ *
+ * Copyright (c) 2005-2010 Kobrix Software, Inc.  All rights reserved.
+ */
+package org.hypergraphdb.algorithms.analytics;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import org.hypergraphdb.algorithms.HGParallelBreadthFirstTraversal;
+
+/**
+ * <p>
+ * The k-core decomposition of a {@link CSRGraph}, with edges taken both ways: the core 
+ * number of an atom is the largest <code>k</code> such that the atom belongs to a sub-graph
+ * where all atoms have at least <code>k</code> edges. Edges from an atom to itself are 
+ * ignored, several edges between the same atoms each count.
+ * </p>
+ * 
+ * <p>
+ * Atoms are peeled off level by level: starting with the smallest degree <code>k</code> 
+ * left, all atoms of degree <code>k</code> are removed in parallel, decrementing the degrees
+ * of their neighbours, and those falling to <code>k</code> are removed next, until none is
+ * left at that level. Degrees are decremented with compare-and-set and never below the 
+ * current level, so each atom is removed once, at its core number.
+ * </p>
+ */
+public class KCore
+{
+	// A chunk of the atoms removed at one step, with the atoms their removal brings down to the level.
+	private static final class Peel extends ParallelLoop
+	{
+		final int [] outOffsets, outTargets, inOffsets, inSources, core;
+		final AtomicIntegerArray degree;
+		int [] frontier;
+		int level;
+		final IntList next = new IntList();
+
+		Peel(CSRGraph graph, int [] core, AtomicIntegerArray degree)
+		{
+			outOffsets = graph.getOutOffsets();
+			outTargets = graph.getOutTargets();
+			inOffsets = graph.getInOffsets();
+			inSources = graph.getInSources();
+			this.core = core;
+			this.degree = degree;
+		}
+
+		private void decrement(int u, IntList reached)
+		{
+			while (true)
+			{
+				int d = degree.get(u);
+				if (d <= level)
+					return;
+				if (degree.compareAndSet(u, d, d - 1))
+				{
+					if (d - 1 == level)
+						reached.add(u);
+					return;
+				}
+			}
+		}
+
+		double run(int from, int to)
+		{
+			IntList reached = new IntList();
+			for (int i = from; i < to; i++)
+			{
+				int v = frontier[i];
+				core[v] = level;
+				for (int j = outOffsets[v]; j < outOffsets[v + 1]; j++)
+					if (outTargets[j] != v)
+						decrement(outTargets[j], reached);
+				for (int j = inOffsets[v]; j < inOffsets[v + 1]; j++)
+					if (inSources[j] != v)
+						decrement(inSources[j], reached);
+			}
+			synchronized (next)
+			{
+				next.addAll(reached);
+			}
+			return 0;
+		}
+	}
+
+	/**
+	 * <p>Compute the core numbers on the default pool of {@link HGParallelBreadthFirstTraversal}.</p>
+	 */
+	public static int [] compute(CSRGraph graph)
+	{
+		return compute(graph, HGParallelBreadthFirstTraversal.getDefaultPool());
+	}
+
+	/**
+	 * @return The core number of each atom, by atom number.
+	 */
+	public static int [] compute(CSRGraph graph, ForkJoinPool pool)
+	{
+		final int n = graph.size();
+		final int [] outOffsets = graph.getOutOffsets(), outTargets = graph.getOutTargets();
+		final int [] inOffsets = graph.getInOffsets(), inSources = graph.getInSources();
+		final int [] core = new int[n];
+		Arrays.fill(core, -1);
+		final AtomicIntegerArray degree = new AtomicIntegerArray(n);
+		new ParallelLoop() {
+			double run(int from, int to)
+			{
+				for (int v = from; v < to; v++)
+				{
+					int d = outOffsets[v + 1] - outOffsets[v] + inOffsets[v + 1] - inOffsets[v];
+					for (int j = outOffsets[v]; j < outOffsets[v + 1]; j++)
+						if (outTargets[j] == v)
+							d -= 2;
+					degree.set(v, d);
+				}
+				return 0;
+			}
+		}.invoke(pool, n);
+		Peel peel = new Peel(graph, core, degree);
+		int removed = 0;
+		while (removed < n)
+		{
+			// the next level is the smallest degree of the atoms left
+			int level = Integer.MAX_VALUE;
+			for (int v = 0; v < n; v++)
+				if (core[v] < 0)
+					level = Math.min(level, degree.get(v));
+			IntList frontier = new IntList();
+			for (int v = 0; v < n; v++)
+				if (core[v] < 0 && degree.get(v) == level)
+					frontier.add(v);
+			peel.level = level;
+			while (frontier.size() > 0)
+			{
+				peel.frontier = new int[frontier.size()];
+				for (int i = 0; i < frontier.size(); i++)
+					peel.frontier[i] = frontier.get(i);
+				peel.next.clear();
+				peel.invoke(pool, peel.frontier.length);
+				removed += peel.frontier.length;
+				frontier.clear();
+				frontier.addAll(peel.next);
+			}
+		}
+		return core;
+	}
+}
@@ -0,0 +1,104 @@
+/*
+ * This file is part of the HyperGraphDB source distribution. This is copyrighted
+ * software. For permitted uses, licensing options and redistribution, please see
+ * the LicensingInformation file at the root level of the distribution.
+ *
+ * Copyright (c) 2005-2010 Kobrix Software, Inc.  All rights reserved.
+ */
+package org.hypergraphdb.algorithms.analytics;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+
+import org.hypergraphdb.algorithms.HGParallelBreadthFirstTraversal;
+
+/**
+ * <p>
+ * PageRank of the atoms of a {@link CSRGraph}, computed by power iteration. Each iteration
+ * gives every atom the rank of the atoms with an edge to it, divided by their number of
+ * outgoing edges, reading the incoming edges of the atoms in parallel chunks so that no 
+ * two threads write the same rank. The rank of atoms without outgoing edges is spread
+ * over all atoms. Ranks add up to 1.
+ * </p>
+ */
+public class PageRank
+{
+	public static final double DEFAULT_DAMPING = 0.85;
+	public static final double DEFAULT_TOLERANCE = 1e-6;
+	public static final int DEFAULT_MAX_ITERATIONS = 100;
+
+	/**
+	 * <p>Compute PageRank with the default damping factor, tolerance and maximum number
+	 * of iterations, on the default pool of {@link HGParallelBreadthFirstTraversal}.</p>
+	 */
+	public static double [] compute(CSRGraph graph)
+	{
+		return compute(graph, DEFAULT_DAMPING, DEFAULT_TOLERANCE, DEFAULT_MAX_ITERATIONS, 
+					   HGParallelBreadthFirstTraversal.getDefaultPool());
+	}
+
+	/**
+	 * @param graph The snapshot.
+	 * @param damping The probability of following an edge rather than jumping to any atom.
+	 * @param tolerance Iterations stop when the ranks change by less than this in total.
+	 * @param maxIterations Iterations stop after that many anyway.
+	 * @param pool The pool running the iterations.
+	 * @return The rank of each atom, by atom number.
+	 */
+	public static double [] compute(CSRGraph graph, 
+									final double damping, 
+									double tolerance, 
+									int maxIterations, 
+									ForkJoinPool pool)
+	{
+		final int n = graph.size();
+		if (n == 0)
+			return new double[0];
+		final int [] outOffsets = graph.getOutOffsets();
+		final int [] inOffsets = graph.getInOffsets(), inSources = graph.getInSources();
+		final double [] rank = new double[n], contribution = new double[n], next = new double[n];
+		Arrays.fill(rank, 1.0/n);
+		for (int iteration = 0; iteration < maxIterations; iteration++)
+		{
+			// contribution of each atom to those it links to, and the rank of dangling atoms
+			double dangling = new ParallelLoop() {
+				double run(int from, int to)
+				{
+					double sum = 0;
+					for (int v = from; v < to; v++)
+					{
+						int degree = outOffsets[v + 1] - outOffsets[v];
+						if (degree == 0)
+						{
+							contribution[v] = 0;
+							sum += rank[v];
+						}
+						else
+							contribution[v] = rank[v]/degree;
+					}
+					return sum;
+				}
+			}.invoke(pool, n);
+			final double base = (1 - damping)/n + damping*dangling/n;
+			double change = new ParallelLoop() {
+				double run(int from, int to)
+				{
+					double sum = 0;
+					for (int v = from; v < to; v++)
+					{
+						double r = 0;
+						for (int i = inOffsets[v]; i < inOffsets[v + 1]; i++)
+							r += contribution[inSources[i]];
+						next[v] = base + damping*r;
+						sum += Math.abs(next[v] - rank[v]);
+					}
+					return sum;
+				}
+			}.invoke(pool, n);
+			System.arraycopy(next, 0, rank, 0, n);
+			if (change < tolerance)
+				break;
+		}
+		return rank;
+	}
+}
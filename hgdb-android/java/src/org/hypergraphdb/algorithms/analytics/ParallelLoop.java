@@ -0,0 +1,64 @@
+/*
+ * This file is part of the HyperGraphDB source distribution. This is copyrighted
+ * software. For permitted uses, licensing options and redistribution, please see
+ * the LicensingInformation file at the root level of the distribution.
+ *
+ * Copyright (c) 2005-2010 Kobrix Software, Inc.  All rights reserved.
+ */
+package org.hypergraphdb.algorithms.analytics;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * <p>
+ * A loop over <code>[0, n)</code> run in chunks on a <code>ForkJoinPool</code>, each
+ * chunk returning a partial sum that the loop adds up.
+ * </p>
+ */
+abstract class ParallelLoop
+{
+	// Ranges are split down to at least that many indices.
+	private static final int MIN_CHUNK = 1024;
+
+	private final class Part extends RecursiveTask<Double>
+	{
+		private static final long serialVersionUID = 1L;
+		final int from, to, grain;
+
+		Part(int from, int to, int grain)
+		{
+			this.from = from;
+			this.to = to;
+			this.grain = grain;
+		}
+
+		protected Double compute()
+		{
+			if (to - from <= grain)
+				return run(from, to);
+			int middle = (from + to) >>> 1;
+			Part left = new Part(from, middle, grain);
+			left.fork();
+			double right = new Part(middle, to, grain).compute();
+			return left.join() + right;
+		}
+	}
+
+	/**
+	 * <p>Run the loop body for indices <code>from</code> to <code>to - 1</code> and return
+	 * their share of the sum.</p>
+	 */
+	abstract double run(int from, int to);
+
+	/**
+	 * <p>Run the loop for indices 0 to <code>n - 1</code> and return the sum.</p>
+	 */
+	double invoke(ForkJoinPool pool, int n)
+	{
+		if (n <= MIN_CHUNK)
+			return run(0, n);
+		int grain = Math.max(MIN_CHUNK, n / (8*pool.getParallelism()) + 1);
+		return pool.invoke(new Part(0, n, grain));
+	}
+}
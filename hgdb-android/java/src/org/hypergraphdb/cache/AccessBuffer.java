@@ -0,0 +1,149 @@
+/*
+ * This file is part of the HyperGraphDB source distribution. This is copyrighted
+ * software. For permitted uses, licensing options and redistribution, please see
+ * the LicensingInformation file at the root level of the distribution.
+ *
+ * Copyright (c) 2005-2010 Kobrix Software, Inc.  All rights reserved.
+ */
+package org.hypergraphdb.cache;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * <p>
+ * A lossy buffer of cache access events, striped by thread. Each stripe is a small ring
+ * of slots that reader threads fill with a single compare-and-set and no allocation. When
+ * a ring is full, or when two threads race for the same slot, the event is simply dropped:
+ * losing a few accesses only makes the recency order slightly less accurate, which is a
+ * much better deal than making readers wait.
+ * </p>
+ *
+ * <p>
+ * The events are consumed in batches by {@link #drain(Consumer)}, which must only be called
+ * by one thread at a time, typically while holding the lock protecting the eviction order.
+ * </p>
+ */
+public class AccessBuffer<E>
+{
+    /**
+     * The number of slots of each stripe.
+     */
+    public static final int STRIPE_SIZE = 16;
+    private static final int STRIPE_MASK = STRIPE_SIZE - 1;
+
+    /**
+     * Receives the events of a buffer when it is drained.
+     */
+    public interface Consumer<E>
+    {
+        void accept(E event);
+    }
+
+    private static final class Stripe<E>
+    {
+        final AtomicLong writeCounter = new AtomicLong();
+        volatile long readCounter = 0;
+        final AtomicReferenceArray<E> slots = new AtomicReferenceArray<E>(STRIPE_SIZE);
+        final AtomicLong dropped = new AtomicLong();
+    }
+
+    private final Stripe<E> [] stripes;
+    private final int mask;
+    private volatile long drained = 0;
+
+    public AccessBuffer()
+    {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * @param stripeCount The number of stripes, rounded up to a power of two. Something
+     * close to the number of processors is a good value.
+     */
+    @SuppressWarnings("unchecked")
+    public AccessBuffer(int stripeCount)
+    {
+        int count = 1;
+        while (count < stripeCount && count < 64)
+            count <<= 1;
+        stripes = (Stripe<E> [])new Stripe<?>[count];
+        for (int i = 0; i < count; i++)
+            stripes[i] = new Stripe<E>();
+        mask = count - 1;
+    }
+
+    private Stripe<E> stripe()
+    {
+        long id = Thread.currentThread().getId();
+        int h = (int)(id ^ (id >>> 32)) * 0x9e3779b9;
+        return stripes[(h ^ (h >>> 16)) & mask];
+    }
+
+    /**
+     * <p>Record an event. Return <code>true</code> if the stripe of the current thread
+     * is full and the buffer should be drained. The event is dropped in that case.</p>
+     */
+    public boolean record(E event)
+    {
+        Stripe<E> s = stripe();
+        long tail = s.writeCounter.get();
+        if (tail - s.readCounter >= STRIPE_SIZE)
+        {
+            s.dropped.incrementAndGet();
+            return true;
+        }
+        if (s.writeCounter.compareAndSet(tail, tail + 1))
+            s.slots.lazySet((int)(tail & STRIPE_MASK), event);
+        else
+            s.dropped.incrementAndGet();
+        return false;
+    }
+
+    /**
+     * <p>Hand all recorded events to <code>consumer</code> and return how many there were.
+     * Must not be called concurrently.</p>
+     */
+    public int drain(Consumer<E> consumer)
+    {
+        int count = 0;
+        for (Stripe<E> s : stripes)
+        {
+            long head = s.readCounter;
+            long tail = s.writeCounter.get();
+            for (; head < tail; head++)
+            {
+                int index = (int)(head & STRIPE_MASK);
+                E event = s.slots.get(index);
+                if (event == null)
+                    break; // the writer has claimed the slot but not filled it yet
+                s.slots.lazySet(index, null);
+                consumer.accept(event);
+                count++;
+            }
+            s.readCounter = head;
+        }
+        drained += count;
+        return count;
+    }
+
+    /**
+     * <p>Return the total number of events handed to consumers so far.</p>
+     */
+    public long getDrainedCount()
+    {
+        return drained;
+    }
+
+    /**
+     * <p>Return the total number of events dropped because a stripe was full or
+     * contended.</p>
+     */
+    public long getDroppedCount()
+    {
+        long count = 0;
+        for (Stripe<E> s : stripes)
+            count += s.dropped.get();
+        return count;
+    }
+}
@@ -54,8 +54,7 @@ public class ColdAtoms
 	
 	public ColdAtoms()
 	{
-		this(DEFAULT_BUCKET_SIZE);
-		initMemoryListener();
+		this(DEFAULT_BUCKET_SIZE, true);
 	}
 	
 	/**
@@ -64,9 +63,29 @@ public class ColdAtoms
 	 * @param bucket_size
 	 */
 	public ColdAtoms(int bucket_size)
+	{
+		this(bucket_size, false);
+	}
+	
+	/**
+	 * @param bucket_size The number of atoms per bucket.
+	 * @param watchMemory Whether to drop a portion of the buckets when the 
+	 * JVM is running low on memory. 
+	 */
+	public ColdAtoms(int bucket_size, boolean watchMemory)
 	{
 		this.bucket_size = bucket_size; 
 		buckets.put(new Object[bucket_size]);
+		if (watchMemory)
+			initMemoryListener();
+	}
+	
+	/**
+	 * Stop listening for low memory warnings.
+	 */
+	public void close()
+	{
+		HGEnvironment.getMemoryWarningSystem().removeListener(memListener);
 	}
 	
 	public void add(Object atom)
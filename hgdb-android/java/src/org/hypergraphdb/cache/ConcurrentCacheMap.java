@@ -0,0 +1,86 @@
+/*
+ * This file is part of the HyperGraphDB source distribution. This is copyrighted
+ * software. For permitted uses, licensing options and redistribution, please see
+ * the LicensingInformation file at the root level of the distribution.
+ *
+ * Copyright (c) 2005-2010 Kobrix Software, Inc.  All rights reserved.
+ */
+package org.hypergraphdb.cache;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * <p>
+ * A non-transactional {@link CacheMap} backed by a <code>ConcurrentHashMap</code>. Unlike
+ * {@link HashCacheMap}, it is safe for concurrent use without external locking. Putting
+ * a <code>null</code> value is the same as removing the key.
+ * </p>
+ */
+public class ConcurrentCacheMap<K, V> implements CacheMap<K, V>
+{
+    private ConcurrentHashMap<K, V> m;
+
+    public ConcurrentCacheMap()
+    {
+        m = new ConcurrentHashMap<K, V>();
+    }
+
+    public ConcurrentCacheMap(int initialCapacity, int concurrencyLevel)
+    {
+        m = new ConcurrentHashMap<K, V>(initialCapacity, 0.75f, concurrencyLevel);
+    }
+
+    public V get(K key)
+    {
+        return m.get(key);
+    }
+
+    public void load(K key, V value)
+    {
+        put(key, value);
+    }
+
+    public void put(K key, V value)
+    {
+        if (value == null)
+            m.remove(key);
+        else
+            m.put(key, value);
+    }
+
+    public void remove(K key)
+    {
+        m.remove(key);
+    }
+
+    public void drop(K key)
+    {
+        m.remove(key);
+    }
+
+    /**
+     * <p>Drop <code>key</code> only if it is currently mapped to the very same
+     * <code>value</code> instance. Return <code>true</code> if the entry was removed.</p>
+     * 
+     * <p>
+     * The removal itself is conditional on <code>value.equals</code>, so for values whose 
+     * <code>equals</code> is not identity a concurrent replacement with an equal value
+     * arriving between the identity check and the removal may be dropped as well. Cache
+     * users must tolerate that as an ordinary eviction.
+     * </p>
+     */
+    public boolean drop(K key, V value)
+    {
+        return m.get(key) == value && m.remove(key, value);
+    }
+
+    public void clear()
+    {
+        m.clear();
+    }
+
+    public int size()
+    {
+        return m.size();
+    }
+}
@@ -0,0 +1,123 @@
+/*
+ * This file is part of the HyperGraphDB source distribution. This is copyrighted
+ * software. For permitted uses, licensing options and redistribution, please see
+ * the LicensingInformation file at the root level of the distribution.
+ *
+ * Copyright (c) 2005-2010 Kobrix Software, Inc.  All rights reserved.
+ */
+package org.hypergraphdb.cache;
+
+import java.util.Arrays;
+
+/**
+ * <p>
+ * A probabilistic estimate of how often keys have been seen recently: a count-min sketch
+ * with four rows of 4-bit counters packed sixteen to a <code>long</code>. A key is
+ * hashed to one counter per row and its estimated frequency is the minimum of those
+ * counters, so it can only be over-estimated because of collisions. Counters saturate
+ * at 15. After a sample of <code>10*maximumSize</code> increments, all counters are
+ * halved so that the estimate follows changes in popularity over time.
+ * </p>
+ *
+ * <p>
+ * This is the admission filter of the TinyLFU family of cache policies. It costs
+ * 8 bytes per expected cached element. The class is not thread-safe.
+ * </p>
+ */
+public class FrequencySketch
+{
+    private static final long [] SEEDS = {
+        0xc3a5c85c97cb3127L, 0xb492b66fbe98f273L, 0x9ae16a3b2f90404fL, 0xcbf29ce484222325L
+    };
+    private static final long RESET_MASK = 0x7777777777777777L;
+
+    private long [] table;
+    private int tableMask;
+    private int sampleSize;
+    private int additions = 0;
+
+    /**
+     * @param maximumSize The expected maximum number of distinct keys in the cache
+     * this sketch serves.
+     */
+    public FrequencySketch(int maximumSize)
+    {
+        int n = 16;
+        while (n < maximumSize && n < (1 << 30))
+            n <<= 1;
+        table = new long[n];
+        tableMask = n - 1;
+        sampleSize = maximumSize <= 0 ? 10 : (int)Math.min(10L*maximumSize, Integer.MAX_VALUE);
+    }
+
+    private static int spread(int x)
+    {
+        x = ((x >>> 16) ^ x) * 0x45d9f3b;
+        x = ((x >>> 16) ^ x) * 0x45d9f3b;
+        return (x >>> 16) ^ x;
+    }
+
+    private int indexOf(int hash, int row)
+    {
+        long h = (hash + SEEDS[row]) * SEEDS[row];
+        h += (h >>> 32);
+        return ((int)h) & tableMask;
+    }
+
+    /**
+     * <p>Return the estimated number of occurrences of the key with the given hash code,
+     * between 0 and 15.</p>
+     */
+    public int frequency(int hashCode)
+    {
+        int hash = spread(hashCode);
+        int start = (hash & 3) << 2;
+        int frequency = Integer.MAX_VALUE;
+        for (int row = 0; row < 4; row++)
+        {
+            int index = indexOf(hash, row);
+            int count = (int)((table[index] >>> ((start + row) << 2)) & 0xfL);
+            frequency = Math.min(frequency, count);
+        }
+        return frequency;
+    }
+
+    /**
+     * <p>Record an occurrence of the key with the given hash code.</p>
+     */
+    public void increment(int hashCode)
+    {
+        int hash = spread(hashCode);
+        int start = (hash & 3) << 2;
+        boolean added = false;
+        for (int row = 0; row < 4; row++)
+        {
+            int index = indexOf(hash, row);
+            int offset = (start + row) << 2;
+            long mask = 0xfL << offset;
+            if ((table[index] & mask) != mask)
+            {
+                table[index] += 1L << offset;
+                added = true;
+            }
+        }
+        if (added && ++additions >= sampleSize)
+            reset();
+    }
+
+    /**
+     * <p>Halve all counters.</p>
+     */
+    public void reset()
+    {
+        for (int i = 0; i < table.length; i++)
+            table[i] = (table[i] >>> 1) & RESET_MASK;
+        additions >>>= 1;
+    }
+
+    public void clear()
+    {
+        Arrays.fill(table, 0L);
+        additions = 0;
+    }
+}
@@ -10,9 +10,9 @@ package org.hypergraphdb.cache;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 import org.hypergraphdb.HGEnvironment;
-import org.hypergraphdb.util.ActionQueueThread;
 import org.hypergraphdb.util.CloseMe;
 import org.hypergraphdb.util.MemoryWarningSystem;
 import org.hypergraphdb.util.RefResolver;
@@ -26,6 +26,14 @@ import org.hypergraphdb.util.RefResolver;
  * for more info.
  * </p>
  *
+ * <p>
+ * Cache hits don't reorder the list right away. They are recorded in a lossy,
+ * striped {@link AccessBuffer} and replayed in batches by whichever thread
+ * gets the eviction lock next, so that concurrent readers never wait on each
+ * other and a hit allocates nothing. When the buffer is full a hit is dropped,
+ * which only makes the recency order a little less precise.
+ * </p>
+ *
  * @author Borislav Iordanov
  *
  * @param <Key>
@@ -66,67 +74,93 @@ public class MRUCache<Key, Value> implements HGCache<Key, Value>, CloseMe
 	private int cutoffSize = 0;
 	private Map<Key, Entry<Key, Value>> map = new HashMap<Key, Entry<Key, Value>>();
 	
+	// The linked list (top, cutoffTail, cutoffSize and the entries' next/prev) is only
+	// modified by the holder of the evictionLock. It is always acquired before the
+	// map's read/write lock, never after.
+	private final ReentrantLock evictionLock = new ReentrantLock();
+	private final AccessBuffer<Entry<Key, Value>> accessBuffer = new AccessBuffer<Entry<Key, Value>>();
+	private final AccessBuffer.Consumer<Entry<Key, Value>> putOnTop = new AccessBuffer.Consumer<Entry<Key, Value>>()
+	{
+		public void accept(Entry<Key, Value> l)
+		{
+			 // If it's already on top or it's been removed, do nothing
+			if (l.prev == null || map.get(l.key) != l)
+				return;
+			if (l == cutoffTail)
+				cutoffTail = l.prev;
+			l.prev.next = l.next;
+			if (l.next != null)
+				l.next.prev = l.prev;
+			l.next = top;
+			l.prev = null;
+			top.prev = l;
+			top = l;
+		}
+	};
+	
 	class ClearAction implements Runnable
 	{
 		public void run()
 		{
+			evictionLock.lock();
 			lock.writeLock().lock();
-			map.clear();
-			cutoffTail = top = null;
-			cutoffSize = 0;
-			lock.writeLock().unlock();			
+			try
+			{
+				map.clear();
+				cutoffTail = top = null;
+				cutoffSize = 0;
+			}
+			finally
+			{
+				lock.writeLock().unlock();
+				evictionLock.unlock();
+			}
 		}
 	}
 	
-	class PutOnTop implements Runnable
+	// Must be called with the evictionLock held.
+	private void drainAccessBuffer()
 	{
-		Entry<Key, Value> l;
-		PutOnTop(Entry<Key, Value> l) 
+		lock.readLock().lock();
+		try
 		{
-			this.l = l;
+			accessBuffer.drain(putOnTop);
 		}
-		public void run()
+		finally
+		{
+			lock.readLock().unlock();
+		}
+	}
+	
+	private void recordAccess(Entry<Key, Value> e)
+	{
+		if (accessBuffer.record(e) && evictionLock.tryLock())
 		{
-			lock.readLock().lock();
 			try
 			{
-				 // If it's already on top or it's been removed, do nothing
-				if (l.prev == null || !map.containsKey(l.key))
-					return;
-				if (l == cutoffTail)
-					cutoffTail = l.prev;
-				l.prev.next = l.next;
-				if (l.next != null)
-					l.next.prev = l.prev;
-				l.next = top;
-				l.prev = null;
-				top.prev = l;
-				top = l;
+				drainAccessBuffer();
 			}
 			finally
 			{
-				lock.readLock().unlock();
+				evictionLock.unlock();
 			}
 		}
 	}
-	
-	void unlink(Entry<Key, Value> e)
-	{
-        if (e.prev != null)
-            e.prev.next = e.next;
-        if (e.next != null)
-            e.next.prev = e.prev;
-        e.prev = e.next = null;	    
-	}
 	
-	class UnlinkEntry implements Runnable
+	void unlink(Entry<Key, Value> e)
 	{
-		Entry<Key, Value> e;
-		UnlinkEntry(Entry<Key, Value> e) { this.e = e;}
-		public void run()
+		if (e == top)
+			top = e.next;
+		if (e == cutoffTail)
 		{
-		    unlink(e);
+			cutoffTail = e.next;
+			cutoffSize--;
 		}
+        if (e.prev != null)
+            e.prev.next = e.next;
+        if (e.next != null)
+            e.next.prev = e.prev;
+        e.prev = e.next = null;	    
 	}
 	
 	private void adjustCutoffTail()
@@ -149,19 +183,16 @@ public class MRUCache<Key, Value> implements HGCache<Key, Value>, CloseMe
 		}		
 	}
 	
-	class AddElement implements Runnable 
+	private void addElement(Entry<Key, Value> e)
 	{
-		Entry<Key, Value> e;
-		public AddElement(Entry<Key, Value> e)
-		{
-			this.e = e;
-		}
-		public void run()
+		evictionLock.lock();
+		try
 		{
+			drainAccessBuffer();
 			lock.readLock().lock();
 			try
 			{
-				if (!map.containsKey(e.key)) // it could have been removed before we got link it to the list
+				if (map.get(e.key) != e) // it could have been removed before we got link it to the list
 					return;
 				e.next = top;
 				if (top != null)			
@@ -174,11 +205,29 @@ public class MRUCache<Key, Value> implements HGCache<Key, Value>, CloseMe
 			}
 			adjustCutoffTail();
 		}
+		finally
+		{
+			evictionLock.unlock();
+		}
 	}
 	
 	class EvictAction implements Runnable
 	{
 		public void run()
+		{
+			evictionLock.lock();
+			try
+			{
+				drainAccessBuffer();
+				evict();
+			}
+			finally
+			{
+				evictionLock.unlock();
+			}
+		}
+		
+		private void evict()
 		{
 			if (top == null)
 				return;
@@ -190,6 +239,8 @@ public class MRUCache<Key, Value> implements HGCache<Key, Value>, CloseMe
 			adjustCutoffTail();
 			if (cutoffTail.prev != null)
 				cutoffTail.prev.next = null;
+			else
+				top = null;
 			while (cutoffTail != null)
 			{
 				lock.writeLock().lock();
@@ -210,8 +261,11 @@ public class MRUCache<Key, Value> implements HGCache<Key, Value>, CloseMe
 //        				    continue;
 //        				}        				
 //    				}
-				    map.remove(cutoffTail.key);
-				    cutoffTail = cutoffTail.next;    				    
+				    if (map.get(cutoffTail.key) == cutoffTail)
+				        map.remove(cutoffTail.key);
+				    Entry<Key, Value> next = cutoffTail.next;
+				    cutoffTail.prev = cutoffTail.next = null;
+				    cutoffTail = next;
 				}
 				finally
 				{
@@ -230,19 +284,14 @@ public class MRUCache<Key, Value> implements HGCache<Key, Value>, CloseMe
 		{
 			System.out.println("FREE INCIDENCE CACHE START " + Runtime.getRuntime().freeMemory() + " - " + map.size());
 			System.out.println("MEMUSAGE:" + Thread.currentThread().getName() + " id: " + Thread.currentThread().getId());			
-			CacheActionQueueSingleton.get().pauseActions();
 			try
 			{			    
-				new EvictAction().run();
+				new EvictAction().run();
 			    //new ClearAction().run();
-			}
-			catch (Throwable t)
-			{
-				t.printStackTrace();
 			}
-			finally
+			catch (Throwable t)
 			{
-				CacheActionQueueSingleton.get().resumeActions();
+				t.printStackTrace();
 			}
 			//System.gc();
 			System.out.println("FREE INCIDENCE END " + Runtime.getRuntime().freeMemory() + " - " + map.size());			
@@ -307,32 +356,24 @@ public class MRUCache<Key, Value> implements HGCache<Key, Value>, CloseMe
 	
 	public Value get(Key key)
 	{
-		// The action to modify the MRU list is added outside the lock boundaries since
-		// some actions also use the same lock in their implementation and will
-		// not complete (and therefore free space in the ActionQueueThread.actionList) until
-		// we release the lock from here....and we end up deadlocking.
-		//
-		// There's also a subtle interplay b/w the readwrite lock of the cache map here and the
-		// pause-actions mutex in the ActionQueue: when memory is low, we want to stop action execution
-		// and free space from the MRU list, which in turn acquires the write lock, leading to a
-		// situation similar to the one described above.
-		Runnable action = null;
+		// The MRU list is modified outside the lock boundaries since draining the access
+		// buffer and linking new elements acquire the evictionLock and then the read lock:
+		// taking the evictionLock while holding the map's lock could deadlock with a thread
+		// doing it in the opposite order.
+		Entry<Key, Value> e = null;
 		
 		lock.readLock().lock();
 		try
 		{
-			Entry<Key, Value> e = map.get(key);
+			e = map.get(key);
 			if (e != null)
-			{
-				action = new PutOnTop(e);
 				return e.value;
-			}
 		}
 		finally
 		{
 			lock.readLock().unlock();			
-			if (action != null)
-				CacheActionQueueSingleton.get().addAction(action);
+			if (e != null)
+				recordAccess(e);
 		}
 
 		// We need to make the resolution outside the write lock because,
@@ -342,45 +383,42 @@ public class MRUCache<Key, Value> implements HGCache<Key, Value>, CloseMe
 		// that page and is not making progress because it's waiting on the read lock.
 		Value v = resolver.resolve(key);
 		
-		lock.writeLock().lock();
-		try
-		{
-			Entry<Key, Value> e = map.get(key);
+		Entry<Key, Value> added = null;
+		lock.writeLock().lock();
+		try
+		{
+			e = map.get(key);
 			if (e == null)
-			{				
-				e = new Entry<Key, Value>(key, v, null, null);
-				map.put(key, e);
-				action = new AddElement(e);
+			{				
+				added = new Entry<Key, Value>(key, v, null, null);
+				map.put(key, added);
 				return v;
 			}
 			else
 				return e.value;
-		}
-		finally
-		{
-			lock.writeLock().unlock();		
-			if (action != null)
-				CacheActionQueueSingleton.get().addAction(action);
-		}
+		}
+		finally
+		{
+			lock.writeLock().unlock();		
+			if (added != null)
+				addElement(added);
+		}
 	}
 
 	public Value getIfLoaded(Key key)
 	{
-		lock.readLock().lock();
-		try
+		Entry<Key, Value> e = null;
+		lock.readLock().lock();
+		try
 		{
-    		Entry<Key, Value> e = map.get(key);
-    		if (e == null)
-    			return null;
-    		else
-    		{
-    			CacheActionQueueSingleton.get().addAction(new PutOnTop(e));
-    			return e.value;
-    		}
-		}
-		finally
-		{
-	        lock.readLock().unlock();		    
+    		e = map.get(key);
+    		return e == null ? null : e.value;
+		}
+		finally
+		{
+	        lock.readLock().unlock();		    
+	        if (e != null)
+	        	recordAccess(e);
 		}
 	}
 	
@@ -398,7 +436,17 @@ public class MRUCache<Key, Value> implements HGCache<Key, Value>, CloseMe
 		Entry<Key, Value> e = map.remove(key);
 		lock.writeLock().unlock();
 		if (e != null)
-			CacheActionQueueSingleton.get().addAction(new UnlinkEntry(e));
+		{
+			evictionLock.lock();
+			try
+			{
+				unlink(e);
+			}
+			finally
+			{
+				evictionLock.unlock();
+			}
+		}
 	}
 	
 	public RefResolver<Key, Value> getResolver()
@@ -413,15 +461,16 @@ public class MRUCache<Key, Value> implements HGCache<Key, Value>, CloseMe
 	
 	public void clear()
 	{
-		ActionQueueThread aq = CacheActionQueueSingleton.get();
-		aq.addAction(new ClearAction());
-		aq.completeAll();
-		
+		new ClearAction().run();
 	}
 	
+	/**
+	 * Same as {@link #clear()}: the cache no longer relies on a background thread
+	 * to maintain the MRU list, so clearing it never waits for pending actions.
+	 */
 	public void clearNonBlocking()
 	{
-		CacheActionQueueSingleton.get().addAction(new ClearAction());
+		new ClearAction().run();
 	}
 	
 	/**
@@ -449,5 +498,23 @@ public class MRUCache<Key, Value> implements HGCache<Key, Value>, CloseMe
 	public int size()
 	{
 	    return map.size();
+	}
+	
+	/**
+	 * Return the number of cache hits that were applied to the MRU order so far.
+	 */
+	public long getDrainedAccessCount()
+	{
+		return accessBuffer.getDrainedCount();
+	}
+	
+	/**
+	 * Return the number of cache hits that were not recorded because the access
+	 * buffer was full or contended. A high ratio of dropped to drained accesses
+	 * only means the MRU order is approximate, not that anything was lost from the cache.
+	 */
+	public long getDroppedAccessCount()
+	{
+		return accessBuffer.getDroppedCount();
 	}
 }
\ No newline at end of file
@@ -0,0 +1,550 @@
+/*
+ * This file is part of the HyperGraphDB source distribution. This is copyrighted
+ * software. For permitted uses, licensing options and redistribution, please see
+ * the LicensingInformation file at the root level of the distribution.
+ *
+ * Copyright (c) 2005-2010 Kobrix Software, Inc.  All rights reserved.
+ */
+package org.hypergraphdb.cache;
+
+import java.lang.ref.ReferenceQueue;
+
+import org.hypergraphdb.HGAtomAttrib;
+import org.hypergraphdb.HGAtomCache;
+import org.hypergraphdb.HGHandle;
+import org.hypergraphdb.HGPersistentHandle;
+import org.hypergraphdb.HGSystemFlags;
+import org.hypergraphdb.HyperGraph;
+import org.hypergraphdb.IncidenceSet;
+import org.hypergraphdb.handle.DefaultManagedLiveHandle;
+import org.hypergraphdb.handle.HGLiveHandle;
+import org.hypergraphdb.handle.WeakHandle;
+import org.hypergraphdb.handle.WeakManagedHandle;
+import org.hypergraphdb.transaction.TxCacheMap;
+import org.hypergraphdb.transaction.VBoxBody;
+import org.hypergraphdb.util.CloseMe;
+import org.hypergraphdb.util.WeakIdentityHashMap;
+
+/**
+ * <p>
+ * An atom cache with the same eviction policy as {@link WeakRefAtomCache} - an atom stays
+ * in the cache until its runtime instance is garbage collected, it is removed from the
+ * database or, if frozen, until it is unfrozen - but designed for many concurrent threads.
+ * </p>
+ *
+ * <p>
+ * The handle->live handle and atom->live handle maps are split into a power of two number
+ * of shards. The shard of an atom is selected by the hash code of its persistent handle
+ * for the former map and by its identity hash code for the latter. Each shard has its
+ * own maps and its own "cold atoms" buffer so threads working on different atoms rarely
+ * touch the same lock or the same transactional size counter.
+ * </p>
+ *
+ * <p>
+ * Contrary to <code>WeakRefAtomCache</code>, there is no global lock between the
+ * cleanup thread draining the reference queue and the threads reading and adding atoms.
+ * A garbage collected entry is dropped with a conditional remove that only succeeds if
+ * the map still holds the very same entry, so a newer live handle for the same atom is
+ * never lost. If a reader loads a new version into a transactional box at the exact moment
+ * the cleanup thread drops it, the only consequence is that the atom will be read from
+ * storage again on its next access.
+ * </p>
+ *
+ * <p>
+ * To use it, call <code>setAtomCacheImplementation(ShardedAtomCache.class)</code> on the
+ * {@link org.hypergraphdb.HGConfiguration} before opening the database.
+ * </p>
+ *
+ * <p>
+ * Subclasses can replace the policy deciding how long atoms stay strongly reachable, 
+ * which by default is a per shard {@link ColdAtoms} buffer, by overriding the 
+ * <code>retain</code>, <code>accessed</code> and <code>release</code> methods.
+ * </p>
+ */
+public class ShardedAtomCache implements HGAtomCache
+{
+	public static final long DEFAULT_PHANTOM_QUEUE_POLL_INTERVAL = 500;
+
+	private HyperGraph graph = null;
+
+	private HGCache<HGPersistentHandle, IncidenceSet> incidenceCache = null; // to be configured by the HyperGraph instance
+
+	private final Shard [] shards;
+	private final int shardMask;
+
+	private CacheMap<HGLiveHandle, Object> frozenAtoms = null;
+
+	private ReferenceQueue<Object> refQueue = new ReferenceQueue<Object>();
+	private PhantomCleanup cleanupThread = new PhantomCleanup();
+	private long phantomQueuePollInterval = DEFAULT_PHANTOM_QUEUE_POLL_INTERVAL;
+	private volatile boolean closing = false;
+
+	private static final class Shard
+	{
+		CacheMap<HGPersistentHandle, WeakHandle> liveHandles;
+		ConcurrentCacheMap<HGPersistentHandle, WeakHandle> liveHandlesNonTx; // null if transactional
+		TxCacheMap<HGPersistentHandle, WeakHandle> liveHandlesTx; // null if non-transactional
+		CacheMap<Object, HGLiveHandle> atoms;
+		TxCacheMap<Object, HGLiveHandle> atomsTx;
+		ColdAtoms coldAtoms;
+	}
+
+	//
+	// The atom->handle map of a shard in non-transactional mode. WeakIdentityHashMap is not
+	// thread-safe, but each instance is only guarded by the monitor of its own shard.
+	//
+	private static final class WeakIdentityCacheMap implements CacheMap<Object, HGLiveHandle>
+	{
+		private WeakIdentityHashMap<Object, HGLiveHandle> m = new WeakIdentityHashMap<Object, HGLiveHandle>();
+
+		public synchronized HGLiveHandle get(Object key) { return m.get(key); }
+		public synchronized void put(Object key, HGLiveHandle value) { m.put(key, value); }
+		public void load(Object key, HGLiveHandle value) { put(key, value); }
+		public synchronized void remove(Object key) { m.remove(key); }
+		public void drop(Object key) { remove(key); }
+		public synchronized void clear() { m.clear(); }
+		public synchronized int size() { return m.size(); }
+	}
+
+	//
+	// See WeakRefAtomCache.TempLiveHandle
+	//
+	private static class TempLiveHandle extends DefaultManagedLiveHandle
+	{
+		public TempLiveHandle(Object ref, HGPersistentHandle persistentHandle, byte flags)
+		{
+			super(ref, persistentHandle, flags, 0, 0);
+		}
+
+		public void setRef(Object ref)
+		{
+			this.ref = ref;
+		}
+	}
+
+	private static class ClearHandleAction implements Runnable
+	{
+	    private WeakHandle h;
+	    public ClearHandleAction(WeakHandle h) { this.h = h;}
+	    public void run() { h.clear(); }
+	}
+
+	private static int spread(int h)
+	{
+		h ^= (h >>> 16);
+		return h ^ (h >>> 7);
+	}
+
+	private Shard shardOf(HGPersistentHandle pHandle)
+	{
+		return shards[spread(pHandle.hashCode()) & shardMask];
+	}
+
+	private Shard shardOf(Object atom)
+	{
+		return shards[spread(System.identityHashCode(atom)) & shardMask];
+	}
+
+	/**
+	 * Return true if some version of the live handle in <code>box</code> still refers
+	 * to an atom that is in the cache.
+	 */
+	private boolean isReferenced(TxCacheMap<HGPersistentHandle, WeakHandle>.Box box)
+	{
+		for (VBoxBody<WeakHandle> body = box.getBody(); body != null; body = body.next)
+		{
+			// body.value can be null (or the transaction NULL_VALUE marker) if the atom got
+			// garbage collected before a transaction committed or if it was removed
+			Object value = body.value;
+			if (value instanceof WeakHandle)
+			{
+				Object x = ((WeakHandle)value).getRef();
+				if (x != null && shardOf(x).atomsTx.boxOf(x) != null)
+					return true;
+			}
+		}
+		return false;
+	}
+
+	private void processRefQueue() throws InterruptedException
+	{
+		WeakHandle ref = (WeakHandle)refQueue.remove(phantomQueuePollInterval);
+		while (ref != null)
+		{
+			HGPersistentHandle h = ref.getPersistent();
+			shardOf(h).liveHandlesNonTx.drop(h, ref);
+			ref.clear();
+			synchronized (ref) { ref.notifyAll(); }
+			ref = (WeakHandle)refQueue.poll();
+		}
+	}
+
+	private void processRefQueueTx() throws InterruptedException
+	{
+	    // need WeakHandle.geRef to return when ref is enqueued - deadlock otherwise!
+		WeakHandle.returnEnqueued.set(Boolean.TRUE);
+		try
+		{
+			WeakHandle ref = (WeakHandle)refQueue.remove(phantomQueuePollInterval);
+			while (ref != null)
+			{
+				HGPersistentHandle h = ref.getPersistent();
+				Shard shard = shardOf(h);
+				TxCacheMap<HGPersistentHandle, WeakHandle>.Box theBox = shard.liveHandlesTx.boxOf(h);
+				if (theBox != null && !isReferenced(theBox))
+					shard.liveHandlesTx.drop(h, theBox);
+				ref.clear();
+				synchronized (ref) { ref.notifyAll(); }
+				ref = (WeakHandle)refQueue.poll();
+			}
+		}
+		finally
+		{
+			WeakHandle.returnEnqueued.set(Boolean.FALSE);
+		}
+	}
+
+	private class PhantomCleanup extends Thread
+	{
+		private volatile boolean done;
+
+	    public void run()
+	    {
+	        for (done = false; !done; )
+	        {
+	        	try
+	            {
+	        	    if (graph.getConfig().isTransactional())
+	        	        processRefQueueTx();
+	        	    else
+	        	        processRefQueue();
+	            }
+	        	catch (InterruptedException exc)
+	        	{
+	                Thread.currentThread().interrupt();
+	            }
+	        	catch (Throwable t)
+	        	{
+	        		System.err.println("PhantomCleanup thread caught an unexpected exception, stack trace follows:");
+	        		t.printStackTrace(System.err);
+	        	}
+	        }
+	    }
+
+	    public void end()
+	    {
+	    	this.done = true;
+	    }
+	}
+
+	/**
+	 * <p>Return the default number of shards: the smallest power of two that is at least
+	 * twice the number of available processors, between 4 and 64.</p>
+	 */
+	public static int defaultShardCount()
+	{
+		int n = 2*Runtime.getRuntime().availableProcessors();
+		int count = 4;
+		while (count < n && count < 64)
+			count <<= 1;
+		return count;
+	}
+
+	public ShardedAtomCache(HyperGraph graph)
+	{
+		this(graph, defaultShardCount());
+	}
+
+	/**
+	 * @param graph The <code>HyperGraph</code> instance.
+	 * @param shardCount The number of shards. It is rounded up to a power of two.
+	 */
+	public ShardedAtomCache(HyperGraph graph, int shardCount)
+	{
+		this(graph, shardCount, true);
+	}
+
+	/**
+	 * @param graph The <code>HyperGraph</code> instance.
+	 * @param shardCount The number of shards. It is rounded up to a power of two.
+	 * @param keepColdAtoms Whether to keep recently loaded atoms strongly reachable in
+	 * per shard {@link ColdAtoms} buffers. Subclasses overriding <code>retain</code> pass
+	 * <code>false</code>.
+	 */
+	protected ShardedAtomCache(HyperGraph graph, int shardCount, boolean keepColdAtoms)
+	{
+		this.graph = graph;
+		int count = 1;
+		while (count < shardCount)
+			count <<= 1;
+		shards = new Shard[count];
+		shardMask = count - 1;
+		int coldBucketSize = Math.max(64, ColdAtoms.DEFAULT_BUCKET_SIZE / count);
+		boolean transactional = graph.getConfig().isTransactional();
+		for (int i = 0; i < count; i++)
+		{
+			Shard shard = new Shard();
+			if (transactional)
+			{
+				shard.atoms = shard.atomsTx = new TxCacheMap<Object, HGLiveHandle>(
+				                                    graph.getTransactionManager(),
+				                                    WeakIdentityHashMap.class,
+				                                    null);
+				shard.atomsTx.setReturnLatestAvailable(true);
+				// a null map implementation gives a ConcurrentHashMap with lock-free box lookup
+				shard.liveHandles = shard.liveHandlesTx = new TxCacheMap<HGPersistentHandle, WeakHandle>(
+				                                    graph.getTransactionManager(),
+				                                    null,
+				                                    null);
+			}
+			else
+			{
+				shard.atoms = new WeakIdentityCacheMap();
+				shard.liveHandles = shard.liveHandlesNonTx = new ConcurrentCacheMap<HGPersistentHandle, WeakHandle>();
+			}
+			if (keepColdAtoms)
+				shard.coldAtoms = new ColdAtoms(coldBucketSize, true);
+			shards[i] = shard;
+		}
+		if (transactional)
+			frozenAtoms = new TxCacheMap<HGLiveHandle, Object>(graph.getTransactionManager(), null, null);
+		else
+			frozenAtoms = new ConcurrentCacheMap<HGLiveHandle, Object>();
+		cleanupThread.setPriority(Thread.MAX_PRIORITY);
+		cleanupThread.setDaemon(true);
+		cleanupThread.start();
+	}
+
+	public int getShardCount()
+	{
+		return shards.length;
+	}
+
+	/**
+	 * <p>Called whenever an atom instance gets in the cache, to keep it strongly reachable
+	 * for a while. The default adds it to the cold atoms buffer of its shard.</p>
+	 */
+	protected void retain(HGPersistentHandle pHandle, Object atom)
+	{
+		ColdAtoms coldAtoms = shardOf(atom).coldAtoms;
+		if (coldAtoms != null)
+			coldAtoms.add(atom);
+	}
+
+	/**
+	 * <p>Called on every cache hit by persistent handle. The default does nothing.</p>
+	 */
+	protected void accessed(HGLiveHandle handle)
+	{
+	}
+
+	/**
+	 * <p>Called when an atom is explicitly removed from the cache. The default does nothing.</p>
+	 */
+	protected void release(HGPersistentHandle pHandle)
+	{
+	}
+
+	public void setIncidenceCache(HGCache<HGPersistentHandle, IncidenceSet> cache)
+	{
+		this.incidenceCache= cache;
+	}
+
+	public HGCache<HGPersistentHandle, IncidenceSet> getIncidenceCache()
+	{
+		return incidenceCache;
+	}
+
+	public void setHyperGraph(HyperGraph hg)
+	{
+		this.graph = hg;
+		cleanupThread.setName("HGCACHE Cleanup - " + graph.getLocation());
+	}
+
+	private HGLiveHandle tempHandle(HGPersistentHandle pHandle, Object atom, HGAtomAttrib attrib)
+	{
+		HGLiveHandle result = new TempLiveHandle(atom, pHandle, attrib.getFlags());
+		shardOf(atom).atoms.put(atom, result);
+		return result;
+	}
+
+	private WeakHandle makeHandle(HGPersistentHandle pHandle, Object atom, HGAtomAttrib attrib)
+	{
+		WeakHandle h;
+		if (attrib != null && (attrib.getFlags() & HGSystemFlags.MANAGED) != 0)
+			h = new WeakManagedHandle(atom,
+			                          pHandle,
+			                          attrib.getFlags(),
+			                          refQueue,
+			                          attrib.getRetrievalCount(),
+			                          attrib.getLastAccessTime());
+		else
+			h = new WeakHandle(atom, pHandle, attrib == null ? HGSystemFlags.DEFAULT : attrib.getFlags(), refQueue);
+		graph.getTransactionManager().getContext().getCurrent().addAbortAction(new ClearHandleAction(h));
+		return h;
+	}
+
+	public HGLiveHandle atomAdded(HGPersistentHandle pHandle, Object atom, final HGAtomAttrib attrib)
+	{
+		if (closing)
+			return tempHandle(pHandle, atom, attrib);
+		Shard shard = shardOf(pHandle);
+		WeakHandle h = shard.liveHandles.get(pHandle);
+		if (h != null)
+			return h;
+		h = makeHandle(pHandle, atom, attrib);
+		Shard atomShard = shardOf(atom);
+		atomShard.atoms.put(atom, h);
+		shard.liveHandles.put(pHandle, h);
+		retain(pHandle, atom);
+		return h;
+	}
+
+	public HGLiveHandle atomRead(HGPersistentHandle pHandle,
+	                             Object atom,
+	                             final HGAtomAttrib attrib)
+	{
+		if (closing)
+			return tempHandle(pHandle, atom, attrib);
+		Shard shard = shardOf(pHandle);
+		WeakHandle h = shard.liveHandles.get(pHandle);
+		if (h != null)
+			return h;
+		h = makeHandle(pHandle, atom, attrib);
+		// Important to updates the atoms map first to prevent garbage collection
+		// of the liveHandles entry due to previously removed runtime instance of the
+		// same atom.
+		Shard atomShard = shardOf(atom);
+		atomShard.atoms.load(atom, h);
+		shard.liveHandles.load(pHandle, h);
+		retain(pHandle, atom);
+		return h;
+	}
+
+	public HGLiveHandle atomRefresh(HGLiveHandle handle, Object atom, boolean replace)
+	{
+		if (handle.getRef() == atom)
+			return handle; // same atom, nothing to do
+		if (closing)
+		{
+			if (handle instanceof WeakHandle)
+				((WeakHandle)handle).clear();
+			else
+				((TempLiveHandle)handle).setRef(atom);
+			return handle;
+		}
+		WeakHandle newLive = null;
+		if (handle instanceof WeakManagedHandle)
+			newLive = new WeakManagedHandle(atom,
+			                                handle.getPersistent(),
+			                                handle.getFlags(),
+			                                refQueue,
+			                                ((WeakManagedHandle)handle).getRetrievalCount(),
+			                                ((WeakManagedHandle)handle).getLastAccessTime());
+		else
+			newLive = new WeakHandle(atom,
+			                         handle.getPersistent(),
+			                         handle.getFlags(),
+			                         refQueue);
+
+		graph.getTransactionManager().getContext().getCurrent().addAbortAction(new ClearHandleAction(newLive));
+
+		// As in WeakRefAtomCache, the atoms map is updated first and a replace is forced
+		// whenever there is some other current Java instance for the atom.
+		Object curr = handle.getRef();
+		((WeakHandle)handle).clear();
+
+		Shard shard = shardOf(handle.getPersistent());
+		Shard atomShard = shardOf(atom);
+		if (replace || curr != null)
+		{
+			if (curr != null)
+				shardOf(curr).atoms.remove(curr);
+			atomShard.atoms.put(atom, newLive);
+			shard.liveHandles.put(handle.getPersistent(), newLive);
+		}
+		else
+		{
+			atomShard.atoms.load(atom, newLive);
+			shard.liveHandles.load(handle.getPersistent(), newLive);
+		}
+		retain(handle.getPersistent(), atom);
+		return newLive;
+	}
+
+	public void close()
+	{
+		closing = true;
+		cleanupThread.end();
+		while (cleanupThread.isAlive() )
+			try { cleanupThread.join(); } catch (InterruptedException ex) { }
+		frozenAtoms.clear();
+		incidenceCache.clear();
+		if (incidenceCache instanceof CloseMe)
+			((CloseMe)incidenceCache).close();
+		for (Shard shard : shards)
+		{
+			shard.atoms.clear();
+			shard.liveHandles.clear();
+			if (shard.coldAtoms != null)
+				shard.coldAtoms.close();
+		}
+	}
+
+	public HGLiveHandle get(HGPersistentHandle pHandle)
+	{
+		WeakHandle h = shardOf(pHandle).liveHandles.get(pHandle);
+		if (h != null)
+		{
+			h.accessed();
+			accessed(h);
+		}
+		return h;
+	}
+
+	public HGLiveHandle get(Object atom)
+	{
+		return shardOf(atom).atoms.get(atom);
+	}
+
+	public void remove(HGHandle handle)
+	{
+		HGLiveHandle lhdl = null;
+
+		if (handle instanceof HGLiveHandle)
+			lhdl = (HGLiveHandle)handle;
+		else
+			lhdl = get(handle.getPersistent());
+
+		if (lhdl != null)
+		{
+			Object atom = lhdl.getRef();
+			if (atom != null)
+				shardOf(atom).atoms.remove(atom);
+			shardOf(lhdl.getPersistent()).liveHandles.remove(lhdl.getPersistent());
+			release(lhdl.getPersistent());
+		}
+	}
+
+	public boolean isFrozen(HGLiveHandle handle)
+	{
+		return frozenAtoms.get(handle) != null;
+	}
+
+	public void freeze(HGLiveHandle handle)
+	{
+		Object atom = handle.getRef();
+		if (atom != null)
+		{
+			if (graph.getTransactionManager().getContext().getCurrent().isReadOnly())
+				frozenAtoms.load(handle, atom);
+			else
+				frozenAtoms.put(handle, atom);
+		}
+	}
+
+	public void unfreeze(HGLiveHandle handle)
+	{
+		frozenAtoms.remove(handle);
+	}
+}
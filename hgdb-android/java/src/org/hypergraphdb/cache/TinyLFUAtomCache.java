@@ -0,0 +1,329 @@
+/*
+ * This file is part of the HyperGraphDB source distribution. This is copyrighted
+ * software. For permitted uses, licensing options and redistribution, please see
+ * the LicensingInformation file at the root level of the distribution.
+ *
+ * Copyright (c) 2005-2010 Kobrix Software, Inc.  All rights reserved.
+ */
+package org.hypergraphdb.cache;
+
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.hypergraphdb.HGConfiguration;
+import org.hypergraphdb.HGLink;
+import org.hypergraphdb.HGPersistentHandle;
+import org.hypergraphdb.HyperGraph;
+import org.hypergraphdb.IncidenceSet;
+import org.hypergraphdb.handle.HGLiveHandle;
+import org.hypergraphdb.transaction.HGTransaction;
+import org.hypergraphdb.transaction.HGTransactionManager;
+import org.hypergraphdb.util.Mapping;
+
+/**
+ * <p>
+ * An atom cache with a hard budget. Which atoms stay in memory is decided by the W-TinyLFU
+ * policy (see {@link WindowTinyLFU}) instead of by the garbage collector and the low memory
+ * warnings, so the hit rate stays predictable under heap pressure and scan-like access
+ * patterns do not flush frequently used atoms.
+ * </p>
+ *
+ * <p>
+ * The cache holds strong references to at most <code>atomCacheCapacity</code> atoms (or to
+ * atoms whose weights add up to it when an <code>atomCacheWeigher</code> is configured,
+ * for instance {@link #ESTIMATED_BYTES}), see {@link HGConfiguration}. Atom lookup is that of
+ * the {@link ShardedAtomCache} it extends: an atom evicted by the policy remains reachable
+ * through the cache for as long as the application itself holds on to it. Frozen atoms are
+ * pinned outside of the policy and don't count towards the budget.
+ * </p>
+ *
+ * <p>
+ * Unless one was configured explicitly, the incidence set cache is a {@link TinyLFUCache}
+ * with a budget of <code>incidenceCacheMaxBytes</code> bytes if configured, or else of
+ * <code>incidenceCacheCapacity</code> handles in total.
+ * </p>
+ *
+ * <p>
+ * The policy is split in the same shards as the handle map. Recording a hit only tries
+ * to lock its shard and the hit is not recorded if another thread holds the lock, so
+ * readers never wait on each other.
+ * </p>
+ */
+public class TinyLFUAtomCache extends ShardedAtomCache
+{
+	/**
+	 * The number of atoms kept when no capacity is configured.
+	 */
+	public static final long DEFAULT_CAPACITY = 100000;
+
+	/**
+	 * The total number of incidence set elements kept when no capacity is configured.
+	 */
+	public static final long DEFAULT_INCIDENCE_CAPACITY = 1000000;
+
+	/**
+	 * <p>
+	 * A rough estimate of the heap footprint of an atom in bytes, to be used as the
+	 * <code>atomCacheWeigher</code> when the capacity is expressed in bytes. Strings
+	 * and arrays are measured by length, links by arity, and anything else counts as a
+	 * small bean.
+	 * </p>
+	 */
+	public static final Mapping<Object, Integer> ESTIMATED_BYTES = new Mapping<Object, Integer>()
+	{
+		public Integer eval(Object x)
+		{
+			int size;
+			if (x instanceof String)
+				size = 40 + 2*((String)x).length();
+			else if (x instanceof byte[])
+				size = 16 + ((byte[])x).length;
+			else if (x instanceof Object[])
+				size = 16 + 24*((Object[])x).length;
+			else if (x instanceof Number || x instanceof Boolean || x instanceof Character)
+				size = 16;
+			else
+				size = 64;
+			if (x instanceof HGLink)
+				size += 16 + 32*((HGLink)x).getArity();
+			return size;
+		}
+	};
+
+	private static final class Segment
+	{
+		final ReentrantLock lock = new ReentrantLock();
+		final WindowTinyLFU<HGPersistentHandle, Object> policy;
+		Segment(long maxWeight, int expectedSize)
+		{
+			policy = new WindowTinyLFU<HGPersistentHandle, Object>(maxWeight, expectedSize);
+		}
+	}
+
+	private final Segment [] segments;
+	private final int segmentMask;
+	private final long capacity;
+	private final Mapping<Object, Integer> weigher;
+	private final Set<HGPersistentHandle> pinned =
+		Collections.newSetFromMap(new ConcurrentHashMap<HGPersistentHandle, Boolean>());
+	private final HGTransactionManager txManager;
+
+	// Pinning is not transactional, this undoes a pin or an unpin when the freeze or
+	// unfreeze is rolled back with its transaction.
+	private final class UndoPin implements Runnable
+	{
+		final HGLiveHandle handle;
+		final boolean pinned;
+		UndoPin(HGLiveHandle handle, boolean pinned)
+		{
+			this.handle = handle;
+			this.pinned = pinned;
+		}
+		public void run()
+		{
+			if (pinned)
+				unpin(handle);
+			else
+				pin(handle);
+		}
+	}
+
+	public TinyLFUAtomCache(HyperGraph graph)
+	{
+		this(graph, defaultShardCount());
+	}
+
+	public TinyLFUAtomCache(HyperGraph graph, int shardCount)
+	{
+		super(graph, shardCount, false);
+		this.txManager = graph.getTransactionManager();
+		HGConfiguration config = graph.getConfig();
+		this.capacity = config.getAtomCacheCapacity() > 0 ? config.getAtomCacheCapacity() : DEFAULT_CAPACITY;
+		this.weigher = config.getAtomCacheWeigher();
+		int count = 1;
+		while (count < shardCount && count < capacity)
+			count <<= 1;
+		segments = new Segment[count];
+		segmentMask = count - 1;
+		long segmentWeight = Math.max(1, capacity / count);
+		int expectedSize = (int)Math.min(weigher == null ? segmentWeight : segmentWeight / 64 + 1, 1 << 24);
+		for (int i = 0; i < count; i++)
+			segments[i] = new Segment(segmentWeight, expectedSize);
+
+		if (config.getIncidenceCacheMaxBytes() > 0)
+		{
+			setIncidenceCache(new TinyLFUCache<HGPersistentHandle, IncidenceSet>(
+				config.getIncidenceCacheMaxBytes(), IncidenceSet.ESTIMATED_BYTES, shardCount));
+			return;
+		}
+		long incidenceCapacity = config.getIncidenceCacheCapacity() > 0 ?
+			config.getIncidenceCacheCapacity() : DEFAULT_INCIDENCE_CAPACITY;
+		final int keepInMemoryThreshold = config.getMaxCachedIncidenceSetSize();
+		setIncidenceCache(new TinyLFUCache<HGPersistentHandle, IncidenceSet>(
+			incidenceCapacity,
+			new Mapping<IncidenceSet, Integer>()
+			{
+				// sets above the threshold are read from storage on demand and hold nothing
+				public Integer eval(IncidenceSet set)
+				{
+					int size = set.size();
+					return size <= keepInMemoryThreshold ? 1 + size : 1;
+				}
+			},
+			shardCount));
+	}
+
+	private Segment segmentOf(HGPersistentHandle pHandle)
+	{
+		int h = pHandle.hashCode();
+		h ^= (h >>> 16);
+		return segments[(h ^ (h >>> 7)) & segmentMask];
+	}
+
+	@Override
+	protected void retain(HGPersistentHandle pHandle, Object atom)
+	{
+		if (pinned.contains(pHandle))
+			return;
+		int weight = 1;
+		if (weigher != null)
+		{
+			Integer w = weigher.eval(atom);
+			if (w != null)
+				weight = w;
+		}
+		Segment s = segmentOf(pHandle);
+		s.lock.lock();
+		try
+		{
+			s.policy.put(pHandle, atom, weight);
+		}
+		finally
+		{
+			s.lock.unlock();
+		}
+	}
+
+	@Override
+	protected void accessed(HGLiveHandle handle)
+	{
+		Segment s = segmentOf(handle.getPersistent());
+		if (s.lock.tryLock())
+			try
+			{
+				s.policy.touch(handle.getPersistent());
+			}
+			finally
+			{
+				s.lock.unlock();
+			}
+	}
+
+	@Override
+	protected void release(HGPersistentHandle pHandle)
+	{
+		Segment s = segmentOf(pHandle);
+		s.lock.lock();
+		try
+		{
+			s.policy.remove(pHandle);
+		}
+		finally
+		{
+			s.lock.unlock();
+		}
+	}
+
+	private boolean pin(HGLiveHandle handle)
+	{
+		if (!pinned.add(handle.getPersistent()))
+			return false;
+		release(handle.getPersistent());
+		return true;
+	}
+
+	private boolean unpin(HGLiveHandle handle)
+	{
+		if (!pinned.remove(handle.getPersistent()))
+			return false;
+		Object atom = handle.getRef();
+		if (atom != null)
+			retain(handle.getPersistent(), atom);
+		return true;
+	}
+
+	// Atoms frozen in a read-only transaction stay frozen when it aborts, see ShardedAtomCache.freeze
+	private void undoOnAbort(HGLiveHandle handle, boolean pinned)
+	{
+		HGTransaction tx = txManager.getContext().getCurrent();
+		if (tx != null && !tx.isReadOnly())
+			tx.addAbortAction(new UndoPin(handle, pinned));
+	}
+
+	@Override
+	public void freeze(HGLiveHandle handle)
+	{
+		super.freeze(handle);
+		if (pin(handle))
+			undoOnAbort(handle, true);
+	}
+
+	@Override
+	public void unfreeze(HGLiveHandle handle)
+	{
+		super.unfreeze(handle);
+		if (unpin(handle))
+			undoOnAbort(handle, false);
+	}
+
+	@Override
+	public void close()
+	{
+		super.close();
+		for (Segment s : segments)
+		{
+			s.lock.lock();
+			try
+			{
+				s.policy.clear();
+			}
+			finally
+			{
+				s.lock.unlock();
+			}
+		}
+		pinned.clear();
+	}
+
+	/**
+	 * <p>Return the configured budget.</p>
+	 */
+	public long getCapacity()
+	{
+		return capacity;
+	}
+
+	/**
+	 * <p>Return the total weight of the atoms currently retained by the policy.</p>
+	 */
+	public long getWeightedSize()
+	{
+		long size = 0;
+		for (Segment s : segments)
+			size += s.policy.getWeightedSize();
+		return size;
+	}
+
+	/**
+	 * <p>Return the number of atoms currently retained by the policy.</p>
+	 */
+	public int getRetainedCount()
+	{
+		int count = 0;
+		for (Segment s : segments)
+			count += s.policy.size();
+		return count;
+	}
+}
@@ -0,0 +1,232 @@
+/*
+ * This file is part of the HyperGraphDB source distribution. This is copyrighted
+ * software. For permitted uses, licensing options and redistribution, please see
+ * the LicensingInformation file at the root level of the distribution.
+ *
+ * Copyright (c) 2005-2010 Kobrix Software, Inc.  All rights reserved.
+ */
+package org.hypergraphdb.cache;
+
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.hypergraphdb.util.CloseMe;
+import org.hypergraphdb.util.Mapping;
+import org.hypergraphdb.util.RefResolver;
+
+/**
+ * <p>
+ * A {@link HGCache} with a hard budget managed by the W-TinyLFU policy of {@link WindowTinyLFU}.
+ * The budget is either a number of elements or, when a <code>weigher</code> is
+ * provided, a total weight in whatever unit the weigher returns (e.g. the number of
+ * handles in an incidence set or an estimated number of bytes).
+ * </p>
+ *
+ * <p>
+ * The cache is split into independently locked segments, each with an equal share
+ * of the budget, selected by the hash code of the key. As in {@link MRUCache}, values
+ * are resolved outside of any lock and a value resolved concurrently by another thread
+ * wins if it got in the cache first.
+ * </p>
+ */
+public class TinyLFUCache<Key, Value> implements HGCache<Key, Value>, CloseMe
+{
+	private static final class Segment<Key, Value>
+	{
+		final ReentrantLock lock = new ReentrantLock();
+		final WindowTinyLFU<Key, Value> policy;
+		Segment(long maxWeight, int expectedSize)
+		{
+			policy = new WindowTinyLFU<Key, Value>(maxWeight, expectedSize);
+		}
+	}
+
+	private RefResolver<Key, Value> resolver;
+	private Mapping<Value, Integer> weigher;
+	private final Segment<Key, Value> [] segments;
+	private final int segmentMask;
+	private final long maxWeight;
+
+	/**
+	 * @param maxSize The maximum number of elements in the cache.
+	 */
+	public TinyLFUCache(long maxSize)
+	{
+		this(maxSize, null, ShardedAtomCache.defaultShardCount());
+	}
+
+	/**
+	 * @param maxWeight The maximum total weight of the elements in the cache.
+	 * @param weigher Returns the weight of a value, or <code>null</code> to give
+	 * every value a weight of 1.
+	 * @param segmentCount The number of independently locked segments. It is rounded
+	 * up to a power of two.
+	 */
+	@SuppressWarnings("unchecked")
+	public TinyLFUCache(long maxWeight, Mapping<Value, Integer> weigher, int segmentCount)
+	{
+		if (maxWeight <= 0)
+			throw new IllegalArgumentException("The maximum weight of a cache must be positive.");
+		int count = 1;
+		while (count < segmentCount && count < maxWeight)
+			count <<= 1;
+		this.maxWeight = maxWeight;
+		this.weigher = weigher;
+		this.segments = (Segment<Key, Value> [])new Segment<?, ?>[count];
+		this.segmentMask = count - 1;
+		long segmentWeight = Math.max(1, maxWeight / count);
+		int expectedSize = (int)Math.min(weigher == null ? segmentWeight : segmentWeight / 8 + 1, 1 << 24);
+		for (int i = 0; i < count; i++)
+			segments[i] = new Segment<Key, Value>(segmentWeight, expectedSize);
+	}
+
+	private Segment<Key, Value> segmentOf(Object key)
+	{
+		int h = key.hashCode();
+		h ^= (h >>> 16);
+		return segments[(h ^ (h >>> 7)) & segmentMask];
+	}
+
+	private int weigh(Value v)
+	{
+		if (weigher == null)
+			return 1;
+		Integer w = weigher.eval(v);
+		return w == null ? 1 : w;
+	}
+
+	public Value get(Key key)
+	{
+		Segment<Key, Value> s = segmentOf(key);
+		s.lock.lock();
+		try
+		{
+			Value v = s.policy.get(key);
+			if (v != null)
+				return v;
+		}
+		finally
+		{
+			s.lock.unlock();
+		}
+
+		// Resolve outside the lock for the same reason as in MRUCache: reading from
+		// storage may block on another transaction that is waiting for this segment.
+		Value v = resolver.resolve(key);
+		if (v == null)
+			return null;
+		int weight = weigh(v);
+		s.lock.lock();
+		try
+		{
+			Value existing = s.policy.peek(key);
+			if (existing != null)
+				return existing;
+			s.policy.put(key, v, weight);
+			return v;
+		}
+		finally
+		{
+			s.lock.unlock();
+		}
+	}
+
+	public Value getIfLoaded(Key key)
+	{
+		Segment<Key, Value> s = segmentOf(key);
+		s.lock.lock();
+		try
+		{
+			Value v = s.policy.peek(key);
+			if (v != null)
+				s.policy.touch(key);
+			return v;
+		}
+		finally
+		{
+			s.lock.unlock();
+		}
+	}
+
+	public boolean isLoaded(Key key)
+	{
+		Segment<Key, Value> s = segmentOf(key);
+		s.lock.lock();
+		try
+		{
+			return s.policy.containsKey(key);
+		}
+		finally
+		{
+			s.lock.unlock();
+		}
+	}
+
+	public void remove(Key key)
+	{
+		Segment<Key, Value> s = segmentOf(key);
+		s.lock.lock();
+		try
+		{
+			s.policy.remove(key);
+		}
+		finally
+		{
+			s.lock.unlock();
+		}
+	}
+
+	public void clear()
+	{
+		for (Segment<Key, Value> s : segments)
+		{
+			s.lock.lock();
+			try
+			{
+				s.policy.clear();
+			}
+			finally
+			{
+				s.lock.unlock();
+			}
+		}
+	}
+
+	public int size()
+	{
+		int size = 0;
+		for (Segment<Key, Value> s : segments)
+			size += s.policy.size();
+		return size;
+	}
+
+	/**
+	 * <p>Return the total weight of the elements currently in the cache.</p>
+	 */
+	public long getWeightedSize()
+	{
+		long size = 0;
+		for (Segment<Key, Value> s : segments)
+			size += s.policy.getWeightedSize();
+		return size;
+	}
+
+	public long getMaxWeight()
+	{
+		return maxWeight;
+	}
+
+	public RefResolver<Key, Value> getResolver()
+	{
+		return resolver;
+	}
+
+	public void setResolver(RefResolver<Key, Value> resolver)
+	{
+		this.resolver = resolver;
+	}
+
+	public void close()
+	{
+		clear();
+	}
+}
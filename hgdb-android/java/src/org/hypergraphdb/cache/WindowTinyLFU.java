@@ -0,0 +1,349 @@
+/*
+ * This file is part of the HyperGraphDB source distribution. This is copyrighted
+ * software. For permitted uses, licensing options and redistribution, please see
+ * the LicensingInformation file at the root level of the distribution.
+ *
+ * Copyright (c) 2005-2010 Kobrix Software, Inc.  All rights reserved.
+ */
+package org.hypergraphdb.cache;
+
+import java.util.HashMap;
+
+/**
+ * <p>
+ * A map bounded by a total weight that evicts according to the W-TinyLFU policy. New
+ * entries enter a small LRU <em>window</em> (1% of the budget). Entries overflowing
+ * the window are candidates for the <em>main</em> region, a segmented LRU made of a
+ * <em>probation</em> and a <em>protected</em> (80% of main) segment. A candidate is
+ * admitted into main only if the {@link FrequencySketch} estimates it is more popular
+ * than the entry main would have to evict for it, otherwise the candidate itself is
+ * dropped. An entry hit while on probation is promoted to the protected segment.
+ * </p>
+ *
+ * <p>
+ * The window lets bursts of new keys get a chance to build up frequency while the
+ * admission filter protects the main region from one-hit wonders, which gives a much
+ * better hit rate than plain LRU on skewed workloads and a hard bound on what is kept.
+ * </p>
+ *
+ * <p>
+ * The class is not thread-safe: callers must guard it with a lock. Every entry has
+ * a weight of at least 1 and an entry heavier than the whole budget is never retained.
+ * </p>
+ */
+public class WindowTinyLFU<K, V>
+{
+    private static final byte WINDOW = 0, PROBATION = 1, PROTECTED = 2;
+
+    private static final class Node<K, V>
+    {
+        K key;
+        V value;
+        int weight;
+        byte queue;
+        Node<K, V> prev, next;
+
+        Node() { prev = next = this; }
+        Node(K key, V value, int weight) { this.key = key; this.value = value; this.weight = weight; }
+    }
+
+    private HashMap<K, Node<K, V>> nodes = new HashMap<K, Node<K, V>>();
+    private FrequencySketch sketch;
+
+    // Each queue is a circular list around a sentinel: sentinel.next is the LRU end and
+    // sentinel.prev the MRU end.
+    private Node<K, V> window = new Node<K, V>();
+    private Node<K, V> probation = new Node<K, V>();
+    private Node<K, V> protect = new Node<K, V>();
+
+    private long maxWeight, maxWindow, maxMain, maxProtected;
+    private long windowWeight = 0, mainWeight = 0, protectedWeight = 0;
+
+    private long hits = 0, misses = 0, evictions = 0;
+
+    /**
+     * @param maxWeight The maximum total weight of the entries kept.
+     * @param expectedSize The expected maximum number of entries, used to size
+     * the frequency sketch.
+     */
+    public WindowTinyLFU(long maxWeight, int expectedSize)
+    {
+        if (maxWeight <= 0)
+            throw new IllegalArgumentException("The maximum weight of a cache must be positive.");
+        this.maxWeight = maxWeight;
+        this.maxWindow = Math.max(1, maxWeight / 100);
+        this.maxMain = maxWeight - maxWindow;
+        this.maxProtected = maxMain * 8 / 10;
+        this.sketch = new FrequencySketch(expectedSize);
+    }
+
+    private static <K, V> void unlink(Node<K, V> n)
+    {
+        n.prev.next = n.next;
+        n.next.prev = n.prev;
+        n.prev = n.next = null;
+    }
+
+    private static <K, V> void linkLast(Node<K, V> queue, Node<K, V> n)
+    {
+        n.prev = queue.prev;
+        n.next = queue;
+        queue.prev.next = n;
+        queue.prev = n;
+    }
+
+    private static <K, V> Node<K, V> first(Node<K, V> queue)
+    {
+        return queue.next == queue ? null : queue.next;
+    }
+
+    private void onHit(Node<K, V> n)
+    {
+        switch (n.queue)
+        {
+            case WINDOW:
+                unlink(n);
+                linkLast(window, n);
+                break;
+            case PROBATION:
+                unlink(n);
+                n.queue = PROTECTED;
+                linkLast(protect, n);
+                protectedWeight += n.weight;
+                demoteProtected();
+                break;
+            default:
+                unlink(n);
+                linkLast(protect, n);
+        }
+    }
+
+    private void demoteProtected()
+    {
+        while (protectedWeight > maxProtected)
+        {
+            Node<K, V> n = first(protect);
+            if (n == null)
+                break;
+            unlink(n);
+            protectedWeight -= n.weight;
+            n.queue = PROBATION;
+            linkLast(probation, n);
+        }
+    }
+
+    private void discard(Node<K, V> n)
+    {
+        unlink(n);
+        nodes.remove(n.key);
+        if (n.queue == WINDOW)
+            windowWeight -= n.weight;
+        else
+        {
+            mainWeight -= n.weight;
+            if (n.queue == PROTECTED)
+                protectedWeight -= n.weight;
+        }
+        n.value = null;
+    }
+
+    private void evict(Node<K, V> n)
+    {
+        discard(n);
+        evictions++;
+    }
+
+    private Node<K, V> victim()
+    {
+        Node<K, V> n = first(probation);
+        if (n == null)
+            n = first(protect);
+        return n;
+    }
+
+    //
+    // Move entries overflowing the window into main, going through the admission filter
+    // whenever main is full.
+    //
+    private void maintain()
+    {
+        while (windowWeight > maxWindow)
+        {
+            Node<K, V> candidate = first(window);
+            unlink(candidate);
+            windowWeight -= candidate.weight;
+            candidate.queue = PROBATION;
+            if (mainWeight + candidate.weight > maxMain)
+            {
+                int candidateFrequency = sketch.frequency(candidate.key.hashCode());
+                long freed = 0;
+                boolean admit = true;
+                // Check that the candidate is more popular than each of the victims
+                // that would be evicted to make room for it, oldest first.
+                for (Node<K, V> v = victim(), q = v == null ? null : (v.queue == PROBATION ? probation : protect);
+                     v != null && mainWeight - freed + candidate.weight > maxMain;
+                     v = v.next == q ? null : v.next)
+                {
+                    if (candidateFrequency <= sketch.frequency(v.key.hashCode()))
+                    {
+                        admit = false;
+                        break;
+                    }
+                    freed += v.weight;
+                }
+                if (!admit || mainWeight - freed + candidate.weight > maxMain)
+                {
+                    nodes.remove(candidate.key);
+                    candidate.value = null;
+                    evictions++;
+                    continue;
+                }
+                while (mainWeight + candidate.weight > maxMain)
+                    evict(victim());
+            }
+            linkLast(probation, candidate);
+            mainWeight += candidate.weight;
+        }
+    }
+
+    /**
+     * <p>Return the value of <code>key</code>, or <code>null</code> if it is not kept, and
+     * record the access.</p>
+     */
+    public V get(K key)
+    {
+        sketch.increment(key.hashCode());
+        Node<K, V> n = nodes.get(key);
+        if (n == null)
+        {
+            misses++;
+            return null;
+        }
+        hits++;
+        onHit(n);
+        return n.value;
+    }
+
+    /**
+     * <p>Return the value of <code>key</code> without recording an access.</p>
+     */
+    public V peek(K key)
+    {
+        Node<K, V> n = nodes.get(key);
+        return n == null ? null : n.value;
+    }
+
+    public boolean containsKey(K key)
+    {
+        return nodes.containsKey(key);
+    }
+
+    /**
+     * <p>Record an access to <code>key</code> without looking up its value. This is
+     * how a cache informs the policy about hits that it serves from elsewhere.</p>
+     */
+    public void touch(K key)
+    {
+        sketch.increment(key.hashCode());
+        Node<K, V> n = nodes.get(key);
+        if (n != null)
+            onHit(n);
+    }
+
+    /**
+     * <p>Associate <code>value</code> with <code>key</code>, possibly evicting other entries
+     * (or this one) to stay within the budget.</p>
+     *
+     * @param weight The weight of the entry. Values below 1 are treated as 1.
+     */
+    public void put(K key, V value, int weight)
+    {
+        weight = Math.max(1, weight);
+        Node<K, V> n = nodes.get(key);
+        if (n != null)
+        {
+            n.value = value;
+            int delta = weight - n.weight;
+            n.weight = weight;
+            if (n.queue == WINDOW)
+                windowWeight += delta;
+            else
+            {
+                mainWeight += delta;
+                if (n.queue == PROTECTED)
+                    protectedWeight += delta;
+            }
+            onHit(n);
+            if (weight > maxWeight)
+                evict(n);
+        }
+        else
+        {
+            sketch.increment(key.hashCode());
+            if (weight > maxWeight)
+                return;
+            n = new Node<K, V>(key, value, weight);
+            n.queue = WINDOW;
+            nodes.put(key, n);
+            linkLast(window, n);
+            windowWeight += weight;
+        }
+        demoteProtected();
+        maintain();
+        while (mainWeight > maxMain && victim() != null)
+            evict(victim());
+    }
+
+    /**
+     * <p>Remove <code>key</code> and return its value, if any.</p>
+     */
+    public V remove(K key)
+    {
+        Node<K, V> n = nodes.get(key);
+        if (n == null)
+            return null;
+        V value = n.value;
+        discard(n);
+        return value;
+    }
+
+    public void clear()
+    {
+        nodes.clear();
+        window.next = window.prev = window;
+        probation.next = probation.prev = probation;
+        protect.next = protect.prev = protect;
+        windowWeight = mainWeight = protectedWeight = 0;
+        sketch.clear();
+    }
+
+    public int size()
+    {
+        return nodes.size();
+    }
+
+    public long getWeightedSize()
+    {
+        return windowWeight + mainWeight;
+    }
+
+    public long getMaxWeight()
+    {
+        return maxWeight;
+    }
+
+    public long getHitCount()
+    {
+        return hits;
+    }
+
+    public long getMissCount()
+    {
+        return misses;
+    }
+
+    public long getEvictionCount()
+    {
+        return evictions;
+    }
+}
@@ -0,0 +1,93 @@
+/* 
+ * This file is part of the HyperGraphDB source distribution. This is copyrighted 
+ * software. For permitted uses, licensing options and redistribution, please see  
+ * the LicensingInformation file at the root level of the distribution.  
+ * 
+ * Copyright (c) 2005-2010 Kobrix Software, Inc.  All rights reserved. 
+ */
+package org.hypergraphdb.handle;
+
+import java.security.SecureRandom;
+
+import org.hypergraphdb.HGHandleFactory;
+import org.hypergraphdb.HGPersistentHandle;
+
+/**
+ * <p>
+ * A handle factory producing {@link LongPairPersistentHandle}s. New handles are random 
+ * (type IV) UUIDs and all predefined handles have the same values as the ones of the 
+ * {@link UUIDHandleFactory}, so this factory can be used in place of the default one, 
+ * including with existing databases. It is configured with 
+ * <code>HGConfiguration.setHandleFactory</code>.
+ * </p>
+ */
+public class LongPairHandleFactory implements HGHandleFactory
+{
+    private static final SecureRandom rndGenerator = new SecureRandom();
+    
+    private static final LongPairPersistentHandle nullHandle = new LongPairPersistentHandle(0, 0);
+    private final HGPersistentHandle anyHandle = makeHandle("332c5a05-37c2-11dc-b44d-8884da7d2355");
+    private final HGPersistentHandle topType = makeHandle("bb8854fb-0d34-11da-ac60-932fd7ea200d");
+    private final HGPersistentHandle linkType = makeHandle("db8854fb-0d34-11da-ac60-932fd7ea200d");
+    private final HGPersistentHandle nullType = makeHandle("db733325-19d5-11db-8b55-23bc8177d6ec");
+    private final HGPersistentHandle subsumesType = makeHandle("eb8854fb-0d34-11da-ac60-932fd7ea200d");
+
+    public static final LongPairHandleFactory I = new LongPairHandleFactory();
+    
+    public HGPersistentHandle anyHandle()
+    {
+        return anyHandle;
+    }
+    
+    public HGPersistentHandle makeHandle()
+    {
+        byte [] rnd = new byte[LongPairPersistentHandle.SIZE];
+        rndGenerator.nextBytes(rnd);
+        long msb = LongPairPersistentHandle.readLong(rnd, 0);
+        long lsb = LongPairPersistentHandle.readLong(rnd, 8);
+        // version 4 (random) and IETF variant bits, as in UUID(TYPE_RANDOM_BASED, rnd)
+        msb = (msb & ~0xF000L) | ((long)UUID.TYPE_RANDOM_BASED << 12);
+        lsb = (lsb & 0x3FFFFFFFFFFFFFFFL) | 0x8000000000000000L;
+        return new LongPairPersistentHandle(msb, lsb);
+    }
+
+    public HGPersistentHandle makeHandle(String handleAsString)
+    {
+        return LongPairPersistentHandle.valueOf(handleAsString);
+    }
+
+    public HGPersistentHandle makeHandle(byte[] buffer)
+    {
+        return new LongPairPersistentHandle(buffer, 0);
+    }
+
+    public HGPersistentHandle makeHandle(byte[] buffer, int offset)
+    {
+        return new LongPairPersistentHandle(buffer, offset);
+    }
+
+    public HGPersistentHandle nullHandle()
+    {
+        return nullHandle;
+    }
+    
+    public HGPersistentHandle topTypeHandle()
+    {
+        return topType;
+    }
+
+    public HGPersistentHandle nullTypeHandle()
+    {
+        return nullType;
+    }
+
+    public HGPersistentHandle linkTypeHandle()
+    {
+        return linkType;
+    }
+
+    public HGPersistentHandle subsumesTypeHandle()
+    {
+        return subsumesType;
+    }    
+}
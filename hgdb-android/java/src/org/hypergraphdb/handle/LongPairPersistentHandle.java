@@ -0,0 +1,196 @@
+/* 
+ * This file is part of the HyperGraphDB source distribution. This is copyrighted 
+ * software. For permitted uses, licensing options and redistribution, please see  
+ * the LicensingInformation file at the root level of the distribution.  
+ * 
+ * Copyright (c) 2005-2010 Kobrix Software, Inc.  All rights reserved. 
+ */
+package org.hypergraphdb.handle;
+
+import org.hypergraphdb.HGPersistentHandle;
+
+/**
+ * <p>
+ * A 128-bit persistent handle held as two <code>long</code>s rather than a 
+ * <code>byte[]</code>. Its <code>byte[]</code> form is the big-endian encoding of the 
+ * two longs, which is exactly the 16 byte layout of a {@link UUIDPersistentHandle}, so 
+ * the two are interchangeable in storage: a database created with the
+ * {@link UUIDHandleFactory} can be opened with the {@link LongPairHandleFactory} and 
+ * vice-versa. However, the two handle classes are not <code>equals</code> to each other so
+ * a single database instance should use only one of the factories at a time.
+ * </p>
+ * 
+ * <p>
+ * Equality, hashing and comparison work on the two longs directly. Comparison follows the
+ * unsigned byte order used by storage. Use {@link #writeTo(byte[], int)} to serialize
+ * the handle into an existing buffer without an intermediate array.
+ * </p>
+ */
+public final class LongPairPersistentHandle implements HGPersistentHandle
+{
+    private static final long serialVersionUID = 5325744532817446587L;
+    
+    /**
+     * The number of bytes in the <code>byte []</code> representation.
+     */
+    public static final int SIZE = 16;
+    
+    private static final String HEX_CHARS = "0123456789abcdef";
+    
+    private final long msb;
+    private final long lsb;
+    
+    public LongPairPersistentHandle(long msb, long lsb)
+    {
+        this.msb = msb;
+        this.lsb = lsb;
+    }
+
+    /**
+     * <p>Construct from <code>SIZE</code> bytes of <code>buffer</code> starting at
+     * <code>offset</code>.</p>
+     */
+    public LongPairPersistentHandle(byte [] buffer, int offset)
+    {
+        if (buffer == null)
+            throw new IllegalArgumentException("Attempt to construct LongPairPersistentHandle with a null value.");
+        else if (buffer.length - offset < SIZE)
+            throw new IllegalArgumentException("Attempt to construct LongPairPersistentHandle with wrong size byte array.");
+        this.msb = readLong(buffer, offset);
+        this.lsb = readLong(buffer, offset + 8);
+    }
+
+    /**
+     * <p>Parse the canonical UUID string representation, e.g. 
+     * <code>bb8854fb-0d34-11da-ac60-932fd7ea200d</code>.</p>
+     */
+    public static LongPairPersistentHandle valueOf(String s)
+    {
+        long [] parts = new long[2];
+        int digits = 0;
+        for (int i = 0; i < s.length(); i++)
+        {
+            char c = s.charAt(i);
+            if (c == '-')
+                continue;
+            int d = Character.digit(c, 16);
+            if (d < 0 || digits == 32)
+                throw new NumberFormatException("Invalid UUID handle representation: " + s);
+            parts[digits / 16] = (parts[digits / 16] << 4) | d;
+            digits++;
+        }
+        if (digits != 32)
+            throw new NumberFormatException("Invalid UUID handle representation: " + s);
+        return new LongPairPersistentHandle(parts[0], parts[1]);
+    }
+    
+    static long readLong(byte [] data, int offset)
+    {
+        return ((long)(data[offset] & 255) << 56) |
+               ((long)(data[offset + 1] & 255) << 48) |
+               ((long)(data[offset + 2] & 255) << 40) |
+               ((long)(data[offset + 3] & 255) << 32) |
+               ((long)(data[offset + 4] & 255) << 24) |
+               ((long)(data[offset + 5] & 255) << 16) | 
+               ((long)(data[offset + 6] & 255) <<  8) | 
+               ((long)(data[offset + 7] & 255));
+    }
+    
+    static void writeLong(long v, byte [] data, int offset)
+    {
+        for (int i = 7; i >= 0; i--)
+        {
+            data[offset + i] = (byte)v;
+            v >>>= 8;
+        }
+    }
+    
+    public long getMostSignificantBits()
+    {
+        return msb;
+    }
+    
+    public long getLeastSignificantBits()
+    {
+        return lsb;
+    }
+    
+    /**
+     * <p>Write the <code>SIZE</code> bytes of this handle into <code>buffer</code>
+     * starting at <code>offset</code>.</p>
+     */
+    public void writeTo(byte [] buffer, int offset)
+    {
+        writeLong(msb, buffer, offset);
+        writeLong(lsb, buffer, offset + 8);
+    }
+    
+    /**
+     * <p>Return a new <code>byte[]</code> holding this handle. Prefer 
+     * {@link #writeTo(byte[], int)} when there's a buffer to write to.</p>
+     */
+    public byte [] toByteArray()
+    {
+        byte [] result = new byte[SIZE];
+        writeTo(result, 0);
+        return result;
+    }
+
+    public int compareTo(HGPersistentHandle other)
+    {
+        LongPairPersistentHandle o = (LongPairPersistentHandle)other;
+        // flipping the sign bit makes signed comparison behave as unsigned
+        if (msb != o.msb)
+            return (msb ^ Long.MIN_VALUE) < (o.msb ^ Long.MIN_VALUE) ? -1 : 1;
+        else if (lsb != o.lsb)
+            return (lsb ^ Long.MIN_VALUE) < (o.lsb ^ Long.MIN_VALUE) ? -1 : 1;
+        else
+            return 0;
+    }
+    
+    public int hashCode()
+    {
+        long h = msb ^ lsb;
+        return (int)(h ^ (h >>> 32));
+    }
+    
+    public boolean equals(Object other)
+    {
+        if (other == this)
+            return true;
+        else if (other instanceof LongPairPersistentHandle)
+        {
+            LongPairPersistentHandle o = (LongPairPersistentHandle)other;
+            return msb == o.msb && lsb == o.lsb;
+        }
+        else if (other instanceof HGLiveHandle)
+            return ((HGLiveHandle)other).getPersistent().equals(this);
+        else
+            return false;
+    }
+
+    public HGPersistentHandle getPersistent()
+    {
+        return this;
+    }
+
+    public String toStringValue()
+    {
+        char [] result = new char[36];
+        int pos = 0;
+        for (int i = 0; i < 16; i++)
+        {
+            if (i == 4 || i == 6 || i == 8 || i == 10)
+                result[pos++] = '-';
+            int b = (int)((i < 8 ? msb >>> (56 - 8*i) : lsb >>> (56 - 8*(i - 8))) & 0xFF);
+            result[pos++] = HEX_CHARS.charAt(b >> 4);
+            result[pos++] = HEX_CHARS.charAt(b & 0x0f);
+        }
+        return new String(result);
+    }
+    
+    public String toString()
+    {
+        return toStringValue();
+    }
+}
@@ -7,9 +7,13 @@
  */
 package org.hypergraphdb.query;
 
+import java.util.concurrent.Callable;
+
 import org.hypergraphdb.HGHandle;
 import org.hypergraphdb.HyperGraph;
+import org.hypergraphdb.algorithms.HGALGenerator;
 import org.hypergraphdb.algorithms.HGBreadthFirstTraversal;
+import org.hypergraphdb.algorithms.HGParallelBreadthFirstTraversal;
 import org.hypergraphdb.algorithms.HGTraversal;
 import org.hypergraphdb.util.Ref;
 
@@ -18,12 +22,19 @@ import org.hypergraphdb.util.Ref;
  * <p>
  * The breadth-first search variant of a {@link TraversalCondition}.
  * </p>
+ * 
+ * <p>
+ * When <code>parallel</code> is set, the traversal is a {@link HGParallelBreadthFirstTraversal},
+ * which generates the adjacency lists of each level concurrently.
+ * </p>
  *
  * @author Borislav Iordanov
  *
  */
 public class BFSCondition extends TraversalCondition
 {
+	private boolean parallel = false;
+	
 	public BFSCondition()
 	{
 		
@@ -39,9 +50,25 @@ public class BFSCondition extends TraversalCondition
 		super(startAtom);
 	}
 	
+	public boolean isParallel()
+	{
+		return parallel;
+	}
+
+	public void setParallel(boolean parallel)
+	{
+		this.parallel = parallel;
+	}
+	
 	@Override
-	public HGTraversal getTraversal(HyperGraph graph)
+	public HGTraversal getTraversal(final HyperGraph graph)
 	{
-		return new HGBreadthFirstTraversal(getStartAtomReference(), makeGenerator(graph));
+		if (parallel)
+			return new HGParallelBreadthFirstTraversal(graph, getStartAtomReference(), new Callable<HGALGenerator>() 
+			{
+				public HGALGenerator call() { return makeGenerator(graph); }
+			});
+		else
+			return new HGBreadthFirstTraversal(getStartAtomReference(), makeGenerator(graph));
 	}
 }
\ No newline at end of file
@@ -56,7 +56,7 @@ public class IndexedPartCondition implements HGQueryCondition
 	
 	public Object getPartValue()
 	{
-		return partValue;
+		return partValue.get();
 	}
 
 	public HGHandle getType()
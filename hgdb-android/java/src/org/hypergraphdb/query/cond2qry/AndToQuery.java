@@ -21,11 +21,11 @@ import org.hypergraphdb.query.HGAtomPredicate;
 import org.hypergraphdb.query.HGQueryCondition;
 import org.hypergraphdb.query.impl.DelayedSetLoadPredicate;
 import org.hypergraphdb.query.impl.IntersectionQuery;
+import org.hypergraphdb.query.impl.LeapfrogIntersectionQuery;
 import org.hypergraphdb.query.impl.PredicateBasedFilter;
 import org.hypergraphdb.query.impl.RABasedPredicate;
 import org.hypergraphdb.query.impl.SortedIntersectionResult;
 //import org.hypergraphdb.query.impl.SortedIntersectionResult;
-import org.hypergraphdb.query.impl.ZigZagIntersectionResult;
 
 @SuppressWarnings("unchecked")
 public class AndToQuery implements ConditionToQuery
@@ -69,11 +69,51 @@ public class AndToQuery implements ConditionToQuery
 	
 	private static BySizeComparator bySizeComparator = new BySizeComparator();
 	
+	/**
+	 * A zig-zag (leapfrog) intersection seeks in one set for every element of the other, 
+	 * while a sorted intersection steps through both. Zig-zag is preferred only when one 
+	 * set is at least that many times larger than the other.
+	 */
+	public static final int ZIGZAG_RATIO = 4;
+	
+	/**
+	 * The number of entries of an ordered set stepped through at the cost of about one
+	 * DB access. An ordered set is used as a predicate rather than intersected when 
+	 * scanning it costs more than evaluating the predicate on the other set. 
+	 */
+	public static final int ENTRIES_PER_ACCESS = 16;
+	
+	// The estimated size of a result set, -1 if unknown.
+	private static long estimate(QueryMetaData qmd)
+	{
+		if (qmd.sizeExpected > -1)
+			return qmd.sizeExpected;
+		else if (qmd.sizeUB > -1 && qmd.sizeUB < Long.MAX_VALUE)
+			return qmd.sizeUB;
+		else
+			return -1;
+	}
+	
+	// The estimated size of a result set if it is bounded, -1 if it is only a guess.
+	private static long boundedEstimate(QueryMetaData qmd)
+	{
+		return qmd.sizeUB < Long.MAX_VALUE ? estimate(qmd) : -1;
+	}
+	
+	private static final Comparator<QueryMetaData> byPredicateCostComparator = new Comparator<QueryMetaData>()
+	{
+		public int compare(QueryMetaData o1, QueryMetaData o2)
+		{
+			return Double.compare(o2.predicateCost, o1.predicateCost);
+		}
+	};
+	
 	public QueryMetaData getMetaData(HyperGraph graph, HGQueryCondition condition)
 	{
 		QueryMetaData x = QueryMetaData.ORACCESS.clone(condition); // assume we have ORACCESS, but check below
 		boolean ispredicate = true;
 		x.predicateCost = 0;
+		long expected = -1;
 		for (HGQueryCondition sub : ((And)condition))
 		{
 			ConditionToQuery transformer = ToQueryMap.getInstance().get(sub.getClass());
@@ -91,9 +131,16 @@ public class AndToQuery implements ConditionToQuery
 			x.predicateCost += subx.predicateCost;					
 			x.ordered = x.ordered && subx.ordered;
 			x.randomAccess = x.randomAccess && subx.randomAccess;
+			// the conjunction is no larger than any of its parts
+			if (subx.sizeUB > -1 && subx.sizeUB < x.sizeUB)
+				x.sizeUB = subx.sizeUB;
+			long e = estimate(subx);
+			if (e > -1 && (expected == -1 || e < expected))
+				expected = e;
 		}
 		if (!ispredicate)
 			x.predicateCost = -1;
+		x.sizeExpected = expected;
 		return x;
 	}
 
@@ -157,91 +204,85 @@ public class AndToQuery implements ConditionToQuery
 		// 4. Results from the above construction are filter by the predicates in P
 		// 5. W sets are scanned and loaded in memory				
 		HGQuery result = null;
-		HGQueryCondition c1 = null, c2 = null;
+		HGQueryCondition c1 = null;
 		
-		// First ORA sets - we just build up nested zig-zag intersections
-		if (ORA.size() > 1)
-		{
-			Collections.sort(ORA, bySizeComparator);
-			Iterator<QueryMetaData> i = ORA.iterator();
-			c1 = i.next().cond;
-			c2 = i.next().cond;
-			result = new IntersectionQuery(ToQueryMap.toQuery(graph, c1),// toQueryMap.get(c1.getClass()).getQuery(graph, c1), 
-										   ToQueryMap.toQuery(graph, c2), //toQueryMap.get(c2.getClass()).getQuery(graph, c2),
-										   new ZigZagIntersectionResult.Combiner());
-			while (i.hasNext())
-			{
-				c1 = i.next().cond;
-				result = new IntersectionQuery(result, 
-											   ToQueryMap.toQuery(graph, c1), //toQueryMap.get(c1.getClass()).getQuery(graph, c1),
-											   new ZigZagIntersectionResult.Combiner());
-			}
-		}
-		else if (ORA.size() == 1)
+		// First ORA sets - starting from the smallest, we build up a single leapfrog intersection 
+		// as long as the sizes differ enough, sorted intersections otherwise. Then O sets are 
+		// appended with sorted intersections. A set much larger than the result built so far is 
+		// better used as a predicate when possible: a sorted intersection would scan it whole.
+		if (ORA.size() == 1)
 		{
 			O.addAll(ORA);
 			ORA.clear();
 		}
-		
-		// Next O sets - we just build up nested sorted intersections
-		if (O.size() > 1)
+		Collections.sort(ORA, bySizeComparator);
+		Collections.sort(O, bySizeComparator);
+		List<QueryMetaData> ordered = new ArrayList<QueryMetaData>(ORA);
+		ordered.addAll(O);
+		long resultSize = -1;
+		boolean resultRA = false;
+		for (QueryMetaData curr : ordered)
 		{
-			Collections.sort(O, bySizeComparator);
-			Iterator<QueryMetaData> i = O.iterator();
+			long size = boundedEstimate(curr);
 			if (result == null)
 			{
-				c1 = i.next().cond;
-				c2 = i.next().cond;
-				result = new IntersectionQuery(ToQueryMap.toQuery(graph, c1), //toQueryMap.get(c1.getClass()).getQuery(graph, c1), 
-											   ToQueryMap.toQuery(graph, c2), //toQueryMap.get(c2.getClass()).getQuery(graph, c2), 
-											   new SortedIntersectionResult.Combiner()); 
+				result = ToQueryMap.toQuery(graph, curr.cond);
+				resultSize = size;
+				resultRA = curr.randomAccess;
+				continue;
 			}
-			while (i.hasNext())
+			if (resultRA && curr.randomAccess)
 			{
-				c1 = i.next().cond;
-				result = new IntersectionQuery(result, 
-											   ToQueryMap.toQuery(graph, c1), // toQueryMap.get(c1.getClass()).getQuery(graph, c1), 
-											   new SortedIntersectionResult.Combiner());					
-			}						
-		}
-		else if (O.size() == 1)
-		{
-			c1 = O.iterator().next().cond;
-			if (result == null)
-				result = ToQueryMap.toQuery(graph, c1); // toQueryMap.get(c1.getClass()).getQuery(graph, c1);
+				if (size < 0 || resultSize < 0 || size >= ZIGZAG_RATIO * resultSize)
+				{
+					// all random access sets are intersected at once
+					if (result instanceof LeapfrogIntersectionQuery)
+						((LeapfrogIntersectionQuery)result).add(ToQueryMap.toQuery(graph, curr.cond));
+					else
+						result = new LeapfrogIntersectionQuery(result, ToQueryMap.toQuery(graph, curr.cond));
+				}
+				else
+				{
+					result = new IntersectionQuery(result, 
+												   ToQueryMap.toQuery(graph, curr.cond), 
+												   new SortedIntersectionResult.Combiner());
+					resultRA = false;
+				}
+			}
+			else if (curr.pred != null && curr.predicateCost > -1 && size > -1 && resultSize > -1 &&
+					 size / ENTRIES_PER_ACCESS > resultSize * Math.max(curr.predicateCost, 0.5))
+			{
+				P.add(curr);
+				continue;
+			}
 			else
+			{
 				result = new IntersectionQuery(result, 
-											   ToQueryMap.toQuery(graph, c1), //toQueryMap.get(c1.getClass()).getQuery(graph, c1),
+											   ToQueryMap.toQuery(graph, curr.cond), 
 											   new SortedIntersectionResult.Combiner());
+				resultRA = false;
+			}
+			if (size > -1 && (resultSize == -1 || size < resultSize))
+				resultSize = size;
 		}
 		
 		if (result == null)
 		{
 			if (W.size() > 0)
 			{
-				Iterator<QueryMetaData> i = W.iterator();
-				long n = 0;
-				while (i.hasNext())
-				{
-					QueryMetaData curr = i.next();
-					if (n < curr.getSizeExpected())
-						c1 = curr.cond;
-				}
-				result = ToQueryMap.toQuery(graph, c1); //toQueryMap.get(c1.getClass()).getQuery(graph, c1);
-				W.remove(c1);
+				// scan the smallest and load the others in memory
+				QueryMetaData smallest = Collections.min(W, bySizeComparator);
+				result = ToQueryMap.toQuery(graph, smallest.cond); 
+				W.remove(smallest);
 			}
 			else if (RA.size() > 0)
 			{
-				Iterator<QueryMetaData> i = RA.iterator();
-				double cost = 0.0;
-				while (i.hasNext())
-				{
-					QueryMetaData curr = i.next();
-					if (cost < curr.predicateCost)
-						c1 = curr.cond;
-				}
-				result = ToQueryMap.toQuery(graph, c1); // toQueryMap.get(c1.getClass()).getQuery(graph, c1);
-				RA.remove(c1);						
+				// scan the smallest, or when sizes are unknown the most costly to use 
+				// as a predicate
+				Collections.sort(RA, byPredicateCostComparator);
+				Collections.sort(RA, bySizeComparator);
+				QueryMetaData base = RA.remove(0);
+				result = ToQueryMap.toQuery(graph, base.cond);
 			}
 			else if (P.size() > 0) // some predicates can also be used as bases for search...when !qmd.predicateOnly
 			{
@@ -12,6 +12,7 @@ import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.Callable;
 import org.hypergraphdb.HGException;
 import org.hypergraphdb.HGHandle;
@@ -49,7 +50,12 @@ public class ExpressionBasedQuery<ResultType> extends HGQuery<ResultType>
 {
 	private HGQuery<ResultType> query = null; 
 	private HGQueryCondition condition;
-	private boolean hasVarContext = false;
+	private boolean hasVarContext = false;
+	// the variable context of a cached plan, bound to the context of this query on execution
+	private VarContext planContext = null;
+	private VarContext varContext = null;
+	// when explaining, the conditions of the queries in the plan, which is then never cached
+	private Map<HGQuery<?>, HGQueryCondition> origins = null;
 	
 	static Pair<HGHandle, HGIndex> findIndex(HyperGraph graph, HGKeyIndexer indexer)
 	{
@@ -734,6 +740,19 @@ public class ExpressionBasedQuery<ResultType> extends HGQuery<ResultType>
 		}, HGTransactionConfig.READONLY);
 	}
 	
+	/**
+	 * <p>Compile a query for {@link QueryPlan}, without using the plan cache and recording 
+	 * in <code>origins</code> the condition each query of the plan was made from.</p>
+	 */
+	ExpressionBasedQuery(final HyperGraph graph, 
+						 final HGQueryCondition condition, 
+						 Map<HGQuery<?>, HGQueryCondition> origins)
+	{
+		this.graph = graph;
+		this.origins = origins;
+		compile(condition);
+	}
+	
 	public HGQuery<ResultType> compile(final HGQueryCondition condition)
 	{
 		return graph.getTransactionManager().ensureTransaction(new Callable<HGQuery<ResultType>>() {
@@ -753,8 +772,40 @@ public class ExpressionBasedQuery<ResultType> extends HGQuery<ResultType>
 		try
 		{
 			preprocess(condition);  
-			this.condition = simplify(toDNF(expand(graph, condition))); 
-			query = ToQueryMap.toQuery(graph, this.condition);		
+			QueryPlanCache cache = origins == null ? graph.getQueryPlanCache() : null;
+			QueryPlanCache.Key key = cache == null ? null : cache.keyOf(condition);
+			QueryPlanCache.Plan plan = key == null ? null : cache.get(key);
+			long generation = cache == null ? 0 : cache.getGeneration();
+			if (plan != null)
+			{
+				this.condition = plan.condition;
+				planContext = plan.context;
+			}
+			else
+			{
+				this.condition = simplify(toDNF(expand(graph, condition)));
+				planContext = key == null ? null : key.context;
+			}
+			varContext = key == null ? null : key.context;
+			// the query is made anew from the condition each time, its predicates and
+			// sub-queries keep state that can't be shared by several queries
+			if (origins != null)
+				ToQueryMap.recordOrigins(origins);
+			VarContext previous = planContext == null ? null : planContext.bind(varContext);
+			try
+			{
+				query = ToQueryMap.toQuery(graph, this.condition);
+			}
+			finally
+			{
+				if (previous != null)
+					planContext.bind(previous);
+				if (origins != null)
+					ToQueryMap.recordOrigins(null);
+			}
+			// a condition found to be unsatisfiable may not be once a type is defined
+			if (plan == null && key != null && this.condition != Nothing.Instance && query != HGQuery.NOP)
+				cache.put(key, new QueryPlanCache.Plan(this.condition, key.context), generation);
 			return this;
 		}
 		finally
@@ -767,7 +818,17 @@ public class ExpressionBasedQuery<ResultType> extends HGQuery<ResultType>
 	
     public HGSearchResult<ResultType> execute()
     {    	
-        return query.execute();
+    	if (planContext == null)
+    		return query.execute();
+    	VarContext previous = planContext.bind(varContext);
+    	try
+    	{
+    		return VarBoundResult.bind(query.execute(), planContext, varContext);
+    	}
+    	finally
+    	{
+    		planContext.bind(previous);
+    	}
     }
     
     /** 
@@ -0,0 +1,384 @@
+/*
+ * This file is part of the HyperGraphDB source distribution. This is copyrighted
+ * software. For permitted uses, licensing options and redistribution, please see
+ * the LicensingInformation file at the root level of the distribution.
+ *
+ * Copyright (c) 2005-2010 Kobrix Software, Inc.  All rights reserved.
+ */
+package org.hypergraphdb.query.cond2qry;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+
+import org.hypergraphdb.HGQuery;
+import org.hypergraphdb.HGSearchResult;
+import org.hypergraphdb.HyperGraph;
+import org.hypergraphdb.query.HGAtomPredicate;
+import org.hypergraphdb.query.HGQueryCondition;
+import org.hypergraphdb.query.impl.DelayedSetLoadPredicate;
+import org.hypergraphdb.query.impl.IndexBasedQuery;
+import org.hypergraphdb.query.impl.IndexScanQuery;
+import org.hypergraphdb.query.impl.IntersectionQuery;
+import org.hypergraphdb.query.impl.KeyBasedQuery;
+import org.hypergraphdb.query.impl.LeapfrogIntersectionQuery;
+import org.hypergraphdb.query.impl.PipeQuery;
+import org.hypergraphdb.query.impl.PredicateBasedFilter;
+import org.hypergraphdb.query.impl.PredicateBasedRAFilter;
+import org.hypergraphdb.query.impl.QueryProfile;
+import org.hypergraphdb.query.impl.RABasedPredicate;
+import org.hypergraphdb.query.impl.ResultMapQuery;
+import org.hypergraphdb.query.impl.SearchableBasedQuery;
+import org.hypergraphdb.query.impl.TraversalBasedQuery;
+import org.hypergraphdb.query.impl.UnionQuery;
+import org.hypergraphdb.transaction.HGTransactionConfig;
+import org.hypergraphdb.util.Mapping;
+
+/**
+ * <p>
+ * The tree of queries a condition is compiled into by {@link ExpressionBasedQuery}, as
+ * obtained with {@link org.hypergraphdb.HGQuery.hg#explain(HyperGraph, HGQueryCondition)}.
+ * Each node is one of the queries doing the actual work - an index lookup, an intersection,
+ * a pipe, a predicate filter etc. - with the queries it reads from as children. When known,
+ * a node also has the condition it was made from, the estimated size of its result (an
+ * exact count when it can be obtained cheaply) and the size the query planner expected.
+ * </p>
+ *
+ * <p>
+ * When the plan is analyzed (see
+ * {@link org.hypergraphdb.HGQuery.hg#explainAnalyze(HyperGraph, HGQueryCondition)}), the
+ * query is executed and its result set fully scanned, and each node also has a
+ * {@link QueryProfile} with the actual number of rows read, of <code>goTo</code> calls made
+ * and of time spent. The time of a node includes the time of its children.
+ * </p>
+ *
+ * <p>
+ * The plan is compiled anew, and not taken from the {@link QueryPlanCache}, but the
+ * choices made are the same as for a query made with the same condition.
+ * </p>
+ */
+public class QueryPlan
+{
+    private final HGQuery<?> query;
+    private final String operator;
+    private String details = null;
+    private HGQueryCondition condition = null;
+    private long estimatedSize = -1;
+    private long expectedSize = -1;
+    private final List<QueryPlan> children = new ArrayList<QueryPlan>();
+    private QueryProfile profile = null;
+
+    private static final class Builder
+    {
+        final HyperGraph graph;
+        final Map<HGQuery<?>, HGQueryCondition> origins;
+        final Mapping<HGQueryCondition, Long> estimator;
+        final boolean analyze;
+
+        Builder(HyperGraph graph,
+                Map<HGQuery<?>, HGQueryCondition> origins,
+                Mapping<HGQueryCondition, Long> estimator,
+                boolean analyze)
+        {
+            this.graph = graph;
+            this.origins = origins;
+            this.estimator = estimator;
+            this.analyze = analyze;
+        }
+
+        // Add the plan of a query read by 'parent' and return the query that 'parent'
+        // should read from instead, profiled when analyzing.
+        @SuppressWarnings("unchecked")
+        <T> HGQuery<T> child(QueryPlan parent, HGQuery<T> q)
+        {
+            QueryPlan plan = build(q);
+            parent.children.add(plan);
+            if (!analyze)
+                return q;
+            plan.profile = new QueryProfile();
+            if (q instanceof KeyBasedQuery)
+                return plan.profile.profile((KeyBasedQuery<?, T>)q);
+            else
+                return plan.profile.profile(q);
+        }
+
+        void predicate(QueryPlan parent, HGAtomPredicate p)
+        {
+            if (p instanceof RABasedPredicate && ((RABasedPredicate)p).getQuery() != null)
+                ((RABasedPredicate)p).setQuery(child(parent, ((RABasedPredicate)p).getQuery()));
+            else if (p instanceof DelayedSetLoadPredicate)
+                ((DelayedSetLoadPredicate)p).setQuery(child(parent, ((DelayedSetLoadPredicate)p).getQuery()));
+        }
+
+        @SuppressWarnings({"unchecked", "rawtypes"})
+        QueryPlan build(HGQuery<?> q)
+        {
+            QueryPlan plan = new QueryPlan(q);
+            plan.condition = origins.get(q);
+            if (plan.condition != null)
+            {
+                if (estimator != null)
+                {
+                    Long n = estimator.eval(plan.condition);
+                    plan.estimatedSize = n == null ? -1 : n;
+                }
+                try
+                {
+                    plan.expectedSize = ToQueryMap.toMetaData(graph, plan.condition).sizeExpected;
+                }
+                catch (RuntimeException ex)
+                {
+                    // no planner estimate for this condition
+                }
+            }
+            if (q instanceof IntersectionQuery)
+            {
+                IntersectionQuery iq = (IntersectionQuery)q;
+                Class<?> c = iq.getCombiner().getClass();
+                plan.details = c.getEnclosingClass() == null ? c.getSimpleName() : c.getEnclosingClass().getSimpleName();
+                iq.setLeft(child(plan, iq.getLeft()));
+                iq.setRight(child(plan, iq.getRight()));
+            }
+            else if (q instanceof LeapfrogIntersectionQuery)
+            {
+                LeapfrogIntersectionQuery lq = (LeapfrogIntersectionQuery)q;
+                List<HGQuery> L = new ArrayList<HGQuery>();
+                for (Object x : lq.getQueries())
+                    L.add(child(plan, (HGQuery)x));
+                lq.setQueries(L);
+            }
+            else if (q instanceof UnionQuery)
+            {
+                UnionQuery uq = (UnionQuery)q;
+                uq.setLeft(child(plan, uq.getLeft()));
+                uq.setRight(child(plan, uq.getRight()));
+            }
+            else if (q instanceof PipeQuery)
+            {
+                PipeQuery pq = (PipeQuery)q;
+                pq.setIn(child(plan, pq.getIn()));
+                pq.setOut((KeyBasedQuery)child(plan, pq.getOut()));
+            }
+            else if (q instanceof PredicateBasedFilter)
+            {
+                PredicateBasedFilter f = (PredicateBasedFilter)q;
+                plan.details = describe(f.getAtomPredicate() == null ? f.getPredicate() : f.getAtomPredicate());
+                f.setQuery(child(plan, f.getQuery()));
+                predicate(plan, f.getAtomPredicate());
+            }
+            else if (q instanceof PredicateBasedRAFilter)
+            {
+                PredicateBasedRAFilter f = (PredicateBasedRAFilter)q;
+                plan.details = describe(f.getAtomPredicate() == null ? f.getPredicate() : f.getAtomPredicate());
+                f.setQuery(child(plan, f.getQuery()));
+                predicate(plan, f.getAtomPredicate());
+            }
+            else if (q instanceof ResultMapQuery)
+            {
+                ResultMapQuery mq = (ResultMapQuery)q;
+                plan.details = describe(mq.getMapping());
+                mq.setQuery(child(plan, mq.getQuery()));
+            }
+            else if (q instanceof IndexBasedQuery)
+            {
+                IndexBasedQuery iq = (IndexBasedQuery)q;
+                if (iq.getScanType() != IndexBasedQuery.ScanType.none)
+                    plan.details = describe(iq.getIndex()) + ", scan " + iq.getScanType();
+                else
+                    plan.details = describe(iq.getIndex()) + ", " + iq.getOperator() + " " + describe(iq.getKeyReference().get());
+            }
+            else if (q instanceof IndexScanQuery)
+            {
+                IndexScanQuery iq = (IndexScanQuery)q;
+                plan.details = describe(iq.getIndex()) + ", scan " + (iq.isReturnKeys() ? "keys" : "values");
+            }
+            else if (q instanceof SearchableBasedQuery)
+            {
+                SearchableBasedQuery sq = (SearchableBasedQuery)q;
+                plan.details = describe(sq.getSearchable()) + ", " + sq.getOperator() + " " + describe(sq.getKey());
+            }
+            else if (q instanceof TraversalBasedQuery)
+            {
+                TraversalBasedQuery tq = (TraversalBasedQuery)q;
+                plan.details = describe(tq.getTraversal()) + ", return " + tq.getReturnType();
+            }
+            else if (q instanceof ExpressionBasedQuery)
+            {
+                // compiled separately and possibly shared through the plan cache, so not profiled
+                Builder b = new Builder(graph, origins, estimator, false);
+                plan.children.add(b.build(((ExpressionBasedQuery<?>)q).getCompiledQuery()));
+            }
+            return plan;
+        }
+    }
+
+    private QueryPlan(HGQuery<?> query)
+    {
+        this.query = query;
+        if (query == HGQuery.NOP)
+            operator = "NOP";
+        else if (query.getClass().isAnonymousClass())
+            operator = query.getClass().getSuperclass().getSimpleName();
+        else
+            operator = query.getClass().getSimpleName();
+    }
+
+    // The toString of x, or its class name when it doesn't say more than that.
+    private static String describe(Object x)
+    {
+        if (x == null)
+            return "null";
+        try
+        {
+            if (x.getClass().getMethod("toString").getDeclaringClass() == Object.class)
+                return x.getClass().isAnonymousClass() ? x.getClass().getName() : x.getClass().getSimpleName();
+        }
+        catch (NoSuchMethodException ex)
+        {
+            // can't happen
+        }
+        String s = Arrays.deepToString(new Object[] { x });
+        return s.substring(1, s.length() - 1);
+    }
+
+    /**
+     * <p>
+     * Compile a condition and return its plan. When <code>analyze</code> is
+     * <code>true</code>, also execute it, read its whole result set and profile all
+     * queries in the plan.
+     * </p>
+     *
+     * @param graph The graph to query.
+     * @param condition The query condition.
+     * @param estimator Gives the estimated size of the result of a condition,
+     * <code>-1</code> if unknown. May be <code>null</code>.
+     * @param analyze Whether to execute the query.
+     */
+    public static QueryPlan explain(final HyperGraph graph,
+                                    final HGQueryCondition condition,
+                                    final Mapping<HGQueryCondition, Long> estimator,
+                                    final boolean analyze)
+    {
+        return graph.getTransactionManager().ensureTransaction(new Callable<QueryPlan>() {
+            public QueryPlan call()
+            {
+                Map<HGQuery<?>, HGQueryCondition> origins = new IdentityHashMap<HGQuery<?>, HGQueryCondition>();
+                ExpressionBasedQuery<Object> q = new ExpressionBasedQuery<Object>(graph, condition, origins);
+                Builder builder = new Builder(graph, origins, estimator, analyze);
+                QueryPlan plan = builder.build(q.getCompiledQuery());
+                if (plan.condition == null)
+                    plan.condition = q.getCondition();
+                if (analyze)
+                {
+                    plan.profile = new QueryProfile();
+                    HGSearchResult<?> rs = plan.profile.profile(q.getCompiledQuery()).execute();
+                    try
+                    {
+                        while (rs.hasNext())
+                            rs.next();
+                    }
+                    finally
+                    {
+                        rs.close();
+                    }
+                }
+                return plan;
+            }
+        }, HGTransactionConfig.READONLY);
+    }
+
+    /**
+     * <p>Return the query of this node.</p>
+     */
+    public HGQuery<?> getQuery()
+    {
+        return query;
+    }
+
+    /**
+     * <p>Return the name of the kind of query of this node, e.g. <code>IndexBasedQuery</code>.</p>
+     */
+    public String getOperator()
+    {
+        return operator;
+    }
+
+    /**
+     * <p>Return a description of what the query does, such as the index it looks up or
+     * how it intersects its inputs, or <code>null</code>.</p>
+     */
+    public String getDetails()
+    {
+        return details;
+    }
+
+    /**
+     * <p>Return the condition the query was made from, <code>null</code> if unknown.</p>
+     */
+    public HGQueryCondition getCondition()
+    {
+        return condition;
+    }
+
+    /**
+     * <p>Return the estimated number of results of the condition of this node, or
+     * <code>-1</code> if it could not be estimated cheaply.</p>
+     */
+    public long getEstimatedSize()
+    {
+        return estimatedSize;
+    }
+
+    /**
+     * <p>Return the number of results the query planner expected when choosing this plan,
+     * or <code>-1</code> if unknown.</p>
+     */
+    public long getExpectedSize()
+    {
+        return expectedSize;
+    }
+
+    /**
+     * <p>Return the plans of the queries this query reads from.</p>
+     */
+    public List<QueryPlan> getChildren()
+    {
+        return Collections.unmodifiableList(children);
+    }
+
+    /**
+     * <p>Return what happened when the query was executed, <code>null</code> if the plan
+     * was not analyzed.</p>
+     */
+    public QueryProfile getProfile()
+    {
+        return profile;
+    }
+
+    private void print(StringBuilder sb, String indent)
+    {
+        sb.append(indent).append(operator);
+        if (details != null)
+            sb.append(" [").append(details).append("]");
+        if (condition != null)
+            sb.append(" for ").append(describe(condition));
+        sb.append(" (estimated=").append(estimatedSize < 0 ? "?" : String.valueOf(estimatedSize));
+        sb.append(", expected=").append(expectedSize < 0 ? "?" : String.valueOf(expectedSize)).append(")");
+        if (profile != null)
+            sb.append(" (").append(profile).append(")");
+        sb.append("\n");
+        for (QueryPlan child : children)
+            child.print(sb, indent + "    ");
+    }
+
+    public String toString()
+    {
+        StringBuilder sb = new StringBuilder();
+        print(sb, "");
+        return sb.toString();
+    }
+}
@@ -0,0 +1,402 @@
+/*
+ * This file is part of the HyperGraphDB source distribution. This is copyrighted
+ * software. For permitted uses, licensing options and redistribution, please see
+ * the LicensingInformation file at the root level of the distribution.
+ *
+ * Copyright (c) 2005-2010 Kobrix Software, Inc.  All rights reserved.
+ */
+package org.hypergraphdb.query.cond2qry;
+
+import java.lang.reflect.Array;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.hypergraphdb.query.HGAtomPredicate;
+import org.hypergraphdb.query.HGQueryCondition;
+import org.hypergraphdb.transaction.HGTransaction;
+import org.hypergraphdb.transaction.HGTransactionManager;
+import org.hypergraphdb.util.Constant;
+import org.hypergraphdb.util.Var;
+import org.hypergraphdb.util.VarContext;
+
+/**
+ * <p>
+ * A cache of query plans, so that making a query with a condition of the same shape
+ * as a previous one skips the condition simplification and index selection done by
+ * {@link ExpressionBasedQuery}. Obtain the cache of a graph with
+ * {@link org.hypergraphdb.HyperGraph#getQueryPlanCache()}.
+ * </p>
+ *
+ * <p>
+ * The shape of a condition is its structure with all constant values and with variables
+ * identified by name: two conditions that differ only in the values bound to their
+ * variables have the same shape and share a plan. It is obtained by walking the fields
+ * of the condition objects. Values without a meaningful <code>equals</code> make the
+ * condition match only itself.
+ * </p>
+ *
+ * <p>
+ * A plan is the simplified condition with the indices it was expanded to. Each query
+ * made from it translates it to its own tree of sub-queries and predicates, since those
+ * hold state, such as lazily loaded sets and open cursors, specific to one query. A plan
+ * compiled from a condition with variables reads them from the variable context they were
+ * created in. A query reusing it binds that context to its own variable context (see
+ * {@link VarContext#bind(VarContext)}) while it is translated and during each call on its
+ * result sets, restoring the previous binding afterwards.
+ * </p>
+ *
+ * <p>
+ * Plans depend on the types and indices defined in the graph. The cache is invalidated
+ * when an indexer is registered or unregistered and when a type is defined, removed or
+ * gets a new super type. A plan is not cached if such a change happened while it was
+ * being compiled.
+ * </p>
+ */
+public class QueryPlanCache
+{
+    public static final int DEFAULT_CAPACITY = 256;
+
+    // Conditions nested deeper than this are not cached.
+    private static final int MAX_DEPTH = 64;
+
+    static final class Plan
+    {
+        final HGQueryCondition condition;
+        final VarContext context;
+
+        Plan(HGQueryCondition condition, VarContext context)
+        {
+            this.condition = condition;
+            this.context = context;
+        }
+    }
+
+    /**
+     * The shape of a condition and the variable context of its variables, if any.
+     */
+    static final class Key
+    {
+        final List<Object> shape;
+        final VarContext context;
+        final int hash;
+
+        Key(List<Object> shape, VarContext context)
+        {
+            this.shape = shape;
+            this.context = context;
+            this.hash = shape.hashCode();
+        }
+
+        public int hashCode()
+        {
+            return hash;
+        }
+
+        public boolean equals(Object x)
+        {
+            if (x == this)
+                return true;
+            else if (! (x instanceof Key))
+                return false;
+            Key k = (Key)x;
+            return hash == k.hash && shape.equals(k.shape);
+        }
+    }
+
+    private static final class Uncachable extends Exception
+    {
+        private static final long serialVersionUID = 1L;
+    }
+
+    private static final ConcurrentHashMap<Class<?>, Field[]> fields =
+        new ConcurrentHashMap<Class<?>, Field[]>();
+
+    private final LinkedHashMap<Key, Plan> plans = new LinkedHashMap<Key, Plan>(16, 0.75f, true)
+    {
+        private static final long serialVersionUID = 1L;
+
+        protected boolean removeEldestEntry(Map.Entry<Key, Plan> eldest)
+        {
+            if (size() > capacity)
+            {
+                evictions.incrementAndGet();
+                return true;
+            }
+            return false;
+        }
+    };
+    private final HGTransactionManager txManager;
+    private volatile int capacity;
+    private final AtomicLong generation = new AtomicLong();
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+    private final AtomicLong invalidations = new AtomicLong();
+
+    private final Runnable invalidator = new Runnable()
+    {
+        public void run()
+        {
+            clear();
+        }
+    };
+
+    private static Field[] getFields(Class<?> cl)
+    {
+        Field[] result = fields.get(cl);
+        if (result == null)
+        {
+            List<Field> L = new ArrayList<Field>();
+            for (Class<?> c = cl; c != null && !c.getName().startsWith("java."); c = c.getSuperclass())
+                for (Field f : c.getDeclaredFields())
+                {
+                    int mod = f.getModifiers();
+                    if (Modifier.isStatic(mod) || Modifier.isTransient(mod))
+                        continue;
+                    f.setAccessible(true);
+                    L.add(f);
+                }
+            result = L.toArray(new Field[L.size()]);
+            fields.put(cl, result);
+        }
+        return result;
+    }
+
+    private static Object shapeOf(Object x, VarContext[] context, int depth) throws Uncachable
+    {
+        if (depth > MAX_DEPTH)
+            throw new Uncachable();
+        if (x == null)
+            return null;
+        List<Object> shape = new ArrayList<Object>();
+        if (x instanceof Var)
+        {
+            VarContext ctx;
+            String name;
+            try
+            {
+                ctx = VarContext.getContext((Var<?>)x);
+                name = VarContext.getName((Var<?>)x);
+            }
+            catch (ClassCastException ex)
+            {
+                throw new Uncachable();
+            }
+            if (context[0] == null)
+                context[0] = ctx;
+            else if (context[0] != ctx)
+                throw new Uncachable();
+            shape.add(Var.class);
+            shape.add(name);
+        }
+        else if (x instanceof Constant)
+        {
+            shape.add(Constant.class);
+            shape.add(shapeOf(((Constant<?>)x).get(), context, depth + 1));
+        }
+        else if (x.getClass().isArray())
+        {
+            shape.add(x.getClass());
+            for (int i = 0; i < Array.getLength(x); i++)
+                shape.add(shapeOf(Array.get(x, i), context, depth + 1));
+        }
+        else if (x instanceof HGQueryCondition || x instanceof HGAtomPredicate)
+        {
+            shape.add(x.getClass());
+            if (x instanceof Collection)
+                for (Object y : (Collection<?>)x)
+                    shape.add(shapeOf(y, context, depth + 1));
+            try
+            {
+                for (Field f : getFields(x.getClass()))
+                    shape.add(shapeOf(f.get(x), context, depth + 1));
+            }
+            catch (Exception ex)
+            {
+                throw new Uncachable();
+            }
+        }
+        else if (x instanceof Collection)
+        {
+            shape.add(x.getClass());
+            for (Object y : (Collection<?>)x)
+                shape.add(shapeOf(y, context, depth + 1));
+        }
+        else
+            return x;
+        return shape;
+    }
+
+    public QueryPlanCache(HGTransactionManager txManager, int capacity)
+    {
+        this.txManager = txManager;
+        this.capacity = capacity;
+    }
+
+    /**
+     * <p>Return the cache key of a condition or <code>null</code> if it can't be cached.</p>
+     */
+    @SuppressWarnings("unchecked")
+    Key keyOf(HGQueryCondition condition)
+    {
+        if (capacity <= 0)
+            return null;
+        VarContext[] context = new VarContext[1];
+        try
+        {
+            return new Key((List<Object>)shapeOf(condition, context, 0), context[0]);
+        }
+        catch (Uncachable ex)
+        {
+            return null;
+        }
+    }
+
+    Plan get(Key key)
+    {
+        Plan plan;
+        synchronized (plans)
+        {
+            plan = plans.get(key);
+        }
+        if (plan == null)
+            misses.incrementAndGet();
+        else
+            hits.incrementAndGet();
+        return plan;
+    }
+
+    /**
+     * <p>Cache a plan unless the cache was invalidated since <code>generation</code>.</p>
+     */
+    void put(Key key, Plan plan, long generation)
+    {
+        synchronized (plans)
+        {
+            if (this.generation.get() == generation)
+                plans.put(key, plan);
+        }
+    }
+
+    long getGeneration()
+    {
+        return generation.get();
+    }
+
+    /**
+     * <p>Remove all cached plans.</p>
+     */
+    public void clear()
+    {
+        synchronized (plans)
+        {
+            generation.incrementAndGet();
+            plans.clear();
+        }
+    }
+
+    /**
+     * <p>
+     * Remove all cached plans because something they depend on changed. When called within
+     * a transaction, the cache is cleared again when it commits or aborts, so that plans
+     * compiled concurrently by transactions not seeing the change are dropped too.
+     * </p>
+     */
+    public void invalidate()
+    {
+        invalidations.incrementAndGet();
+        clear();
+        HGTransaction tx = txManager.getContext().getCurrent();
+        if (tx != null)
+        {
+            tx.addBeforeCommitAction(invalidator);
+            tx.addAbortAction(invalidator);
+        }
+    }
+
+    /**
+     * <p>Return the maximum number of cached plans, 0 if caching is disabled.</p>
+     */
+    public int getCapacity()
+    {
+        return capacity;
+    }
+
+    /**
+     * <p>Set the maximum number of cached plans, 0 to disable caching.</p>
+     */
+    public void setCapacity(int capacity)
+    {
+        this.capacity = capacity;
+        if (capacity <= 0)
+            clear();
+    }
+
+    /**
+     * <p>Return the number of cached plans.</p>
+     */
+    public int size()
+    {
+        synchronized (plans)
+        {
+            return plans.size();
+        }
+    }
+
+    /**
+     * <p>Return the number of queries made with a cached plan.</p>
+     */
+    public long getHits()
+    {
+        return hits.get();
+    }
+
+    /**
+     * <p>Return the number of queries whose plan had to be compiled.</p>
+     */
+    public long getMisses()
+    {
+        return misses.get();
+    }
+
+    /**
+     * <p>Return the number of plans removed because the cache was full.</p>
+     */
+    public long getEvictions()
+    {
+        return evictions.get();
+    }
+
+    /**
+     * <p>Return the number of times the cache was invalidated.</p>
+     */
+    public long getInvalidations()
+    {
+        return invalidations.get();
+    }
+
+    /**
+     * <p>Set all counters back to 0.</p>
+     */
+    public void resetStatistics()
+    {
+        hits.set(0);
+        misses.set(0);
+        evictions.set(0);
+        invalidations.set(0);
+    }
+
+    public String toString()
+    {
+        return "QueryPlanCache[size=" + size() + ", capacity=" + capacity +
+               ", hits=" + getHits() + ", misses=" + getMisses() +
+               ", evictions=" + getEvictions() + ", invalidations=" + getInvalidations() + "]";
+    }
+}
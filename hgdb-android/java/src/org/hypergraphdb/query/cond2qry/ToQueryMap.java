@@ -10,10 +10,12 @@ package org.hypergraphdb.query.cond2qry;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.Map;
 
 import org.hypergraphdb.HGException;
 import org.hypergraphdb.HGHandle;
 import org.hypergraphdb.HGIndex;
+import org.hypergraphdb.HGIndexStatistics;
 import org.hypergraphdb.HGLink;
 import org.hypergraphdb.HGOrderedSearchable;
 import org.hypergraphdb.HGPersistentHandle;
@@ -81,6 +83,11 @@ public class ToQueryMap extends HashMap<Class<?>, ConditionToQuery>
 	private static final long serialVersionUID = -1;
 	protected static final ToQueryMap instance = new ToQueryMap();
 	
+	// When set, the queries made by the current thread with the conditions they were made from,
+	// used to explain a compiled query.
+	private static final ThreadLocal<Map<HGQuery<?>, HGQueryCondition>> origins = 
+		new ThreadLocal<Map<HGQuery<?>, HGQueryCondition>>();
+	
 	static
 	{
 		instance.put(Nothing.class, new ConditionToQuery()
@@ -141,17 +148,14 @@ public class ToQueryMap extends HashMap<Class<?>, ConditionToQuery>
 				x.predicateCost = 1;
 				if (hg.isVar(ac.getTypeReference()))
 				{
-					// TODO: maybe we can get better estimates here if we collect some global
-					// database statistics, e.g. in the HGStats bean
-//					x.sizeExpected = ...
-//					x.sizeLB = ...
-//					x.sizeUB = ..
+					// the type is not known yet, at most all atoms
+					x.sizeUB = graph.getStatistics().getAtomCount();
 				}
 				else
 				{
 					x.sizeExpected = 
 							x.sizeLB = 
-							x.sizeUB = graph.getIndexManager().getIndexByType().count(ac.getTypeHandle(graph).getPersistent());
+							x.sizeUB = graph.getStatistics().getAtomCount(ac.getTypeHandle(graph));
 				}
 				return x;
 			}
@@ -436,16 +440,16 @@ public class ToQueryMap extends HashMap<Class<?>, ConditionToQuery>
 				else
 					return new IndexBasedQuery(ic.getIndex(), ic.getKeyReference(), ComparisonOperator.EQ);
 			}
-			public QueryMetaData getMetaData(HyperGraph hg, HGQueryCondition c)
+			public QueryMetaData getMetaData(HyperGraph graph, HGQueryCondition c)
 			{
 			    IndexCondition ic = (IndexCondition)c;
+			    QueryMetaData qmd;
 			    if (ic.getOperator() == ComparisonOperator.EQ)
-			        return QueryMetaData.ORACCESS.clone(c);
+			        qmd = QueryMetaData.ORACCESS.clone(c);
 			    else
-			    {
-			        QueryMetaData qmd = QueryMetaData.MISTERY.clone(c);
-			        return qmd;
-			    }
+			        qmd = QueryMetaData.MISTERY.clone(c);
+			    estimateIndexLookup(graph, qmd, ic.getIndex(), ic.getKeyReference(), ic.getOperator());
+			    return qmd;
 			}
 		});		
 		instance.put(IndexedPartCondition.class, new ConditionToQuery()
@@ -460,9 +464,12 @@ public class ToQueryMap extends HashMap<Class<?>, ConditionToQuery>
 				else
 					return new IndexBasedQuery(ip.getIndex(), ip.getPartValueReference());
 			}
-			public QueryMetaData getMetaData(HyperGraph hg, HGQueryCondition c)
+			public QueryMetaData getMetaData(HyperGraph graph, HGQueryCondition c)
 			{
-				return QueryMetaData.ORACCESS.clone(c);
+				IndexedPartCondition ip = (IndexedPartCondition)c;
+				QueryMetaData qmd = QueryMetaData.ORACCESS.clone(c);
+				estimateIndexLookup(graph, qmd, ip.getIndex(), ip.getPartValueReference(), ip.getOperator());
+				return qmd;
 			}
 		});		
 		instance.put(And.class, new AndToQuery());
@@ -658,10 +665,51 @@ public class ToQueryMap extends HashMap<Class<?>, ConditionToQuery>
 				throw new IllegalArgumentException("Unable to convert query condition " +
 						condition + " to a query. Try constraining further, e.g. by atom type.");
 			q.setHyperGraph(hg);
+			Map<HGQuery<?>, HGQueryCondition> m = origins.get();
+			if (m != null && !m.containsKey(q))
+				m.put(q, condition);
 			return q;
 		}
 	}
+	
+	/**
+	 * <p>Start or, with a <code>null</code> parameter, stop recording in <code>m</code> the
+	 * condition each query is made from by the current thread.</p>
+	 */
+	static void recordOrigins(Map<HGQuery<?>, HGQueryCondition> m)
+	{
+		if (m == null)
+			origins.remove();
+		else
+			origins.set(m);
+	}
 
+	/**
+	 * <p>
+	 * Fill in the expected size of an index lookup from the graph statistics, unless the
+	 * key is a variable. The upper bound of a range lookup is the number of entries in
+	 * the index.
+	 * </p>
+	 */
+	@SuppressWarnings("unchecked")
+	static void estimateIndexLookup(HyperGraph graph, 
+	                                QueryMetaData qmd, 
+	                                HGIndex<?, ?> index, 
+	                                Ref<?> key, 
+	                                ComparisonOperator op)
+	{
+		if (hg.isVar(key))
+			return;
+		HGIndexStatistics<Object> stats = graph.getStatistics().getIndexStatistics((HGIndex<Object, ?>)index);
+		long n = stats.estimate(op, key.get());
+		if (n >= 0)
+			qmd.sizeExpected = n;
+		if (op == ComparisonOperator.EQ)
+			qmd.sizeUB = Math.max(n, qmd.sizeLB);
+		else
+			qmd.sizeUB = stats.getEntryCount();
+	}
+	
 	protected static QueryMetaData toMetaData(HyperGraph hg, HGQueryCondition condition)
 	{
 		ConditionToQuery transformer = (ConditionToQuery)instance.get(condition.getClass());
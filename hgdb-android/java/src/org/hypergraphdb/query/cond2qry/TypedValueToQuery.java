@@ -94,6 +94,9 @@ public class TypedValueToQuery implements ConditionToQuery
 			qmd = QueryMetaData.MISTERY.clone(c);
 		}
 		qmd.predicateCost = 2.5;
+		// no more atoms than there are of that type
+		if (!hg.isVar(vc.getTypeReference()))
+			qmd.sizeUB = graph.getStatistics().getAtomCount(typeHandle);
 		return qmd;
 	}
 }
\ No newline at end of file
@@ -0,0 +1,114 @@
+/*
+ * This file is part of the HyperGraphDB source distribution. This is copyrighted
+ * software. For permitted uses, licensing options and redistribution, please see
+ * the LicensingInformation file at the root level of the distribution.
+ *
+ * Copyright (c) 2005-2010 Kobrix Software, Inc.  All rights reserved.
+ */
+package org.hypergraphdb.query.cond2qry;
+
+import org.hypergraphdb.HGRandomAccessResult;
+import org.hypergraphdb.HGSearchResult;
+import org.hypergraphdb.util.VarContext;
+
+/**
+ * <p>
+ * The result set of a query made from a cached plan. The variables of the plan are bound
+ * to the variable context of the query only for the duration of each call on the result
+ * set, and the previous binding is restored afterwards, so that the results of queries
+ * sharing a plan can be iterated in an interleaved way in the same thread.
+ * </p>
+ */
+class VarBoundResult<T> implements HGSearchResult<T>
+{
+    final HGSearchResult<T> rs;
+    final VarContext planContext, varContext;
+
+    static <T> HGSearchResult<T> bind(HGSearchResult<T> rs, VarContext planContext, VarContext varContext)
+    {
+        if (rs instanceof HGRandomAccessResult)
+            return new RA<T>((HGRandomAccessResult<T>)rs, planContext, varContext);
+        else
+            return new VarBoundResult<T>(rs, planContext, varContext);
+    }
+
+    VarBoundResult(HGSearchResult<T> rs, VarContext planContext, VarContext varContext)
+    {
+        this.rs = rs;
+        this.planContext = planContext;
+        this.varContext = varContext;
+    }
+
+    public T current()
+    {
+        return rs.current();
+    }
+
+    public boolean isOrdered()
+    {
+        return rs.isOrdered();
+    }
+
+    public boolean hasNext()
+    {
+        VarContext previous = planContext.bind(varContext);
+        try { return rs.hasNext(); }
+        finally { planContext.bind(previous); }
+    }
+
+    public T next()
+    {
+        VarContext previous = planContext.bind(varContext);
+        try { return rs.next(); }
+        finally { planContext.bind(previous); }
+    }
+
+    public boolean hasPrev()
+    {
+        VarContext previous = planContext.bind(varContext);
+        try { return rs.hasPrev(); }
+        finally { planContext.bind(previous); }
+    }
+
+    public T prev()
+    {
+        VarContext previous = planContext.bind(varContext);
+        try { return rs.prev(); }
+        finally { planContext.bind(previous); }
+    }
+
+    public void remove()
+    {
+        rs.remove();
+    }
+
+    public void close()
+    {
+        rs.close();
+    }
+
+    static final class RA<T> extends VarBoundResult<T> implements HGRandomAccessResult<T>
+    {
+        RA(HGRandomAccessResult<T> rs, VarContext planContext, VarContext varContext)
+        {
+            super(rs, planContext, varContext);
+        }
+
+        public GotoResult goTo(T value, boolean exactMatch)
+        {
+            VarContext previous = planContext.bind(varContext);
+            try { return ((HGRandomAccessResult<T>)rs).goTo(value, exactMatch); }
+            finally { planContext.bind(previous); }
+        }
+
+        public void goAfterLast()
+        {
+            ((HGRandomAccessResult<T>)rs).goAfterLast();
+        }
+
+        public void goBeforeFirst()
+        {
+            ((HGRandomAccessResult<T>)rs).goBeforeFirst();
+        }
+    }
+}
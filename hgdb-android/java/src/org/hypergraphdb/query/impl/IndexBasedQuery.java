@@ -98,4 +98,24 @@ public class IndexBasedQuery<T> extends HGQuery<T>
 		    	}
 	    }
     }
+    
+    public HGIndex<? extends Object, ? extends Object> getIndex()
+    {
+    	return index;
+    }
+    
+    public Ref<Object> getKeyReference()
+    {
+    	return key;
+    }
+    
+    public ComparisonOperator getOperator()
+    {
+    	return operator;
+    }
+    
+    public ScanType getScanType()
+    {
+    	return scanType;
+    }
 }
\ No newline at end of file
@@ -38,4 +38,14 @@ public class IndexScanQuery<Key, Value> extends HGQuery<Value>
 	{
 		return returnKeys ? idx.scanKeys() : idx.scanValues();
 	}
+	
+	public HGIndex<Key, Value> getIndex()
+	{
+		return idx;
+	}
+	
+	public boolean isReturnKeys()
+	{
+		return returnKeys;
+	}
 }
@@ -0,0 +1,88 @@
+/*
+ * This file is part of the HyperGraphDB source distribution. This is copyrighted
+ * software. For permitted uses, licensing options and redistribution, please see
+ * the LicensingInformation file at the root level of the distribution.
+ *
+ * Copyright (c) 2005-2010 Kobrix Software, Inc.  All rights reserved.
+ */
+package org.hypergraphdb.query.impl;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.hypergraphdb.HGQuery;
+import org.hypergraphdb.HGRandomAccessResult;
+import org.hypergraphdb.HGSearchResult;
+import org.hypergraphdb.util.HGUtils;
+
+/**
+ * <p>
+ * The intersection of any number of queries with sorted, random access results, as a
+ * {@link LeapfrogIntersectionResult}.
+ * </p>
+ */
+@SuppressWarnings("unchecked")
+public class LeapfrogIntersectionQuery<T> extends HGQuery<T>
+{
+	private List<HGQuery<T>> queries;
+
+	/**
+	 * <p>Construct an intersection of the given queries, best listed from the one with
+	 * the smallest result to the one with the largest.</p>
+	 */
+	public LeapfrogIntersectionQuery(List<HGQuery<T>> queries)
+	{
+		this.queries = queries;
+	}
+
+	public LeapfrogIntersectionQuery(HGQuery<T> first, HGQuery<T> second)
+	{
+		this.queries = new ArrayList<HGQuery<T>>();
+		queries.add(first);
+		queries.add(second);
+	}
+
+	public HGSearchResult<T> execute()
+	{
+		List<HGRandomAccessResult<T>> results = new ArrayList<HGRandomAccessResult<T>>(queries.size());
+		try
+		{
+			for (HGQuery<T> q : queries)
+			{
+				HGRandomAccessResult<T> rs = (HGRandomAccessResult<T>)q.execute();
+				results.add(rs);
+				if (!rs.hasNext())
+				{
+					for (HGSearchResult<T> x : results)
+						x.close();
+					return (HGSearchResult<T>)HGSearchResult.EMPTY;
+				}
+			}
+		}
+		catch (Throwable t)
+		{
+			for (HGSearchResult<T> x : results)
+				HGUtils.closeNoException(x);
+			HGUtils.wrapAndRethrow(t);
+		}
+		return new LeapfrogIntersectionResult<T>(results);
+	}
+
+	/**
+	 * <p>Add a query to intersect with.</p>
+	 */
+	public void add(HGQuery<T> query)
+	{
+		queries.add(query);
+	}
+
+	public List<HGQuery<T>> getQueries()
+	{
+		return queries;
+	}
+
+	public void setQueries(List<HGQuery<T>> queries)
+	{
+		this.queries = queries;
+	}
+}
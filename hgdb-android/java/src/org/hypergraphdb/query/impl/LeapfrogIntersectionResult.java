@@ -0,0 +1,199 @@
+/*
+ * This file is part of the HyperGraphDB source distribution. This is copyrighted
+ * software. For permitted uses, licensing options and redistribution, please see
+ * the LicensingInformation file at the root level of the distribution.
+ *
+ * Copyright (c) 2005-2010 Kobrix Software, Inc.  All rights reserved.
+ */
+package org.hypergraphdb.query.impl;
+
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import org.hypergraphdb.HGRandomAccessResult;
+
+/**
+ * <p>
+ * The intersection of any number of sorted, random access result sets, computed with the
+ * leapfrog join: the inputs take turns, in a cycle, moving with <code>goTo</code> to the
+ * largest element seen so far, until they all land on the same element. This is what
+ * nested {@link ZigZagIntersectionResult}s do pairwise, but without the intermediate
+ * result sets and with each input skipping directly to the next candidate of all others.
+ * </p>
+ *
+ * <p>
+ * Inputs are best given from the smallest to the largest: the first one is moved with
+ * <code>next</code> when looking for the next element, all others only with
+ * <code>goTo</code>.
+ * </p>
+ */
+@SuppressWarnings("unchecked")
+public class LeapfrogIntersectionResult<T> implements HGRandomAccessResult<T>
+{
+	private static final Object UNKNOWN = new Object();
+	private static final Object NOWHERE = new Object();
+
+	private final HGRandomAccessResult<T> [] inputs;
+	private Object current = UNKNOWN, next = UNKNOWN, prev = UNKNOWN;
+	// the element all inputs are positioned at, NOWHERE after a failed move
+	private Object at = UNKNOWN;
+
+	// Return the smallest element common to all inputs not smaller than x, where
+	// input 'from' is positioned at x, or null if there's none. All inputs are positioned
+	// at the returned element.
+	private T search(T x, int from)
+	{
+		int agree = 1;
+		for (int i = (from + 1) % inputs.length; agree < inputs.length; i = (i + 1) % inputs.length)
+		{
+			switch (inputs[i].goTo(x, false))
+			{
+				case found:
+					agree++;
+					break;
+				case close:
+					x = inputs[i].current();
+					agree = 1;
+					break;
+				default:
+					return null;
+			}
+		}
+		return x;
+	}
+
+	// Make sure all inputs are positioned at x, which is UNKNOWN when we are before 
+	// the first or after the last element.
+	private void moveTo(Object x)
+	{
+		if (at == x)
+			return;
+		else if (x != UNKNOWN)
+			for (HGRandomAccessResult<T> in : inputs)
+				in.goTo((T)x, true);
+		else
+			for (HGRandomAccessResult<T> in : inputs)
+				in.goBeforeFirst();
+		at = x;
+	}
+	
+	private T moved(T x)
+	{
+		at = x == null ? NOWHERE : x;
+		return x;
+	}
+	
+	private T advance()
+	{
+		moveTo(current);
+		if (!inputs[0].hasNext())
+			return null;
+		return moved(search(inputs[0].next(), 0));
+	}
+
+	private T back()
+	{
+		moveTo(current);
+		while (inputs[0].hasPrev())
+		{
+			T x = inputs[0].prev();
+			int i = 1;
+			while (i < inputs.length && inputs[i].goTo(x, true) == GotoResult.found)
+				i++;
+			if (i == inputs.length)
+				return moved(x);
+		}
+		return moved(null);
+	}
+
+	public LeapfrogIntersectionResult(List<HGRandomAccessResult<T>> inputs)
+	{
+		this.inputs = inputs.toArray((HGRandomAccessResult<T> [])new HGRandomAccessResult<?>[inputs.size()]);
+	}
+
+	public GotoResult goTo(T value, boolean exactMatch)
+	{
+		GotoResult r = inputs[0].goTo(value, exactMatch);
+		T x = moved(r == GotoResult.nothing ? null : search(inputs[0].current(), 0));
+		if (x == null)
+			return GotoResult.nothing;
+		boolean exact = ((Comparable<T>)x).compareTo(value) == 0;
+		if (exactMatch && !exact)
+			return GotoResult.nothing;
+		current = x;
+		next = prev = UNKNOWN;
+		return exact ? GotoResult.found : GotoResult.close;
+	}
+
+	public void goBeforeFirst()
+	{
+		for (HGRandomAccessResult<T> in : inputs)
+			in.goBeforeFirst();
+		current = next = prev = at = UNKNOWN;
+	}
+
+	public void goAfterLast()
+	{
+		for (HGRandomAccessResult<T> in : inputs)
+			in.goAfterLast();
+		current = next = prev = at = UNKNOWN;
+	}
+
+	public T current()
+	{
+		if (current == UNKNOWN)
+			throw new NoSuchElementException();
+		else
+			return (T)current;
+	}
+
+	public boolean hasNext()
+	{
+		if (next == UNKNOWN)
+			next = advance();
+		return next != null;
+	}
+
+	public T next()
+	{
+		if (!hasNext())
+			throw new NoSuchElementException();
+		prev = current;
+		current = next;
+		next = UNKNOWN;
+		return (T)current;
+	}
+
+	public boolean hasPrev()
+	{
+		if (prev == UNKNOWN)
+			prev = back();
+		return prev != null;
+	}
+
+	public T prev()
+	{
+		if (!hasPrev())
+			throw new NoSuchElementException();
+		next = current;
+		current = prev;
+		prev = UNKNOWN;
+		return (T)current;
+	}
+
+	public boolean isOrdered()
+	{
+		return true;
+	}
+
+	public void remove()
+	{
+		throw new UnsupportedOperationException();
+	}
+
+	public void close()
+	{
+		for (HGRandomAccessResult<T> in : inputs)
+			in.close();
+	}
+}
@@ -35,4 +35,24 @@ public class PipeQuery<Key, Value> extends HGQuery<Value>
 	{
 		return new PipedResult(in.execute(), out, true);
 	}
+
+	public HGQuery<?> getIn()
+	{
+		return in;
+	}
+
+	public void setIn(HGQuery<Key> in)
+	{
+		this.in = in;
+	}
+
+	public KeyBasedQuery<Key, Value> getOut()
+	{
+		return out;
+	}
+
+	public void setOut(KeyBasedQuery<Key, Value> out)
+	{
+		this.out = out;
+	}
 }
\ No newline at end of file
@@ -28,6 +28,7 @@ public final class PredicateBasedFilter<T> extends HGQuery<T>
 {
 	private HGQuery<T> query;
 	private Mapping<T, Boolean> predicate;
+	private HGAtomPredicate atomPredicate = null;
 	
 	/**
 	 * <p>Construct a <code>PredicateBasedFilter</code>, filtering the result
@@ -43,6 +44,7 @@ public final class PredicateBasedFilter<T> extends HGQuery<T>
 	{
 		this.graph = graph;
 		this.query = query;
+		this.atomPredicate = atomPredicate;
 		this.predicate = new Mapping<T, Boolean>() {
 		    public Boolean eval(T h)
 		    {
@@ -81,4 +83,28 @@ public final class PredicateBasedFilter<T> extends HGQuery<T>
 		baseResult.close();		
 		return (HGSearchResult<T>)HGSearchResult.EMPTY;
 	}
+	
+	public HGQuery<T> getQuery()
+	{
+		return query;
+	}
+	
+	public void setQuery(HGQuery<T> query)
+	{
+		this.query = query;
+	}
+	
+	/**
+	 * <p>Return the atom predicate this filter was constructed with, <code>null</code> if
+	 * it was constructed with a <code>Mapping</code>.</p>
+	 */
+	public HGAtomPredicate getAtomPredicate()
+	{
+		return atomPredicate;
+	}
+	
+	public Mapping<T, Boolean> getPredicate()
+	{
+		return predicate;
+	}
 }
@@ -29,6 +29,7 @@ public final class PredicateBasedRAFilter<T> extends HGQuery<T>
 {
 	private HGQuery<T> query;
 	private Mapping<T, Boolean> predicate;
+	private HGAtomPredicate atomPredicate = null;
 	
 	/**
 	 * <p>Construct a <code>PredicateBasedFilter</code>, filtering the result
@@ -44,6 +45,7 @@ public final class PredicateBasedRAFilter<T> extends HGQuery<T>
 	{
 		this.graph = graph;
 		this.query = query;
+		this.atomPredicate = atomPredicate;
 		this.predicate = new Mapping<T, Boolean>() {
 			public Boolean eval(T h)
 			{
@@ -82,4 +84,28 @@ public final class PredicateBasedRAFilter<T> extends HGQuery<T>
 		baseResult.close();		
 		return (HGSearchResult<T>)HGSearchResult.EMPTY;
 	}
+	
+	public HGQuery<T> getQuery()
+	{
+		return query;
+	}
+	
+	public void setQuery(HGQuery<T> query)
+	{
+		this.query = query;
+	}
+	
+	/**
+	 * <p>Return the atom predicate this filter was constructed with, <code>null</code> if
+	 * it was constructed with a <code>Mapping</code>.</p>
+	 */
+	public HGAtomPredicate getAtomPredicate()
+	{
+		return atomPredicate;
+	}
+	
+	public Mapping<T, Boolean> getPredicate()
+	{
+		return predicate;
+	}
 }
@@ -0,0 +1,265 @@
+/*
+ * This file is part of the HyperGraphDB source distribution. This is copyrighted
+ * software. For permitted uses, licensing options and redistribution, please see
+ * the LicensingInformation file at the root level of the distribution.
+ *
+ * Copyright (c) 2005-2010 Kobrix Software, Inc.  All rights reserved.
+ */
+package org.hypergraphdb.query.impl;
+
+import org.hypergraphdb.HGQuery;
+import org.hypergraphdb.HGRandomAccessResult;
+import org.hypergraphdb.HGSearchResult;
+
+/**
+ * <p>
+ * Counters of what happens to the result sets of a query: how many times it was executed,
+ * how many rows were read from its results, how many <code>goTo</code> calls were made
+ * on them and how long all of that took. A query is profiled by replacing it with the
+ * one returned by {@link #profile(HGQuery)}, which wraps every result set it produces.
+ * </p>
+ *
+ * <p>
+ * The elapsed time is measured around each call made on the result sets, so it includes
+ * the time spent in the result sets of sub-queries. A profile is not thread-safe, a profiled
+ * query should be executed by one thread at a time.
+ * </p>
+ */
+public class QueryProfile
+{
+    private long executions = 0;
+    private long rows = 0;
+    private long goToCalls = 0;
+    private long goToFound = 0;
+    private long elapsed = 0;
+
+    private class ProfiledQuery<T> extends HGQuery<T>
+    {
+        final HGQuery<T> query;
+
+        ProfiledQuery(HGQuery<T> query)
+        {
+            this.query = query;
+            setHyperGraph(query.getHyperGraph());
+        }
+
+        public HGSearchResult<T> execute()
+        {
+            return profiledExecute(query);
+        }
+    }
+
+    private class ProfiledKeyBasedQuery<Key, Value> extends KeyBasedQuery<Key, Value>
+    {
+        final KeyBasedQuery<Key, Value> query;
+
+        ProfiledKeyBasedQuery(KeyBasedQuery<Key, Value> query)
+        {
+            this.query = query;
+            setHyperGraph(query.getHyperGraph());
+        }
+
+        public void setKey(Key key)
+        {
+            query.setKey(key);
+        }
+
+        public Key getKey()
+        {
+            return query.getKey();
+        }
+
+        public HGSearchResult<Value> execute()
+        {
+            return profiledExecute(query);
+        }
+    }
+
+    private class ProfiledResult<T> implements HGSearchResult<T>
+    {
+        final HGSearchResult<T> rs;
+
+        ProfiledResult(HGSearchResult<T> rs)
+        {
+            this.rs = rs;
+        }
+
+        public T current()
+        {
+            return rs.current();
+        }
+
+        public boolean isOrdered()
+        {
+            return rs.isOrdered();
+        }
+
+        public boolean hasNext()
+        {
+            long start = System.nanoTime();
+            try { return rs.hasNext(); }
+            finally { elapsed += System.nanoTime() - start; }
+        }
+
+        public T next()
+        {
+            long start = System.nanoTime();
+            try
+            {
+                T x = rs.next();
+                rows++;
+                return x;
+            }
+            finally { elapsed += System.nanoTime() - start; }
+        }
+
+        public boolean hasPrev()
+        {
+            long start = System.nanoTime();
+            try { return rs.hasPrev(); }
+            finally { elapsed += System.nanoTime() - start; }
+        }
+
+        public T prev()
+        {
+            long start = System.nanoTime();
+            try { return rs.prev(); }
+            finally { elapsed += System.nanoTime() - start; }
+        }
+
+        public void remove()
+        {
+            rs.remove();
+        }
+
+        public void close()
+        {
+            long start = System.nanoTime();
+            try { rs.close(); }
+            finally { elapsed += System.nanoTime() - start; }
+        }
+    }
+
+    private class ProfiledRAResult<T> extends ProfiledResult<T> implements HGRandomAccessResult<T>
+    {
+        ProfiledRAResult(HGRandomAccessResult<T> rs)
+        {
+            super(rs);
+        }
+
+        public GotoResult goTo(T value, boolean exactMatch)
+        {
+            long start = System.nanoTime();
+            try
+            {
+                GotoResult result = ((HGRandomAccessResult<T>)rs).goTo(value, exactMatch);
+                goToCalls++;
+                if (result == GotoResult.found)
+                    goToFound++;
+                return result;
+            }
+            finally { elapsed += System.nanoTime() - start; }
+        }
+
+        public void goAfterLast()
+        {
+            long start = System.nanoTime();
+            try { ((HGRandomAccessResult<T>)rs).goAfterLast(); }
+            finally { elapsed += System.nanoTime() - start; }
+        }
+
+        public void goBeforeFirst()
+        {
+            long start = System.nanoTime();
+            try { ((HGRandomAccessResult<T>)rs).goBeforeFirst(); }
+            finally { elapsed += System.nanoTime() - start; }
+        }
+    }
+
+    private <T> HGSearchResult<T> profiledExecute(HGQuery<T> query)
+    {
+        long start = System.nanoTime();
+        try
+        {
+            HGSearchResult<T> rs = query.execute();
+            executions++;
+            return profile(rs);
+        }
+        finally { elapsed += System.nanoTime() - start; }
+    }
+
+    /**
+     * <p>Return a query executing <code>query</code> and profiling its result sets.</p>
+     */
+    public <T> HGQuery<T> profile(HGQuery<T> query)
+    {
+        return new ProfiledQuery<T>(query);
+    }
+
+    /**
+     * <p>Return a key based query executing <code>query</code> and profiling its result sets.</p>
+     */
+    public <Key, Value> KeyBasedQuery<Key, Value> profile(KeyBasedQuery<Key, Value> query)
+    {
+        return new ProfiledKeyBasedQuery<Key, Value>(query);
+    }
+
+    /**
+     * <p>Return a result set reading through <code>rs</code> and counting in this profile.
+     * The returned result set is random access if <code>rs</code> is.</p>
+     */
+    public <T> HGSearchResult<T> profile(HGSearchResult<T> rs)
+    {
+        if (rs instanceof HGRandomAccessResult)
+            return new ProfiledRAResult<T>((HGRandomAccessResult<T>)rs);
+        else
+            return new ProfiledResult<T>(rs);
+    }
+
+    /**
+     * <p>Return the number of times the query was executed.</p>
+     */
+    public long getExecutions()
+    {
+        return executions;
+    }
+
+    /**
+     * <p>Return the number of elements read with <code>next</code> from the results.</p>
+     */
+    public long getRows()
+    {
+        return rows;
+    }
+
+    /**
+     * <p>Return the number of <code>goTo</code> calls made on the results.</p>
+     */
+    public long getGoToCalls()
+    {
+        return goToCalls;
+    }
+
+    /**
+     * <p>Return the number of <code>goTo</code> calls that found the element looked for.</p>
+     */
+    public long getGoToFound()
+    {
+        return goToFound;
+    }
+
+    /**
+     * <p>Return the total time, in nanoseconds, spent executing the query and in calls
+     * on its results.</p>
+     */
+    public long getElapsedNanos()
+    {
+        return elapsed;
+    }
+
+    public String toString()
+    {
+        return "rows=" + rows + ", executions=" + executions + ", goTo=" + goToCalls +
+               " (found " + goToFound + "), time=" + String.format("%.3f", elapsed / 1000000.0) + " ms";
+    }
+}
@@ -61,6 +61,20 @@ public class RABasedPredicate implements HGAtomPredicate, CloseMe
 		return ras.goTo(handle, true) == HGRandomAccessResult.GotoResult.found;
 	}
 	
+	/**
+	 * <p>Return the query producing the result set, <code>null</code> if this predicate
+	 * was created with a result set.</p>
+	 */
+	public HGQuery<?> getQuery()
+	{
+		return query;
+	}
+	
+	public void setQuery(HGQuery<?> query)
+	{
+		this.query = query;
+	}
+	
 	public void close()
 	{
 		if (query != null)
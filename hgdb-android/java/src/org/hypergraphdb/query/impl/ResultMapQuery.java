@@ -45,6 +45,16 @@ public class ResultMapQuery extends HGQuery
 		return mapping;
 	}
 	
+	public void setQuery(HGQuery<?> query)
+	{
+		this.query = query;
+	}
+	
+	public HGQuery<?> getQuery()
+	{
+		return query;
+	}
+	
 	public HGSearchResult execute() 
 	{
 		if (query == null)
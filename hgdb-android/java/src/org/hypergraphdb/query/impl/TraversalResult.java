@@ -11,6 +11,7 @@ import java.util.NoSuchElementException;
 import org.hypergraphdb.HGHandle;
 import org.hypergraphdb.HGSearchResult;
 import org.hypergraphdb.algorithms.HGTraversal;
+import org.hypergraphdb.util.CloseMe;
 import org.hypergraphdb.util.Pair;
 
 /**
@@ -44,7 +45,8 @@ public class TraversalResult implements HGSearchResult<Pair<HGHandle,HGHandle>>
 
 	public void close() 
 	{
-		// nothing to do
+		if (traversal instanceof CloseMe)
+			((CloseMe)traversal).close();
 	}
 
 	public boolean isOrdered() 
@@ -59,4 +59,24 @@ public class UnionQuery extends HGQuery
 		else
 			return new UnionResult(leftResult, rightResult);
 	}
+
+	public HGQuery<?> getLeft()
+	{
+		return left;
+	}
+
+	public void setLeft(HGQuery<?> left)
+	{
+		this.left = left;
+	}
+
+	public HGQuery<?> getRight()
+	{
+		return right;
+	}
+
+	public void setRight(HGQuery<?> right)
+	{
+		this.right = right;
+	}
 }
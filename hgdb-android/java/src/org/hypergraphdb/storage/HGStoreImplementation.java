@@ -18,6 +18,26 @@ public interface HGStoreImplementation
     
     HGPersistentHandle store(HGPersistentHandle handle, HGPersistentHandle [] link);
     HGPersistentHandle [] getLink(HGPersistentHandle handle);
+    
+    /**
+     * <p>Read the link stored at <code>handle</code> into <code>result</code> without 
+     * decoding its handles. Return <code>false</code> if there is no such link.</p>
+     */
+    boolean getLink(HGPersistentHandle handle, PackedHandleArray result);
+    
+    /**
+     * <p>Read several links through a single cursor, <code>handles</code> being sorted in
+     * storage order. <code>result[i]</code> is filled with the link stored at 
+     * <code>handles[i]</code>, or left empty if there is no such link.</p>
+     */
+    void getLinks(HGPersistentHandle [] handles, PackedHandleArray [] result);
+
+    /**
+     * <p>Read all links, passing each to <code>visitor</code>. Links are read in the order
+     * that is fastest for the implementation, not necessarily in storage order, and outside
+     * of any transaction: links written during the scan may or may not be seen.</p>
+     */
+    void scanLinks(LinkVisitor visitor);
     void removeLink(HGPersistentHandle handle);
     boolean containsLink(HGPersistentHandle handle);
     
@@ -27,11 +47,31 @@ public interface HGStoreImplementation
     boolean containsData(HGPersistentHandle handle);
     
     HGRandomAccessResult<HGPersistentHandle> getIncidenceResultSet(HGPersistentHandle handle);
+    
+    /**
+     * <p>Read the whole incidence set of <code>handle</code>, in storage order, into 
+     * <code>result</code> without decoding its handles.</p>
+     */
+    void getIncidenceSet(HGPersistentHandle handle, PackedHandleArray result);
+    
+    /**
+     * <p>Read the incidence sets of several atoms through a single cursor, <code>handles</code>
+     * being sorted in storage order. <code>result[i]</code> is filled with the incidence set
+     * of <code>handles[i]</code>.</p>
+     */
+    void getIncidenceSets(HGPersistentHandle [] handles, PackedHandleArray [] result);
     void removeIncidenceSet(HGPersistentHandle handle);
     long getIncidenceSetCardinality(HGPersistentHandle handle);
     void addIncidenceLink(HGPersistentHandle handle, HGPersistentHandle newLink);
     void removeIncidenceLink(HGPersistentHandle handle, HGPersistentHandle oldLink);
     
+    /**
+     * <p>Apply all writes accumulated in a {@link HGWriteBatch} as part of the current
+     * transaction, or as a single storage transaction if there is no current one. The 
+     * batch keeps its content, but implementations may reorder it and drop duplicate
+     * incidence entries.</p> 
+     */
+    void storeBatch(HGWriteBatch batch);
     
     <KeyType, ValueType> HGIndex<KeyType, ValueType> getIndex(String name, 
                                                               ByteArrayConverter<KeyType> keyConverter, 
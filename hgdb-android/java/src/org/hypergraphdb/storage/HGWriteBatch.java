@@ -0,0 +1,184 @@
+/*
+ * This file is part of the HyperGraphDB source distribution. This is copyrighted
+ * software. For permitted uses, licensing options and redistribution, please see
+ * the LicensingInformation file at the root level of the distribution.
+ *
+ * Copyright (c) 2005-2010 Kobrix Software, Inc.  All rights reserved.
+ */
+package org.hypergraphdb.storage;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.hypergraphdb.HGPersistentHandle;
+
+/**
+ * <p>
+ * A <code>HGWriteBatch</code> accumulates low-level storage writes - link records, raw
+ * data records and incidence set entries - so that they can be applied to a
+ * {@link HGStoreImplementation} in a single pass via its <code>storeBatch</code> method.
+ * Storage implementations are free to reorder the writes in the batch (e.g. by sorting them
+ * by key) so no ordering is guaranteed between the records of a batch.
+ * </p>
+ *
+ * <p>
+ * A batch is normally attached to the current thread with {@link HGStore#attachWriteBatch(HGWriteBatch)}
+ * in which case all writes through the <code>HGStore</code> are recorded in the batch
+ * instead of going to storage directly. The batch is flushed automatically when it
+ * reaches its <code>flushThreshold</code> and when it is detached. This is what
+ * <code>HyperGraph.addAll</code> does. A batch is not thread-safe.
+ * </p>
+ */
+public class HGWriteBatch
+{
+    /**
+     * The default number of records a batch will hold before it is flushed
+     * by the <code>HGStore</code> it is attached to.
+     */
+    public static final int DEFAULT_FLUSH_THRESHOLD = 10000;
+
+    private int flushThreshold;
+    private Map<HGPersistentHandle, HGPersistentHandle[]> links =
+        new HashMap<HGPersistentHandle, HGPersistentHandle[]>();
+    private Map<HGPersistentHandle, byte[]> data = new HashMap<HGPersistentHandle, byte[]>();
+    private IncidenceBuffer incidenceLinks = null;
+
+    public HGWriteBatch()
+    {
+        this(DEFAULT_FLUSH_THRESHOLD);
+    }
+
+    /**
+     * @param flushThreshold The number of records after which an attached batch is
+     * written to storage.
+     */
+    public HGWriteBatch(int flushThreshold)
+    {
+        if (flushThreshold <= 0)
+            throw new IllegalArgumentException("Write batch flush threshold must be positive.");
+        this.flushThreshold = flushThreshold;
+    }
+
+    /**
+     * <p>Record a link to be stored under the given handle. A later link or removal for the
+     * same handle replaces this one.</p>
+     */
+    public HGPersistentHandle store(HGPersistentHandle handle, HGPersistentHandle [] link)
+    {
+        links.put(handle, link);
+        return handle;
+    }
+
+    /**
+     * <p>Record a raw data buffer to be stored under the given handle. A later value or removal
+     * for the same handle replaces this one.</p>
+     */
+    public HGPersistentHandle store(HGPersistentHandle handle, byte [] value)
+    {
+        data.put(handle, value);
+        return handle;
+    }
+
+    /**
+     * <p>Record a new incidence set entry: <code>link</code> points to <code>target</code>.</p>
+     */
+    public void addIncidenceLink(HGPersistentHandle target, HGPersistentHandle link)
+    {
+        if (incidenceLinks == null)
+            incidenceLinks = new IncidenceBuffer(target.toByteArray().length, 
+                                                 Math.min(flushThreshold, 1024));
+        incidenceLinks.add(target, link);
+    }
+
+    /**
+     * <p>Return the pending link for the given handle or <code>null</code> if there isn't one.</p>
+     */
+    public HGPersistentHandle [] getLink(HGPersistentHandle handle)
+    {
+        return links.get(handle);
+    }
+
+    /**
+     * <p>Return the pending data for the given handle or <code>null</code> if there isn't one.</p>
+     */
+    public byte [] getData(HGPersistentHandle handle)
+    {
+        return data.get(handle);
+    }
+
+    /**
+     * <p>Drop a pending link record, if any. Return <code>true</code> if there was one.</p>
+     */
+    public boolean removeLink(HGPersistentHandle handle)
+    {
+        return links.remove(handle) != null;
+    }
+
+    /**
+     * <p>Drop a pending data record, if any. Return <code>true</code> if there was one.</p>
+     */
+    public boolean removeData(HGPersistentHandle handle)
+    {
+        return data.remove(handle) != null;
+    }
+
+    /**
+     * <p>Drop all pending incidence entries of <code>link</code> in the incidence
+     * set of <code>target</code>.</p>
+     */
+    public void removeIncidenceLink(HGPersistentHandle target, HGPersistentHandle link)
+    {
+        if (incidenceLinks != null)
+            incidenceLinks.remove(target, link);
+    }
+
+    public Map<HGPersistentHandle, HGPersistentHandle[]> getLinks()
+    {
+        return links;
+    }
+
+    public Map<HGPersistentHandle, byte[]> getData()
+    {
+        return data;
+    }
+
+    /**
+     * <p>Return the pending incidence entries packed as (target, link) pairs or 
+     * <code>null</code> if none were ever added.</p>
+     */
+    public IncidenceBuffer getIncidenceLinks()
+    {
+        return incidenceLinks;
+    }
+
+    public int size()
+    {
+        return links.size() + data.size() + (incidenceLinks == null ? 0 : incidenceLinks.size());
+    }
+
+    public boolean isEmpty()
+    {
+        return size() == 0;
+    }
+
+    public int getFlushThreshold()
+    {
+        return flushThreshold;
+    }
+
+    /**
+     * <p>Return <code>true</code> if the batch has reached its flush threshold.</p>
+     */
+    public boolean isFull()
+    {
+        return size() >= flushThreshold;
+    }
+
+    public void clear()
+    {
+        links.clear();
+        data.clear();
+        if (incidenceLinks != null)
+            incidenceLinks.clear();
+    }
+}
@@ -0,0 +1,215 @@
+/*
+ * This file is part of the HyperGraphDB source distribution. This is copyrighted
+ * software. For permitted uses, licensing options and redistribution, please see
+ * the LicensingInformation file at the root level of the distribution.
+ *
+ * Copyright (c) 2005-2010 Kobrix Software, Inc.  All rights reserved.
+ */
+package org.hypergraphdb.storage;
+
+import org.hypergraphdb.HGPersistentHandle;
+
+/**
+ * <p>
+ * A growable buffer of incidence set entries, each entry being a (target, link) pair of
+ * persistent handles. Entries are packed back to back in a single <code>byte[]</code>
+ * as <code>target bytes | link bytes</code> so that accumulating millions of them costs
+ * no per-entry objects. The buffer can be sorted in place in the natural storage order
+ * (unsigned lexicographic on target, then link) so that a storage implementation
+ * can write it out sequentially.
+ * </p>
+ *
+ * <p>
+ * All handles added to a buffer must have the same <code>byte[]</code> size, which is the
+ * case for handles produced by a single {@link org.hypergraphdb.HGHandleFactory}.
+ * </p>
+ */
+public class IncidenceBuffer
+{
+    private static final int INSERTION_SORT_THRESHOLD = 8;
+
+    private int handleSize;
+    private int recordSize;
+    private byte [] buffer;
+    private int count = 0;
+    private boolean sorted = true;
+
+    /**
+     * @param handleSize The size in bytes of the handles that will be stored.
+     * @param initialCapacity The number of entries to pre-allocate room for.
+     */
+    public IncidenceBuffer(int handleSize, int initialCapacity)
+    {
+        this.handleSize = handleSize;
+        this.recordSize = 2*handleSize;
+        this.buffer = new byte[Math.max(1, initialCapacity)*recordSize];
+    }
+
+    private void ensureCapacity(int entries)
+    {
+        if (entries*recordSize > buffer.length)
+        {
+            byte [] newBuffer = new byte[Math.max(entries, 2*(buffer.length / recordSize))*recordSize];
+            System.arraycopy(buffer, 0, newBuffer, 0, count*recordSize);
+            buffer = newBuffer;
+        }
+    }
+
+    private static int compare(byte [] A, int i, byte [] B, int j, int size)
+    {
+        for (int end = i + size; i < end; i++, j++)
+        {
+            int c = (A[i] & 0xFF) - (B[j] & 0xFF);
+            if (c != 0)
+                return c;
+        }
+        return 0;
+    }
+
+    private int compareRecords(int i, int j)
+    {
+        return compare(buffer, i*recordSize, buffer, j*recordSize, recordSize);
+    }
+
+    private void swap(int i, int j, byte [] tmp)
+    {
+        int oi = i*recordSize, oj = j*recordSize;
+        System.arraycopy(buffer, oi, tmp, 0, recordSize);
+        System.arraycopy(buffer, oj, buffer, oi, recordSize);
+        System.arraycopy(tmp, 0, buffer, oj, recordSize);
+    }
+
+    private void sort(int lo, int hi, byte [] tmp)
+    {
+        while (hi - lo > INSERTION_SORT_THRESHOLD)
+        {
+            int mid = (lo + hi) >>> 1;
+            // median of three moved to 'lo' serves as the pivot
+            if (compareRecords(mid, lo) < 0) swap(mid, lo, tmp);
+            if (compareRecords(hi, lo) < 0) swap(hi, lo, tmp);
+            if (compareRecords(hi, mid) < 0) swap(hi, mid, tmp);
+            swap(lo, mid, tmp);
+            int i = lo, j = hi + 1;
+            while (true)
+            {
+                while (compareRecords(++i, lo) < 0 && i < hi);
+                while (compareRecords(--j, lo) > 0);
+                if (i >= j)
+                    break;
+                swap(i, j, tmp);
+            }
+            swap(lo, j, tmp);
+            // recurse into the smaller half to bound stack depth
+            if (j - lo < hi - j)
+            {
+                sort(lo, j - 1, tmp);
+                lo = j + 1;
+            }
+            else
+            {
+                sort(j + 1, hi, tmp);
+                hi = j - 1;
+            }
+        }
+        for (int i = lo + 1; i <= hi; i++)
+            for (int j = i; j > lo && compareRecords(j, j - 1) < 0; j--)
+                swap(j, j - 1, tmp);
+    }
+
+    /**
+     * <p>Append an entry stating that <code>link</code> is in the incidence set
+     * of <code>target</code>.</p>
+     */
+    public void add(HGPersistentHandle target, HGPersistentHandle link)
+    {
+        ensureCapacity(count + 1);
+        int offset = count*recordSize;
+        PackedHandleArray.writeHandle(target, buffer, offset, handleSize);
+        PackedHandleArray.writeHandle(link, buffer, offset + handleSize, handleSize);
+        if (sorted && count > 0 && compareRecords(count - 1, count) > 0)
+            sorted = false;
+        count++;
+    }
+
+    /**
+     * <p>Remove all occurrences of the given entry. Return <code>true</code> if
+     * at least one was found.</p>
+     */
+    public boolean remove(HGPersistentHandle target, HGPersistentHandle link)
+    {
+        byte [] t = target.toByteArray(), l = link.toByteArray();
+        int j = 0;
+        for (int i = 0; i < count; i++)
+        {
+            int offset = i*recordSize;
+            if (compare(buffer, offset, t, 0, handleSize) == 0 &&
+                compare(buffer, offset + handleSize, l, 0, handleSize) == 0)
+                continue;
+            if (i != j)
+                System.arraycopy(buffer, offset, buffer, j*recordSize, recordSize);
+            j++;
+        }
+        boolean removed = j < count;
+        count = j;
+        return removed;
+    }
+
+    /**
+     * <p>Sort the entries by (target, link) in unsigned byte order and drop duplicates.</p>
+     */
+    public void sort()
+    {
+        if (!sorted)
+        {
+            sort(0, count - 1, new byte[recordSize]);
+            sorted = true;
+        }
+        int j = 0;
+        for (int i = 0; i < count; i++)
+        {
+            if (j > 0 && compareRecords(i, j - 1) == 0)
+                continue;
+            if (i != j)
+                System.arraycopy(buffer, i*recordSize, buffer, j*recordSize, recordSize);
+            j++;
+        }
+        count = j;
+    }
+
+    /**
+     * <p>Return the underlying buffer. The target of the entry at position <code>i</code>
+     * starts at offset <code>i*getRecordSize()</code> and its link at offset
+     * <code>i*getRecordSize() + getHandleSize()</code>. Only the first <code>size()</code>
+     * entries are meaningful.</p>
+     */
+    public byte [] getBuffer()
+    {
+        return buffer;
+    }
+
+    public int getHandleSize()
+    {
+        return handleSize;
+    }
+
+    public int getRecordSize()
+    {
+        return recordSize;
+    }
+
+    public int size()
+    {
+        return count;
+    }
+
+    public boolean isEmpty()
+    {
+        return count == 0;
+    }
+
+    public void clear()
+    {
+        count = 0;
+        sorted = true;
+    }
+}
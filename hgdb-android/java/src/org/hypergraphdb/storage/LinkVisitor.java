@@ -0,0 +1,24 @@
+/*
+ * This file is part of the HyperGraphDB source distribution. This is copyrighted
+ * software. For permitted uses, licensing options and redistribution, please see
+ * the LicensingInformation file at the root level of the distribution.
+ *
+ * Copyright (c) 2005-2010 Kobrix Software, Inc.  All rights reserved.
+ */
+package org.hypergraphdb.storage;
+
+/**
+ * <p>
+ * Receives the links read by {@link HGStoreImplementation#scanLinks(LinkVisitor)}, one at
+ * a time. The arrays passed in are reused from one call to the next and are only valid
+ * during the call.
+ * </p>
+ */
+public interface LinkVisitor
+{
+    /**
+     * @param handle An array holding the single handle the link is stored at.
+     * @param link The handles of the link.
+     */
+    void visit(PackedHandleArray handle, PackedHandleArray link);
+}
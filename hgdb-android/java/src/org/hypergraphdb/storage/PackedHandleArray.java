@@ -0,0 +1,262 @@
+/*
+ * This file is part of the HyperGraphDB source distribution. This is copyrighted
+ * software. For permitted uses, licensing options and redistribution, please see
+ * the LicensingInformation file at the root level of the distribution.
+ *
+ * Copyright (c) 2005-2010 Kobrix Software, Inc.  All rights reserved.
+ */
+package org.hypergraphdb.storage;
+
+import org.hypergraphdb.HGHandleFactory;
+import org.hypergraphdb.HGPersistentHandle;
+import org.hypergraphdb.HyperGraph;
+import org.hypergraphdb.handle.LongPairPersistentHandle;
+
+/**
+ * <p>
+ * A flyweight sequence of persistent handles packed back to back in a single 
+ * <code>byte[]</code>, exactly as they are laid out in storage. A <code>PackedHandleArray</code>
+ * either wraps a region of some existing buffer (e.g. a link record freshly read from storage) 
+ * or accumulates handles in a buffer of its own that grows as needed and is kept between uses.
+ * Handles are decoded lazily: only {@link #get(int)} and {@link #toArray()} create
+ * <code>HGPersistentHandle</code> objects, while comparisons and searches work directly on the
+ * bytes. 
+ * </p>
+ *
+ * <p>
+ * The intended use is to keep one instance around and pass it repeatedly to the 
+ * <code>HGStore</code> methods that fill it, so that walking over a link's targets or 
+ * an incidence set does not create a handle object per element unless the caller needs one.
+ * A <code>PackedHandleArray</code> is not thread-safe and its content is only valid until the
+ * next call that refills it.
+ * </p>
+ */
+public class PackedHandleArray
+{
+    private HGHandleFactory handleFactory;
+    private int handleSize;
+    private byte [] buffer;
+    private int offset = 0;
+    private int count = 0;
+    private boolean owned = false;
+
+    public PackedHandleArray(HGHandleFactory handleFactory)
+    {
+        this.handleFactory = handleFactory;
+        this.handleSize = handleFactory.nullHandle().toByteArray().length;
+    }
+
+    /**
+     * <p>Write the <code>byte[]</code> form of <code>handle</code> into <code>dest</code>,
+     * without going through <code>toByteArray</code> for handles that can write themselves.</p>
+     */
+    public static void writeHandle(HGPersistentHandle handle, byte [] dest, int offset, int handleSize)
+    {
+        if (handle instanceof LongPairPersistentHandle)
+            ((LongPairPersistentHandle)handle).writeTo(dest, offset);
+        else
+            System.arraycopy(handle.toByteArray(), 0, dest, offset, handleSize);
+    }
+    
+    /**
+     * <p>Pack the given handles into a single freshly allocated <code>byte[]</code>.</p>
+     */
+    public static byte [] pack(HGPersistentHandle [] handles, int handleSize)
+    {
+        byte [] result = new byte[handles.length*handleSize];
+        for (int i = 0; i < handles.length; i++)
+            writeHandle(handles[i], result, i*handleSize, handleSize);
+        return result;
+    }
+
+    /**
+     * <p>Make this array a view of <code>length</code> bytes of <code>data</code> starting
+     * at <code>offset</code>. The data is not copied so it must not be modified while
+     * the view is in use.</p>
+     */
+    public void wrap(byte [] data, int offset, int length)
+    {
+        if (length % handleSize != 0)
+            throw new IllegalArgumentException("Packed handle data length " + length + 
+                                               " is not a multiple of the handle size " + handleSize);
+        this.buffer = data;
+        this.offset = offset;
+        this.count = length / handleSize;
+        this.owned = false;
+    }
+
+    /**
+     * <p>Make this array a copy of the given handles.</p>
+     */
+    public void wrap(HGPersistentHandle [] handles)
+    {
+        clear();
+        for (HGPersistentHandle h : handles)
+            append(h);
+    }
+
+    /**
+     * <p>Remove all handles. If the array has a buffer of its own, it is kept for reuse.</p>
+     */
+    public void clear()
+    {
+        if (!owned)
+            buffer = null;
+        offset = 0;
+        count = 0;
+    }
+
+    private void ensureOwnedCapacity(int entries)
+    {
+        if (!owned)
+        {
+            byte [] newBuffer = new byte[Math.max(entries, Math.max(count, 8))*handleSize];
+            if (count > 0)
+                System.arraycopy(buffer, offset, newBuffer, 0, count*handleSize);
+            buffer = newBuffer;
+            offset = 0;
+            owned = true;
+        }
+        else if (entries*handleSize > buffer.length)
+        {
+            byte [] newBuffer = new byte[Math.max(entries, 2*count)*handleSize];
+            System.arraycopy(buffer, 0, newBuffer, 0, count*handleSize);
+            buffer = newBuffer;
+        }
+    }
+
+    /**
+     * <p>Append the handle whose bytes start at <code>offset</code> in <code>data</code>.</p>
+     */
+    public void append(byte [] data, int offset)
+    {
+        ensureOwnedCapacity(count + 1);
+        System.arraycopy(data, offset, buffer, count*handleSize, handleSize);
+        count++;
+    }
+
+    public void append(HGPersistentHandle handle)
+    {
+        ensureOwnedCapacity(count + 1);
+        writeHandle(handle, buffer, count*handleSize, handleSize);
+        count++;
+    }
+
+    public int size()
+    {
+        return count;
+    }
+
+    public boolean isEmpty()
+    {
+        return count == 0;
+    }
+
+    public int getHandleSize()
+    {
+        return handleSize;
+    }
+
+    /**
+     * <p>Return the buffer holding the handles. The <code>i</code>-th handle starts at
+     * <code>getOffset() + i*getHandleSize()</code>.</p>
+     */
+    public byte [] getBuffer()
+    {
+        return buffer;
+    }
+
+    public int getOffset()
+    {
+        return offset;
+    }
+
+    /**
+     * <p>Decode and return the handle at position <code>i</code>. A new handle object 
+     * is created at each call.</p>
+     */
+    public HGPersistentHandle get(int i)
+    {
+        if (i < 0 || i >= count)
+            throw new IndexOutOfBoundsException("Index " + i + " out of bounds " + count);
+        return handleFactory.makeHandle(buffer, offset + i*handleSize);
+    }
+
+    /**
+     * <p>Copy the bytes of the handle at position <code>i</code> into <code>dest</code>.</p>
+     */
+    public void copyTo(int i, byte [] dest, int destOffset)
+    {
+        System.arraycopy(buffer, offset + i*handleSize, dest, destOffset, handleSize);
+    }
+
+    /**
+     * <p>Compare, in storage (unsigned byte) order, the handle at position <code>i</code> with
+     * the handle whose bytes start at <code>keyOffset</code> in <code>key</code>.</p>
+     */
+    public int compareAt(int i, byte [] key, int keyOffset)
+    {
+        int start = offset + i*handleSize;
+        for (int j = 0; j < handleSize; j++)
+        {
+            int c = (buffer[start + j] & 0xFF) - (key[keyOffset + j] & 0xFF);
+            if (c != 0)
+                return c;
+        }
+        return 0;
+    }
+
+    public boolean equalsAt(int i, HGPersistentHandle handle)
+    {
+        return compareAt(i, handle.toByteArray(), 0) == 0;
+    }
+
+    /**
+     * <p>Return the position of the first occurrence of <code>handle</code> or -1 if it
+     * is not in the array.</p>
+     */
+    public int indexOf(HGPersistentHandle handle)
+    {
+        byte [] key = handle.toByteArray();
+        for (int i = 0; i < count; i++)
+            if (compareAt(i, key, 0) == 0)
+                return i;
+        return -1;
+    }
+
+    /**
+     * <p>Binary search for <code>handle</code> assuming the array is sorted in
+     * storage order, as incidence sets are. Return the position of the handle if
+     * found, or <code>-(insertion point) - 1</code> otherwise.</p>
+     */
+    public int binarySearch(HGPersistentHandle handle)
+    {
+        byte [] key = handle.toByteArray();
+        int lo = 0, hi = count - 1;
+        while (lo <= hi)
+        {
+            int mid = (lo + hi) >>> 1;
+            int c = compareAt(mid, key, 0);
+            if (c < 0)
+                lo = mid + 1;
+            else if (c > 0)
+                hi = mid - 1;
+            else
+                return mid;
+        }
+        return -(lo + 1);
+    }
+
+    /**
+     * <p>Decode all handles into a new array.</p>
+     */
+    public HGPersistentHandle [] toArray()
+    {
+        if (count == 0)
+            return HyperGraph.EMPTY_PERSISTENT_HANDLE_SET;
+        HGPersistentHandle [] result = new HGPersistentHandle[count];
+        for (int i = 0; i < count; i++)
+            result[i] = handleFactory.makeHandle(buffer, offset + i*handleSize);
+        return result;
+    }
+}
@@ -0,0 +1,1031 @@
+/*
+ * This file is part of the HyperGraphDB source distribution. This is copyrighted
+ * software. For permitted uses, licensing options and redistribution, please see
+ * the LicensingInformation file at the root level of the distribution.
+ *
+ * Copyright (c) 2005-2010 Kobrix Software, Inc.  All rights reserved.
+ */
+package org.hypergraphdb.storage;
+
+import java.lang.reflect.Array;
+import java.util.AbstractSet;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.SortedSet;
+
+import org.hypergraphdb.HGHandle;
+import org.hypergraphdb.HGHandleFactory;
+import org.hypergraphdb.HGPersistentHandle;
+import org.hypergraphdb.HGRandomAccessResult;
+import org.hypergraphdb.handle.HGLiveHandle;
+import org.hypergraphdb.handle.LongPairHandleFactory;
+import org.hypergraphdb.handle.LongPairPersistentHandle;
+import org.hypergraphdb.util.CloneMe;
+import org.hypergraphdb.util.HGSortedSet;
+
+/**
+ * <p>
+ * A sorted set of persistent handles stored as primitive <code>long</code>s instead of
+ * handle objects: one <code>long</code> per handle for handles of up to 8 bytes and two
+ * for handles of up to 16 bytes. Elements are kept in storage (unsigned byte) order, the
+ * same order as incidence sets read from storage, and lookups as well as the
+ * <code>goTo</code> of the {@link HGRandomAccessResult} are binary searches over the packed
+ * form. Handle objects are only created when elements are returned to the caller.
+ * </p>
+ *
+ * <p>
+ * Large sets can be further compressed with {@link #compact()}: elements are grouped in
+ * blocks of {@link #BLOCK_SIZE}, the first element of each block is kept as is so that
+ * blocks can be binary searched and the remaining ones are stored as variable length
+ * deltas from their predecessor. This pays off when handles are allocated sequentially
+ * (e.g. with the long or sequential UUID handle factories) and hardly at all with random
+ * UUIDs, so the compressed form is only kept when it actually saves memory. A compressed
+ * set goes back to the plain form the first time it is modified.
+ * </p>
+ *
+ * <p>
+ * Like the <code>ArrayBasedSet</code> used for cached incidence sets with a dummy lock,
+ * this class does no locking of its own: it is meant to be wrapped in a transactional
+ * set that copies it on write. Copies share the compressed form, which is never
+ * modified in place.
+ * </p>
+ */
+public class PackedHandleSet implements HGSortedSet<HGHandle>, CloneMe
+{
+    /**
+     * The number of elements per block of a compressed set.
+     */
+    public static final int BLOCK_SIZE = 64;
+
+    /**
+     * Sets smaller than this are never compressed.
+     */
+    public static final int COMPRESS_THRESHOLD = 256;
+
+    private final HGHandleFactory handleFactory;
+    private final int handleSize;
+    private final int width;
+    private final boolean longPairHandles;
+
+    // plain form: 'width' longs per element, null when the set is compressed
+    private long [] data;
+    private int size = 0;
+
+    // compressed form: the first element of each block and the start of the
+    // deltas of each block in 'deltas'
+    private long [] heads;
+    private int [] blockOffsets;
+    private byte [] deltas;
+
+    /**
+     * <p>Return <code>true</code> if handles of the given size in bytes can be
+     * packed in a <code>PackedHandleSet</code>.</p>
+     */
+    public static boolean supports(int handleSize)
+    {
+        return handleSize > 0 && handleSize <= 16;
+    }
+
+    public PackedHandleSet(HGHandleFactory handleFactory)
+    {
+        this(handleFactory, 8);
+    }
+
+    public PackedHandleSet(HGHandleFactory handleFactory, int capacity)
+    {
+        this.handleFactory = handleFactory;
+        this.handleSize = handleFactory.nullHandle().toByteArray().length;
+        if (!supports(handleSize))
+            throw new IllegalArgumentException("Handles of " + handleSize + " bytes can't be packed in longs.");
+        this.width = handleSize > 8 ? 2 : 1;
+        this.longPairHandles = handleSize == LongPairPersistentHandle.SIZE &&
+                               handleFactory instanceof LongPairHandleFactory;
+        this.data = new long[Math.max(capacity, 1)*width];
+    }
+
+    /**
+     * <p>
+     * Create a set holding the handles of <code>packed</code>, typically an incidence set
+     * freshly read from storage. If they are already in storage order, as is the case for
+     * incidence sets, they are copied in one pass.
+     * </p>
+     */
+    public static PackedHandleSet fromPacked(PackedHandleArray packed, HGHandleFactory handleFactory)
+    {
+        PackedHandleSet set = new PackedHandleSet(handleFactory, packed.size());
+        if (packed.getHandleSize() != set.handleSize)
+            throw new IllegalArgumentException("Handle size mismatch: " + packed.getHandleSize() +
+                                               " vs " + set.handleSize);
+        byte [] buffer = packed.getBuffer();
+        int offset = packed.getOffset();
+        long [] key = new long[2];
+        boolean sorted = true;
+        for (int i = 0; i < packed.size(); i++)
+        {
+            set.readKey(buffer, offset + i*set.handleSize, key);
+            if (sorted && set.size > 0 && set.compareAt(set.size - 1, key[0], key[1]) >= 0)
+                sorted = false;
+            if (sorted)
+            {
+                set.data[set.size*set.width] = key[0];
+                if (set.width == 2)
+                    set.data[set.size*2 + 1] = key[1];
+                set.size++;
+            }
+            else
+                set.insert(key[0], key[1]);
+        }
+        return set;
+    }
+
+    private static long readLong(byte [] buffer, int offset, int length)
+    {
+        long x = 0;
+        for (int i = 0; i < length; i++)
+            x = (x << 8) | (buffer[offset + i] & 0xFFL);
+        return x;
+    }
+
+    private static void writeLong(long x, byte [] buffer, int offset, int length)
+    {
+        for (int i = length - 1; i >= 0; i--)
+        {
+            buffer[offset + i] = (byte)x;
+            x >>>= 8;
+        }
+    }
+
+    // The handle bytes read as an unsigned big-endian number: hi holds all bytes but
+    // the last 8 when there are more than 8, lo holds the last 8.
+    private void readKey(byte [] buffer, int offset, long [] key)
+    {
+        if (width == 1)
+        {
+            key[0] = readLong(buffer, offset, handleSize);
+            key[1] = 0;
+        }
+        else
+        {
+            key[0] = readLong(buffer, offset, handleSize - 8);
+            key[1] = readLong(buffer, offset + handleSize - 8, 8);
+        }
+    }
+
+    private boolean toKey(Object x, long [] key)
+    {
+        if (x instanceof HGLiveHandle)
+            x = ((HGLiveHandle)x).getPersistent();
+        if (longPairHandles && x instanceof LongPairPersistentHandle)
+        {
+            key[0] = ((LongPairPersistentHandle)x).getMostSignificantBits();
+            key[1] = ((LongPairPersistentHandle)x).getLeastSignificantBits();
+            return true;
+        }
+        else if (x instanceof HGPersistentHandle)
+        {
+            byte [] bytes = ((HGPersistentHandle)x).toByteArray();
+            if (bytes.length != handleSize)
+                return false;
+            readKey(bytes, 0, key);
+            return true;
+        }
+        else
+            return false;
+    }
+
+    private HGPersistentHandle toHandle(long hi, long lo)
+    {
+        if (longPairHandles)
+            return new LongPairPersistentHandle(hi, lo);
+        byte [] bytes = new byte[handleSize];
+        if (width == 1)
+            writeLong(hi, bytes, 0, handleSize);
+        else
+        {
+            writeLong(hi, bytes, 0, handleSize - 8);
+            writeLong(lo, bytes, handleSize - 8, 8);
+        }
+        return handleFactory.makeHandle(bytes, 0);
+    }
+
+    private static int compareUnsigned(long a, long b)
+    {
+        // flipping the sign bit makes signed comparison behave as unsigned
+        a ^= Long.MIN_VALUE;
+        b ^= Long.MIN_VALUE;
+        return a < b ? -1 : (a > b ? 1 : 0);
+    }
+
+    private static int compare(long hi1, long lo1, long hi2, long lo2)
+    {
+        int c = compareUnsigned(hi1, hi2);
+        return c != 0 ? c : compareUnsigned(lo1, lo2);
+    }
+
+    private int compareAt(int i, long hi, long lo)
+    {
+        return width == 1 ? compareUnsigned(data[i], hi) : compare(data[2*i], data[2*i + 1], hi, lo);
+    }
+
+    // Binary search in the plain form.
+    private int lookup(long hi, long lo)
+    {
+        return lookup(hi, lo, 0, size - 1);
+    }
+
+    // Binary search in the plain form between positions low and high inclusive.
+    private int lookup(long hi, long lo, int low, int high)
+    {
+        while (low <= high)
+        {
+            int mid = (low + high) >>> 1;
+            int c = compareAt(mid, hi, lo);
+            if (c < 0)
+                low = mid + 1;
+            else if (c > 0)
+                high = mid - 1;
+            else
+                return mid;
+        }
+        return -(low + 1);
+    }
+
+    // Exponential search in the plain form for a key greater than the element at
+    // position from: probe 1, 2, 4... positions ahead, then binary search the last gap.
+    private int gallop(long hi, long lo, int from)
+    {
+        int bound = 1;
+        while (from + bound < size && compareAt(from + bound, hi, lo) < 0)
+            bound <<= 1;
+        return lookup(hi, lo, from + (bound >> 1) + 1, Math.min(from + bound, size - 1));
+    }
+
+    // -------------------------------------------------------------------------
+    // Compressed form
+    // -------------------------------------------------------------------------
+
+    private static int writeVarLong(long x, byte [] buffer, int offset)
+    {
+        while ((x & ~0x7FL) != 0)
+        {
+            buffer[offset++] = (byte)((x & 0x7F) | 0x80);
+            x >>>= 7;
+        }
+        buffer[offset++] = (byte)x;
+        return offset;
+    }
+
+    private int blockCount()
+    {
+        return (size + BLOCK_SIZE - 1) / BLOCK_SIZE;
+    }
+
+    /**
+     * <p>Decode block <code>b</code> of the compressed form into <code>dest</code>,
+     * <code>width</code> longs per element, and return the number of elements in the block.</p>
+     */
+    private int decodeBlock(int b, long [] dest)
+    {
+        int n = Math.min(BLOCK_SIZE, size - b*BLOCK_SIZE);
+        long hi = heads[b*width], lo = width == 2 ? heads[b*2 + 1] : 0;
+        dest[0] = hi;
+        if (width == 2)
+            dest[1] = lo;
+        int p = blockOffsets[b];
+        for (int i = 1; i < n; i++)
+        {
+            // inline varint decoding, this is the hot loop of lookups in compressed sets
+            long d = 0;
+            int shift = 0;
+            byte x;
+            do
+            {
+                x = deltas[p++];
+                d |= (long)(x & 0x7F) << shift;
+                shift += 7;
+            } while (x < 0);
+            if (width == 1)
+                dest[i] = hi += d;
+            else
+            {
+                long l = 0;
+                shift = 0;
+                do
+                {
+                    x = deltas[p++];
+                    l |= (long)(x & 0x7F) << shift;
+                    shift += 7;
+                } while (x < 0);
+                if (d == 0)
+                    lo += l;
+                else
+                {
+                    hi += d;
+                    lo = l;
+                }
+                dest[2*i] = hi;
+                dest[2*i + 1] = lo;
+            }
+        }
+        return n;
+    }
+
+    // Search block b, whose head is smaller than the key, decoding the deltas only as
+    // far as the key and without a buffer. Same result as lookup.
+    private int scanBlock(int b, long hi, long lo)
+    {
+        int n = Math.min(BLOCK_SIZE, size - b*BLOCK_SIZE);
+        long h = heads[b*width], l = width == 2 ? heads[b*2 + 1] : 0;
+        int p = blockOffsets[b];
+        for (int i = 1; i < n; i++)
+        {
+            long d = 0;
+            int shift = 0;
+            byte x;
+            do
+            {
+                x = deltas[p++];
+                d |= (long)(x & 0x7F) << shift;
+                shift += 7;
+            } while (x < 0);
+            if (width == 1)
+                h += d;
+            else
+            {
+                long dl = 0;
+                shift = 0;
+                do
+                {
+                    x = deltas[p++];
+                    dl |= (long)(x & 0x7F) << shift;
+                    shift += 7;
+                } while (x < 0);
+                if (d == 0)
+                    l += dl;
+                else
+                {
+                    h += d;
+                    l = dl;
+                }
+            }
+            int c = width == 1 ? compareUnsigned(h, hi) : compare(h, l, hi, lo);
+            if (c == 0)
+                return b*BLOCK_SIZE + i;
+            else if (c > 0)
+                return -(b*BLOCK_SIZE + i + 1);
+        }
+        return -(b*BLOCK_SIZE + n + 1);
+    }
+
+    // Binary search in the compressed form: find the last block whose head is not
+    // greater than the key, then scan it.
+    private int lookupCompressed(long hi, long lo, long [] scratch)
+    {
+        return lookupCompressed(hi, lo, scratch, 0, blockCount() - 1);
+    }
+
+    private int compareHead(int b, long hi, long lo)
+    {
+        return width == 1 ? compareUnsigned(heads[b], hi) : compare(heads[2*b], heads[2*b + 1], hi, lo);
+    }
+
+    // Same as above, looking only at blocks low to high inclusive. The block scanned is
+    // decoded into scratch, unless it's null.
+    private int lookupCompressed(long hi, long lo, long [] scratch, int low, int high)
+    {
+        while (low <= high)
+        {
+            int mid = (low + high) >>> 1;
+            int c = compareHead(mid, hi, lo);
+            if (c < 0)
+                low = mid + 1;
+            else if (c > 0)
+                high = mid - 1;
+            else
+                return mid*BLOCK_SIZE;
+        }
+        if (high < 0)
+            return -1;
+        if (scratch == null)
+            return scanBlock(high, hi, lo);
+        int n = decodeBlock(high, scratch);
+        for (int i = 1; i < n; i++)
+        {
+            int c = width == 1 ? compareUnsigned(scratch[i], hi) : compare(scratch[2*i], scratch[2*i + 1], hi, lo);
+            if (c == 0)
+                return high*BLOCK_SIZE + i;
+            else if (c > 0)
+                return -(high*BLOCK_SIZE + i + 1);
+        }
+        return -(high*BLOCK_SIZE + n + 1);
+    }
+
+    // Exponential search over the block heads of the compressed form, from the block
+    // holding position from, whose element is smaller than the key.
+    private int gallopCompressed(long hi, long lo, long [] scratch, int from)
+    {
+        int b = from / BLOCK_SIZE, count = blockCount(), bound = 1;
+        while (b + bound < count && compareHead(b + bound, hi, lo) <= 0)
+            bound <<= 1;
+        return lookupCompressed(hi, lo, scratch, b + (bound >> 1), Math.min(b + bound, count - 1));
+    }
+
+    private int search(long hi, long lo)
+    {
+        return data != null ? lookup(hi, lo) : lookupCompressed(hi, lo, null);
+    }
+
+    // The position of the first element not smaller than the key.
+    private int lowerBound(long [] key)
+    {
+        int idx = search(key[0], key[1]);
+        return idx >= 0 ? idx : -(idx + 1);
+    }
+
+    private long [] boundKey(HGHandle h)
+    {
+        long [] key = new long[2];
+        if (!toKey(h, key))
+            throw new IllegalArgumentException("Can't compare handle " + h + " with a set of " + handleSize + " bytes handles.");
+        return key;
+    }
+
+    /**
+     * <p>
+     * Switch to the delta compressed form if the set has at least {@link #COMPRESS_THRESHOLD}
+     * elements and the compressed form takes no more than three quarters of the memory of
+     * the plain form. Return <code>true</code> if the set is compressed after the call.
+     * </p>
+     */
+    public boolean compact()
+    {
+        if (data == null)
+            return true;
+        if (size < COMPRESS_THRESHOLD)
+            return false;
+        long plainBytes = 8L*size*width;
+        long budget = plainBytes*3/4;
+        int blocks = blockCount();
+        long [] newHeads = new long[blocks*width];
+        int [] newOffsets = new int[blocks];
+        long headerBytes = 8L*newHeads.length + 4L*blocks;
+        byte [] buffer = new byte[Math.max(16, (int)Math.min(budget, Integer.MAX_VALUE - 8))];
+        int p = 0;
+        for (int b = 0; b < blocks; b++)
+        {
+            int start = b*BLOCK_SIZE, end = Math.min(size, start + BLOCK_SIZE);
+            System.arraycopy(data, start*width, newHeads, b*width, width);
+            newOffsets[b] = p;
+            for (int i = start + 1; i < end; i++)
+            {
+                if (headerBytes + p + 20 > budget || p + 20 > buffer.length)
+                    return false; // not worth it
+                if (width == 1)
+                    p = writeVarLong(data[i] - data[i - 1], buffer, p);
+                else
+                {
+                    long dh = data[2*i] - data[2*i - 2];
+                    p = writeVarLong(dh, buffer, p);
+                    p = writeVarLong(dh == 0 ? data[2*i + 1] - data[2*i - 1] : data[2*i + 1], buffer, p);
+                }
+            }
+        }
+        byte [] newDeltas = new byte[p];
+        System.arraycopy(buffer, 0, newDeltas, 0, p);
+        heads = newHeads;
+        blockOffsets = newOffsets;
+        deltas = newDeltas;
+        data = null;
+        return true;
+    }
+
+    /**
+     * <p>Return <code>true</code> if the set is currently in the delta compressed form.</p>
+     */
+    public boolean isCompressed()
+    {
+        return data == null;
+    }
+
+    // Back to the plain form before a modification.
+    private void inflate()
+    {
+        if (data != null)
+            return;
+        long [] plain = new long[Math.max(size + 1, 1)*width];
+        long [] block = new long[BLOCK_SIZE*width];
+        int blocks = blockCount();
+        for (int b = 0; b < blocks; b++)
+        {
+            int n = decodeBlock(b, block);
+            System.arraycopy(block, 0, plain, b*BLOCK_SIZE*width, n*width);
+        }
+        data = plain;
+        heads = null;
+        blockOffsets = null;
+        deltas = null;
+    }
+
+    /**
+     * <p>Return an estimate of the heap used by this set in bytes.</p>
+     */
+    public long getEstimatedBytes()
+    {
+        long bytes = 48;
+        if (data != null)
+            bytes += 16 + 8L*data.length;
+        else
+            bytes += 48 + 8L*heads.length + 4L*blockOffsets.length + deltas.length;
+        return bytes;
+    }
+
+    public int getHandleSize()
+    {
+        return handleSize;
+    }
+
+    // -------------------------------------------------------------------------
+    // Modification
+    // -------------------------------------------------------------------------
+
+    private boolean insert(long hi, long lo)
+    {
+        inflate();
+        int idx = lookup(hi, lo);
+        if (idx >= 0)
+            return false;
+        idx = -(idx + 1);
+        if ((size + 1)*width > data.length)
+        {
+            long [] tmp = new long[((int)(1.5*size) + 1)*width];
+            System.arraycopy(data, 0, tmp, 0, size*width);
+            data = tmp;
+        }
+        System.arraycopy(data, idx*width, data, (idx + 1)*width, (size - idx)*width);
+        data[idx*width] = hi;
+        if (width == 2)
+            data[idx*2 + 1] = lo;
+        size++;
+        return true;
+    }
+
+    private void removeAt(int idx)
+    {
+        System.arraycopy(data, (idx + 1)*width, data, idx*width, (size - idx - 1)*width);
+        size--;
+    }
+
+    public boolean add(HGHandle h)
+    {
+        long [] key = new long[2];
+        if (!toKey(h, key))
+            throw new IllegalArgumentException("Can't add handle " + h + " to a set of " + handleSize + " bytes handles.");
+        return insert(key[0], key[1]);
+    }
+
+    public boolean addAll(Collection<? extends HGHandle> c)
+    {
+        boolean modified = false;
+        for (HGHandle h : c)
+            if (add(h))
+                modified = true;
+        return modified;
+    }
+
+    public boolean remove(Object o)
+    {
+        long [] key = new long[2];
+        if (!toKey(o, key) || search(key[0], key[1]) < 0)
+            return false;
+        inflate();
+        removeAt(lookup(key[0], key[1]));
+        return true;
+    }
+
+    public boolean removeAll(Collection<?> c)
+    {
+        boolean modified = false;
+        for (Object x : c)
+            if (remove(x))
+                modified = true;
+        return modified;
+    }
+
+    public boolean retainAll(Collection<?> c)
+    {
+        inflate();
+        boolean modified = false;
+        for (int i = size - 1; i >= 0; i--)
+            if (!c.contains(toHandle(data[i*width], width == 2 ? data[i*2 + 1] : 0)))
+            {
+                removeAt(i);
+                modified = true;
+            }
+        return modified;
+    }
+
+    public void clear()
+    {
+        data = new long[8*width];
+        heads = null;
+        blockOffsets = null;
+        deltas = null;
+        size = 0;
+    }
+
+    // -------------------------------------------------------------------------
+    // Reading
+    // -------------------------------------------------------------------------
+
+    public Comparator<? super HGHandle> comparator()
+    {
+        return null;
+    }
+
+    public boolean contains(Object o)
+    {
+        long [] key = new long[2];
+        return toKey(o, key) && search(key[0], key[1]) >= 0;
+    }
+
+    public boolean containsAll(Collection<?> c)
+    {
+        for (Object x : c)
+            if (!contains(x))
+                return false;
+        return true;
+    }
+
+    public int size()
+    {
+        return size;
+    }
+
+    public boolean isEmpty()
+    {
+        return size == 0;
+    }
+
+    public HGHandle first()
+    {
+        if (size == 0)
+            throw new NoSuchElementException();
+        if (data != null)
+            return toHandle(data[0], width == 2 ? data[1] : 0);
+        else
+            return toHandle(heads[0], width == 2 ? heads[1] : 0);
+    }
+
+    public HGHandle last()
+    {
+        if (size == 0)
+            throw new NoSuchElementException();
+        Cursor c = new Cursor();
+        c.goAfterLast();
+        return c.prev();
+    }
+
+    public SortedSet<HGHandle> headSet(HGHandle toElement)
+    {
+        return new Range(null, boundKey(toElement));
+    }
+
+    public SortedSet<HGHandle> subSet(HGHandle fromElement, HGHandle toElement)
+    {
+        return new Range(boundKey(fromElement), boundKey(toElement));
+    }
+
+    public SortedSet<HGHandle> tailSet(HGHandle fromElement)
+    {
+        return new Range(boundKey(fromElement), null);
+    }
+
+    public Iterator<HGHandle> iterator()
+    {
+        return new Cursor();
+    }
+
+    public HGRandomAccessResult<HGHandle> getSearchResult()
+    {
+        return new Cursor();
+    }
+
+    public Object[] toArray()
+    {
+        return toArray(new HGHandle[size]);
+    }
+
+    @SuppressWarnings("unchecked")
+    public <T> T[] toArray(T[] a)
+    {
+        if (a.length < size)
+            a = (T[])Array.newInstance(a.getClass().getComponentType(), size);
+        Cursor c = new Cursor();
+        for (int i = 0; i < size; i++)
+            a[i] = (T)c.next();
+        if (a.length > size)
+            a[size] = null;
+        return a;
+    }
+
+    @SuppressWarnings("unchecked")
+    public <T> T duplicate()
+    {
+        PackedHandleSet S = new PackedHandleSet(handleFactory, 1);
+        S.size = size;
+        if (data != null)
+        {
+            S.data = new long[Math.max(size, 1)*width];
+            System.arraycopy(data, 0, S.data, 0, size*width);
+        }
+        else
+        {
+            // the compressed form is never modified in place so it can be shared
+            S.data = null;
+            S.heads = heads;
+            S.blockOffsets = blockOffsets;
+            S.deltas = deltas;
+        }
+        return (T)S;
+    }
+
+    /**
+     * A position in the set. In the compressed form, the block holding the current
+     * position is decoded once into a buffer of the cursor.
+     */
+    class Cursor implements HGRandomAccessResult<HGHandle>
+    {
+        int pos = -1;
+        int block = -1;
+        long [] decoded;
+        boolean removed = false; // the element at pos + 1 was just removed
+
+        private HGHandle at(int i)
+        {
+            if (data != null)
+                return toHandle(data[i*width], width == 2 ? data[i*2 + 1] : 0);
+            int b = i / BLOCK_SIZE;
+            if (b != block)
+            {
+                if (decoded == null)
+                    decoded = new long[BLOCK_SIZE*width];
+                decodeBlock(b, decoded);
+                block = b;
+            }
+            int j = i - b*BLOCK_SIZE;
+            return toHandle(decoded[j*width], width == 2 ? decoded[j*2 + 1] : 0);
+        }
+
+        public GotoResult goTo(HGHandle value, boolean exactMatch)
+        {
+            long [] key = new long[2];
+            if (!toKey(value, key))
+                return GotoResult.nothing;
+            // moving forward, as in intersections, gallop from the current position
+            boolean ahead = pos >= 0 && pos < size && compareTo(pos, key[0], key[1]) < 0;
+            int idx;
+            if (data != null)
+                idx = ahead ? gallop(key[0], key[1], pos) : lookup(key[0], key[1]);
+            else
+            {
+                if (decoded == null)
+                    decoded = new long[BLOCK_SIZE*width];
+                block = -1; // the search decodes into our buffer
+                idx = ahead ? gallopCompressed(key[0], key[1], decoded, pos)
+                            : lookupCompressed(key[0], key[1], decoded);
+            }
+            removed = false;
+            if (idx >= 0)
+            {
+                pos = idx;
+                return GotoResult.found;
+            }
+            else if (exactMatch)
+                return GotoResult.nothing;
+            else
+            {
+                idx = -(idx + 1);
+                if (idx >= size)
+                    return GotoResult.nothing;
+                pos = idx;
+                return GotoResult.close;
+            }
+        }
+
+        // Compare the element at position i with a key.
+        private int compareTo(int i, long hi, long lo)
+        {
+            if (data != null)
+                return compareAt(i, hi, lo);
+            at(i);
+            int j = i - block*BLOCK_SIZE;
+            return width == 1 ? compareUnsigned(decoded[j], hi) : compare(decoded[2*j], decoded[2*j + 1], hi, lo);
+        }
+
+        public void goBeforeFirst()
+        {
+            pos = -1;
+            removed = false;
+        }
+
+        public void goAfterLast()
+        {
+            pos = size;
+            removed = false;
+        }
+
+        public boolean hasPrev()
+        {
+            return removed ? pos >= 0 : pos > 0;
+        }
+
+        public HGHandle prev()
+        {
+            if (!hasPrev())
+                throw new NoSuchElementException();
+            if (removed)
+            {
+                // the element before the removed one is at pos already
+                removed = false;
+                return at(pos);
+            }
+            return at(--pos);
+        }
+
+        public boolean hasNext()
+        {
+            return pos + 1 < size;
+        }
+
+        public HGHandle next()
+        {
+            if (pos + 1 >= size)
+                throw new NoSuchElementException();
+            removed = false;
+            return at(++pos);
+        }
+
+        public HGHandle current()
+        {
+            if (removed || pos < 0 || pos >= size)
+                throw new NoSuchElementException();
+            return at(pos);
+        }
+
+        /**
+         * <p>Remove the current element. The cursor is then between the elements before
+         * and after it, which are returned by <code>prev</code> and <code>next</code>
+         * respectively.</p>
+         */
+        public void remove()
+        {
+            if (removed || pos < 0 || pos >= size)
+                throw new IllegalStateException();
+            inflate();
+            block = -1;
+            removeAt(pos--);
+            removed = true;
+        }
+
+        public void close()
+        {
+        }
+
+        public boolean isOrdered()
+        {
+            return true;
+        }
+    }
+
+    /**
+     * A view of the elements between an inclusive lower bound and an exclusive upper
+     * bound, either of which may be missing. Bounds are kept as keys and positions in the
+     * backing set are computed on each call, so the view reflects later changes to it.
+     */
+    class Range extends AbstractSet<HGHandle> implements SortedSet<HGHandle>
+    {
+        final long [] from, to;
+
+        Range(long [] from, long [] to)
+        {
+            if (from != null && to != null && compareKeys(from, to) > 0)
+                throw new IllegalArgumentException("fromElement > toElement");
+            this.from = from;
+            this.to = to;
+        }
+
+        private int compareKeys(long [] a, long [] b)
+        {
+            return width == 1 ? compareUnsigned(a[0], b[0]) : compare(a[0], a[1], b[0], b[1]);
+        }
+
+        private boolean inRange(long [] key)
+        {
+            return (from == null || compareKeys(key, from) >= 0) &&
+                   (to == null || compareKeys(key, to) < 0);
+        }
+
+        private int low()
+        {
+            return from == null ? 0 : lowerBound(from);
+        }
+
+        private int high()
+        {
+            return to == null ? size : lowerBound(to);
+        }
+
+        public Comparator<? super HGHandle> comparator()
+        {
+            return null;
+        }
+
+        public int size()
+        {
+            return Math.max(high() - low(), 0);
+        }
+
+        public boolean isEmpty()
+        {
+            return size() == 0;
+        }
+
+        public boolean contains(Object o)
+        {
+            long [] key = new long[2];
+            return toKey(o, key) && inRange(key) && search(key[0], key[1]) >= 0;
+        }
+
+        public boolean add(HGHandle h)
+        {
+            if (!inRange(boundKey(h)))
+                throw new IllegalArgumentException("Handle " + h + " is out of the range of this set.");
+            return PackedHandleSet.this.add(h);
+        }
+
+        public boolean remove(Object o)
+        {
+            long [] key = new long[2];
+            return toKey(o, key) && inRange(key) && PackedHandleSet.this.remove(o);
+        }
+
+        public Iterator<HGHandle> iterator()
+        {
+            final Cursor c = new Cursor();
+            c.pos = low() - 1;
+            return new Iterator<HGHandle>()
+            {
+                int end = high();
+                public boolean hasNext() { return c.pos + 1 < end; }
+                public HGHandle next()
+                {
+                    if (!hasNext())
+                        throw new NoSuchElementException();
+                    return c.next();
+                }
+                public void remove() { c.remove(); end--; }
+            };
+        }
+
+        public HGHandle first()
+        {
+            int i = low();
+            if (i >= high())
+                throw new NoSuchElementException();
+            return new Cursor().at(i);
+        }
+
+        public HGHandle last()
+        {
+            int i = high() - 1;
+            if (i < low())
+                throw new NoSuchElementException();
+            return new Cursor().at(i);
+        }
+
+        private long [] checkBound(HGHandle h)
+        {
+            long [] key = boundKey(h);
+            if ((from != null && compareKeys(key, from) < 0) || (to != null && compareKeys(key, to) > 0))
+                throw new IllegalArgumentException("Handle " + h + " is out of the range of this set.");
+            return key;
+        }
+
+        public SortedSet<HGHandle> headSet(HGHandle toElement)
+        {
+            return new Range(from, checkBound(toElement));
+        }
+
+        public SortedSet<HGHandle> subSet(HGHandle fromElement, HGHandle toElement)
+        {
+            return new Range(checkBound(fromElement), checkBound(toElement));
+        }
+
+        public SortedSet<HGHandle> tailSet(HGHandle fromElement)
+        {
+            return new Range(checkBound(fromElement), to);
+        }
+    }
+}
@@ -65,6 +65,11 @@ public class ActiveTransactionsRecord
     // this record's transactionNumber are still running
     private final AtomicInteger running = new AtomicInteger(0);
 
+    // HGDB: the number of bodies in bodiesToGC and where to count them when they
+    // are cleaned-up, if version statistics are being collected
+    private final int bodyCount;
+    private final VersionStatistics statistics;
+
     // the next field indicates a more recent record (the one that was created
     // immediately after this one)
     // this field starts as null and is assigned exactly once, when a new
@@ -195,9 +200,19 @@ public class ActiveTransactionsRecord
      */
 
     public ActiveTransactionsRecord(long txNumber, Cons<VBoxBody<?>> bodiesToGC)
+    {
+        this(txNumber, bodiesToGC, 0, null);
+    }
+
+    ActiveTransactionsRecord(long txNumber, 
+                             Cons<VBoxBody<?>> bodiesToGC, 
+                             int bodyCount, 
+                             VersionStatistics statistics)
     {
         this.transactionNumber = txNumber;
         this.bodiesToGC = new AtomicReference<Cons<VBoxBody<?>>>(bodiesToGC);
+        this.bodyCount = bodyCount;
+        this.statistics = statistics;
     }
 
     public void incrementRunning()
@@ -327,6 +342,33 @@ public class ActiveTransactionsRecord
         }
     }
 
+    /**
+     * HGDB: clean-up this record and its successors up to the given transaction number
+     * even though older transactions may still be running, and return the last record
+     * cleaned. Those older transactions will find the versions they need missing and 
+     * will fail with a StaleTransactionException. This bounds the number of versions 
+     * kept in memory when a transaction runs for a very long time (see 
+     * HGTransactionManager.setMaxVersionLag). It must be called with records in order,
+     * starting from a record that was returned previously or from the most recent
+     * one.
+     */
+    ActiveTransactionsRecord forceCleanUpTo(long txNumber)
+    {
+        ActiveTransactionsRecord rec = this;
+        if (rec.transactionNumber <= txNumber)
+            rec.clean();
+        while (rec.next != null && rec.next.transactionNumber <= txNumber)
+        {
+            rec = rec.next;
+            rec.clean();
+        }
+        // the normal clean-up of the successors stops at records that are already
+        // clean, so continue it from here
+        if (rec.isClean())
+            rec.maybeCleanSuc();
+        return rec;
+    }
+    
     private boolean isClean()
     {
         return (bodiesToGC.get() == null);
@@ -346,6 +388,8 @@ public class ActiveTransactionsRecord
             {
                 body.clearPrevious();
             }
+            if (statistics != null)
+                statistics.cleaned(bodyCount);
             return true;
         }
         else
@@ -0,0 +1,144 @@
+/*
+ * This file is part of the HyperGraphDB source distribution. This is copyrighted
+ * software. For permitted uses, licensing options and redistribution, please see
+ * the LicensingInformation file at the root level of the distribution.
+ *
+ * Copyright (c) 2005-2010 Kobrix Software, Inc.  All rights reserved.
+ */
+package org.hypergraphdb.transaction;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <p>
+ * A {@link HGRetryPolicy} with randomized exponential backoff: after <code>n</code>
+ * conflicts in a row, a transaction waits a random time between 0 and
+ * <code>min(maxDelay, initialDelay * 2^(n-1))</code> before its next attempt. Spreading
+ * the retries at random keeps transactions competing for the same atoms from colliding
+ * over and over again.
+ * </p>
+ *
+ * <p>
+ * By default, attempts are unbounded, like they have always been with <code>transact</code>,
+ * and transactions are never escalated. Escalation is opt-in through {@link #setEscalateAfter(int)}:
+ * holding back other transactions only pays off when a few long transactions keep losing
+ * against many short ones, and it costs more conflicts and time when transactions are
+ * alike. A policy with an initial delay of 0 retries right away, which is the behavior of
+ * older versions.
+ * </p>
+ */
+public class BackoffRetryPolicy implements HGRetryPolicy
+{
+    public static final long DEFAULT_INITIAL_DELAY = 50000;       // 50 microseconds
+    public static final long DEFAULT_MAX_DELAY = 20000000;        // 20 milliseconds
+    public static final int DEFAULT_ESCALATE_AFTER = 0;
+
+    private static final AtomicLong seeds = new AtomicLong(System.nanoTime());
+
+    private static final ThreadLocal<long[]> random = new ThreadLocal<long[]>()
+    {
+        protected long[] initialValue()
+        {
+            return new long[] { seeds.addAndGet(0x9e3779b97f4a7c15L) | 1 };
+        }
+    };
+
+    private volatile long initialDelay = DEFAULT_INITIAL_DELAY;
+    private volatile long maxDelay = DEFAULT_MAX_DELAY;
+    private volatile int maxAttempts = 0;
+    private volatile int escalateAfter = DEFAULT_ESCALATE_AFTER;
+    private final RetryStatistics statistics = new RetryStatistics();
+
+    public BackoffRetryPolicy()
+    {
+    }
+
+    /**
+     * @param initialDelay The upper bound of the first wait, in nanoseconds.
+     * @param maxDelay The upper bound of any wait, in nanoseconds.
+     * @param maxAttempts The maximum number of attempts, <code>0</code> for no limit.
+     * @param escalateAfter The number of conflicts after which a transaction is escalated,
+     * <code>0</code> to never escalate.
+     */
+    public BackoffRetryPolicy(long initialDelay, long maxDelay, int maxAttempts, int escalateAfter)
+    {
+        this.initialDelay = initialDelay;
+        this.maxDelay = maxDelay;
+        this.maxAttempts = maxAttempts;
+        this.escalateAfter = escalateAfter;
+    }
+
+    private static long nextRandom()
+    {
+        long [] state = random.get();
+        long x = state[0];
+        x ^= x << 13;
+        x ^= x >>> 7;
+        x ^= x << 17;
+        state[0] = x;
+        return x >>> 1;
+    }
+
+    public long getRetryDelay(int conflicts)
+    {
+        if (maxAttempts > 0 && conflicts >= maxAttempts)
+            return -1;
+        long bound = initialDelay;
+        if (bound <= 0)
+            return 0;
+        for (int i = 1; i < conflicts && bound < maxDelay; i++)
+            bound <<= 1;
+        bound = Math.min(bound, maxDelay);
+        return nextRandom() % (bound + 1);
+    }
+
+    public boolean shouldEscalate(int conflicts)
+    {
+        return escalateAfter > 0 && conflicts >= escalateAfter;
+    }
+
+    public RetryStatistics getStatistics()
+    {
+        return statistics;
+    }
+
+    public long getInitialDelay()
+    {
+        return initialDelay;
+    }
+
+    public void setInitialDelay(long initialDelay)
+    {
+        this.initialDelay = initialDelay;
+    }
+
+    public long getMaxDelay()
+    {
+        return maxDelay;
+    }
+
+    public void setMaxDelay(long maxDelay)
+    {
+        this.maxDelay = maxDelay;
+    }
+
+    public int getMaxAttempts()
+    {
+        return maxAttempts;
+    }
+
+    public void setMaxAttempts(int maxAttempts)
+    {
+        this.maxAttempts = maxAttempts;
+    }
+
+    public int getEscalateAfter()
+    {
+        return escalateAfter;
+    }
+
+    public void setEscalateAfter(int escalateAfter)
+    {
+        this.escalateAfter = escalateAfter;
+    }
+}
@@ -0,0 +1,236 @@
+/*
+ * This file is part of the HyperGraphDB source distribution. This is copyrighted
+ * software. For permitted uses, licensing options and redistribution, please see
+ * the LicensingInformation file at the root level of the distribution.
+ *
+ * Copyright (c) 2005-2010 Kobrix Software, Inc.  All rights reserved.
+ */
+package org.hypergraphdb.transaction;
+
+import java.util.Arrays;
+
+/**
+ * <p>
+ * The read and write sets of a transaction: a map from {@link VBox} to values that compares
+ * boxes by identity. Most transactions only touch a handful of boxes, so the map starts
+ * without any storage, keeps up to {@link #LINEAR_LIMIT} entries in a small array that is
+ * scanned linearly and only becomes an open addressing hash table beyond that. Entries
+ * are never removed individually.
+ * </p>
+ *
+ * <p>
+ * Maps are recycled through a small per-thread pool by {@link #obtain()} and
+ * {@link #recycle()}, so that short transactions run by the same thread reuse the same
+ * arrays. A recycled map must not be used anymore by its previous owner.
+ * </p>
+ *
+ * <p>
+ * Iteration goes through the slots: <code>for (int i = 0; i &lt; map.slots(); i++)</code>,
+ * skipping slots whose <code>keyAt(i)</code> is <code>null</code>.
+ * </p>
+ */
+@SuppressWarnings("unchecked")
+final class BoxMap<V>
+{
+    /**
+     * The number of entries kept in a linear array before switching to a hash table.
+     */
+    static final int LINEAR_LIMIT = 8;
+
+    // Maps with larger tables are left to the garbage collector when recycled.
+    private static final int MAX_POOLED_SLOTS = 256;
+    private static final int POOL_SIZE = 4;
+
+    private static final class Pool
+    {
+        final BoxMap<?> [] maps = new BoxMap<?>[POOL_SIZE];
+        int count = 0;
+    }
+
+    private static final ThreadLocal<Pool> pools = new ThreadLocal<Pool>()
+    {
+        protected Pool initialValue()
+        {
+            return new Pool();
+        }
+    };
+
+    private VBox<?> [] keys = null;
+    private Object [] values = null;
+    private int size = 0;
+
+    /**
+     * <p>Return an empty map, reusing one recycled by the current thread if possible.</p>
+     */
+    static <V> BoxMap<V> obtain()
+    {
+        Pool pool = pools.get();
+        if (pool.count == 0)
+            return new BoxMap<V>();
+        BoxMap<V> map = (BoxMap<V>)pool.maps[--pool.count];
+        pool.maps[pool.count] = null;
+        return map;
+    }
+
+    /**
+     * <p>Clear this map and make it available to {@link #obtain()} in the current thread.</p>
+     */
+    void recycle()
+    {
+        if (keys == null)
+            return; // nothing worth keeping
+        if (keys.length > MAX_POOLED_SLOTS)
+        {
+            keys = null;
+            values = null;
+            size = 0;
+            return;
+        }
+        clear();
+        Pool pool = pools.get();
+        if (pool.count < POOL_SIZE)
+            pool.maps[pool.count++] = this;
+    }
+
+    private static int hash(VBox<?> box)
+    {
+        int h = System.identityHashCode(box) * 0x9e3779b9;
+        return h ^ (h >>> 16);
+    }
+
+    int size()
+    {
+        return size;
+    }
+
+    boolean isEmpty()
+    {
+        return size == 0;
+    }
+
+    V get(VBox<?> box)
+    {
+        VBox<?> [] k = keys;
+        if (size == 0)
+            return null;
+        if (k.length == LINEAR_LIMIT)
+        {
+            for (int i = 0; i < size; i++)
+                if (k[i] == box)
+                    return (V)values[i];
+            return null;
+        }
+        int mask = k.length - 1;
+        for (int i = hash(box) & mask; ; i = (i + 1) & mask)
+        {
+            VBox<?> x = k[i];
+            if (x == box)
+                return (V)values[i];
+            else if (x == null)
+                return null;
+        }
+    }
+
+    void put(VBox<?> box, V value)
+    {
+        if (keys == null)
+        {
+            keys = new VBox<?>[LINEAR_LIMIT];
+            values = new Object[LINEAR_LIMIT];
+        }
+        if (keys.length == LINEAR_LIMIT)
+        {
+            for (int i = 0; i < size; i++)
+                if (keys[i] == box)
+                {
+                    values[i] = value;
+                    return;
+                }
+            if (size < LINEAR_LIMIT)
+            {
+                keys[size] = box;
+                values[size++] = value;
+                return;
+            }
+            resize(LINEAR_LIMIT * 4);
+        }
+        else if ((size + 1) * 2 > keys.length)
+            resize(keys.length * 2);
+        insert(box, value);
+    }
+
+    void putAll(BoxMap<? extends V> other)
+    {
+        for (int i = 0; i < other.slots(); i++)
+        {
+            VBox<?> box = other.keyAt(i);
+            if (box != null)
+                put(box, other.valueAt(i));
+        }
+    }
+
+    private void insert(VBox<?> box, Object value)
+    {
+        int mask = keys.length - 1;
+        int i = hash(box) & mask;
+        for (VBox<?> x = keys[i]; x != null; x = keys[i])
+        {
+            if (x == box)
+            {
+                values[i] = value;
+                return;
+            }
+            i = (i + 1) & mask;
+        }
+        keys[i] = box;
+        values[i] = value;
+        size++;
+    }
+
+    private void resize(int capacity)
+    {
+        VBox<?> [] oldKeys = keys;
+        Object [] oldValues = values;
+        keys = new VBox<?>[capacity];
+        values = new Object[capacity];
+        size = 0;
+        for (int i = 0; i < oldKeys.length; i++)
+            if (oldKeys[i] != null)
+                insert(oldKeys[i], oldValues[i]);
+    }
+
+    void clear()
+    {
+        if (size == 0)
+            return;
+        if (keys.length == LINEAR_LIMIT)
+        {
+            Arrays.fill(keys, 0, size, null);
+            Arrays.fill(values, 0, size, null);
+        }
+        else
+        {
+            Arrays.fill(keys, null);
+            Arrays.fill(values, null);
+        }
+        size = 0;
+    }
+
+    /**
+     * <p>Return the number of slots to iterate through.</p>
+     */
+    int slots()
+    {
+        return keys == null ? 0 : keys.length;
+    }
+
+    VBox<?> keyAt(int slot)
+    {
+        return keys[slot];
+    }
+
+    V valueAt(int slot)
+    {
+        return (V)values[slot];
+    }
+}
@@ -0,0 +1,285 @@
+/*
+ * This file is part of the HyperGraphDB source distribution. This is copyrighted
+ * software. For permitted uses, licensing options and redistribution, please see
+ * the LicensingInformation file at the root level of the distribution.
+ *
+ * Copyright (c) 2005-2010 Kobrix Software, Inc.  All rights reserved.
+ */
+package org.hypergraphdb.transaction;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.hypergraphdb.HGHandle;
+import org.hypergraphdb.handle.HGLiveHandle;
+import org.hypergraphdb.util.HGLogger;
+
+/**
+ * <p>
+ * Collects statistics about the transactional boxes ({@link VBox}) that make transactions
+ * fail: every time a transaction is aborted because a value it read was changed by a
+ * concurrent commit, the boxes holding those values are counted. Boxes are identified by
+ * their owner: the atom handle for the atom cache and the incidence sets, the key of
+ * other transactional maps, or the box itself for standalone boxes such as the size of
+ * a map. The most frequent ones, reported by {@link #getHotBoxes(int)}, are the data
+ * that throttles write throughput.
+ * </p>
+ *
+ * <p>
+ * Monitoring is off unless a monitor is set with
+ * {@link HGTransactionManager#setConflictMonitor(ConflictMonitor)}. Only one in
+ * <code>sampleRate</code> aborted transactions has its boxes counted, and at most
+ * <code>maxTracked</code> distinct boxes are tracked: when there are more, the least
+ * frequent half is dropped. Runtime objects used as keys (as in the atom to handle map)
+ * are identified by class and identity hash code, so that the monitor doesn't keep
+ * them in memory.
+ * </p>
+ */
+public class ConflictMonitor
+{
+    /**
+     * A box and the number of sampled conflicts it caused.
+     */
+    public static final class HotBox
+    {
+        final String kind;
+        final Object key;
+        final AtomicLong conflicts = new AtomicLong();
+
+        HotBox(String kind, Object key)
+        {
+            this.kind = kind;
+            this.key = key;
+        }
+
+        /**
+         * <p>Return the kind of structure the box belongs to, such as <code>TxCacheMap</code>,
+         * <code>TxCacheSet</code> (incidence sets), <code>TxMap</code> or <code>VBox</code>.</p>
+         */
+        public String getKind()
+        {
+            return kind;
+        }
+
+        /**
+         * <p>Return the owner key of the box, for example an atom's persistent handle.</p>
+         */
+        public Object getKey()
+        {
+            return key;
+        }
+
+        public long getConflicts()
+        {
+            return conflicts.get();
+        }
+
+        public int hashCode()
+        {
+            return kind.hashCode() * 31 + key.hashCode();
+        }
+
+        public boolean equals(Object x)
+        {
+            if (!(x instanceof HotBox))
+                return false;
+            HotBox h = (HotBox)x;
+            return kind.equals(h.kind) && key.equals(h.key);
+        }
+
+        public String toString()
+        {
+            return kind + "[" + key + "]=" + conflicts.get();
+        }
+    }
+
+    private static final Comparator<HotBox> MOST_CONFLICTS = new Comparator<HotBox>()
+    {
+        public int compare(HotBox a, HotBox b)
+        {
+            long x = a.getConflicts(), y = b.getConflicts();
+            return x > y ? -1 : x < y ? 1 : 0;
+        }
+    };
+
+    private final ConcurrentHashMap<HotBox, HotBox> boxes = new ConcurrentHashMap<HotBox, HotBox>();
+    private final int maxTracked;
+    private final int sampleRate;
+    private final AtomicLong aborted = new AtomicLong();
+    private final AtomicLong sampled = new AtomicLong();
+    private volatile boolean logConflicts = false;
+    private volatile HGLogger logger = new HGLogger();
+
+    public ConflictMonitor()
+    {
+        this(4096, 1);
+    }
+
+    /**
+     * @param maxTracked The maximum number of distinct boxes tracked.
+     * @param sampleRate Count the boxes of one in <code>sampleRate</code> aborted transactions.
+     */
+    public ConflictMonitor(int maxTracked, int sampleRate)
+    {
+        this.maxTracked = Math.max(2, maxTracked);
+        this.sampleRate = Math.max(1, sampleRate);
+    }
+
+    private static String kindOf(VBox<?> box)
+    {
+        Class<?> c = box.getClass();
+        while (c.isAnonymousClass())
+            c = c.getSuperclass();
+        Class<?> outer = c.getEnclosingClass();
+        return (outer != null ? outer : c).getSimpleName();
+    }
+
+    private static Object keyOf(VBox<?> box)
+    {
+        Object key = box.getOwnerKey();
+        if (key == null)
+            return "box@" + Integer.toHexString(System.identityHashCode(box));
+        else if (key instanceof HGLiveHandle)
+            return ((HGLiveHandle)key).getPersistent();
+        else if (key instanceof HGHandle || key instanceof String || key instanceof Number ||
+                 key instanceof Class<?>)
+            return key;
+        else
+            return key.getClass().getName() + "@" + Integer.toHexString(System.identityHashCode(key));
+    }
+
+    /**
+     * <p>Record a transaction aborted because of conflicts on the given boxes.</p>
+     */
+    void conflict(List<VBox<?>> conflicting)
+    {
+        if (aborted.incrementAndGet() % sampleRate != 0)
+            return;
+        sampled.incrementAndGet();
+        for (VBox<?> box : conflicting)
+        {
+            HotBox h = new HotBox(kindOf(box), keyOf(box));
+            HotBox existing = boxes.get(h);
+            if (existing == null)
+            {
+                if (boxes.size() >= maxTracked)
+                    prune();
+                existing = boxes.putIfAbsent(h, h);
+                if (existing == null)
+                    existing = h;
+            }
+            existing.conflicts.incrementAndGet();
+            if (logConflicts)
+                logger.warning("Transaction conflict on " + h.kind + "[" + h.key + "]");
+        }
+    }
+
+    /**
+     * <p>Record a transaction aborted because of a conflict on a single box.</p>
+     */
+    void conflict(VBox<?> box)
+    {
+        conflict(Collections.<VBox<?>>singletonList(box));
+    }
+
+    // Counts keep changing while sorting, so sort copies with frozen counts.
+    private List<HotBox> sortedSnapshot()
+    {
+        List<HotBox> all = new ArrayList<HotBox>(boxes.size());
+        for (HotBox h : boxes.keySet())
+        {
+            HotBox copy = new HotBox(h.kind, h.key);
+            copy.conflicts.set(h.conflicts.get());
+            all.add(copy);
+        }
+        Collections.sort(all, MOST_CONFLICTS);
+        return all;
+    }
+
+    private synchronized void prune()
+    {
+        if (boxes.size() < maxTracked)
+            return;
+        List<HotBox> all = sortedSnapshot();
+        for (Iterator<HotBox> i = all.listIterator(all.size() / 2); i.hasNext(); )
+            boxes.remove(i.next());
+    }
+
+    /**
+     * <p>Return the <code>n</code> boxes with the most conflicts, most frequent first.</p>
+     */
+    public List<HotBox> getHotBoxes(int n)
+    {
+        List<HotBox> all = sortedSnapshot();
+        return all.size() > n ? new ArrayList<HotBox>(all.subList(0, n)) : all;
+    }
+
+    /**
+     * <p>Return a human readable report of the <code>n</code> boxes with the most
+     * conflicts.</p>
+     */
+    public String report(int n)
+    {
+        StringBuilder b = new StringBuilder();
+        b.append("Aborted transactions: ").append(getAbortedCount());
+        b.append(", sampled: ").append(getSampledCount()).append("\n");
+        for (HotBox h : getHotBoxes(n))
+            b.append(h.getConflicts()).append("\t").append(h.kind).append("\t").append(h.key).append("\n");
+        return b.toString();
+    }
+
+    /**
+     * <p>Return the number of transactions aborted because of a read conflict.</p>
+     */
+    public long getAbortedCount()
+    {
+        return aborted.get();
+    }
+
+    /**
+     * <p>Return the number of aborted transactions whose boxes were counted.</p>
+     */
+    public long getSampledCount()
+    {
+        return sampled.get();
+    }
+
+    /**
+     * <p>Forget all statistics.</p>
+     */
+    public synchronized void reset()
+    {
+        boxes.clear();
+        aborted.set(0);
+        sampled.set(0);
+    }
+
+    public boolean isLogConflicts()
+    {
+        return logConflicts;
+    }
+
+    /**
+     * <p>Specify whether every sampled conflicting box is also logged as a warning, with
+     * its owner key (the atom handle for atoms and incidence sets).</p>
+     */
+    public void setLogConflicts(boolean logConflicts)
+    {
+        this.logConflicts = logConflicts;
+    }
+
+    public HGLogger getLogger()
+    {
+        return logger;
+    }
+
+    public void setLogger(HGLogger logger)
+    {
+        this.logger = logger;
+    }
+}
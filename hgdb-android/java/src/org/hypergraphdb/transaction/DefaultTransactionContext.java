@@ -55,6 +55,8 @@ public class DefaultTransactionContext implements HGTransactionContext
 	{
 		if (tstack.isEmpty())
 			throw new HGException("Attempt to end a transaction for an empty transaction context.");
+		if (success)
+			prepareCommit();
 		HGTransaction top = tstack.pop();
 		if (manager.txMonitor != null)
 			manager.txMonitor.transactionFinished(top);		
@@ -64,11 +66,29 @@ public class DefaultTransactionContext implements HGTransactionContext
 			top.abort();
 	}
 	
+	/**
+	 * Run the before-commit actions of the top transaction while it is still current. If 
+	 * that fails, the transaction is ended with an abort.
+	 */
+	private void prepareCommit() throws HGTransactionException
+	{
+		try
+		{
+			tstack.peek().beforeCommit();
+		}
+		catch (RuntimeException ex)
+		{
+			endTransaction(false);
+			throw ex;
+		}
+	}
+	
 	public void endAll(boolean success) throws HGTransactionException
 	{
 		if (success)
 			while (!tstack.isEmpty()) 
 			{
+				prepareCommit();
 				HGTransaction tx = tstack.pop();
 				if (manager.txMonitor != null)
 					manager.txMonitor.transactionFinished(tx);				 				
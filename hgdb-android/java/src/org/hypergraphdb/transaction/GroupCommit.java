@@ -0,0 +1,143 @@
+/* 
+ * This file is part of the HyperGraphDB source distribution. This is copyrighted 
+ * software. For permitted uses, licensing options and redistribution, please see  
+ * the LicensingInformation file at the root level of the distribution.  
+ * 
+ * Copyright (c) 2005-2010 Kobrix Software, Inc.  All rights reserved. 
+ */
+package org.hypergraphdb.transaction;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * <p>
+ * Shares the cost of making commits durable among concurrent top-level transactions. 
+ * Each transaction writes its commit under the <code>COMMIT_LOCK</code> of the transaction
+ * manager and takes a ticket. After releasing the lock, it waits until its ticket is
+ * durable. The first waiting transaction becomes the leader: it flushes the storage log
+ * once, which covers every commit written before the flush, and releases all those
+ * transactions together. Transactions that commit while the leader is flushing form 
+ * the next group.
+ * </p>
+ *
+ * <p>
+ * Commits become visible to other transactions before they are durable, but a transaction
+ * does not return from its commit before that, so an application never observes the
+ * effect of its own commit without it being durable.
+ * </p>
+ *
+ * <p>
+ * If the flush fails, the transactions of the group being flushed fail their commit with
+ * a {@link HGTransactionException}. Their changes are nevertheless already visible to other
+ * transactions and may or may not have reached the log, so the application can't assume
+ * either that they are durable or that they were rolled back. Only that group fails:
+ * the next transaction to commit leads a new flush attempt.
+ * </p>
+ */
+public class GroupCommit
+{
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition flushed = lock.newCondition();
+    private long issued = 0;    // the last ticket handed out
+    private long durable = 0;   // all tickets up to this one are durable
+    private boolean flushing = false;
+    private long failedUpTo = 0; // tickets up to this one were in a group whose flush failed
+    private Throwable failure = null; // the cause of that failure
+    private final AtomicLong commits = new AtomicLong();
+    private final AtomicLong flushes = new AtomicLong();
+    
+    /**
+     * <p>Return a ticket for a commit that was just written. Must be called while holding
+     * the <code>COMMIT_LOCK</code>, right after the commit is written, so that tickets follow
+     * the order of the commits in the log.</p>
+     */
+    long enqueue()
+    {
+        lock.lock();
+        try
+        {
+            return ++issued;
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+    
+    /**
+     * <p>Wait until the commit with the given ticket is durable, flushing the log
+     * through <code>tx</code> if no other thread is doing it already.</p>
+     *
+     * @throws HGTransactionException If the flush of the group the ticket belongs to failed.
+     */
+    void awaitDurable(long ticket, HGGroupCommitTransaction tx) throws HGTransactionException
+    {
+        commits.incrementAndGet();
+        lock.lock();
+        try
+        {
+            while (durable < ticket)
+            {
+                if (ticket <= failedUpTo)
+                    throw new HGTransactionException("Failed to flush the transaction log.", failure);
+                if (flushing)
+                {
+                    flushed.awaitUninterruptibly();
+                    continue;
+                }
+                flushing = true;
+                long upTo = issued;
+                Throwable error = null;
+                lock.unlock();
+                try
+                {
+                    tx.flushLog();
+                }
+                catch (Throwable t)
+                {
+                    error = t;
+                }
+                finally
+                {
+                    lock.lock();
+                }
+                flushing = false;
+                if (error == null)
+                {
+                    durable = Math.max(durable, upTo);
+                    flushes.incrementAndGet();
+                }
+                else
+                {
+                    // fail the group flushed, later tickets are left to the next flush
+                    failedUpTo = upTo;
+                    failure = error;
+                }
+                flushed.signalAll();
+            }
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+    
+    /**
+     * <p>Return the number of commits that went through the group commit.</p>
+     */
+    public long getCommitCount()
+    {
+        return commits.get();
+    }
+    
+    /**
+     * <p>Return the number of log flushes, that is the number of groups committed. The
+     * ratio of commits to flushes is the average group size.</p>
+     */
+    public long getFlushCount()
+    {
+        return flushes.get();
+    }
+}
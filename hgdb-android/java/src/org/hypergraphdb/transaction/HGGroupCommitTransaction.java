@@ -0,0 +1,32 @@
+/* 
+ * This file is part of the HyperGraphDB source distribution. This is copyrighted 
+ * software. For permitted uses, licensing options and redistribution, please see  
+ * the LicensingInformation file at the root level of the distribution.  
+ * 
+ * Copyright (c) 2005-2010 Kobrix Software, Inc.  All rights reserved. 
+ */
+package org.hypergraphdb.transaction;
+
+/**
+ * <p>
+ * A storage transaction whose commit can be split in two: writing the commit,
+ * which makes the changes visible and releases the storage locks, and making it durable.
+ * A top-level transaction whose storage transaction implements this interface takes
+ * part in a group commit (see {@link GroupCommit}): it only writes its commit while
+ * holding the global commit lock and then waits, outside the lock, for some
+ * transaction of its group to make the whole group durable at once.
+ * </p>
+ */
+public interface HGGroupCommitTransaction extends HGStorageTransaction
+{
+    /**
+     * <p>Commit the transaction without waiting for it to be durable.</p>
+     */
+    void commitNoSync() throws HGTransactionException;
+    
+    /**
+     * <p>Make durable all transactions of the same storage committed so far with
+     * <code>commitNoSync</code>, including by other threads.</p>
+     */
+    void flushLog() throws HGTransactionException;
+}
@@ -0,0 +1,51 @@
+/*
+ * This file is part of the HyperGraphDB source distribution. This is copyrighted
+ * software. For permitted uses, licensing options and redistribution, please see
+ * the LicensingInformation file at the root level of the distribution.
+ *
+ * Copyright (c) 2005-2010 Kobrix Software, Inc.  All rights reserved.
+ */
+package org.hypergraphdb.transaction;
+
+/**
+ * <p>
+ * Decides what {@link HGTransactionManager#transact(java.util.concurrent.Callable, HGTransactionConfig)}
+ * does after a transaction failed because of a conflict with another transaction (a write
+ * conflict or a storage deadlock): how long to wait before the next attempt, whether to give
+ * up and whether the transaction should be given priority over new ones.
+ * </p>
+ *
+ * <p>
+ * A policy is shared by all transactions configured with it and must be thread-safe. It is
+ * set through {@link HGTransactionConfig#setRetryPolicy(HGRetryPolicy)}, or else the default
+ * policy of the transaction manager applies.
+ * </p>
+ *
+ * @see BackoffRetryPolicy
+ */
+public interface HGRetryPolicy
+{
+    /**
+     * <p>
+     * Return the number of nanoseconds to wait before re-running a transaction that has
+     * failed <code>conflicts</code> times in a row, <code>0</code> to re-run it right away or
+     * a negative number to give up, in which case <code>transact</code> re-throws the last
+     * conflict exception.
+     * </p>
+     */
+    long getRetryDelay(int conflicts);
+
+    /**
+     * <p>
+     * Return <code>true</code> if a transaction that has failed <code>conflicts</code> times
+     * in a row should be escalated: while it runs, new top-level transactions started through
+     * <code>transact</code> hold back, so that it gets a chance to complete.
+     * </p>
+     */
+    boolean shouldEscalate(int conflicts);
+
+    /**
+     * <p>Return the counters of the transactions run under this policy.</p>
+     */
+    RetryStatistics getStatistics();
+}
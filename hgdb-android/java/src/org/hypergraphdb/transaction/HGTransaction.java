@@ -7,10 +7,13 @@
  */
 package org.hypergraphdb.transaction;
 
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
@@ -43,13 +46,15 @@ public final class HGTransaction implements HGStorageTransaction
     private HGTransaction parent;
     private HGTransactionContext context;
     private HGStorageTransaction stran = null;
-    private Map<Object, Object> attributes = new HashMap<Object, Object>();
-    Map<VBox<?>, VBoxBody<?>> bodiesRead = new HashMap<VBox<?>, VBoxBody<?>>();
-    private Map<VBox<?>, Object> boxesWritten = new HashMap<VBox<?>, Object>();
+    private Map<Object, Object> attributes = null;
+    BoxMap<VBoxBody<?>> bodiesRead = BoxMap.obtain();
+    private BoxMap<Object> boxesWritten = BoxMap.obtain();
     private long number;
     private boolean readonly = false;
+    private boolean snapshot = false;
     private ActiveTransactionsRecord activeTxRecord;
-    private Set<Runnable> abortActions = new HashSet<Runnable>();
+    private Set<Runnable> abortActions = null;
+    private List<Runnable> beforeCommitActions = null;
     
     long getNumber()
     {
@@ -73,6 +78,8 @@ public final class HGTransaction implements HGStorageTransaction
         if (value == null)
         {
             VBoxBody<T> body = vbox.body.getBody(number);
+            if (body == null)
+                throw staleRead();
             if (!readonly)
                 bodiesRead.put(vbox, body);
             value = body.value;
@@ -80,6 +87,18 @@ public final class HGTransaction implements HGStorageTransaction
         return (value == NULL_VALUE) ? null : value;
     }
 
+    /**
+     * Record that the version this transaction needs was discarded and return the 
+     * exception to throw.
+     */
+    StaleTransactionException staleRead()
+    {
+        VersionStatistics statistics = context.getManager().versionStatistics;
+        if (statistics != null)
+            statistics.staleRead();
+        return new StaleTransactionException();
+    }
+    
     <T> void setBoxValue(VBox<T> vbox, T value)
     {
         if (this.isReadOnly())
@@ -100,16 +119,29 @@ public final class HGTransaction implements HGStorageTransaction
      */
     protected boolean validateCommit()
     {
-        if (!readonly) for (Map.Entry<VBox<?>, VBoxBody<?>> entry : bodiesRead.entrySet())
+        ConflictMonitor monitor = context.getManager().conflictMonitor;
+        List<VBox<?>> conflicting = null;
+        if (!readonly) for (int i = 0; i < bodiesRead.slots(); i++)
         {
+            VBox<?> box = bodiesRead.keyAt(i);
             // Compare versions instead of 'body' objects because we may have multiple
             // re-loads of the same version of some disk data - we allow that in 
             // transactional caches
-            if (entry.getKey().body.version != entry.getValue().version)
+            if (box != null && box.body.version != bodiesRead.valueAt(i).version)
             {
-                return false;
+                if (monitor == null)
+                    return false;
+                // when monitoring, find all the boxes that are in conflict 
+                if (conflicting == null)
+                    conflicting = new ArrayList<VBox<?>>();
+                conflicting.add(box);
             }
         }
+        if (conflicting != null)
+        {
+            monitor.conflict(conflicting);
+            return false;
+        }
         return true;
     }
 
@@ -128,10 +160,12 @@ public final class HGTransaction implements HGStorageTransaction
     {
         Cons<VBoxBody<?>> newBodies = Cons.EMPTY;
 
-        for (Map.Entry<VBox<?>, Object> entry : boxesWritten.entrySet())
+        for (int i = 0; i < boxesWritten.slots(); i++)
         {
-            VBox<Object> vbox = (VBox<Object>)entry.getKey();
-            Object newValue = entry.getValue();
+            VBox<Object> vbox = (VBox<Object>)boxesWritten.keyAt(i);
+            if (vbox == null)
+                continue;
+            Object newValue = boxesWritten.valueAt(i);
 
             VBoxBody<?> newBody = vbox.commit(this, (newValue == NULL_VALUE) ? null
                                     : newValue, number);
@@ -143,10 +177,14 @@ public final class HGTransaction implements HGStorageTransaction
 
     void finish() 
     {
-        if (!readonly) for (Map.Entry<VBox<?>, VBoxBody<?>> entry : bodiesRead.entrySet())
-            entry.getKey().finish(this);            
-        for (Map.Entry<VBox<?>, Object> entry : boxesWritten.entrySet())
-            entry.getKey().finish(this);
+        if (!readonly) for (int i = 0; i < bodiesRead.slots(); i++)
+            if (bodiesRead.keyAt(i) != null)
+                bodiesRead.keyAt(i).finish(this);            
+        for (int i = 0; i < boxesWritten.slots(); i++)
+            if (boxesWritten.keyAt(i) != null)
+                boxesWritten.keyAt(i).finish(this);
+        bodiesRead.recycle();
+        boxesWritten.recycle();
         bodiesRead = null;
         boxesWritten = null;        
         activeTxRecord.decrementRunning();
@@ -203,8 +241,9 @@ public final class HGTransaction implements HGStorageTransaction
     {
     	if (isReadOnly() && isWriteTransaction()) 
     	{
-    		for (Object obj : boxesWritten.values())
-    			System.out.println("written object:" + obj);
+    		for (int i = 0; i < boxesWritten.slots(); i++)
+    		    if (boxesWritten.keyAt(i) != null)
+    		        System.out.println("written object:" + boxesWritten.valueAt(i));
     		throw new TransactionIsReadonlyException();
     	}
         // If this is a nested transaction, everything is much simpler
@@ -224,21 +263,37 @@ public final class HGTransaction implements HGStorageTransaction
         
         // Otherwise this is a top-level transaction, we need to do more serious work.
         
+        HGTransactionException notDurable = null;
         if (isWriteTransaction())
         {
+            // With a group commit, the storage commit is only written under the lock
+            // and we wait for it to be durable after releasing it.
+            HGGroupCommitTransaction groupTx = stran instanceof HGGroupCommitTransaction ?
+                                               (HGGroupCommitTransaction)stran : null;
+            long ticket = -1;
             context.getManager().COMMIT_LOCK.lock();
             try
             {
                 if (validateCommit())
                 {
-                    if (stran != null)
+                    if (groupTx != null)
+                    {
+                        groupTx.commitNoSync();
+                        ticket = context.getManager().groupCommit.enqueue();
+                    }
+                    else if (stran != null)
                         stran.commit();                    
                     
                     Cons<VBoxBody<?>> bodiesCommitted = performValidCommit();
+                    VersionStatistics statistics = context.getManager().versionStatistics;
+                    if (statistics != null)
+                        statistics.committed(bodiesCommitted, boxesWritten.size());
                     
                     // The commit is already done, so create a new ActiveTransactionsRecord
                     ActiveTransactionsRecord newRecord = new ActiveTransactionsRecord(number,
-                                                                                      bodiesCommitted);
+                                                                                      bodiesCommitted,
+                                                                                      boxesWritten.size(),
+                                                                                      statistics);
                     context.getManager().mostRecentRecord.setNext(newRecord);
                     //newRecord.setPrev(context.getManager().mostRecentRecord);
                     context.getManager().mostRecentRecord = newRecord;
@@ -253,6 +308,7 @@ public final class HGTransaction implements HGStorageTransaction
                     
                     // This assignment is need to decrementRunning in the finish method below.                    
                     this.activeTxRecord = newRecord;
+                    context.getManager().enforceVersionLag(newRecord);
                 }
                 else
                 {
@@ -276,6 +332,19 @@ public final class HGTransaction implements HGStorageTransaction
             {                
                 context.getManager().COMMIT_LOCK.unlock();                
             }                          
+            if (ticket > 0)
+            {
+                try
+                {
+                    context.getManager().groupCommit.awaitDurable(ticket, groupTx);
+                }
+                catch (HGTransactionException ex)
+                {
+                    // The commit is visible but may not be durable. Finish the transaction
+                    // as committed and report the failure to the caller.
+                    notDurable = ex;
+                }
+            }
         }                
         else
         {
@@ -286,12 +355,15 @@ public final class HGTransaction implements HGStorageTransaction
         graph.getEventManager().dispatch(graph,
                                          new HGTransactionEndEvent(this, true));
         finish();        
+        if (notDurable != null)
+            throw notDurable;
     }
 
     private void privateAbort() throws HGTransactionException
     {
-        for (Runnable r : abortActions)
-            r.run();
+        if (abortActions != null)
+            for (Runnable r : abortActions)
+                r.run();
         if (stran != null)
             stran.abort();                
         finish();
@@ -307,21 +379,26 @@ public final class HGTransaction implements HGStorageTransaction
 
     public <T> T getAttribute(Object key)
     {
-        return (T)attributes.get(key);
+        return attributes == null ? null : (T)attributes.get(key);
     }
 
     public Iterator<Object> getAttributeKeys()
     {
+        if (attributes == null)
+            return Collections.emptyList().iterator();
         return attributes.keySet().iterator();
     }
 
     public void removeAttribute(Object key)
     {
-        attributes.remove(key);
+        if (attributes != null)
+            attributes.remove(key);
     }
 
     public void setAttribute(Object key, Object value)
     {
+        if (attributes == null)
+            attributes = new HashMap<Object, Object>();
         attributes.put(key, value);
     }
     
@@ -330,11 +407,47 @@ public final class HGTransaction implements HGStorageTransaction
         return this.readonly;
     }
     
+    /**
+     * <p>Return <code>true</code> if this is a snapshot read transaction that doesn't have
+     * a storage transaction (see {@link HGTransactionConfig#isSnapshot()}).</p>
+     */
+    public boolean isSnapshot()
+    {
+        return this.snapshot;
+    }
+    
+    void setSnapshot(boolean snapshot)
+    {
+        this.snapshot = snapshot;
+    }
+    
     public void addAbortAction(Runnable r)
     {
+        if (abortActions == null)
+            abortActions = new HashSet<Runnable>();
         this.abortActions.add(r);
     }
     
+    /**
+     * <p>Register an action to be executed right before this transaction is committed,
+     * while it is still the current transaction of its context. Actions run in registration
+     * order and are typically used to flush writes deferred until commit time. If an action
+     * throws an exception, the transaction is aborted.</p>
+     */
+    public void addBeforeCommitAction(Runnable r)
+    {
+        if (beforeCommitActions == null)
+            beforeCommitActions = new ArrayList<Runnable>();
+        beforeCommitActions.add(r);
+    }
+    
+    void beforeCommit()
+    {
+        if (beforeCommitActions != null)
+            for (Runnable r : beforeCommitActions)
+                r.run();
+    }
+    
     /**
      * <p>Return the parent transaction of this transaction or <code>null</code> is this is not a nested
      * transaction.</p>
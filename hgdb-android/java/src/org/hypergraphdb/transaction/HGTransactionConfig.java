@@ -15,17 +15,22 @@ public class HGTransactionConfig
     public static final HGTransactionConfig NO_STORAGE = new HGTransactionConfig();
     public static final HGTransactionConfig READONLY = new HGTransactionConfig();
     public static final HGTransactionConfig WRITE_UPGRADABLE = new HGTransactionConfig();
+    public static final HGTransactionConfig SNAPSHOT = new HGTransactionConfig();
     
     static
     {
         NO_STORAGE.setNoStorage(true);
         READONLY.setReadonly(true);
         WRITE_UPGRADABLE.setWriteUpgradable(true);
+        SNAPSHOT.setSnapshot(true);
+        SNAPSHOT.setWriteUpgradable(true);
     }
     
     private boolean noStorage = false;
     private boolean readonly = false;
     private boolean writeUpgradable = false;
+    private boolean snapshot = false;
+    private HGRetryPolicy retryPolicy = null;
     
     public boolean isNoStorage()
     {
@@ -46,6 +51,8 @@ public class HGTransactionConfig
     {
         this.readonly = readonly;
         writeUpgradable = false;
+        if (!readonly)
+            snapshot = false;
     }
 
 	public boolean isWriteUpgradable() 
@@ -58,5 +65,54 @@ public class HGTransactionConfig
 		this.writeUpgradable = writeUpgradable;
 		if (writeUpgradable)
 		    readonly = true;
-	}      
+	}
+
+    /**
+     * <p>
+     * Return <code>true</code> if this is a snapshot read transaction: a readonly transaction
+     * that sees the transactional caches as of its start, like any other transaction, but 
+     * without a storage transaction. Storage reads are made with non-transactional cursors,
+     * which see committed data only but don't lock anything beyond the current record, and
+     * storage writes through the <code>HGStore</code> fail with a 
+     * {@link TransactionIsReadonlyException}. Combined with <code>writeUpgradable</code>, as
+     * in {@link #SNAPSHOT}, such a transaction is retried as a regular read-write transaction
+     * in case it writes.
+     * </p>
+     * 
+     * <p>
+     * This is meant for short, query-only transactions where the cost of a storage transaction
+     * is a big part of the total. Nested transactions of a snapshot transaction are snapshot 
+     * transactions as well.
+     * </p>
+     */
+    public boolean isSnapshot()
+    {
+        return snapshot;
+    }
+
+    /**
+     * <p>Specify whether this is a snapshot read transaction, see {@link #isSnapshot()}. 
+     * A snapshot transaction is readonly.</p>
+     */
+    public void setSnapshot(boolean snapshot)
+    {
+        this.snapshot = snapshot;
+        if (snapshot)
+            readonly = true;
+    }
+
+    /**
+     * <p>Return the policy deciding how <code>HGTransactionManager.transact</code> retries
+     * the transaction after a conflict, or <code>null</code> if the default policy of the
+     * transaction manager applies.</p>
+     */
+    public HGRetryPolicy getRetryPolicy()
+    {
+        return retryPolicy;
+    }
+
+    public void setRetryPolicy(HGRetryPolicy retryPolicy)
+    {
+        this.retryPolicy = retryPolicy;
+    }      
 }
\ No newline at end of file
@@ -8,7 +8,10 @@
 package org.hypergraphdb.transaction;
 
 import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.LockSupport;
 import java.util.concurrent.locks.ReentrantLock;
 import org.hypergraphdb.HGException;
 import org.hypergraphdb.HyperGraph;
@@ -35,10 +38,23 @@ public class HGTransactionManager
 	volatile ActiveTransactionsRecord mostRecentRecord = new ActiveTransactionsRecord(0, null);
     
 	final ReentrantLock COMMIT_LOCK = new ReentrantLock(true);
+	final GroupCommit groupCommit = new GroupCommit();
+	private static final VanillaTransaction SNAPSHOT_STORAGE = new VanillaTransaction();
         
 	TxMonitor txMonitor = null;
+	volatile ConflictMonitor conflictMonitor = null;
 	AtomicInteger conflicted = new AtomicInteger(0);
 	AtomicInteger successful = new AtomicInteger(0);
+	
+	private volatile HGRetryPolicy defaultRetryPolicy = new BackoffRetryPolicy();
+	private volatile long escalationTimeout = 100;
+	private final AtomicInteger escalatedCount = new AtomicInteger(0);
+	private final ReentrantLock escalationLock = new ReentrantLock();
+	private final Condition escalationEnded = escalationLock.newCondition();
+	
+	volatile VersionStatistics versionStatistics = null;
+	private volatile long maxVersionLag = 0;
+	private ActiveTransactionsRecord versionFrontier = mostRecentRecord; // guarded by COMMIT_LOCK
 	
 	/** 
 	 * <p>Return <code>true</code> if the transaction are enabled and <code>false</code>
@@ -124,6 +140,128 @@ public class HGTransactionManager
     {
         return graph;
     }
+    
+    /**
+     * <p>Return the {@link ConflictMonitor} collecting the boxes that make transactions
+     * fail, or <code>null</code> if conflicts are not monitored (the default).</p>
+     */
+    public ConflictMonitor getConflictMonitor()
+    {
+        return conflictMonitor;
+    }
+    
+    /**
+     * <p>Start monitoring the boxes that make transactions fail with the given monitor, 
+     * or stop if <code>conflictMonitor</code> is <code>null</code>.</p>
+     */
+    public void setConflictMonitor(ConflictMonitor conflictMonitor)
+    {
+        this.conflictMonitor = conflictMonitor;
+    }
+    
+    /**
+     * <p>Return the retry policy of transactions whose configuration doesn't specify one.
+     * It is a {@link BackoffRetryPolicy} unless changed.</p>
+     */
+    public HGRetryPolicy getDefaultRetryPolicy()
+    {
+        return defaultRetryPolicy;
+    }
+    
+    public void setDefaultRetryPolicy(HGRetryPolicy defaultRetryPolicy)
+    {
+        if (defaultRetryPolicy == null)
+            throw new NullPointerException("defaultRetryPolicy");
+        this.defaultRetryPolicy = defaultRetryPolicy;
+    }
+    
+    /**
+     * <p>Return the maximum time, in milliseconds, a new top-level transaction holds back
+     * while escalated transactions are running (see {@link HGRetryPolicy#shouldEscalate(int)}).
+     * The default is 100.</p> 
+     */
+    public long getEscalationTimeout()
+    {
+        return escalationTimeout;
+    }
+
+    public void setEscalationTimeout(long escalationTimeout)
+    {
+        this.escalationTimeout = escalationTimeout;
+    }
+    
+    /**
+     * <p>Return the {@link VersionStatistics} collecting the length of version chains and
+     * the number of old versions kept in memory, or <code>null</code> if they are not
+     * collected (the default).</p>
+     */
+    public VersionStatistics getVersionStatistics()
+    {
+        return versionStatistics;
+    }
+    
+    /**
+     * <p>Start collecting version statistics in the given object, or stop if 
+     * <code>versionStatistics</code> is <code>null</code>. Versions committed before are 
+     * not counted as retained.</p>
+     */
+    public void setVersionStatistics(VersionStatistics versionStatistics)
+    {
+        this.versionStatistics = versionStatistics;
+    }
+    
+    /**
+     * <p>Return the maximum number of write transactions a running transaction may lag
+     * behind, or <code>0</code> if there is no limit (the default).</p>
+     */
+    public long getMaxVersionLag()
+    {
+        return maxVersionLag;
+    }
+    
+    /**
+     * <p>
+     * Bound the number of old versions of transactional values kept in memory. Old 
+     * versions are normally kept until all transactions that may read them have finished,
+     * so one long running transaction, such as an analytics query over a graph that keeps
+     * being modified, makes memory grow with every commit. With a maximum lag of 
+     * <code>n</code>, the versions that only transactions started before the last 
+     * <code>n</code> write commits can read are discarded. Such a stale transaction fails
+     * with a {@link StaleTransactionException} if it reads one of them and, when run by
+     * {@link #transact(Callable, HGTransactionConfig)}, is retried with the latest 
+     * versions.
+     * </p>
+     * 
+     * @param maxVersionLag The maximum lag, <code>0</code> for no limit.
+     */
+    public void setMaxVersionLag(long maxVersionLag)
+    {
+        if (maxVersionLag < 0)
+            throw new IllegalArgumentException("maxVersionLag must not be negative");
+        this.maxVersionLag = maxVersionLag;
+    }
+    
+    /**
+     * Discard the versions that fall behind the maximum lag after the commit of the 
+     * given record. Called with the COMMIT_LOCK held.
+     */
+    void enforceVersionLag(ActiveTransactionsRecord latest)
+    {
+        long lag = maxVersionLag;
+        if (lag == 0)
+            versionFrontier = latest; // don't keep old records reachable
+        else
+            versionFrontier = versionFrontier.forceCleanUpTo(latest.transactionNumber - lag);
+    }
+    
+    /**
+     * <p>Return the group commit coordinator of this transaction manager, used when the
+     * storage transactions implement {@link HGGroupCommitTransaction}.</p>
+     */
+    public GroupCommit getGroupCommit()
+    {
+        return groupCommit;
+    }
     
 	/**
 	 * <p>
@@ -181,17 +319,22 @@ public class HGTransactionManager
 	 * @return The newly created transaction.
 	 */
 	HGTransaction createTransaction(HGTransaction parent, HGTransactionConfig config)
-	{	
-	    HGStorageTransaction storageTx = config.isNoStorage() || !enabled ? null
-                                        : factory.createTransaction(getContext(), config, parent);
+	{	
+	    // Snapshot reads go to storage without a transaction, which is what storage 
+	    // implementations do when the current storage transaction is a VanillaTransaction.
+	    boolean snapshot = config.isSnapshot() || (parent != null && parent.isSnapshot());
+	    HGStorageTransaction storageTx = config.isNoStorage() || !enabled ? null
+	                                    : snapshot ? SNAPSHOT_STORAGE 
+                                        : factory.createTransaction(getContext(), config, parent);
 	    ActiveTransactionsRecord activeRecord = mostRecentRecord.getRecordForNewTransaction();
 		if (enabled)
 		{		    
-			HGTransaction result = new HGTransaction(getContext(),
-			                                         parent,
-			                                         activeRecord,
-			                                         storageTx,
-			                                         config.isReadonly());
+			HGTransaction result = new HGTransaction(getContext(),
+			                                         parent,
+			                                         activeRecord,
+			                                         storageTx,
+			                                         config.isReadonly() || snapshot);
+			result.setSnapshot(snapshot);
 			if (txMonitor != null)
 				txMonitor.transactionCreated(result);
 			return result;
@@ -358,16 +501,18 @@ public class HGTransactionManager
 	 * <p>
 	 * Perform a unit of work encapsulated as a transaction and return the result. This method
 	 * explicitly allows deadlock (or write conflicts) to occur and it will re-attempt the transaction in such a 
-	 * case indefinitely. In order for the transaction to eventually complete, the underlying
-	 * transactional system must be configured to be fair or to prioritize transaction randomly
-	 * (which is the default behavior).
+	 * case as decided by the {@link HGRetryPolicy} of the configuration, or by the default
+	 * retry policy of this transaction manager. That policy waits a random, exponentially
+	 * growing time between attempts and retries indefinitely. It only lets transactions that
+	 * keep failing run ahead of new ones once {@link BackoffRetryPolicy#setEscalateAfter(int)}
+	 * has been called on it.
 	 * </p>
 	 * 
 	 * <p>
 	 * If the <code>transaction.call()</code> returns without an exception, but the underlying
 	 * database transaction has already been committed or aborted, this method return without
 	 * doing anything further. Otherwise, upon a normal return from <code>transaction.call()</code>
-	 * it will try to commit and re-try indefinitely if the commit fails.
+	 * it will try to commit and re-try the same way if the commit fails.
 	 * </p>
 	 * 
 	 * <p>
@@ -380,63 +525,143 @@ public class HGTransactionManager
 	 * @param config The transaction configuration parameters.
 	 * @return The result of <code>transaction.call()</code> or <code>null</code> if the transaction
 	 * was aborted by the application by throwing a {@link HGUserAbortException}.
-	 * @throws The method will (re)throw any exception that does not result from a deadlock.
+	 * @throws The method will (re)throw any exception that does not result from a deadlock, and
+	 * the last conflict exception when the retry policy gives up.
 	 */
 	public <V> V transact(Callable<V> transaction, HGTransactionConfig config)
 	{
-		// We retry for as long as it takes. There's no reason
-		// why a transaction shouldn't eventually be able to acquire
-		// the locks it needs.
-		while (true)
-		{		    
-			beginTransaction(config);
-			V result = null;
+		// Conflicts are retried for as long as the policy allows, which by default is
+		// for as long as it takes. There's no reason why a transaction shouldn't
+		// eventually be able to acquire the locks it needs.
+		HGRetryPolicy policy = config.getRetryPolicy() != null ? config.getRetryPolicy() : defaultRetryPolicy;
+		RetryStatistics stats = policy.getStatistics();
+		boolean topLevel = getContext().getCurrent() == null;
+		boolean escalated = false;
+		boolean success = false;
+		int conflicts = 0;
+		stats.transactionStarted();
+		try
+		{
+			while (true)
+			{
+				if (topLevel && !escalated)
+					awaitEscalated();
+				beginTransaction(config);
+				V result = null;
+				Throwable failure = null;
+				try
+				{
+					result = transaction.call();
+				}
+				catch (HGUserAbortException ex)
+				{
+					try { endTransaction(false); }
+					catch (HGTransactionException tex) { tex.printStackTrace(System.err); }
+					return null;
+				}
+				catch (Throwable t)
+				{
+					try { endTransaction(false); }
+					catch (HGTransactionException tex) { tex.printStackTrace(System.err); }
+					failure = t;
+				}
+				if (failure == null)
+				{
+					try
+					{
+						endTransaction(true);
+						successful.incrementAndGet(); // "successful" means not conflicting with other transactions
+						success = true;
+						return result;
+					}
+					catch (Throwable t)
+					{
+						failure = t;
+					}
+				}
+				if (HGUtils.getRootCause(failure) instanceof TransactionIsReadonlyException && 
+				    config.isWriteUpgradable())
+				{
+					HGTransactionConfig upgraded = new HGTransactionConfig();
+					upgraded.setRetryPolicy(config.getRetryPolicy());
+					config = upgraded;
+					continue;
+				}
+				handleTxException(failure); // will re-throw if we can't retry the transaction
+				conflicted.incrementAndGet();
+				conflicts++;
+				long delay = policy.getRetryDelay(conflicts);
+				if (delay < 0)
+				{
+					stats.gaveUp();
+					rethrow(failure);
+				}
+				stats.conflict(delay);
+				if (topLevel && !escalated && policy.shouldEscalate(conflicts))
+				{
+					escalated = true;
+					escalatedCount.incrementAndGet();
+					stats.escalated();
+				}
+				if (delay > 0)
+					LockSupport.parkNanos(delay);
+			}
+		}
+		finally
+		{
+			stats.transactionEnded(conflicts, success);
+			if (escalated)
+				endEscalation();
+		}
+	}
+	
+	private void rethrow(Throwable t)
+	{
+		if (t instanceof RuntimeException)
+			throw (RuntimeException)t;
+		else if (t instanceof Error)
+			throw (Error)t;
+		else
+			throw new HGException(t);
+	}
+	
+	/**
+	 * Hold back while some escalated transaction is running, but no longer than the
+	 * escalation timeout so that a slow escalated transaction can't stall everything.
+	 */
+	private void awaitEscalated()
+	{
+		if (escalatedCount.get() == 0)
+			return;
+		long nanos = TimeUnit.MILLISECONDS.toNanos(escalationTimeout);
+		escalationLock.lock();
+		try
+		{
+			while (escalatedCount.get() > 0 && nanos > 0)
+				nanos = escalationEnded.awaitNanos(nanos);
+		}
+		catch (InterruptedException ex)
+		{
+			Thread.currentThread().interrupt();
+		}
+		finally
+		{
+			escalationLock.unlock();
+		}
+	}
+	
+	private void endEscalation()
+	{
+		if (escalatedCount.decrementAndGet() == 0)
+		{
+			escalationLock.lock();
 			try
-			{
-				result = transaction.call();
-			}
-			catch (HGUserAbortException ex)
-			{
-				try { endTransaction(false); }
-				catch (HGTransactionException tex) { tex.printStackTrace(System.err); }
-				return null;
-			}
-			catch (Throwable t)
-			{
-				try { endTransaction(false); }
-				catch (HGTransactionException tex) { tex.printStackTrace(System.err); }
-				if (HGUtils.getRootCause(t) instanceof TransactionIsReadonlyException && 
-				    config.isWriteUpgradable())
-				{
-				    config = HGTransactionConfig.DEFAULT;
-				}
-				else
-				{
-    				handleTxException(t); // will re-throw if we can't retry the transaction
-    				conflicted.incrementAndGet();
-				}
-//				    System.out.println("Retrying transaction");
-				continue;
-			}
-			try
-			{
-				endTransaction(true);
-				successful.incrementAndGet(); // "successful" means not conflicting with other transactions				
-				return result;
-			}  
-			catch (Throwable t)
-			{
-                if (HGUtils.getRootCause(t) instanceof TransactionIsReadonlyException && 
-                        config.isWriteUpgradable())
-                    {
-                        config = HGTransactionConfig.DEFAULT;
-                    }
-                    else
-                    {
-                        handleTxException(t); // will re-throw if we can't retry the transaction
-                        conflicted.incrementAndGet();
-                    }
-//      	          System.out.println("Retrying transaction");
+			{
+				escalationEnded.signalAll();
+			}
+			finally
+			{
+				escalationLock.unlock();
 			}
 		}
 	}
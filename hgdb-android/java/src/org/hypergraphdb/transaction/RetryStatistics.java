@@ -0,0 +1,141 @@
+/*
+ * This file is part of the HyperGraphDB source distribution. This is copyrighted
+ * software. For permitted uses, licensing options and redistribution, please see
+ * the LicensingInformation file at the root level of the distribution.
+ *
+ * Copyright (c) 2005-2010 Kobrix Software, Inc.  All rights reserved.
+ */
+package org.hypergraphdb.transaction;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <p>
+ * Counters of the transactions run by <code>HGTransactionManager.transact</code> under
+ * a given {@link HGRetryPolicy}. They are updated by the transaction manager and meant
+ * for monitoring: a high ratio of conflicts to transactions, or a growing number of
+ * escalations, points at hot spots in the data.
+ * </p>
+ */
+public class RetryStatistics
+{
+    private final AtomicLong transactions = new AtomicLong();
+    private final AtomicLong committed = new AtomicLong();
+    private final AtomicLong conflicts = new AtomicLong();
+    private final AtomicLong gaveUp = new AtomicLong();
+    private final AtomicLong escalated = new AtomicLong();
+    private final AtomicLong backoffNanos = new AtomicLong();
+    private final AtomicLong maxConflicts = new AtomicLong();
+
+    void transactionStarted()
+    {
+        transactions.incrementAndGet();
+    }
+
+    void conflict(long delay)
+    {
+        conflicts.incrementAndGet();
+        if (delay > 0)
+            backoffNanos.addAndGet(delay);
+    }
+
+    void transactionEnded(int conflictCount, boolean success)
+    {
+        if (success)
+            committed.incrementAndGet();
+        for (long max = maxConflicts.get(); conflictCount > max; max = maxConflicts.get())
+            if (maxConflicts.compareAndSet(max, conflictCount))
+                break;
+    }
+
+    void gaveUp()
+    {
+        gaveUp.incrementAndGet();
+    }
+
+    void escalated()
+    {
+        escalated.incrementAndGet();
+    }
+
+    /**
+     * <p>Return the number of calls to <code>transact</code>.</p>
+     */
+    public long getTransactionCount()
+    {
+        return transactions.get();
+    }
+
+    /**
+     * <p>Return the number of transactions that committed.</p>
+     */
+    public long getCommittedCount()
+    {
+        return committed.get();
+    }
+
+    /**
+     * <p>Return the number of conflicts, that is of failed attempts.</p>
+     */
+    public long getConflictCount()
+    {
+        return conflicts.get();
+    }
+
+    /**
+     * <p>Return the number of transactions abandoned because the policy gave up.</p>
+     */
+    public long getGaveUpCount()
+    {
+        return gaveUp.get();
+    }
+
+    /**
+     * <p>Return the number of transactions that were escalated.</p>
+     */
+    public long getEscalatedCount()
+    {
+        return escalated.get();
+    }
+
+    /**
+     * <p>Return the total time spent backing off, in nanoseconds.</p>
+     */
+    public long getBackoffNanos()
+    {
+        return backoffNanos.get();
+    }
+
+    /**
+     * <p>Return the highest number of conflicts a single transaction went through.</p>
+     */
+    public long getMaxConflicts()
+    {
+        return maxConflicts.get();
+    }
+
+    /**
+     * <p>Set all counters back to 0.</p>
+     */
+    public void reset()
+    {
+        transactions.set(0);
+        committed.set(0);
+        conflicts.set(0);
+        gaveUp.set(0);
+        escalated.set(0);
+        backoffNanos.set(0);
+        maxConflicts.set(0);
+    }
+
+    public String toString()
+    {
+        return "RetryStatistics[transactions=" + getTransactionCount() +
+               ", committed=" + getCommittedCount() +
+               ", conflicts=" + getConflictCount() +
+               ", gaveUp=" + getGaveUpCount() +
+               ", escalated=" + getEscalatedCount() +
+               ", backoffMillis=" + getBackoffNanos() / 1000000 +
+               ", maxConflicts=" + getMaxConflicts() + "]";
+    }
+}
@@ -0,0 +1,22 @@
+/*
+ * This file is part of the HyperGraphDB source distribution. This is copyrighted
+ * software. For permitted uses, licensing options and redistribution, please see
+ * the LicensingInformation file at the root level of the distribution.
+ *
+ * Copyright (c) 2005-2010 Kobrix Software, Inc.  All rights reserved.
+ */
+package org.hypergraphdb.transaction;
+
+/**
+ * <p>
+ * Thrown when a transaction reads a value whose version it needs was discarded because
+ * the transaction lagged too far behind the latest commit (see
+ * {@link HGTransactionManager#setMaxVersionLag(long)}). Like any conflict, the transaction
+ * can be retried: <code>HGTransactionManager.transact</code> does so automatically and
+ * the new attempt reads the latest versions.
+ * </p>
+ */
+public class StaleTransactionException extends TransactionConflictException
+{
+    private static final long serialVersionUID = 2183471239814602157L;
+}
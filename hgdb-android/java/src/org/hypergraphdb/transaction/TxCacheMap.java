@@ -49,6 +49,8 @@ public class TxCacheMap<K, V>  implements CacheMap<K, V>
         
         public abstract K getKey();
         
+        public Object getOwnerKey() { return getKey(); }
+        
         public VBoxBody<V> commitImmediately(HGTransaction tx, V newValue, long txNumber)
         {
             return super.commit(tx, newValue, txNumber);            
@@ -358,7 +360,12 @@ public class TxCacheMap<K, V>  implements CacheMap<K, V>
                 // sneaks in as latest as soon as it is being read from disk. I could not find a way to 
                 // explain way short of blaming BerkleyDB. At least the tests pass with the below. --Boris 
                 else if (!tx.isReadOnly())
+                {
+                    ConflictMonitor monitor = txManager.conflictMonitor;
+                    if (monitor != null)
+                        monitor.conflict(box);
                     throw new TransactionConflictException();
+                }
                 while (b != null && b.version > tx.getNumber())
                     b = b.next;
                 if (b != null && b.version == tx.getNumber())
@@ -393,6 +400,26 @@ public class TxCacheMap<K, V>  implements CacheMap<K, V>
         else synchronized (M) { M.remove((K)key); }
     }
     
+    /**
+     * Drop the given box from the cache only if it is still the one associated with 
+     * <code>key</code>. Return <code>true</code> if it was removed. This lets eviction 
+     * logic drop a box it has examined without holding a lock that would block 
+     * concurrent readers.
+     */
+    @SuppressWarnings("unchecked")
+    public boolean drop(K key, Box box)
+    {
+        if (M instanceof ConcurrentMap)
+            return ((ConcurrentMap<K, Box>)M).remove(key, box);
+        else synchronized (M)
+        {
+            if (M.get(key) != box)
+                return false;
+            M.remove(key);
+            return true;
+        }
+    }
+    
     public int mapSize()
     {
         return M.size();
@@ -170,6 +170,12 @@ public class TxCacheSet<Key, E> extends TxSet<E>
             loadedAt = txManager.mostRecentRecord.transactionNumber;
         }
         
+        @SuppressWarnings("unchecked")
+        public Object getOwnerKey()
+        {
+            return ((TxCacheSet<Key, E>)thisSet).key;
+        }
+        
         @SuppressWarnings("unchecked")
         HGSortedSet<E> getLastCommitted(HGTransaction tx)
         {
@@ -70,6 +70,11 @@ public class TxMap<K, V> implements Map<K, V>
             if (body.version == 0)
                 synchronized (M) { M.remove(key.get()); }
         }
+        
+        public Object getOwnerKey()
+        {
+            return key.get();
+        }
     }
         
     @SuppressWarnings("unchecked")
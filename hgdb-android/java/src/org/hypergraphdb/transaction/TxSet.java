@@ -291,7 +291,10 @@ public class TxSet<E> implements HGSortedSet<E>
         
         HGSortedSet<E> getLastCommitted(HGTransaction tx)
         {
-            return body.getBody(tx.getNumber()).value;            
+            VBoxBody<HGSortedSet<E>> b = body.getBody(tx.getNumber());
+            if (b == null)
+                throw tx.staleRead();
+            return b.value;            
         }
         
         @Override
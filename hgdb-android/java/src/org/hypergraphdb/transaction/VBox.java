@@ -122,4 +122,16 @@ public class VBox<E>
     public void finish(HGTransaction tx)
     {        
     }
+    
+    /**
+     * <p>
+     * Return what this box holds the value of, for conflict reporting (see 
+     * {@link ConflictMonitor}): the key of a map entry or of a cached set, or 
+     * <code>null</code> for a standalone box.
+     * </p>
+     */
+    public Object getOwnerKey()
+    {
+        return null;
+    }
 }
\ No newline at end of file
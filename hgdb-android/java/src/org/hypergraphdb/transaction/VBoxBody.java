@@ -70,10 +70,15 @@ public class VBoxBody<E>
         this.value = value;
     }
 
+    /**
+     * Return the most recent body not newer than <code>maxVersion</code>, or 
+     * <code>null</code> if that version was discarded (see 
+     * HGTransactionManager.setMaxVersionLag).
+     */
     public VBoxBody<E> getBody(long maxVersion)
     {
         VBoxBody<E> b = this;
-        while (b.version > maxVersion)
+        while (b != null && b.version > maxVersion)
             b = b.next;
         return b;
         // return ((version > maxVersion) ? next.getBody(maxVersion) : this);
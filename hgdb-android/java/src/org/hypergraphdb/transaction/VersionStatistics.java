@@ -0,0 +1,150 @@
+/*
+ * This file is part of the HyperGraphDB source distribution. This is copyrighted
+ * software. For permitted uses, licensing options and redistribution, please see
+ * the LicensingInformation file at the root level of the distribution.
+ *
+ * Copyright (c) 2005-2010 Kobrix Software, Inc.  All rights reserved.
+ */
+package org.hypergraphdb.transaction;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.hypergraphdb.util.Cons;
+
+/**
+ * <p>
+ * Counters about the old versions of transactional values kept in memory. Every commit
+ * adds a new version to each box it writes, and the previous versions are kept as long
+ * as an older transaction may still read them, so a single long running transaction
+ * makes version chains grow on every box written in the meantime. The statistics are
+ * collected only when set with {@link HGTransactionManager#setVersionStatistics(VersionStatistics)}.
+ * </p>
+ *
+ * <p>
+ * The chain length of each written box is measured after every commit, up to
+ * {@link #CHAIN_SCAN_LIMIT} versions. Retained versions are counted per commit: each
+ * version committed keeps its predecessor until all older transactions have finished,
+ * so the count is an upper bound on the number of old versions in memory.
+ * </p>
+ */
+public class VersionStatistics
+{
+    /**
+     * The maximum chain length measured, longer chains are counted as this long.
+     */
+    public static final int CHAIN_SCAN_LIMIT = 1024;
+
+    private final AtomicLong committed = new AtomicLong();
+    private final AtomicLong retained = new AtomicLong();
+    private final AtomicLong maxRetained = new AtomicLong();
+    private final AtomicLong chains = new AtomicLong();
+    private final AtomicLong chainTotal = new AtomicLong();
+    private final AtomicLong maxChainLength = new AtomicLong();
+    private final AtomicLong staleReads = new AtomicLong();
+
+    private static void max(AtomicLong counter, long value)
+    {
+        for (long max = counter.get(); value > max; max = counter.get())
+            if (counter.compareAndSet(max, value))
+                break;
+    }
+
+    void committed(Cons<VBoxBody<?>> bodies, int count)
+    {
+        committed.addAndGet(count);
+        max(maxRetained, retained.addAndGet(count));
+        for (VBoxBody<?> body : bodies)
+        {
+            int length = 0;
+            for (VBoxBody<?> b = body; b != null && length < CHAIN_SCAN_LIMIT; b = b.next)
+                length++;
+            chains.incrementAndGet();
+            chainTotal.addAndGet(length);
+            max(maxChainLength, length);
+        }
+    }
+
+    void cleaned(int count)
+    {
+        retained.addAndGet(-count);
+    }
+
+    void staleRead()
+    {
+        staleReads.incrementAndGet();
+    }
+
+    /**
+     * <p>Return the number of versions committed.</p>
+     */
+    public long getCommittedVersions()
+    {
+        return committed.get();
+    }
+
+    /**
+     * <p>Return the number of committed versions whose predecessors are still kept for
+     * older running transactions.</p>
+     */
+    public long getRetainedVersions()
+    {
+        return retained.get();
+    }
+
+    /**
+     * <p>Return the highest value of {@link #getRetainedVersions()}.</p>
+     */
+    public long getMaxRetainedVersions()
+    {
+        return maxRetained.get();
+    }
+
+    /**
+     * <p>Return the average length of the version chain of a box after a commit.</p>
+     */
+    public double getAverageChainLength()
+    {
+        long n = chains.get();
+        return n == 0 ? 0 : (double)chainTotal.get() / n;
+    }
+
+    /**
+     * <p>Return the longest version chain of a box seen after a commit.</p>
+     */
+    public long getMaxChainLength()
+    {
+        return maxChainLength.get();
+    }
+
+    /**
+     * <p>Return the number of reads that failed with a {@link StaleTransactionException}.</p>
+     */
+    public long getStaleReads()
+    {
+        return staleReads.get();
+    }
+
+    /**
+     * <p>Set all counters back to 0, except the number of retained versions which reflects
+     * the current state of memory.</p>
+     */
+    public void reset()
+    {
+        committed.set(0);
+        maxRetained.set(retained.get());
+        chains.set(0);
+        chainTotal.set(0);
+        maxChainLength.set(0);
+        staleReads.set(0);
+    }
+
+    public String toString()
+    {
+        return "VersionStatistics[committed=" + getCommittedVersions() +
+               ", retained=" + getRetainedVersions() +
+               ", maxRetained=" + getMaxRetainedVersions() +
+               ", averageChain=" + String.format("%.2f", getAverageChainLength()) +
+               ", maxChain=" + getMaxChainLength() +
+               ", staleReads=" + getStaleReads() + "]";
+    }
+}
@@ -59,9 +59,36 @@ public class ArrayBasedSet<E> implements HGSortedSet<E>, CloneMe
 	
 	int lookup(E key)
 	{
-		int low = 0;
-		int high = size-1;
-
+		return lookup(key, 0, size - 1);
+	}
+	
+	// Negative if x is smaller than key, positive if it is greater.
+	private int compare(E x, E key)
+	{
+		return comparator == null ? -((Comparable<E>)key).compareTo(x) : comparator.compare(x, key);
+	}
+	
+	/**
+	 * <p>
+	 * Exponential search for <code>key</code> among the elements following position
+	 * <code>from</code>, whose element is smaller than <code>key</code>: probe 1, 2, 4... 
+	 * positions ahead until passing the key, then binary search the last gap. Finding an 
+	 * element <code>d</code> positions away takes O(log d) comparisons, which is what makes
+	 * moving forward through the set with <code>goTo</code> cheap. 
+	 * </p>
+	 */
+	int gallop(E key, int from)
+	{
+		int bound = 1;
+		while (from + bound < size && compare(array[from + bound], key) < 0)
+			bound <<= 1;
+		return lookup(key, from + (bound >> 1) + 1, Math.min(from + bound, size - 1));
+	}
+	
+	// Binary search between positions low and high inclusive, returns the position of
+	// the key if found and -(insertion point + 1) otherwise.
+	int lookup(E key, int low, int high)
+	{
 		Comparable<E> ckey = comparator == null ? (Comparable<E>)key : null;
 		while (low <= high) 
 		{
@@ -467,7 +494,11 @@ public class ArrayBasedSet<E> implements HGSortedSet<E>, CloneMe
 		}
 		public GotoResult goTo(E value, boolean exactMatch)
 		{
-			int idx = lookup(value);			
+			int idx;
+			if (pos >= 0 && pos < size && compare(array[pos], value) < 0)
+				idx = gallop(value, pos);
+			else
+				idx = lookup(value);			
 			if (idx >= 0)
 			{
 				pos = idx;
@@ -44,6 +44,15 @@ public class VarContext
         @Override protected HashMap<String, Object> initialValue() {
             return new HashMap<String, Object>();
     }};
+	// the context variables of this one are read from in the current thread, see bind
+	private ThreadLocal<VarContext> binding = new ThreadLocal<VarContext>();
+	
+	private Object lookup(String name)
+	{
+		Object result = locals.get().get(name);
+		return result == null ? vars.get(name) : result;
+	}
+	
 	private class VarImpl<T> implements Var<T>
 	{
 		String name;
@@ -51,15 +60,56 @@ public class VarContext
 		@SuppressWarnings("unchecked")
 		public T get() 
 		{ 
-			T result = (T)locals.get().get(name);
-			return result == null ? (T)vars.get(name) : result;
+			VarContext bound = binding.get();
+			return (T)(bound == null ? lookup(name) : bound.lookup(name));
 		}
 		public void set(T value) 
 		{ 
 			locals.get().put(name, value); 
 		}	
+		VarContext context()
+		{
+			return VarContext.this;
+		}
 	}
 
+	/**
+	 * <p>
+	 * Make the variables of this context read their values from <code>ctx</code> in the
+	 * current thread, until bound to another context. Binding a context to itself restores
+	 * its own values. This lets a query plan compiled with the variables of one context
+	 * be executed with the values of another context having the same variable names.
+	 * </p>
+	 *
+	 * @return The context the variables were bound to before, this context if they
+	 * were not bound, so that the previous binding can be restored.
+	 */
+	public VarContext bind(VarContext ctx)
+	{
+		VarContext previous = binding.get();
+		if (ctx == this)
+			binding.remove();
+		else
+			binding.set(ctx);
+		return previous == null ? this : previous;
+	}
+	
+	/**
+	 * <p>Return the name of a variable created by a <code>VarContext</code>.</p>
+	 */
+	public static String getName(Var<?> var)
+	{
+		return ((VarImpl<?>)var).name;
+	}
+	
+	/**
+	 * <p>Return the context a variable was created by.</p>
+	 */
+	public static VarContext getContext(Var<?> var)
+	{
+		return ((VarImpl<?>)var).context();
+	}
+	
 	public boolean isSameVar(Var<?> v1, Var<?> v2)
 	{
 		return ((VarImpl<?>)v1).name.equals(((VarImpl<?>)v2).name);
@@ -0,0 +1,4 @@
+package org.hypergraphdb.benchmarks.jmh_generated;
+public class AddBenchmark_jmhType extends AddBenchmark_jmhType_B3 {
+}
+
@@ -0,0 +1,4 @@
+package org.hypergraphdb.benchmarks.jmh_generated;
+public class CommitContentionBenchmark_ThreadState_jmhType extends CommitContentionBenchmark_ThreadState_jmhType_B3 {
+}
+
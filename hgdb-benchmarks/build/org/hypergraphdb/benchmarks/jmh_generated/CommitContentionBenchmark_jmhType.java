@@ -0,0 +1,4 @@
+package org.hypergraphdb.benchmarks.jmh_generated;
+public class CommitContentionBenchmark_jmhType extends CommitContentionBenchmark_jmhType_B3 {
+}
+
@@ -0,0 +1,4 @@
+package org.hypergraphdb.benchmarks.jmh_generated;
+public class GetBenchmark_jmhType extends GetBenchmark_jmhType_B3 {
+}
+
@@ -0,0 +1,4 @@
+package org.hypergraphdb.benchmarks.jmh_generated;
+public class HandleFactoryBenchmark_jmhType extends HandleFactoryBenchmark_jmhType_B3 {
+}
+
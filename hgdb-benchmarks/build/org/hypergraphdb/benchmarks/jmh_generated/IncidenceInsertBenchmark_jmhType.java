@@ -0,0 +1,4 @@
+package org.hypergraphdb.benchmarks.jmh_generated;
+public class IncidenceInsertBenchmark_jmhType extends IncidenceInsertBenchmark_jmhType_B3 {
+}
+
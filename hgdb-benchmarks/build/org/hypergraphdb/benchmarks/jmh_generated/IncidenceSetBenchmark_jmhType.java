@@ -0,0 +1,4 @@
+package org.hypergraphdb.benchmarks.jmh_generated;
+public class IncidenceSetBenchmark_jmhType extends IncidenceSetBenchmark_jmhType_B3 {
+}
+
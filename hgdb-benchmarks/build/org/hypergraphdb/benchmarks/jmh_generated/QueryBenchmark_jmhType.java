@@ -0,0 +1,4 @@
+package org.hypergraphdb.benchmarks.jmh_generated;
+public class QueryBenchmark_jmhType extends QueryBenchmark_jmhType_B3 {
+}
+
@@ -0,0 +1,4 @@
+package org.hypergraphdb.benchmarks.jmh_generated;
+public class TraversalBenchmark_jmhType extends TraversalBenchmark_jmhType_B3 {
+}
+
@@ -0,0 +1,73 @@
+/*
+ * This file is part of the HyperGraphDB source distribution. This is copyrighted
+ * software. For permitted uses, licensing options and redistribution, please see
+ * the LicensingInformation file at the root level of the distribution.
+ *
+ * Copyright (c) 2005-2010 Kobrix Software, Inc.  All rights reserved.
+ */
+package org.hypergraphdb.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.hypergraphdb.HGHandle;
+import org.hypergraphdb.HGPlainLink;
+import org.hypergraphdb.HyperGraph;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * <p>
+ * Throughput of <code>HyperGraph.add</code> for nodes and for links, each add being
+ * its own transaction.
+ * </p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class AddBenchmark
+{
+    BenchmarkGraph bg;
+    HyperGraph graph;
+    HGHandle a, b;
+    int counter = 0;
+    
+    @Setup(Level.Trial)
+    public void setup()
+    {
+        bg = new BenchmarkGraph();
+        graph = bg.getGraph();
+        a = graph.add("a");
+        b = graph.add("b");
+    }
+    
+    @TearDown(Level.Trial)
+    public void tearDown()
+    {
+        bg.destroy();
+    }
+    
+    @Benchmark
+    public HGHandle addNode()
+    {
+        return graph.add(counter++);
+    }
+    
+    @Benchmark
+    public HGHandle addLink()
+    {
+        return graph.add(new HGPlainLink(a, b));
+    }
+}
@@ -0,0 +1,112 @@
+/*
+ * This file is part of the HyperGraphDB source distribution. This is copyrighted
+ * software. For permitted uses, licensing options and redistribution, please see
+ * the LicensingInformation file at the root level of the distribution.
+ *
+ * Copyright (c) 2005-2010 Kobrix Software, Inc.  All rights reserved.
+ */
+package org.hypergraphdb.benchmarks;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.hypergraphdb.HGHandle;
+import org.hypergraphdb.HGLink;
+import org.hypergraphdb.HGPersistentHandle;
+import org.hypergraphdb.HGPlainLink;
+import org.hypergraphdb.HGQuery.hg;
+import org.hypergraphdb.HyperGraph;
+import org.hypergraphdb.algorithms.analytics.CSRGraph;
+import org.hypergraphdb.algorithms.analytics.ConnectedComponents;
+import org.hypergraphdb.algorithms.analytics.KCore;
+import org.hypergraphdb.algorithms.analytics.PageRank;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * <p>
+ * Whole graph analytics on a random graph with <code>nodes</code> nodes and 
+ * <code>degree</code> outgoing binary links per node: taking a <code>CSRGraph</code>
+ * snapshot, compared with loading every link with <code>HyperGraph.get</code>, and
+ * running PageRank, weakly connected components and k-core decomposition on the snapshot.
+ * After the first invocation, <code>loadLinks</code> finds the links in the atom cache while
+ * <code>snapshot</code> always reads storage, so the two only compare on a cold graph.
+ * </p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class AnalyticsBenchmark
+{
+    @Param({"20000"})
+    int nodes;
+    
+    @Param({"3"})
+    int degree;
+    
+    BenchmarkGraph bg;
+    HyperGraph graph;
+    CSRGraph snapshot;
+    
+    @Setup
+    public void setup()
+    {
+        bg = new BenchmarkGraph();
+        graph = bg.getGraph();
+        List<HGPersistentHandle> all = bg.addNodes(nodes);
+        bg.addRandomLinks(all, degree, 11);
+        snapshot = CSRGraph.snapshot(graph);
+    }
+    
+    @TearDown
+    public void tearDown()
+    {
+        bg.destroy();
+    }
+    
+    @Benchmark
+    public int snapshot()
+    {
+        return CSRGraph.snapshot(graph).getEdgeCount();
+    }
+    
+    @Benchmark
+    public int loadLinks()
+    {
+        int edges = 0;
+        for (HGHandle h : hg.<HGHandle>findAll(graph, hg.type(HGPlainLink.class)))
+            edges += ((HGLink)graph.get(h)).getArity() - 1;
+        return edges;
+    }
+    
+    @Benchmark
+    public double [] pageRank()
+    {
+        return PageRank.compute(snapshot);
+    }
+    
+    @Benchmark
+    public int [] connectedComponents()
+    {
+        return ConnectedComponents.compute(snapshot);
+    }
+    
+    @Benchmark
+    public int [] kCore()
+    {
+        return KCore.compute(snapshot);
+    }
+}
@@ -0,0 +1,98 @@
+/*
+ * This file is part of the HyperGraphDB source distribution. This is copyrighted
+ * software. For permitted uses, licensing options and redistribution, please see
+ * the LicensingInformation file at the root level of the distribution.
+ *
+ * Copyright (c) 2005-2010 Kobrix Software, Inc.  All rights reserved.
+ */
+package org.hypergraphdb.benchmarks;
+
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.hypergraphdb.HGConfiguration;
+import org.hypergraphdb.HGPersistentHandle;
+import org.hypergraphdb.HyperGraph;
+import org.hypergraphdb.cache.ShardedAtomCache;
+import org.hypergraphdb.cache.TinyLFUAtomCache;
+import org.hypergraphdb.cache.WeakRefAtomCache;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * <p>
+ * Concurrent <code>HyperGraph.get</code> of atoms picked at random among many more
+ * atoms than stay strongly reachable, so that threads constantly hit both the live handle
+ * lookup and the load path while the cache cleanup thread drops garbage collected entries.
+ * Compares {@link WeakRefAtomCache}, {@link ShardedAtomCache} and {@link TinyLFUAtomCache}
+ * with a budget of a fifth of the atoms.
+ * </p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx256m")
+@Threads(8)
+public class AtomCacheBenchmark
+{
+    static final int ATOMS = 50000;
+
+    @Param({"weakref", "sharded", "tinylfu"})
+    String cache;
+
+    BenchmarkGraph bg;
+    HyperGraph graph;
+    HGPersistentHandle [] handles;
+
+    @Setup(Level.Trial)
+    public void setup()
+    {
+        HGConfiguration config = new HGConfiguration();
+        if (cache.equals("sharded"))
+            config.setAtomCacheImplementation(ShardedAtomCache.class);
+        else if (cache.equals("tinylfu"))
+        {
+            config.setAtomCacheImplementation(TinyLFUAtomCache.class);
+            config.setAtomCacheCapacity(ATOMS / 5);
+        }
+        else
+            config.setAtomCacheImplementation(WeakRefAtomCache.class);
+        bg = new BenchmarkGraph(config);
+        List<HGPersistentHandle> nodes = bg.addNodes(ATOMS);
+        handles = nodes.toArray(new HGPersistentHandle[nodes.size()]);
+        graph = bg.reopen();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown()
+    {
+        bg.destroy();
+    }
+
+    @State(Scope.Thread)
+    public static class ThreadRandom
+    {
+        Random random = new Random(Thread.currentThread().getId());
+    }
+
+    @Benchmark
+    public Object get(ThreadRandom r)
+    {
+        return graph.get(handles[r.random.nextInt(handles.length)]);
+    }
+}
@@ -0,0 +1,136 @@
+/*
+ * This file is part of the HyperGraphDB source distribution. This is copyrighted
+ * software. For permitted uses, licensing options and redistribution, please see
+ * the LicensingInformation file at the root level of the distribution.
+ *
+ * Copyright (c) 2005-2010 Kobrix Software, Inc.  All rights reserved.
+ */
+package org.hypergraphdb.benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.hypergraphdb.HGConfiguration;
+import org.hypergraphdb.HGEnvironment;
+import org.hypergraphdb.HGHandle;
+import org.hypergraphdb.HGPersistentHandle;
+import org.hypergraphdb.HGPlainLink;
+import org.hypergraphdb.HyperGraph;
+
+/**
+ * <p>
+ * Helper managing a <code>HyperGraph</code> instance, backed by the default 
+ * <code>BJEStorageImplementation</code>, in a fresh temporary directory that is
+ * deleted when the benchmark is done with it. Also builds the synthetic graphs the
+ * benchmarks run over.
+ * </p>
+ */
+public class BenchmarkGraph
+{
+    private File location;
+    private HGConfiguration config;
+    private HyperGraph graph;
+    
+    public BenchmarkGraph()
+    {
+        this(new HGConfiguration());
+    }
+    
+    public BenchmarkGraph(HGConfiguration config)
+    {
+        this.config = config;
+        try
+        {
+            location = File.createTempFile("hgdb-bench", "");
+            location.delete();
+            location.mkdirs();
+        }
+        catch (IOException ex)
+        {
+            throw new RuntimeException(ex);
+        }
+        open();
+    }
+    
+    public HyperGraph open()
+    {
+        graph = HGEnvironment.get(location.getAbsolutePath(), config);
+        return graph;
+    }
+    
+    public void close()
+    {
+        if (graph != null && graph.isOpen())
+            graph.close();
+    }
+    
+    /**
+     * <p>Close and reopen the database so that all caches start out empty.</p>
+     */
+    public HyperGraph reopen()
+    {
+        close();
+        return open();
+    }
+    
+    /**
+     * <p>Close the database and delete its files.</p>
+     */
+    public void destroy()
+    {
+        close();
+        delete(location);
+    }
+    
+    public HyperGraph getGraph()
+    {
+        return graph;
+    }
+    
+    public HGConfiguration getConfig()
+    {
+        return config;
+    }
+    
+    private static void delete(File f)
+    {
+        File [] children = f.listFiles();
+        if (children != null)
+            for (File c : children)
+                delete(c);
+        f.delete();
+    }
+    
+    /**
+     * <p>Add <code>count</code> <code>Integer</code> nodes and return their persistent handles.</p>
+     */
+    public List<HGPersistentHandle> addNodes(int count)
+    {
+        List<HGPersistentHandle> result = new ArrayList<HGPersistentHandle>(count);
+        for (int i = 0; i < count; i++)
+            result.add(graph.getPersistentHandle(graph.add(i)));
+        return result;
+    }
+    
+    /**
+     * <p>Add <code>linksPerNode</code> binary links from every node to nodes chosen
+     * at random and return the handles of the links.</p>
+     */
+    public List<HGPersistentHandle> addRandomLinks(List<HGPersistentHandle> nodes, 
+                                                   int linksPerNode, 
+                                                   long seed)
+    {
+        Random random = new Random(seed);
+        List<HGPersistentHandle> result = new ArrayList<HGPersistentHandle>(nodes.size()*linksPerNode);
+        for (HGHandle node : nodes)
+            for (int i = 0; i < linksPerNode; i++)
+            {
+                HGHandle other = nodes.get(random.nextInt(nodes.size()));
+                result.add(graph.getPersistentHandle(graph.add(new HGPlainLink(node, other))));
+            }
+        return result;
+    }
+}
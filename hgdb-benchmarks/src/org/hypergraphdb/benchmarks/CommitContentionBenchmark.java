@@ -0,0 +1,92 @@
+/*
+ * This file is part of the HyperGraphDB source distribution. This is copyrighted
+ * software. For permitted uses, licensing options and redistribution, please see
+ * the LicensingInformation file at the root level of the distribution.
+ *
+ * Copyright (c) 2005-2010 Kobrix Software, Inc.  All rights reserved.
+ */
+package org.hypergraphdb.benchmarks;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+
+import org.hypergraphdb.HGHandle;
+import org.hypergraphdb.HGPlainLink;
+import org.hypergraphdb.HyperGraph;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * <p>
+ * Throughput of small write transactions committed concurrently by several threads. 
+ * Each transaction reads the incidence set of one of <code>hotAtoms</code> hub atoms,
+ * picked at random, and adds a link pointing to it, so fewer hubs means more conflicts
+ * on the hubs' incidence sets and more retries.
+ * </p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(4)
+public class CommitContentionBenchmark
+{
+    @Param({"1", "64"})
+    int hotAtoms;
+    
+    BenchmarkGraph bg;
+    HyperGraph graph;
+    List<HGHandle> hubs;
+    
+    @State(Scope.Thread)
+    public static class ThreadState
+    {
+        Random random = new Random(Thread.currentThread().getId());
+    }
+    
+    @Setup(Level.Trial)
+    public void setup()
+    {
+        bg = new BenchmarkGraph();
+        graph = bg.getGraph();
+        hubs = new ArrayList<HGHandle>();
+        for (int i = 0; i < hotAtoms; i++)
+            hubs.add(graph.add("hub" + i));
+    }
+    
+    @TearDown(Level.Trial)
+    public void tearDown()
+    {
+        bg.destroy();
+    }
+    
+    @Benchmark
+    public HGHandle commit(ThreadState state)
+    {
+        final HGHandle hub = hubs.get(state.random.nextInt(hubs.size()));
+        return graph.getTransactionManager().transact(new Callable<HGHandle>() {
+            public HGHandle call()
+            {
+                graph.getIncidenceSet(hub).size();
+                return graph.add(new HGPlainLink(hub));
+            }
+        });
+    }
+}
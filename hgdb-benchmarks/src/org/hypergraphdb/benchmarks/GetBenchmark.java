@@ -0,0 +1,98 @@
+/*
+ * This file is part of the HyperGraphDB source distribution. This is copyrighted
+ * software. For permitted uses, licensing options and redistribution, please see
+ * the LicensingInformation file at the root level of the distribution.
+ *
+ * Copyright (c) 2005-2010 Kobrix Software, Inc.  All rights reserved.
+ */
+package org.hypergraphdb.benchmarks;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.hypergraphdb.HGPersistentHandle;
+import org.hypergraphdb.HyperGraph;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * <p>
+ * Cost of <code>HyperGraph.get</code> on a warm cache, where all atoms are already
+ * loaded, and on a cold one, where the database is reopened before each measured 
+ * pass over all atoms.
+ * </p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(1)
+public class GetBenchmark
+{
+    static final int ATOMS = 10000;
+    
+    @Param({"nodes", "links"})
+    String kind;
+    
+    BenchmarkGraph bg;
+    HyperGraph graph;
+    List<HGPersistentHandle> handles;
+    
+    @Setup(Level.Trial)
+    public void setup()
+    {
+        bg = new BenchmarkGraph();
+        graph = bg.getGraph();
+        List<HGPersistentHandle> nodes = bg.addNodes(kind.equals("nodes") ? ATOMS : ATOMS / 10);
+        handles = kind.equals("nodes") ? nodes : bg.addRandomLinks(nodes, 10, 42);
+    }
+    
+    @TearDown(Level.Trial)
+    public void tearDown()
+    {
+        bg.destroy();
+    }
+    
+    @State(Scope.Benchmark)
+    public static class Cold
+    {
+        @Setup(Level.Iteration)
+        public void reopen(GetBenchmark b)
+        {
+            b.graph = b.bg.reopen();
+        }
+    }
+    
+    @Benchmark
+    @Warmup(iterations = 3, time = 1)
+    @Measurement(iterations = 5, time = 1)
+    @OperationsPerInvocation(ATOMS)
+    public void warm(Blackhole bh)
+    {
+        for (HGPersistentHandle h : handles)
+            bh.consume(graph.get(h));
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @Warmup(iterations = 2)
+    @Measurement(iterations = 5)
+    @OperationsPerInvocation(ATOMS)
+    public void cold(Cold cold, Blackhole bh)
+    {
+        for (HGPersistentHandle h : handles)
+            bh.consume(graph.get(h));
+    }
+}
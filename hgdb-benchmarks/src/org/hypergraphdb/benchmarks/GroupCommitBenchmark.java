@@ -0,0 +1,123 @@
+/*
+ * This file is part of the HyperGraphDB source distribution. This is copyrighted
+ * software. For permitted uses, licensing options and redistribution, please see
+ * the LicensingInformation file at the root level of the distribution.
+ *
+ * Copyright (c) 2005-2010 Kobrix Software, Inc.  All rights reserved.
+ */
+package org.hypergraphdb.benchmarks;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+
+import org.hypergraphdb.HGConfiguration;
+import org.hypergraphdb.HGPersistentHandle;
+import org.hypergraphdb.HyperGraph;
+import org.hypergraphdb.storage.bje.BJEConfig;
+import org.hypergraphdb.storage.bje.BJEStorageImplementation;
+import org.hypergraphdb.transaction.VBox;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * <p>
+ * Throughput of independent write transactions committed by 1, 8 and 32 threads, with
+ * and without group commit and with commits either written to the file system or synced
+ * to disk. Each transaction stores a new record under a fresh handle and updates a
+ * transactional counter of its own thread. Adding atoms wouldn't do: concurrent adds
+ * conflict on the size counters of the atom cache, whatever their values and types.
+ * Here writers never conflict with each other, so the difference is in how they queue
+ * on the commit lock and the log writes.
+ * </p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class GroupCommitBenchmark
+{
+    @Param({"false", "true"})
+    boolean groupCommit;
+
+    @Param({"false", "true"})
+    boolean syncCommits;
+
+    BenchmarkGraph bg;
+    HyperGraph graph;
+
+    @State(Scope.Thread)
+    public static class Writer
+    {
+        VBox<Long> count;
+        byte [] data = new byte[64];
+
+        @Setup(Level.Trial)
+        public void setup(GroupCommitBenchmark benchmark)
+        {
+            count = new VBox<Long>(benchmark.graph.getTransactionManager(), 0L);
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void setup()
+    {
+        HGConfiguration config = new HGConfiguration();
+        BJEConfig bjeConfig = ((BJEStorageImplementation)config.getStoreImplementation()).getConfiguration();
+        bjeConfig.setGroupCommit(groupCommit);
+        bjeConfig.setSyncCommits(syncCommits);
+        bg = new BenchmarkGraph(config);
+        graph = bg.getGraph();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown()
+    {
+        bg.destroy();
+    }
+
+    private HGPersistentHandle writeOne(final Writer writer)
+    {
+        return graph.getTransactionManager().transact(new Callable<HGPersistentHandle>() {
+            public HGPersistentHandle call()
+            {
+                writer.count.put(writer.count.get() + 1);
+                return graph.getStore().store(graph.getHandleFactory().makeHandle(), writer.data);
+            }
+        });
+    }
+
+    @Benchmark
+    @Threads(1)
+    public HGPersistentHandle writers1(Writer writer)
+    {
+        return writeOne(writer);
+    }
+
+    @Benchmark
+    @Threads(8)
+    public HGPersistentHandle writers8(Writer writer)
+    {
+        return writeOne(writer);
+    }
+
+    @Benchmark
+    @Threads(32)
+    public HGPersistentHandle writers32(Writer writer)
+    {
+        return writeOne(writer);
+    }
+}
@@ -0,0 +1,107 @@
+/*
+ * This file is part of the HyperGraphDB source distribution. This is copyrighted
+ * software. For permitted uses, licensing options and redistribution, please see
+ * the LicensingInformation file at the root level of the distribution.
+ *
+ * Copyright (c) 2005-2010 Kobrix Software, Inc.  All rights reserved.
+ */
+package org.hypergraphdb.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.hypergraphdb.HGHandleFactory;
+import org.hypergraphdb.HGPersistentHandle;
+import org.hypergraphdb.handle.LongPairHandleFactory;
+import org.hypergraphdb.handle.UUIDHandleFactory;
+import org.hypergraphdb.storage.PackedHandleArray;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * <p>
+ * Compares the <code>byte[]</code> based <code>UUIDHandleFactory</code> with the 
+ * <code>LongPairHandleFactory</code> on the basic handle operations: creating new 
+ * handles, decoding them from a buffer, hashing, comparing and serializing.
+ * </p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class HandleFactoryBenchmark
+{
+    static final int COUNT = 1024;
+    
+    @Param({"uuid", "longpair"})
+    String factory;
+    
+    HGHandleFactory handleFactory;
+    HGPersistentHandle [] handles;
+    byte [] packed;
+    
+    @Setup
+    public void setup()
+    {
+        handleFactory = factory.equals("uuid") ? UUIDHandleFactory.I : LongPairHandleFactory.I;
+        handles = new HGPersistentHandle[COUNT];
+        for (int i = 0; i < COUNT; i++)
+            handles[i] = handleFactory.makeHandle();
+        packed = PackedHandleArray.pack(handles, 16);
+    }
+    
+    @Benchmark
+    public HGPersistentHandle makeHandle()
+    {
+        return handleFactory.makeHandle();
+    }
+    
+    @Benchmark
+    @OperationsPerInvocation(COUNT)
+    public void makeHandleFromBytes(Blackhole bh)
+    {
+        for (int i = 0; i < COUNT; i++)
+            bh.consume(handleFactory.makeHandle(packed, i*16));
+    }
+    
+    @Benchmark
+    @OperationsPerInvocation(COUNT)
+    public int hashCodes()
+    {
+        int h = 0;
+        for (HGPersistentHandle x : handles)
+            h += x.hashCode();
+        return h;
+    }
+    
+    @Benchmark
+    @OperationsPerInvocation(COUNT)
+    public int compareTo()
+    {
+        int c = 0;
+        for (int i = 1; i < COUNT; i++)
+            c += handles[i].compareTo(handles[i - 1]);
+        return c;
+    }
+    
+    @Benchmark
+    @OperationsPerInvocation(COUNT)
+    public byte [] serialize()
+    {
+        for (int i = 0; i < COUNT; i++)
+            PackedHandleArray.writeHandle(handles[i], packed, i*16, 16);
+        return packed;
+    }
+}
@@ -0,0 +1,93 @@
+/*
+ * This file is part of the HyperGraphDB source distribution. This is copyrighted
+ * software. For permitted uses, licensing options and redistribution, please see
+ * the LicensingInformation file at the root level of the distribution.
+ *
+ * Copyright (c) 2005-2010 Kobrix Software, Inc.  All rights reserved.
+ */
+package org.hypergraphdb.benchmarks;
+
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+
+import org.hypergraphdb.HGConfiguration;
+import org.hypergraphdb.HGPersistentHandle;
+import org.hypergraphdb.HGPlainLink;
+import org.hypergraphdb.HyperGraph;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * <p>
+ * Inserting links whose targets are spread at random over a large set of nodes, 
+ * <code>LINKS</code> links per transaction. With <code>deferIncidenceWrites</code> off, 
+ * every incidence set entry is written to storage as the link is added, in random key order. 
+ * With it on, the entries are buffered and written sorted when the transaction commits.
+ * </p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class IncidenceInsertBenchmark
+{
+    static final int LINKS = 1000;
+    
+    @Param({"false", "true"})
+    boolean deferIncidenceWrites;
+    
+    @Param({"20000"})
+    int nodes;
+    
+    BenchmarkGraph bg;
+    HyperGraph graph;
+    List<HGPersistentHandle> targets;
+    Random random = new Random(11);
+    
+    @Setup(Level.Trial)
+    public void setup()
+    {
+        HGConfiguration config = new HGConfiguration();
+        config.setDeferIncidenceWrites(deferIncidenceWrites);
+        bg = new BenchmarkGraph(config);
+        graph = bg.getGraph();
+        targets = bg.addNodes(nodes);
+    }
+    
+    @TearDown(Level.Trial)
+    public void tearDown()
+    {
+        bg.destroy();
+    }
+    
+    @Benchmark
+    @OperationsPerInvocation(LINKS)
+    public Object insertLinks()
+    {
+        return graph.getTransactionManager().transact(new Callable<Object>() {
+            public Object call()
+            {
+                for (int i = 0; i < LINKS; i++)
+                    graph.add(new HGPlainLink(targets.get(random.nextInt(targets.size())), 
+                                              targets.get(random.nextInt(targets.size()))));
+                return null;
+            }
+        });
+    }
+}
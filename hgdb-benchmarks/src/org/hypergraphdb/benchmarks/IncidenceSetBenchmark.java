@@ -0,0 +1,104 @@
+/*
+ * This file is part of the HyperGraphDB source distribution. This is copyrighted
+ * software. For permitted uses, licensing options and redistribution, please see
+ * the LicensingInformation file at the root level of the distribution.
+ *
+ * Copyright (c) 2005-2010 Kobrix Software, Inc.  All rights reserved.
+ */
+package org.hypergraphdb.benchmarks;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.hypergraphdb.HGHandle;
+import org.hypergraphdb.HGPersistentHandle;
+import org.hypergraphdb.HGPlainLink;
+import org.hypergraphdb.HGSearchResult;
+import org.hypergraphdb.HyperGraph;
+import org.hypergraphdb.IncidenceSet;
+import org.hypergraphdb.storage.PackedHandleArray;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * <p>
+ * Reading the incidence set of an atom: through the incidence set cache, by iterating 
+ * over the storage result set and by reading it into a <code>PackedHandleArray</code>.
+ * </p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class IncidenceSetBenchmark
+{
+    @Param({"10", "1000"})
+    int degree;
+    
+    BenchmarkGraph bg;
+    HyperGraph graph;
+    HGPersistentHandle hub;
+    PackedHandleArray packed;
+    
+    @Setup(Level.Trial)
+    public void setup()
+    {
+        bg = new BenchmarkGraph();
+        graph = bg.getGraph();
+        List<HGPersistentHandle> nodes = bg.addNodes(degree);
+        hub = graph.getPersistentHandle(graph.add("hub"));
+        for (HGHandle n : nodes)
+            graph.add(new HGPlainLink(n, hub));
+        packed = new PackedHandleArray(graph.getHandleFactory());
+    }
+    
+    @TearDown(Level.Trial)
+    public void tearDown()
+    {
+        bg.destroy();
+    }
+    
+    @Benchmark
+    public void cached(Blackhole bh)
+    {
+        IncidenceSet is = graph.getIncidenceSet(hub);
+        for (HGHandle h : is)
+            bh.consume(h);
+    }
+    
+    @Benchmark
+    public void storeResultSet(Blackhole bh)
+    {
+        HGSearchResult<HGPersistentHandle> rs = graph.getStore().getIncidenceResultSet(hub);
+        try
+        {
+            while (rs.hasNext())
+                bh.consume(rs.next());
+        }
+        finally
+        {
+            rs.close();
+        }
+    }
+    
+    @Benchmark
+    public int storePacked()
+    {
+        graph.getStore().getIncidenceSet(hub, packed);
+        return packed.size();
+    }
+}
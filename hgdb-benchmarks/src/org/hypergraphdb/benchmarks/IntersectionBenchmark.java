@@ -0,0 +1,162 @@
+/*
+ * This file is part of the HyperGraphDB source distribution. This is copyrighted
+ * software. For permitted uses, licensing options and redistribution, please see
+ * the LicensingInformation file at the root level of the distribution.
+ *
+ * Copyright (c) 2005-2010 Kobrix Software, Inc.  All rights reserved.
+ */
+package org.hypergraphdb.benchmarks;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.hypergraphdb.HGHandle;
+import org.hypergraphdb.HGPersistentHandle;
+import org.hypergraphdb.HGPlainLink;
+import org.hypergraphdb.HGQuery;
+import org.hypergraphdb.HGQuery.hg;
+import org.hypergraphdb.HGSearchResult;
+import org.hypergraphdb.HyperGraph;
+import org.hypergraphdb.query.HGQueryCondition;
+import org.hypergraphdb.query.impl.IntersectionQuery;
+import org.hypergraphdb.query.impl.LeapfrogIntersectionQuery;
+import org.hypergraphdb.query.impl.ZigZagIntersectionResult;
+import org.hypergraphdb.util.ArrayBasedSet;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * <p>
+ * Intersecting the incidence sets of <code>conjuncts</code> nodes, as in
+ * <code>And(incident(n1), ..., incident(nk))</code>: with a single leapfrog intersection,
+ * with the nested zig-zag intersections it replaces and with whatever the query planner
+ * chooses. The first node is a target of 5% of the links, the others of half of them.
+ * The incidence sets are read either from storage or from in memory arrays.
+ * </p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class IntersectionBenchmark
+{
+    static class ArrayQuery extends HGQuery<HGHandle>
+    {
+        final ArrayBasedSet<HGHandle> set;
+
+        ArrayQuery(ArrayBasedSet<HGHandle> set) { this.set = set; }
+
+        public HGSearchResult<HGHandle> execute()
+        {
+            return set.getSearchResult();
+        }
+    }
+
+    @Param({"20000"})
+    int links;
+
+    @Param({"2", "4", "6", "8"})
+    int conjuncts;
+
+    @Param({"false", "true"})
+    boolean inMemory;
+
+    BenchmarkGraph bg;
+    HyperGraph graph;
+    List<HGPersistentHandle> nodes;
+    List<HGQuery<HGHandle>> inputs;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception
+    {
+        bg = new BenchmarkGraph();
+        graph = bg.getGraph();
+        nodes = bg.addNodes(conjuncts);
+        Random random = new Random(11);
+        graph.getTransactionManager().beginTransaction();
+        for (int i = 0; i < links; i++)
+        {
+            List<HGHandle> targets = new ArrayList<HGHandle>();
+            for (int j = 0; j < conjuncts; j++)
+                if (random.nextInt(100) < (j == 0 ? 5 : 50))
+                    targets.add(nodes.get(j));
+            if (!targets.isEmpty())
+                graph.add(new HGPlainLink(targets.toArray(new HGHandle[targets.size()])));
+        }
+        graph.getTransactionManager().endTransaction(true);
+        inputs = new ArrayList<HGQuery<HGHandle>>();
+        for (HGHandle n : nodes)
+        {
+            HGQuery<HGHandle> q = HGQuery.make(graph, hg.incident(n));
+            if (inMemory)
+            {
+                List<HGHandle> L = q.findAll();
+                q = new ArrayQuery(new ArrayBasedSet<HGHandle>(L.toArray(new HGHandle[L.size()])));
+            }
+            inputs.add(q);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown()
+    {
+        bg.destroy();
+    }
+
+    private static int scan(HGSearchResult<HGHandle> rs)
+    {
+        int count = 0;
+        try
+        {
+            while (rs.hasNext())
+            {
+                rs.next();
+                count++;
+            }
+        }
+        finally
+        {
+            rs.close();
+        }
+        return count;
+    }
+
+    @Benchmark
+    public int leapfrog()
+    {
+        return scan(new LeapfrogIntersectionQuery<HGHandle>(inputs).execute());
+    }
+
+    @Benchmark
+    public int zigzag()
+    {
+        HGQuery<HGHandle> q = inputs.get(0);
+        for (int i = 1; i < inputs.size(); i++)
+            q = new IntersectionQuery<HGHandle>(q, inputs.get(i), new ZigZagIntersectionResult.Combiner<HGHandle>());
+        return scan(q.execute());
+    }
+
+    @Benchmark
+    public int planned()
+    {
+        HGQueryCondition [] conditions = new HGQueryCondition[nodes.size()];
+        for (int i = 0; i < conditions.length; i++)
+            conditions[i] = hg.incident(nodes.get(i));
+        return scan(HGQuery.make(HGHandle.class, graph).compile(hg.and(conditions)).execute());
+    }
+}
@@ -0,0 +1,105 @@
+/*
+ * This file is part of the HyperGraphDB source distribution. This is copyrighted
+ * software. For permitted uses, licensing options and redistribution, please see
+ * the LicensingInformation file at the root level of the distribution.
+ *
+ * Copyright (c) 2005-2010 Kobrix Software, Inc.  All rights reserved.
+ */
+package org.hypergraphdb.benchmarks;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.hypergraphdb.HGQuery;
+import org.hypergraphdb.HGQuery.hg;
+import org.hypergraphdb.HyperGraph;
+import org.hypergraphdb.indexing.ByPartIndexer;
+import org.hypergraphdb.query.HGQueryCondition;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * <p>
+ * Compiling and executing typical <code>And(type, part eq)</code> queries over bean atoms,
+ * both for a selective condition (a single match) and a non-selective one.
+ * </p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class QueryBenchmark
+{
+    public static class Item
+    {
+        private String name;
+        private int group;
+        
+        public Item() { }
+        public Item(String name, int group) { this.name = name; this.group = group; }
+        public String getName() { return name; }
+        public void setName(String name) { this.name = name; }
+        public int getGroup() { return group; }
+        public void setGroup(int group) { this.group = group; }
+    }
+    
+    @Param({"10000"})
+    int items;
+    
+    @Param({"false", "true"})
+    boolean indexed;
+    
+    BenchmarkGraph bg;
+    HyperGraph graph;
+    int next = 0;
+    
+    @Setup(Level.Trial)
+    public void setup()
+    {
+        bg = new BenchmarkGraph();
+        graph = bg.getGraph();
+        for (int i = 0; i < items; i++)
+            graph.add(new Item("item-" + i, i % 100));
+        if (indexed)
+        {
+            graph.getIndexManager().register(
+                new ByPartIndexer(graph.getTypeSystem().getTypeHandle(Item.class), "name"));
+            graph.runMaintenance();
+        }
+    }
+    
+    @TearDown(Level.Trial)
+    public void tearDown()
+    {
+        bg.destroy();
+    }
+    
+    @Benchmark
+    public List<Object> selective()
+    {
+        next = (next + 1) % items;
+        HGQueryCondition cond = hg.and(hg.type(Item.class), hg.eq("name", "item-" + next));
+        return HGQuery.make(graph, cond).findAll();
+    }
+    
+    @Benchmark
+    public List<Object> nonSelective()
+    {
+        next = (next + 1) % 100;
+        HGQueryCondition cond = hg.and(hg.type(Item.class), hg.eq("group", next));
+        return HGQuery.make(graph, cond).findAll();
+    }
+}
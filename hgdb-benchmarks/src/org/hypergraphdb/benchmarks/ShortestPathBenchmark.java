@@ -0,0 +1,213 @@
+/*
+ * This file is part of the HyperGraphDB source distribution. This is copyrighted
+ * software. For permitted uses, licensing options and redistribution, please see
+ * the LicensingInformation file at the root level of the distribution.
+ *
+ * Copyright (c) 2005-2010 Kobrix Software, Inc.  All rights reserved.
+ */
+package org.hypergraphdb.benchmarks;
+
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+
+import org.hypergraphdb.HGHandle;
+import org.hypergraphdb.HGPersistentHandle;
+import org.hypergraphdb.HGPlainLink;
+import org.hypergraphdb.HGSearchResult;
+import org.hypergraphdb.HyperGraph;
+import org.hypergraphdb.algorithms.DefaultALGenerator;
+import org.hypergraphdb.algorithms.GraphClassics;
+import org.hypergraphdb.algorithms.HGALGenerator;
+import org.hypergraphdb.atom.HGAtomSet;
+import org.hypergraphdb.handle.HGLiveHandle;
+import org.hypergraphdb.util.Mapping;
+import org.hypergraphdb.util.Pair;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * <p>
+ * Shortest paths between random pairs of nodes of a <code>side</code> by <code>side</code>
+ * grid, whose links have weights from 1 to 8 and are followed both ways: with the
+ * <code>TreeSet</code> based Dijkstra search <code>GraphClassics</code> used to have, with
+ * the heap based one that replaced it, with A* and the Manhattan distance as heuristic
+ * and with the bidirectional Dijkstra search.
+ * </p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ShortestPathBenchmark
+{
+    @Param({"100"})
+    int side;
+    
+    BenchmarkGraph bg;
+    HyperGraph graph;
+    HGHandle [][] pairs = new HGHandle[16][];
+    int next = 0;
+    Mapping<HGHandle, Double> weight;
+    
+    @Setup
+    public void setup()
+    {
+        bg = new BenchmarkGraph();
+        graph = bg.getGraph();
+        List<HGPersistentHandle> nodes = bg.addNodes(side*side);
+        for (int i = 0; i < side; i++)
+            for (int j = 0; j < side; j++)
+            {
+                HGHandle node = nodes.get(i*side + j);
+                if (i + 1 < side)
+                    graph.add(new HGPlainLink(node, nodes.get((i + 1)*side + j)));
+                if (j + 1 < side)
+                    graph.add(new HGPlainLink(node, nodes.get(i*side + j + 1)));
+            }
+        Random random = new Random(5);
+        for (int i = 0; i < pairs.length; i++)
+            pairs[i] = new HGHandle[] { nodes.get(random.nextInt(nodes.size())), 
+                                        nodes.get(random.nextInt(nodes.size())) };
+        weight = new Mapping<HGHandle, Double>()
+        {
+            public Double eval(HGHandle link)
+            {
+                return (double)((graph.getPersistentHandle(link).hashCode() & 7) + 1);
+            }
+        };
+    }
+    
+    @TearDown
+    public void tearDown()
+    {
+        bg.destroy();
+    }
+    
+    HGHandle [] nextPair()
+    {
+        next = (next + 1) % pairs.length;
+        return pairs[next];
+    }
+    
+    @Benchmark
+    public Double treeSetDijkstra()
+    {
+        HGHandle [] pair = nextPair();
+        return treeSetDijkstra(pair[0], pair[1], new DefaultALGenerator(graph), weight);
+    }
+    
+    @Benchmark
+    public Double dijkstra()
+    {
+        HGHandle [] pair = nextPair();
+        return GraphClassics.dijkstra(pair[0], pair[1], new DefaultALGenerator(graph), weight, null, null);
+    }
+    
+    @Benchmark
+    public Double aStar()
+    {
+        HGHandle [] pair = nextPair();
+        final int goal = graph.<Integer>get(pair[1]);
+        Mapping<HGHandle, Double> heuristic = new Mapping<HGHandle, Double>()
+        {
+            public Double eval(HGHandle node)
+            {
+                int n = graph.<Integer>get(node);
+                return (double)(Math.abs(n/side - goal/side) + Math.abs(n%side - goal%side));
+            }
+        };
+        return GraphClassics.a_star(pair[0], pair[1], new DefaultALGenerator(graph), weight, heuristic, null, null);
+    }
+    
+    @Benchmark
+    public Double bidirectionalDijkstra()
+    {
+        HGHandle [] pair = nextPair();
+        return GraphClassics.bidirectionalDijkstra(pair[0], pair[1], new DefaultALGenerator(graph), null, 
+                                                   weight, null, null);
+    }
+    
+    // GraphClassics.dijkstra as it was, with distances in a HashMap and pending atoms in a TreeSet.
+    static Double treeSetDijkstra(HGHandle start, 
+                                  HGHandle goal, 
+                                  HGALGenerator adjacencyGenerator, 
+                                  Mapping<HGHandle, Double> weight)
+    {
+        final Map<HGHandle, Double> dm = new HashMap<HGHandle, Double>();
+        dm.put(start, 0.0);
+        Comparator<HGHandle> comp = new Comparator<HGHandle>()
+        {
+            private int compareHandles(HGHandle left, HGHandle right)
+            {
+                HGPersistentHandle x = left instanceof HGPersistentHandle ?
+                        (HGPersistentHandle)left : ((HGLiveHandle)left).getPersistent();
+                HGPersistentHandle y = right instanceof HGPersistentHandle ?
+                        (HGPersistentHandle)right : ((HGLiveHandle)right).getPersistent();
+                return x.compareTo(y);
+            }
+            
+            public int compare(HGHandle left, HGHandle right)
+            {
+                Double l = dm.get(left);
+                Double r = dm.get(right);
+                if (l == null)
+                    return r == null ? compareHandles(left, right) : 1;
+                else if (r == null)
+                    return -1;
+                int c = l.compareTo(r);
+                return c == 0 ? compareHandles(left, right) : c;
+            }
+        };
+        HGAtomSet settled = new HGAtomSet();
+        TreeSet<HGHandle> unsettled = new TreeSet<HGHandle>(comp);
+        unsettled.add(start);
+        while (!unsettled.isEmpty())
+        {
+            HGHandle a = unsettled.first();
+            unsettled.remove(a);
+            if (a.equals(goal))
+                return dm.get(goal);
+            settled.add(a);
+            HGSearchResult<Pair<HGHandle, HGHandle>> neighbors = adjacencyGenerator.generate(a);
+            double weightCurrent = dm.get(a).doubleValue();
+            while (neighbors.hasNext())
+            {
+                Pair<HGHandle, HGHandle> n = neighbors.next();
+                if (settled.contains(n.getSecond()))
+                    continue;
+                Double weightN = dm.get(n.getSecond());
+                Double weightAN = weight.eval(n.getFirst());
+                if (weightN == null)
+                {
+                    dm.put(n.getSecond(), weightCurrent + weightAN);
+                    unsettled.add(n.getSecond());
+                }
+                else if (weightN > weightCurrent + weightAN)
+                {
+                    unsettled.remove(n.getSecond());
+                    dm.put(n.getSecond(), weightCurrent + weightAN);
+                    unsettled.add(n.getSecond());
+                }
+            }
+            neighbors.close();
+        }
+        return null;
+    }
+}
@@ -0,0 +1,111 @@
+/*
+ * This file is part of the HyperGraphDB source distribution. This is copyrighted
+ * software. For permitted uses, licensing options and redistribution, please see
+ * the LicensingInformation file at the root level of the distribution.
+ *
+ * Copyright (c) 2005-2010 Kobrix Software, Inc.  All rights reserved.
+ */
+package org.hypergraphdb.benchmarks;
+
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+
+import org.hypergraphdb.HGPersistentHandle;
+import org.hypergraphdb.HyperGraph;
+import org.hypergraphdb.transaction.HGTransactionConfig;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * <p>
+ * Cost of short transactions that only read cached data: each transaction gets
+ * <code>reads</code> atoms and their incidence sets, which are all in the caches, so the
+ * time goes into creating, tracking and committing the transaction itself. The
+ * <code>empty</code> benchmark begins and commits a transaction that does nothing.
+ * </p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TinyTransactionBenchmark
+{
+    @Param({"1", "4", "32"})
+    int reads;
+
+    @Param({"false", "true"})
+    boolean readonly;
+
+    BenchmarkGraph bg;
+    HyperGraph graph;
+    HGPersistentHandle [] handles;
+    HGTransactionConfig config;
+    Callable<Object> readTx;
+    Callable<Object> emptyTx;
+
+    @Setup(Level.Trial)
+    public void setup()
+    {
+        bg = new BenchmarkGraph();
+        graph = bg.getGraph();
+        List<HGPersistentHandle> nodes = bg.addNodes(reads);
+        bg.addRandomLinks(nodes, 2, 0);
+        handles = nodes.toArray(new HGPersistentHandle[nodes.size()]);
+        config = readonly ? HGTransactionConfig.READONLY : HGTransactionConfig.DEFAULT;
+        for (HGPersistentHandle h : handles)
+        {
+            graph.get(h);
+            graph.getIncidenceSet(h);
+        }
+        readTx = new Callable<Object>() {
+            public Object call()
+            {
+                Object last = null;
+                for (HGPersistentHandle h : handles)
+                {
+                    last = graph.get(h);
+                    graph.getIncidenceSet(h).size();
+                }
+                return last;
+            }
+        };
+        emptyTx = new Callable<Object>() {
+            public Object call()
+            {
+                return null;
+            }
+        };
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown()
+    {
+        bg.destroy();
+    }
+
+    @Benchmark
+    public Object read()
+    {
+        return graph.getTransactionManager().transact(readTx, config);
+    }
+
+    @Benchmark
+    public Object empty()
+    {
+        return graph.getTransactionManager().transact(emptyTx, config);
+    }
+}
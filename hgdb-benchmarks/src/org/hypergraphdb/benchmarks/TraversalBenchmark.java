@@ -0,0 +1,143 @@
+/*
+ * This file is part of the HyperGraphDB source distribution. This is copyrighted
+ * software. For permitted uses, licensing options and redistribution, please see
+ * the LicensingInformation file at the root level of the distribution.
+ *
+ * Copyright (c) 2005-2010 Kobrix Software, Inc.  All rights reserved.
+ */
+package org.hypergraphdb.benchmarks;
+
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+
+import org.hypergraphdb.HGHandle;
+import org.hypergraphdb.HGPersistentHandle;
+import org.hypergraphdb.HGSearchResult;
+import org.hypergraphdb.HyperGraph;
+import org.hypergraphdb.algorithms.DefaultALGenerator;
+import org.hypergraphdb.algorithms.HGALGenerator;
+import org.hypergraphdb.algorithms.HGBreadthFirstTraversal;
+import org.hypergraphdb.algorithms.HGParallelBreadthFirstTraversal;
+import org.hypergraphdb.algorithms.SimpleALGenerator;
+import org.hypergraphdb.util.Pair;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * <p>
+ * A full <code>HGBreadthFirstTraversal</code> of a random graph with 
+ * <code>nodes</code> nodes and <code>degree</code> outgoing binary links per node, 
+ * using either of the standard adjacency list generators, sequentially or with 
+ * <code>HGParallelBreadthFirstTraversal</code> on the default pool. With <code>prefetch</code>
+ * off, the generator is hidden behind a plain <code>HGALGenerator</code> so that adjacency
+ * lists are read one atom at a time, and with <code>cold</code> on, the database is reopened
+ * before each traversal so that it starts with empty caches.
+ * </p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TraversalBenchmark
+{
+    @Param({"5000"})
+    int nodes;
+    
+    @Param({"4"})
+    int degree;
+    
+    @Param({"simple", "default"})
+    String generator;
+    
+    @Param({"true", "false"})
+    boolean prefetch;
+    
+    @Param({"false", "true"})
+    boolean cold;
+    
+    BenchmarkGraph bg;
+    HyperGraph graph;
+    HGPersistentHandle start;
+    
+    @Setup(Level.Trial)
+    public void setup()
+    {
+        bg = new BenchmarkGraph();
+        graph = bg.getGraph();
+        List<HGPersistentHandle> all = bg.addNodes(nodes);
+        bg.addRandomLinks(all, degree, 7);
+        start = all.get(0);
+    }
+    
+    @Setup(Level.Invocation)
+    public void reopen()
+    {
+        if (cold)
+            graph = bg.reopen();
+    }
+    
+    @TearDown(Level.Trial)
+    public void tearDown()
+    {
+        bg.destroy();
+    }
+    
+    @Benchmark
+    public int bfs()
+    {
+        HGBreadthFirstTraversal traversal = new HGBreadthFirstTraversal(start, makeGenerator());
+        int visited = 0;
+        while (traversal.hasNext())
+        {
+            traversal.next();
+            visited++;
+        }
+        return visited;
+    }
+    
+    @Benchmark
+    public int parallelBfs()
+    {
+        HGParallelBreadthFirstTraversal traversal = new HGParallelBreadthFirstTraversal(graph, start, 
+            new Callable<HGALGenerator>() 
+            {
+                public HGALGenerator call() { return makeGenerator(); }
+            });
+        int visited = 0;
+        while (traversal.hasNext())
+        {
+            traversal.next();
+            visited++;
+        }
+        return visited;
+    }
+    
+    HGALGenerator makeGenerator()
+    {
+        final HGALGenerator result = generator.equals("simple") ? 
+            new SimpleALGenerator(graph) : new DefaultALGenerator(graph);
+        if (prefetch)
+            return result;
+        return new HGALGenerator()
+        {
+            public HGSearchResult<Pair<HGHandle, HGHandle>> generate(HGHandle h)
+            {
+                return result.generate(h);
+            }
+        };
+    }
+}